@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code BatchExecutor} inserts flushed once per invocation. The inserts are
+ * rolled back so the table keeps the same size between invocations.
+ */
+/**
+ * 批量插入，每次调用后回滚，保证表的大小不变
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchInsertBenchmark {
+
+  @Param({ "100", "1000" })
+  public int rows;
+
+  private SqlSessionFactory sqlSessionFactory;
+  private Author[] authors;
+
+  @Setup
+  public void setUp() throws Exception {
+    sqlSessionFactory = BenchmarkDatabase.createSqlSessionFactory("batch");
+    authors = new Author[rows];
+    for (int i = 0; i < rows; i++) {
+      int id = BenchmarkDatabase.AUTHORS + i + 1;
+      authors[i] = new Author(id, "author" + id, null, "author" + id + "@mybatis.org", null, null);
+    }
+  }
+
+  @Benchmark
+  public List<BatchResult> insert() {
+    SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      for (Author author : authors) {
+        session.insert("org.apache.ibatis.benchmark.BlogMapper.insertAuthor", author);
+      }
+      return session.flushStatements();
+    } finally {
+      session.rollback(true);
+      session.close();
+    }
+  }
+
+}
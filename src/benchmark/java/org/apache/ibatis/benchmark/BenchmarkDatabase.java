@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmark;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/**
+ * Creates and fills the in-memory HSQLDB database shared by the benchmarks.
+ */
+/**
+ * 基准测试用的内存数据库
+ * author 1000行，blog 100行，每个blog 5个post
+ */
+public final class BenchmarkDatabase {
+
+  public static final int AUTHORS = 1000;
+  public static final int BLOGS = 100;
+  public static final int POSTS_PER_BLOG = 5;
+
+  private static final String CONFIG = "org/apache/ibatis/benchmark/mybatis-config.xml";
+  private static final String DDL = "org/apache/ibatis/benchmark/CreateDB.sql";
+
+  private BenchmarkDatabase() {
+    // Prevent Instantiation of Static Class
+  }
+
+  public static String url(String name) {
+    return "jdbc:hsqldb:mem:" + name;
+  }
+
+  //每个基准测试用自己的库名，互不影响
+  public static SqlSessionFactory createSqlSessionFactory(String name) throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("url", url(name));
+    Reader reader = Resources.getResourceAsReader(CONFIG);
+    SqlSessionFactory sqlSessionFactory;
+    try {
+      sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader, properties);
+    } finally {
+      reader.close();
+    }
+    populate(sqlSessionFactory.getConfiguration().getEnvironment().getDataSource());
+    return sqlSessionFactory;
+  }
+
+  public static PooledDataSource createPooledDataSource(String name) throws Exception {
+    PooledDataSource dataSource = new PooledDataSource("org.hsqldb.jdbcDriver", url(name), "sa", "");
+    populate(dataSource);
+    return dataSource;
+  }
+
+  private static void populate(DataSource dataSource) throws Exception {
+    Connection connection = dataSource.getConnection();
+    try {
+      ScriptRunner runner = new ScriptRunner(connection);
+      runner.setAutoCommit(true);
+      runner.setStopOnError(true);
+      runner.setLogWriter(null);
+      Reader reader = Resources.getResourceAsReader(DDL);
+      try {
+        runner.runScript(reader);
+      } finally {
+        reader.close();
+      }
+      insertRows(connection);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private static void insertRows(Connection connection) throws SQLException {
+    PreparedStatement authors = connection.prepareStatement("insert into author (id, username, email, bio) values (?, ?, ?, ?)");
+    try {
+      for (int i = 1; i <= AUTHORS; i++) {
+        authors.setInt(1, i);
+        authors.setString(2, "author" + i);
+        authors.setString(3, "author" + i + "@mybatis.org");
+        authors.setString(4, i % 2 == 0 ? null : "bio of author " + i);
+        authors.addBatch();
+      }
+      authors.executeBatch();
+    } finally {
+      authors.close();
+    }
+    PreparedStatement blogs = connection.prepareStatement("insert into blog (id, author_id, title) values (?, ?, ?)");
+    PreparedStatement posts = connection.prepareStatement("insert into post (id, blog_id, subject, body) values (?, ?, ?, ?)");
+    try {
+      for (int i = 1; i <= BLOGS; i++) {
+        blogs.setInt(1, i);
+        blogs.setInt(2, i);
+        blogs.setString(3, "Blog " + i);
+        blogs.addBatch();
+        for (int j = 1; j <= POSTS_PER_BLOG; j++) {
+          posts.setInt(1, i * POSTS_PER_BLOG + j);
+          posts.setInt(2, i);
+          posts.setString(3, "Post " + j + " of blog " + i);
+          posts.setString(4, "Body of post " + j + " of blog " + i);
+          posts.addBatch();
+        }
+      }
+      blogs.executeBatch();
+      posts.executeBatch();
+    } finally {
+      blogs.close();
+      posts.close();
+    }
+  }
+
+}
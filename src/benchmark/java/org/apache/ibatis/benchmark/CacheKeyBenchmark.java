@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code BaseExecutor.createCacheKey} and the {@code hashCode}/{@code equals}
+ * a cache lookup performs on the key.
+ */
+/**
+ * CacheKey的创建和比较
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+  private Executor executor;
+  private MappedStatement mappedStatement;
+  private Author parameter;
+  private BoundSql boundSql;
+  private CacheKey cacheKey;
+
+  @Setup
+  public void setUp() throws Exception {
+    Configuration configuration = BenchmarkDatabase.createSqlSessionFactory("cachekey").getConfiguration();
+    executor = new SimpleExecutor(configuration, null);
+    mappedStatement = configuration.getMappedStatement("org.apache.ibatis.benchmark.BlogMapper.insertAuthor");
+    parameter = new Author(1, "author1", null, "author1@mybatis.org", "bio", null);
+    boundSql = mappedStatement.getBoundSql(parameter);
+    cacheKey = executor.createCacheKey(mappedStatement, parameter, RowBounds.DEFAULT, boundSql);
+  }
+
+  @Benchmark
+  public CacheKey createCacheKey() {
+    return executor.createCacheKey(mappedStatement, parameter, RowBounds.DEFAULT, boundSql);
+  }
+
+  //缓存命中时要做的：建key，算hashCode，和已有的key比较
+  @Benchmark
+  public boolean createAndCompareCacheKey() {
+    CacheKey key = executor.createCacheKey(mappedStatement, parameter, RowBounds.DEFAULT, boundSql);
+    return key.hashCode() == cacheKey.hashCode() && key.equals(cacheKey);
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code DynamicSqlSource.getBoundSql} for a where/if/foreach statement.
+ */
+/**
+ * 动态SQL：where + if + foreach，分别测试compiledDynamicSql开和关
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DynamicSqlBenchmark {
+
+  @Param({ "1", "10", "100" })
+  public int size;
+
+  @Param({ "false", "true" })
+  public boolean compiled;
+
+  private MappedStatement mappedStatement;
+  private Map<String, Object> parameter;
+
+  @Setup
+  public void setUp() throws Exception {
+    Configuration configuration = BenchmarkDatabase.createSqlSessionFactory("dynamic").getConfiguration();
+    configuration.setCompiledDynamicSql(compiled);
+    mappedStatement = configuration.getMappedStatement("org.apache.ibatis.benchmark.BlogMapper.selectAuthorsIn");
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 1; i <= size; i++) {
+      ids.add(i);
+    }
+    parameter = new HashMap<String, Object>();
+    parameter.put("ids", ids);
+    parameter.put("username", null);
+  }
+
+  @Benchmark
+  public BoundSql getBoundSql() {
+    return mappedStatement.getBoundSql(parameter);
+  }
+
+}
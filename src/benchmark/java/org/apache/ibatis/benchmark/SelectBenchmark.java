@@ -0,0 +1,90 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code DefaultSqlSession.selectList}/{@code selectOne} end to end, including
+ * simple (auto-mapped) and nested (join with association and collection) result handling.
+ */
+/**
+ * 查询的整条链路：DefaultSqlSession -> Executor -> StatementHandler -> DefaultResultSetHandler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SelectBenchmark {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Setup
+  public void setUp() throws Exception {
+    sqlSessionFactory = BenchmarkDatabase.createSqlSessionFactory("select");
+  }
+
+  @Benchmark
+  public Author selectOne() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectOne("org.apache.ibatis.benchmark.BlogMapper.selectAuthor", 1);
+    } finally {
+      session.close();
+    }
+  }
+
+  //100行，自动映射
+  @Benchmark
+  public List<Author> selectListSimple() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectList("org.apache.ibatis.benchmark.BlogMapper.selectAuthors", 100);
+    } finally {
+      session.close();
+    }
+  }
+
+  //20个blog，每个带author和5个post，嵌套结果映射
+  @Benchmark
+  public List<Blog> selectListNested() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectList("org.apache.ibatis.benchmark.BlogMapper.selectBlogsWithPosts", 20);
+    } finally {
+      session.close();
+    }
+  }
+
+}
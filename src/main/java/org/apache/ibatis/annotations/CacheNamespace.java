@@ -22,6 +22,7 @@ import java.lang.annotation.Target;
 
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
 
 /**
  * @author Clinton Begin
@@ -35,10 +36,18 @@ public @interface CacheNamespace {
 
   long flushInterval() default 0;
 
+  long timeToLive() default 0;
+
+  long timeToLiveJitter() default 0;
+
+  long refreshAhead() default 0;
+
   int size() default 1024;
 
   boolean readWrite() default true;
   
   boolean blocking() default false;
-  
+
+  Class<? extends org.apache.ibatis.cache.CacheSerializer> serializer() default JdkCacheSerializer.class;
+
 }
@@ -33,6 +33,11 @@ public @interface Options {
 
   boolean flushCache() default false;
 
+  /**
+   * Whether the results stay in the session local cache, false for statements with large results.
+   */
+  boolean useLocalCache() default true;
+
   ResultSetType resultSetType() default ResultSetType.FORWARD_ONLY;
 
   StatementType statementType() default StatementType.PREPARED;
@@ -41,9 +46,25 @@ public @interface Options {
 
   int timeout() default -1;
 
+  /**
+   * Number of batched executions, over all open batches, after which the batch executor runs them, -1 for the default.
+   */
+  int batchSize() default -1;
+
   boolean useGeneratedKeys() default false;
 
   String keyProperty() default "id";
 
   String keyColumn() default "";
+
+  /**
+   * Comma separated tables the statement reads or writes, for table level cache invalidation.
+   * Found in the SQL when empty.
+   */
+  String tables() default "";
+
+  /**
+   * Id of the result map of the entity whose id the parameter carries, for the entity cache.
+   */
+  String entity() default "";
 }
@@ -17,6 +17,9 @@ package org.apache.ibatis.binding;
 
 import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.result.DefaultMapResultHandler;
+import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.reflection.MetaObject;
@@ -26,8 +29,14 @@ import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
 
 import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /**
  * @author Clinton Begin
@@ -50,6 +59,49 @@ public class MapperMethod {
 
   //执行
   public Object execute(SqlSession sqlSession, Object[] args) {
+    //返回Future的方法放到会话的异步队列里执行
+    if (method.returnsFuture()) {
+      return executeAsync(sqlSession, args);
+    }
+    return executeNow(sqlSession, args);
+  }
+
+  //用会话的异步方法执行，完成时再转换成方法的返回类型
+  private CompletableFuture<?> executeAsync(final SqlSession sqlSession, Object[] args) {
+    Object param = method.convertArgsToSqlCommandParam(args);
+    if (SqlCommandType.INSERT == command.getType() || SqlCommandType.UPDATE == command.getType()
+        || SqlCommandType.DELETE == command.getType()) {
+      return sqlSession.updateAsync(command.getName(), param).thenApply(new Function<Integer, Object>() {
+        @Override
+        public Object apply(Integer rowCount) {
+          return rowCountResult(rowCount.intValue());
+        }
+      });
+    } else if (SqlCommandType.SELECT == command.getType()) {
+      RowBounds rowBounds = method.hasRowBounds() ? method.extractRowBounds(args) : RowBounds.DEFAULT;
+      if (method.returnsMany()) {
+        return sqlSession.<Object>selectListAsync(command.getName(), param, rowBounds).thenApply(new Function<List<Object>, Object>() {
+          @Override
+          public Object apply(List<Object> list) {
+            return convertToReturnType(sqlSession.getConfiguration(), list);
+          }
+        });
+      } else if (method.returnsMap()) {
+        return sqlSession.<Object>selectListAsync(command.getName(), param, rowBounds).thenApply(new Function<List<Object>, Object>() {
+          @Override
+          public Object apply(List<Object> list) {
+            return convertToMap(sqlSession.getConfiguration(), list);
+          }
+        });
+      } else {
+        return sqlSession.selectOneAsync(command.getName(), param);
+      }
+    } else {
+      throw new BindingException("Unknown execution method for: " + command.getName());
+    }
+  }
+
+  private Object executeNow(SqlSession sqlSession, Object[] args) {
     Object result;
     //可以看到执行时就是4种情况，insert|update|delete|select，分别调用SqlSession的4大类方法
     if (SqlCommandType.INSERT == command.getType()) {
@@ -69,6 +121,9 @@ public class MapperMethod {
       } else if (method.returnsMany()) {
         //如果结果有多条记录
         result = executeForMany(sqlSession, args);
+      } else if (method.returnsCursor()) {
+        //如果结果是游标
+        result = executeForCursor(sqlSession, args);
       } else if (method.returnsMap()) {
         //如果结果是map
         result = executeForMap(sqlSession, args);
@@ -135,14 +190,31 @@ public class MapperMethod {
     } else {
       result = sqlSession.<E>selectList(command.getName(), param);
     }
-    // issue #510 Collections & arrays support
-    if (!method.getReturnType().isAssignableFrom(result.getClass())) {
+    return convertToReturnType(sqlSession.getConfiguration(), result);
+  }
+
+  // issue #510 Collections & arrays support
+  private <E> Object convertToReturnType(Configuration config, List<E> list) {
+    if (!method.getReturnType().isAssignableFrom(list.getClass())) {
       if (method.getReturnType().isArray()) {
-        return convertToArray(result);
+        return convertToArray(list);
       } else {
-        return convertToDeclaredCollection(sqlSession.getConfiguration(), result);
+        return convertToDeclaredCollection(config, list);
       }
     }
+    return list;
+  }
+
+  //游标
+  private <T> Cursor<T> executeForCursor(SqlSession sqlSession, Object[] args) {
+    Cursor<T> result;
+    Object param = method.convertArgsToSqlCommandParam(args);
+    if (method.hasRowBounds()) {
+      RowBounds rowBounds = method.extractRowBounds(args);
+      result = sqlSession.<T>selectCursor(command.getName(), param, rowBounds);
+    } else {
+      result = sqlSession.<T>selectCursor(command.getName(), param);
+    }
     return result;
   }
 
@@ -172,6 +244,18 @@ public class MapperMethod {
     return result;
   }
 
+  //和DefaultSqlSession.selectMap一样，用DefaultMapResultHandler把列表转成map
+  private <K, V> Map<K, V> convertToMap(Configuration config, List<?> list) {
+    final DefaultMapResultHandler<K, V> mapResultHandler = new DefaultMapResultHandler<K, V>(method.getMapKey(),
+        config.getObjectFactory(), config.getObjectWrapperFactory(), config.getReflectorFactory());
+    final DefaultResultContext context = new DefaultResultContext();
+    for (Object o : list) {
+      context.nextResultObject(o);
+      mapResultHandler.handleResult(context);
+    }
+    return mapResultHandler.getMappedResults();
+  }
+
   //参数map，静态内部类,更严格的get方法，如果没有相应的key，报错
   public static class ParamMap<V> extends HashMap<String, V> {
 
@@ -230,6 +314,9 @@ public class MapperMethod {
     private final boolean returnsMany;
     private final boolean returnsMap;
     private final boolean returnsVoid;
+    private final boolean returnsCursor;
+    private final boolean returnsFuture;
+    //返回Future时是Future里的类型
     private final Class<?> returnType;
     private final String mapKey;
     private final Integer resultHandlerIndex;
@@ -238,10 +325,16 @@ public class MapperMethod {
     private final boolean hasNamedParameters;
 
     public MethodSignature(Configuration configuration, Method method) {
-      this.returnType = method.getReturnType();
-      this.returnsVoid = void.class.equals(this.returnType);
+      this.returnsFuture = Future.class.equals(method.getReturnType()) || CompletableFuture.class.equals(method.getReturnType());
+      this.returnType = returnsFuture ? getFutureType(method) : method.getReturnType();
+      this.returnsVoid = void.class.equals(this.returnType) || (returnsFuture && Void.class.equals(this.returnType));
       this.returnsMany = (configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray());
-      this.mapKey = getMapKey(method);
+      this.returnsCursor = Cursor.class.equals(this.returnType);
+      if (returnsFuture && returnsCursor) {
+        //游标要在会话里一条条读，不能异步返回
+        throw new BindingException(method.getName() + " cannot return a Cursor in a Future");
+      }
+      this.mapKey = getMapKey(method, this.returnType);
       this.returnsMap = (this.mapKey != null);
       this.hasNamedParameters = hasNamedParams(method);
       //以下重复循环2遍调用getUniqueParamIndex，是不是降低效率了
@@ -249,6 +342,10 @@ public class MapperMethod {
       this.rowBoundsIndex = getUniqueParamIndex(method, RowBounds.class);
       //记下ResultHandler是第几个参数
       this.resultHandlerIndex = getUniqueParamIndex(method, ResultHandler.class);
+      if (returnsFuture && resultHandlerIndex != null) {
+        //结果处理器要在调用线程上一条条处理，不能异步
+        throw new BindingException(method.getName() + " cannot take a ResultHandler and return a Future");
+      }
       this.params = Collections.unmodifiableSortedMap(getParams(method, this.hasNamedParameters));
     }
 
@@ -318,6 +415,33 @@ public class MapperMethod {
       return returnsVoid;
     }
 
+    public boolean returnsCursor() {
+      return returnsCursor;
+    }
+
+    public boolean returnsFuture() {
+      return returnsFuture;
+    }
+
+    //Future<T>里的T，没写泛型的话当作Object
+    private Class<?> getFutureType(Method method) {
+      Type returnType = method.getGenericReturnType();
+      if (returnType instanceof ParameterizedType) {
+        Type futureType = ((ParameterizedType) returnType).getActualTypeArguments()[0];
+        if (futureType instanceof Class) {
+          return (Class<?>) futureType;
+        } else if (futureType instanceof ParameterizedType) {
+          return (Class<?>) ((ParameterizedType) futureType).getRawType();
+        } else if (futureType instanceof GenericArrayType) {
+          Type componentType = ((GenericArrayType) futureType).getGenericComponentType();
+          if (componentType instanceof Class) {
+            return Array.newInstance((Class<?>) componentType, 0).getClass();
+          }
+        }
+      }
+      return Object.class;
+    }
+
     private Integer getUniqueParamIndex(Method method, Class<?> paramType) {
       Integer index = null;
       final Class<?>[] argTypes = method.getParameterTypes();
@@ -333,9 +457,9 @@ public class MapperMethod {
       return index;
     }
 
-    private String getMapKey(Method method) {
+    private String getMapKey(Method method, Class<?> returnType) {
       String mapKey = null;
-      if (Map.class.isAssignableFrom(method.getReturnType())) {
+      if (Map.class.isAssignableFrom(returnType)) {
         //如果返回类型是map类型的，查看该method是否有MapKey注解。如果有这个注解，将这个注解的值作为map的key
         final MapKey mapKeyAnnotation = method.getAnnotation(MapKey.class);
         if (mapKeyAnnotation != null) {
@@ -23,6 +23,7 @@ import org.apache.ibatis.session.SqlSession;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,6 +41,8 @@ public class MapperRegistry {
   private Configuration config;
   //将已经添加的映射都放入HashMap
   private final Map<Class<?>, MapperProxyFactory<?>> knownMappers = new HashMap<Class<?>, MapperProxyFactory<?>>();
+  //按包扫描过的包名和超类型，配置快照要重新扫描确认包里的类没变
+  private final Map<String, Class<?>> packageScans = new LinkedHashMap<String, Class<?>>();
 
   public MapperRegistry(Configuration config) {
     this.config = config;
@@ -89,6 +92,19 @@ public class MapperRegistry {
     }
   }
 
+  /**
+   * Registers a mapper whose statements are already in the configuration,
+   * for example because they were restored from a snapshot. The annotation
+   * builder is not run.
+   */
+  //只登记代理工厂，不再解析注解
+  public <T> void addParsedMapper(Class<T> type) {
+    if (hasMapper(type)) {
+      throw new BindingException("Type " + type + " is already known to the MapperRegistry.");
+    }
+    knownMappers.put(type, new MapperProxyFactory<T>(type));
+  }
+
   /**
    * @since 3.2.2
    */
@@ -100,15 +116,28 @@ public class MapperRegistry {
    * @since 3.2.2
    */
   public void addMappers(String packageName, Class<?> superType) {
-    //查找包下所有是superType的类
-    ResolverUtil<Class<?>> resolverUtil = new ResolverUtil<Class<?>>();
-    resolverUtil.find(new ResolverUtil.IsA(superType), packageName);
-    Set<Class<? extends Class<?>>> mapperSet = resolverUtil.getClasses();
-    for (Class<?> mapperClass : mapperSet) {
+    //同一个包用不同的超类型扫过的话，记成扫描全部类
+    Class<?> scanned = packageScans.get(packageName);
+    packageScans.put(packageName, scanned == null || scanned == superType ? superType : Object.class);
+    for (Class<?> mapperClass : findMappers(packageName, superType)) {
       addMapper(mapperClass);
     }
   }
 
+  /**
+   * Gets the packages that were scanned for mappers, with the super type the classes were looked up by.
+   */
+  public Map<String, Class<?>> getPackageScans() {
+    return Collections.unmodifiableMap(packageScans);
+  }
+
+  //查找包下所有是superType的类
+  public static Set<Class<? extends Class<?>>> findMappers(String packageName, Class<?> superType) {
+    ResolverUtil<Class<?>> resolverUtil = new ResolverUtil<Class<?>>();
+    resolverUtil.find(new ResolverUtil.IsA(superType), packageName);
+    return resolverUtil.getClasses();
+  }
+
   /**
    * @since 3.2.2
    */
@@ -26,6 +26,7 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheSerializer;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
@@ -134,21 +135,53 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, null, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Class<? extends CacheSerializer> serializerClass,
+      Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, serializerClass, null, null, null, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Class<? extends CacheSerializer> serializerClass,
+      Long timeToLive,
+      Long timeToLiveJitter,
+      Long refreshAhead,
+      Properties props) {
       //这里面又判断了一下是否为null就用默认值，有点和XMLMapperBuilder.cacheElement逻辑重复了
     typeClass = valueOrDefault(typeClass, PerpetualCache.class);
     evictionClass = valueOrDefault(evictionClass, LruCache.class);
     //调用CacheBuilder构建cache,id=currentNamespace
-    Cache cache = new CacheBuilder(currentNamespace)
+    CacheBuilder cacheBuilder = new CacheBuilder(currentNamespace)
         .implementation(typeClass)
         .addDecorator(evictionClass)
         .clearInterval(flushInterval)
+        .timeToLive(timeToLive)
+        .timeToLiveJitter(timeToLiveJitter)
+        .refreshAhead(refreshAhead)
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
-        .properties(props)
-        .build();
-    //加入缓存
+        .serializer(serializerClass)
+        .tableDependencies(configuration.isTableCacheInvalidation() ? configuration.getTableDependencies() : null)
+        .reflectorFactory(configuration.getReflectorFactory())
+        .properties(props);
+    Cache cache = cacheBuilder.build();
+    //加入缓存,同时记下CacheBuilder,写快照时用它在加载时重建缓存
     configuration.addCache(cache);
+    configuration.addCacheBuilder(cache.getId(), cacheBuilder);
     //当前的缓存
     currentCache = cache;
     return cache;
@@ -284,6 +317,128 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String databaseId,
       LanguageDriver lang,
       String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, null);
+  }
+
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String tables) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, tables, null);
+  }
+
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String tables,
+      String entity) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, true, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, tables, entity);
+  }
+
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean useLocalCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String tables,
+      String entity) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, useLocalCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, tables, entity, null);
+  }
+
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean useLocalCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String tables,
+      String entity,
+      Integer batchSize) {
     
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -305,7 +460,12 @@ public class MapperBuilderAssistant extends BaseBuilder {
     statementBuilder.databaseId(databaseId);
     statementBuilder.lang(lang);
     statementBuilder.resultOrdered(resultOrdered);
+    statementBuilder.useLocalCache(useLocalCache);
+    statementBuilder.batchSize(batchSize);
     statementBuilder.resulSets(resultSets);
+    statementBuilder.tables(tables);
+    //实体是resultMap的id，可以省略namespace
+    statementBuilder.entity(applyCurrentNamespace(entity, true));
     setStatementTimeout(timeout, statementBuilder);
 
     //1.参数映射
@@ -480,7 +640,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
   private Class<?> resolveResultJavaType(Class<?> resultType, String property, Class<?> javaType) {
     if (javaType == null && property != null) {
       try {
-        MetaClass metaResultType = MetaClass.forClass(resultType);
+        MetaClass metaResultType = MetaClass.forClass(resultType, configuration.getReflectorFactory());
         javaType = metaResultType.getSetterType(property);
       } catch (Exception e) {
         //ignore, following null check statement will deal with the situation
@@ -499,7 +659,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
       } else if (Map.class.isAssignableFrom(resultType)) {
         javaType = Object.class;
       } else {
-        MetaClass metaResultType = MetaClass.forClass(resultType);
+        MetaClass metaResultType = MetaClass.forClass(resultType, configuration.getReflectorFactory());
         javaType = metaResultType.getGetterType(property);
       }
     }
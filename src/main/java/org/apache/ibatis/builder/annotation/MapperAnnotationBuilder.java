@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.apache.ibatis.annotations.Arg;
 import org.apache.ibatis.annotations.CacheNamespace;
@@ -61,6 +62,7 @@ import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -177,7 +179,9 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), null);
+      Long timeToLive = cacheDomain.timeToLive() == 0 ? null : cacheDomain.timeToLive();
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), cacheDomain.serializer(),
+          timeToLive, cacheDomain.timeToLiveJitter(), cacheDomain.refreshAhead(), null);
     }
   }
 
@@ -261,12 +265,16 @@ public class MapperAnnotationBuilder {
       final String mappedStatementId = type.getName() + "." + method.getName();
       Integer fetchSize = null;
       Integer timeout = null;
+      Integer batchSize = null;
       StatementType statementType = StatementType.PREPARED;
       ResultSetType resultSetType = ResultSetType.FORWARD_ONLY;
       SqlCommandType sqlCommandType = getSqlCommandType(method);
       boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
       boolean flushCache = !isSelect;
       boolean useCache = isSelect;
+      boolean useLocalCache = true;
+      String tables = null;
+      String entity = null;
 
       KeyGenerator keyGenerator;
       String keyProperty = "id";
@@ -291,10 +299,14 @@ public class MapperAnnotationBuilder {
       if (options != null) {
         flushCache = options.flushCache();
         useCache = options.useCache();
+        useLocalCache = options.useLocalCache();
         fetchSize = options.fetchSize() > -1 || options.fetchSize() == Integer.MIN_VALUE ? options.fetchSize() : null; //issue #348
         timeout = options.timeout() > -1 ? options.timeout() : null;
+        batchSize = options.batchSize() > -1 ? options.batchSize() : null;
         statementType = options.statementType();
         resultSetType = options.resultSetType();
+        tables = options.tables().length() > 0 ? options.tables() : null;
+        entity = options.entity().length() > 0 ? options.entity() : null;
       }
 
       String resultMapId = null;
@@ -328,6 +340,7 @@ public class MapperAnnotationBuilder {
           resultSetType,
           flushCache,
           useCache,
+          useLocalCache,
           // TODO issue #577
           false,
           keyGenerator,
@@ -337,7 +350,10 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          null);
+          null,
+          tables,
+          entity,
+          batchSize);
     }
   }
   
@@ -368,14 +384,30 @@ public class MapperAnnotationBuilder {
 
   private Class<?> getReturnType(Method method) {
     Class<?> returnType = method.getReturnType();
+    Type genericReturnType = method.getGenericReturnType();
+    //异步方法看Future<T>里的T
+    if (Future.class.equals(returnType)) {
+      genericReturnType = genericReturnType instanceof ParameterizedType
+          ? ((ParameterizedType) genericReturnType).getActualTypeArguments()[0] : Object.class;
+      if (genericReturnType instanceof Class) {
+        returnType = (Class<?>) genericReturnType;
+      } else if (genericReturnType instanceof ParameterizedType) {
+        returnType = (Class<?>) ((ParameterizedType) genericReturnType).getRawType();
+      } else {
+        returnType = Object.class;
+      }
+      if (Void.class.equals(returnType)) {
+        returnType = void.class;
+      }
+    }
     // issue #508
     if (void.class.equals(returnType)) {
       ResultType rt = method.getAnnotation(ResultType.class);
       if (rt != null) {
         returnType = rt.value();
       } 
-    } else if (Collection.class.isAssignableFrom(returnType)) {
-      Type returnTypeParameter = method.getGenericReturnType();
+    } else if (Collection.class.isAssignableFrom(returnType) || Cursor.class.isAssignableFrom(returnType)) {
+      Type returnTypeParameter = genericReturnType;
       if (returnTypeParameter instanceof ParameterizedType) {
         Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
         if (actualTypeArguments != null && actualTypeArguments.length == 1) {
@@ -394,7 +426,7 @@ public class MapperAnnotationBuilder {
       }
     } else if (method.isAnnotationPresent(MapKey.class) && Map.class.isAssignableFrom(returnType)) {
       // (issue 504) Do not look into Maps if there is not MapKey annotation
-      Type returnTypeParameter = method.getGenericReturnType();
+      Type returnTypeParameter = genericReturnType;
       if (returnTypeParameter instanceof ParameterizedType) {
         Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
         if (actualTypeArguments != null && actualTypeArguments.length == 2) {
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.builder.annotation;
 
+import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 
@@ -27,7 +28,9 @@ import org.apache.ibatis.session.Configuration;
 /**
  * @author Clinton Begin
  */
-public class ProviderSqlSource implements SqlSource {
+public class ProviderSqlSource implements SqlSource, Serializable {
+
+  private static final long serialVersionUID = -3780058096097450093L;
 
   private SqlSourceBuilder sqlSourceParser;
   private Class<?> providerType;
@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder.xml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Builds the mappers of a <code>&lt;mappers&gt;</code> element on a thread pool.
+ * <p>
+ * Reading and validating the XML documents and building the mapped statements
+ * run in parallel, one task per mapper file. Everything that crosses mapper
+ * boundaries (namespaces, caches and cache-refs, result maps, sql fragments,
+ * mapper interfaces) is registered sequentially in declaration order, and the
+ * statements that could not be completed are handed to the configuration in
+ * declaration order too, so the resulting configuration does not depend on
+ * thread scheduling.
+ */
+/**
+ * 并行的mapper构建器，settings里parallelMapperParsing=true时由XMLConfigBuilder使用
+ * 1.并行:读入并校验XML,得到DOM
+ * 2.串行:按声明顺序注册namespace/cache/resultMap/sql片段,绑定映射器,再展开include
+ * 3.并行:每个mapper文件一个任务构建MappedStatement
+ * 4.串行:按声明顺序合并不完整的语句，统一重试一次
+ *
+ */
+final class ParallelXMLMapperBuilder {
+
+  private final Configuration configuration;
+  //按<mappers>里的顺序保存
+  private final List<MapperEntry> entries = new ArrayList<MapperEntry>();
+  private int xmlCount;
+
+  ParallelXMLMapperBuilder(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  void addResource(String resource) {
+    entries.add(new MapperEntry(resource, false, null, null));
+    xmlCount++;
+  }
+
+  void addUrl(String url) {
+    entries.add(new MapperEntry(url, true, null, null));
+    xmlCount++;
+  }
+
+  void addMapperClass(Class<?> mapperInterface) {
+    entries.add(new MapperEntry(null, false, mapperInterface, null));
+  }
+
+  void addPackage(String mapperPackage) {
+    entries.add(new MapperEntry(null, false, null, mapperPackage));
+  }
+
+  void parse() {
+    if (xmlCount == 0) {
+      registerElements();
+      return;
+    }
+    int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), xmlCount));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ParserThreadFactory());
+    try {
+      //1.并行解析DOM
+      for (final MapperEntry entry : entries) {
+        if (entry.location != null) {
+          entry.parsing = executor.submit(new Callable<XMLMapperBuilder>() {
+            @Override
+            public XMLMapperBuilder call() throws Exception {
+              ErrorContext.instance().resource(entry.location);
+              try {
+                InputStream inputStream = entry.url ? Resources.getUrlAsStream(entry.location) : Resources.getResourceAsStream(entry.location);
+                return new XMLMapperBuilder(inputStream, configuration, entry.location, configuration.getSqlFragments());
+              } finally {
+                ErrorContext.instance().reset();
+              }
+            }
+          });
+        }
+      }
+
+      //2.串行注册
+      List<MapperEntry> built = registerElements();
+      for (MapperEntry entry : built) {
+        ErrorContext.instance().resource(entry.location);
+        entry.builder.applyIncludes();
+      }
+      if (!built.isEmpty()) {
+        built.get(0).builder.parsePendingElements();
+      }
+
+      //3.并行构建语句
+      for (final MapperEntry entry : built) {
+        entry.building = executor.submit(new Callable<List<XMLStatementBuilder>>() {
+          @Override
+          public List<XMLStatementBuilder> call() {
+            ErrorContext.instance().resource(entry.location);
+            try {
+              List<XMLStatementBuilder> incompleteStatements = new ArrayList<XMLStatementBuilder>();
+              entry.builder.buildStatements(incompleteStatements);
+              return incompleteStatements;
+            } finally {
+              ErrorContext.instance().reset();
+            }
+          }
+        });
+      }
+
+      //4.按声明顺序合并
+      for (MapperEntry entry : built) {
+        for (XMLStatementBuilder incompleteStatement : await(entry.building, entry.location)) {
+          configuration.addIncompleteStatement(incompleteStatement);
+        }
+      }
+      if (!built.isEmpty()) {
+        built.get(0).builder.parsePendingElements();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  //按声明顺序处理每一项，返回还需要构建语句的mapper文件
+  private List<MapperEntry> registerElements() {
+    List<MapperEntry> built = new ArrayList<MapperEntry>();
+    for (MapperEntry entry : entries) {
+      if (entry.mapperPackage != null) {
+        configuration.addMappers(entry.mapperPackage);
+      } else if (entry.mapperClass != null) {
+        configuration.addMapper(entry.mapperClass);
+      } else {
+        entry.builder = await(entry.parsing, entry.location);
+        ErrorContext.instance().resource(entry.location);
+        if (entry.builder.parseElements()) {
+          built.add(entry);
+        }
+      }
+    }
+    return built;
+  }
+
+  private <T> T await(Future<T> future, String location) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      ErrorContext.instance().resource(location);
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new BuilderException("Error parsing Mapper XML " + location + ". Cause: " + cause, cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BuilderException("Interrupted while parsing Mapper XML " + location, e);
+    }
+  }
+
+  private static class MapperEntry {
+    private final String location;
+    private final boolean url;
+    private final Class<?> mapperClass;
+    private final String mapperPackage;
+    private Future<XMLMapperBuilder> parsing;
+    private XMLMapperBuilder builder;
+    private Future<List<XMLStatementBuilder>> building;
+
+    private MapperEntry(String location, boolean url, Class<?> mapperClass, String mapperPackage) {
+      this.location = location;
+      this.url = url;
+      this.mapperClass = mapperClass;
+      this.mapperPackage = mapperPackage;
+    }
+  }
+
+  private static class ParserThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "mybatis-mapper-parser-" + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -23,7 +23,9 @@ import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
 import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.executor.BatchResultHandler;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.io.Resources;
@@ -32,10 +34,14 @@ import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.parsing.XNode;
 import org.apache.ibatis.parsing.XPathParser;
 import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
 import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.InvokerFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
+import org.apache.ibatis.session.BatchGrouping;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.LocalCacheScope;
@@ -53,8 +59,14 @@ public class XMLConfigBuilder extends BaseBuilder {
 
   //是否已解析，XPath解析器,环境
   private boolean parsed;
+  //为true时parse()跳过<mappers>，留给parseMappers()
+  private boolean mappersDeferred;
+  //解析完才启动，解析失败时不会留下监听线程
+  private InvalidationTransport invalidationTransport;
   private XPathParser parser;
   private String environment;
+  //只用来检查settings里的名字，不污染Configuration的反射器工厂
+  private ReflectorFactory localReflectorFactory = new DefaultReflectorFactory();
 
   //以下3个一组
   public XMLConfigBuilder(Reader reader) {
@@ -126,9 +138,49 @@ public class XMLConfigBuilder extends BaseBuilder {
     
     //根节点是configuration
     parseConfiguration(parser.evalNode("/configuration"));
+    if (!mappersDeferred) {
+      startCacheInvalidation();
+    }
     return configuration;
   }
 
+  /**
+   * Parses everything but the <code>mappers</code> element, which is left to
+   * {@link #parseMappers()}. Used when the mapped statements come from a
+   * {@link org.apache.ibatis.session.ConfigurationSnapshot}.
+   */
+  //解析除<mappers>以外的配置，映射器可能从快照加载
+  public Configuration parseWithoutMappers() {
+    mappersDeferred = true;
+    return parse();
+  }
+
+  //补上parseWithoutMappers()跳过的<mappers>
+  public void parseMappers() {
+    if (!mappersDeferred) {
+      throw new BuilderException("Mappers are parsed by parse() unless parseWithoutMappers() was used.");
+    }
+    mappersDeferred = false;
+    try {
+      mapperElement(parser.evalNode("/configuration/mappers"));
+    } catch (Exception e) {
+      throw new BuilderException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
+    }
+    startCacheInvalidation();
+  }
+
+  /**
+   * Starts the cache invalidation transport of the settings, once the configuration
+   * is complete. {@link #parse()} and {@link #parseMappers()} call it; call it after
+   * the mappers skipped by {@link #parseWithoutMappers()} were loaded otherwise.
+   */
+  public void startCacheInvalidation() {
+    if (invalidationTransport != null) {
+      configuration.setCacheInvalidationTransport(invalidationTransport);
+      invalidationTransport = null;
+    }
+  }
+
   //解析配置
   private void parseConfiguration(XNode root) {
     try {
@@ -144,6 +196,8 @@ public class XMLConfigBuilder extends BaseBuilder {
       objectFactoryElement(root.evalNode("objectFactory"));
       //5.对象包装工厂
       objectWrapperFactoryElement(root.evalNode("objectWrapperFactory"));
+      //反射器工厂
+      reflectorFactoryElement(root.evalNode("reflectorFactory"));
       //6.设置
       settingsElement(root.evalNode("settings"));
       // read it after objectFactory and objectWrapperFactory issue #631
@@ -154,7 +208,9 @@ public class XMLConfigBuilder extends BaseBuilder {
       //9.类型处理器
       typeHandlerElement(root.evalNode("typeHandlers"));
       //10.映射器
-      mapperElement(root.evalNode("mappers"));
+      if (!mappersDeferred) {
+        mapperElement(root.evalNode("mappers"));
+      }
     } catch (Exception e) {
       throw new BuilderException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
     }
@@ -246,6 +302,16 @@ public class XMLConfigBuilder extends BaseBuilder {
     }
   }
 
+  //反射器工厂,可以换成自己的Reflector缓存策略
+  //<reflectorFactory type="org.mybatis.example.ExampleReflectorFactory"/>
+  private void reflectorFactoryElement(XNode context) throws Exception {
+    if (context != null) {
+      String type = context.getStringAttribute("type");
+      ReflectorFactory factory = (ReflectorFactory) resolveClass(type).newInstance();
+      configuration.setReflectorFactory(factory);
+    }
+  }
+
   //1.properties
   //<properties resource="org/mybatis/example/config.properties">
   //    <property name="username" value="dev_user"/>
@@ -305,7 +371,7 @@ public class XMLConfigBuilder extends BaseBuilder {
       Properties props = context.getChildrenAsProperties();
       // Check that all settings are known to the configuration class
       //检查下是否在Configuration类里都有相应的setter方法（没有拼写错误）
-      MetaClass metaConfig = MetaClass.forClass(Configuration.class);
+      MetaClass metaConfig = MetaClass.forClass(Configuration.class, localReflectorFactory);
       for (Object key : props.keySet()) {
         if (!metaConfig.hasSetter(String.valueOf(key))) {
           throw new BuilderException("The setting " + key + " is not known.  Make sure you spelled it correctly (case sensitive).");
@@ -320,6 +386,11 @@ public class XMLConfigBuilder extends BaseBuilder {
       //proxyFactory (CGLIB | JAVASSIST)
       //延迟加载的核心技术就是用代理模式，CGLIB/JAVASSIST两者选一
       configuration.setProxyFactory((ProxyFactory) createInstance(props.getProperty("proxyFactory")));
+      //invokerFactory (REFLECTION | BYTECODE)
+      //调用getter/setter的方式，只在显式配置时才去改，不覆盖自定义reflectorFactory的设置
+      if (props.getProperty("invokerFactory") != null) {
+        configuration.setInvokerFactory((InvokerFactory) createInstance(props.getProperty("invokerFactory")));
+      }
       //延迟加载
       configuration.setLazyLoadingEnabled(booleanValueOf(props.getProperty("lazyLoadingEnabled"), false));
       //延迟加载时，每种属性是否还要按需加载
@@ -332,6 +403,16 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setUseGeneratedKeys(booleanValueOf(props.getProperty("useGeneratedKeys"), false));
       //配置默认的执行器
       configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
+      //批处理执行器怎么把语句并到已打开的批里
+      configuration.setBatchGrouping(BatchGrouping.valueOf(props.getProperty("batchGrouping", "CONSECUTIVE")));
+      //批处理攒够多少条就自动执行，自动执行的批交给谁
+      configuration.setDefaultBatchSize(integerValueOf(props.getProperty("defaultBatchSize"), null));
+      configuration.setBatchResultHandler((BatchResultHandler) createInstance(props.getProperty("batchResultHandler")));
+      //批处理的单行INSERT改写成多行VALUES
+      configuration.setMultiRowInsertSize(integerValueOf(props.getProperty("multiRowInsertSize"), null));
+      //异步会话操作的线程数和排队长度
+      configuration.setAsyncThreads(integerValueOf(props.getProperty("asyncThreads"), 4));
+      configuration.setAsyncQueueSize(integerValueOf(props.getProperty("asyncQueueSize"), 256));
       //超时时间
       configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
       //是否将DB字段自动映射到驼峰式Java属性（A_COLUMN-->aColumn）
@@ -340,6 +421,9 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
       //默认用session级别的缓存
       configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+      //本地缓存的条目数和字节数上限，超了按LRU淘汰
+      configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), 0));
+      configuration.setLocalCacheMaxBytes(Long.parseLong(props.getProperty("localCacheMaxBytes", "0")));
       //为null值设置jdbctype
       configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
       //Object的哪些方法将触发延迟加载
@@ -350,6 +434,23 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setDefaultScriptingLanguage(resolveClass(props.getProperty("defaultScriptingLanguage")));
       //当结果集中含有Null值时是否执行映射对象的setter或者Map对象的put方法。此设置对于原始类型如int,boolean等无效。 
       configuration.setCallSettersOnNulls(booleanValueOf(props.getProperty("callSettersOnNulls"), false));
+      //并行解析mapper XML
+      configuration.setParallelMapperParsing(booleanValueOf(props.getProperty("parallelMapperParsing"), false));
+      //动态SQL按分支走向缓存解析结果
+      configuration.setCompiledDynamicSql(booleanValueOf(props.getProperty("compiledDynamicSql"), false));
+      //二级缓存按表失效
+      configuration.setTableCacheInvalidation(booleanValueOf(props.getProperty("tableCacheInvalidation"), false));
+      //并发的缓存未命中只查一次
+      configuration.setCacheMissCoalescing(booleanValueOf(props.getProperty("cacheMissCoalescing"), false));
+      //跨session的实体缓存
+      configuration.setEntityCacheEnabled(booleanValueOf(props.getProperty("entityCacheEnabled"), false));
+      //把缓存失效广播给别的节点，传输从<properties>读自己的配置
+      String invalidationTransport = props.getProperty("cacheInvalidationTransport");
+      if (invalidationTransport != null) {
+        InvalidationTransport transport = (InvalidationTransport) resolveClass(invalidationTransport).newInstance();
+        transport.setProperties(configuration.getVariables());
+        this.invalidationTransport = transport;
+      }
       //logger名字的前缀
       configuration.setLogPrefix(props.getProperty("logPrefix"));
       //显式定义用什么log框架，不定义则用默认的自动发现jar包机制
@@ -530,17 +631,27 @@ public class XMLConfigBuilder extends BaseBuilder {
 //	</mappers>
   private void mapperElement(XNode parent) throws Exception {
     if (parent != null) {
+      //打开parallelMapperParsing时先收集起来，交给ParallelXMLMapperBuilder一起构建
+      ParallelXMLMapperBuilder parallelBuilder = configuration.isParallelMapperParsing() ? new ParallelXMLMapperBuilder(configuration) : null;
       for (XNode child : parent.getChildren()) {
         if ("package".equals(child.getName())) {
           //10.4自动扫描包下所有映射器
           String mapperPackage = child.getStringAttribute("name");
-          configuration.addMappers(mapperPackage);
+          if (parallelBuilder != null) {
+            parallelBuilder.addPackage(mapperPackage);
+          } else {
+            configuration.addMappers(mapperPackage);
+          }
         } else {
           String resource = child.getStringAttribute("resource");
           String url = child.getStringAttribute("url");
           String mapperClass = child.getStringAttribute("class");
           if (resource != null && url == null && mapperClass == null) {
             //10.1使用类路径
+            if (parallelBuilder != null) {
+              parallelBuilder.addResource(resource);
+              continue;
+            }
             ErrorContext.instance().resource(resource);
             InputStream inputStream = Resources.getResourceAsStream(resource);
             //映射器比较复杂，调用XMLMapperBuilder
@@ -549,6 +660,10 @@ public class XMLConfigBuilder extends BaseBuilder {
             mapperParser.parse();
           } else if (resource == null && url != null && mapperClass == null) {
             //10.2使用绝对url路径
+            if (parallelBuilder != null) {
+              parallelBuilder.addUrl(url);
+              continue;
+            }
             ErrorContext.instance().resource(url);
             InputStream inputStream = Resources.getUrlAsStream(url);
             //映射器比较复杂，调用XMLMapperBuilder
@@ -558,12 +673,19 @@ public class XMLConfigBuilder extends BaseBuilder {
             //10.3使用java类名
             Class<?> mapperInterface = Resources.classForName(mapperClass);
             //直接把这个映射加入配置
-            configuration.addMapper(mapperInterface);
+            if (parallelBuilder != null) {
+              parallelBuilder.addMapperClass(mapperInterface);
+            } else {
+              configuration.addMapper(mapperInterface);
+            }
           } else {
             throw new BuilderException("A mapper element may only specify a url, resource or class, but not more than one.");
           }
         }
       }
+      if (parallelBuilder != null) {
+        parallelBuilder.parse();
+      }
     }
   }
 
@@ -33,6 +33,7 @@ import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheSerializer;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.Discriminator;
@@ -111,6 +112,45 @@ public class XMLMapperBuilder extends BaseBuilder {
     parsePendingStatements();
   }
 
+  //以下几个包内方法供ParallelXMLMapperBuilder分阶段调用
+  //阶段2(串行):注册namespace/cache-ref/cache/parameterMap/resultMap/sql,绑定映射器,语句留到阶段3
+  boolean parseElements() {
+    if (configuration.isResourceLoaded(resource)) {
+      return false;
+    }
+    configurationElement(parser.evalNode("/mapper"), false);
+    configuration.addLoadedResource(resource);
+    bindMapperForNamespace();
+    return true;
+  }
+
+  //所有sql片段都注册之后再展开include,阶段3的语句解析就不会再去读其他mapper的DOM
+  void applyIncludes() {
+    XMLIncludeTransformer includeParser = new XMLIncludeTransformer(configuration, builderAssistant);
+    for (XNode context : parser.evalNode("/mapper").evalNodes("select|insert|update|delete")) {
+      try {
+        includeParser.applyIncludes(context.getNode());
+      } catch (IncompleteElementException e) {
+        // retried when the statement itself is built
+      }
+    }
+  }
+
+  //阶段3(并行):构建语句，不完整的语句先记在调用方给的列表里，由合并阶段按顺序交给configuration
+  void buildStatements(List<XMLStatementBuilder> incompleteStatements) {
+    try {
+      buildStatementFromContext(parser.evalNode("/mapper").evalNodes("select|insert|update|delete"), incompleteStatements);
+    } catch (Exception e) {
+      throw new BuilderException("Error parsing Mapper XML. Cause: " + e, e);
+    }
+  }
+
+  void parsePendingElements() {
+    parsePendingResultMaps();
+    parsePendingChacheRefs();
+    parsePendingStatements();
+  }
+
   public XNode getSqlFragment(String refid) {
     return sqlFragments.get(refid);
   }
@@ -122,6 +162,10 @@ public class XMLMapperBuilder extends BaseBuilder {
 //	  </select>
 //	</mapper>
   private void configurationElement(XNode context) {
+    configurationElement(context, true);
+  }
+
+  private void configurationElement(XNode context, boolean buildStatements) {
     try {
       //1.配置namespace
       String namespace = context.getStringAttribute("namespace");
@@ -140,23 +184,25 @@ public class XMLMapperBuilder extends BaseBuilder {
       //6.配置sql(定义可重用的 SQL 代码段)
       sqlElement(context.evalNodes("/mapper/sql"));
       //7.配置select|insert|update|delete TODO
-      buildStatementFromContext(context.evalNodes("select|insert|update|delete"));
+      if (buildStatements) {
+        buildStatementFromContext(context.evalNodes("select|insert|update|delete"), null);
+      }
     } catch (Exception e) {
       throw new BuilderException("Error parsing Mapper XML. Cause: " + e, e);
     }
   }
 
   //7.配置select|insert|update|delete
-  private void buildStatementFromContext(List<XNode> list) {
+  private void buildStatementFromContext(List<XNode> list, List<XMLStatementBuilder> incompleteStatements) {
     //调用7.1构建语句
     if (configuration.getDatabaseId() != null) {
-      buildStatementFromContext(list, configuration.getDatabaseId());
+      buildStatementFromContext(list, configuration.getDatabaseId(), incompleteStatements);
     }
-    buildStatementFromContext(list, null);
+    buildStatementFromContext(list, null, incompleteStatements);
   }
 
   //7.1构建语句
-  private void buildStatementFromContext(List<XNode> list, String requiredDatabaseId) {
+  private void buildStatementFromContext(List<XNode> list, String requiredDatabaseId, List<XMLStatementBuilder> incompleteStatements) {
     for (XNode context : list) {
       //构建所有语句,一个mapper下可以有很多select
       //语句比较复杂，核心都在这里面，所以调用XMLStatementBuilder
@@ -166,7 +212,11 @@ public class XMLMapperBuilder extends BaseBuilder {
         statementParser.parseStatementNode();
       } catch (IncompleteElementException e) {
           //如果出现SQL语句不完整，把它记下来，塞到configuration去
-        configuration.addIncompleteStatement(statementParser);
+        if (incompleteStatements != null) {
+          incompleteStatements.add(statementParser);
+        } else {
+          configuration.addIncompleteStatement(statementParser);
+        }
       }
     }
   }
@@ -244,16 +294,23 @@ public class XMLMapperBuilder extends BaseBuilder {
       String eviction = context.getStringAttribute("eviction", "LRU");
       Class<? extends Cache> evictionClass = typeAliasRegistry.resolveAlias(eviction);
       Long flushInterval = context.getLongAttribute("flushInterval");
+      //每个条目的存活时间，错开过期的随机量，过期前多久在后台刷新
+      Long timeToLive = context.getLongAttribute("timeToLive");
+      Long timeToLiveJitter = context.getLongAttribute("timeToLiveJitter");
+      Long refreshAhead = context.getLongAttribute("refreshAhead");
       Integer size = context.getIntAttribute("size");
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      //读写缓存怎么复制对象，默认java序列化
+      Class<? extends CacheSerializer> serializerClass = typeAliasRegistry.resolveAlias(context.getStringAttribute("serializer"));
       //读入额外的配置信息，易于第三方的缓存扩展,例:
 //    <cache type="com.domain.something.MyCustomCache">
 //      <property name="cacheFile" value="/tmp/my-custom-cache.tmp"/>
 //    </cache>
       Properties props = context.getChildrenAsProperties();
       //调用builderAssistant.useNewCache
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, serializerClass,
+          timeToLive, timeToLiveJitter, refreshAhead, props);
     }
   }
 
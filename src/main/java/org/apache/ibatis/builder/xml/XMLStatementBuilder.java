@@ -113,6 +113,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     boolean flushCache = context.getBooleanAttribute("flushCache", !isSelect);
     //是否要缓存select结果
     boolean useCache = context.getBooleanAttribute("useCache", isSelect);
+    //结果要不要留在本地缓存(一级缓存)里，结果很大的语句可以关掉
+    boolean useLocalCache = context.getBooleanAttribute("useLocalCache", true);
     //仅针对嵌套结果 select 语句适用：如果为 true，就是假设包含了嵌套结果集或是分组了，这样的话当返回一个主结果行的时候，就不会发生有对前面结果集的引用的情况。
     //这就使得在获取嵌套的结果集的时候不至于导致内存不够用。默认值：false。 
     boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
@@ -130,6 +132,12 @@ public class XMLStatementBuilder extends BaseBuilder {
     //解析成SqlSource，一般是DynamicSqlSource
     SqlSource sqlSource = langDriver.createSqlSource(configuration, context, parameterTypeClass);
     String resultSets = context.getStringAttribute("resultSets");
+    //读写的表，二级缓存按表失效时用，不写就从SQL里找
+    String tables = context.getStringAttribute("tables");
+    //参数里带的是哪个实体（resultMap）的id，实体缓存用
+    String entity = context.getStringAttribute("entity");
+    //批处理时攒够多少条就自动执行
+    Integer batchSize = context.getIntAttribute("batchSize");
     //(仅对 insert 有用) 标记一个属性, MyBatis 会通过 getGeneratedKeys 或者通过 insert 语句的 selectKey 子元素设置它的值
     String keyProperty = context.getStringAttribute("keyProperty");
     //(仅对 insert 有用) 标记一个属性, MyBatis 会通过 getGeneratedKeys 或者通过 insert 语句的 selectKey 子元素设置它的值
@@ -148,8 +156,8 @@ public class XMLStatementBuilder extends BaseBuilder {
 	//又去调助手类
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
-        resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        resultSetTypeEnum, flushCache, useCache, useLocalCache, resultOrdered, 
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, tables, entity, batchSize);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
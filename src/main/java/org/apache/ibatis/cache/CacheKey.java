@@ -17,8 +17,7 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * @author Clinton Begin
@@ -40,49 +39,75 @@ import java.util.List;
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  //组成部分改放在数组里，hash改成64位，序列化格式变了
+  private static final long serialVersionUID = -1522434580380627584L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  // 参与hash计算的乘数的默认值
-  private static final int DEFAULT_MULTIPLYER = 37;
-  // hashcode默认值
-  private static final int DEFAULT_HASHCODE = 17;
-
-  // 参与hash计算的乘数
-  private int multiplier;
-  // CacheKey的hashcode，在update函数中实时运算出来的
-  private int hashcode;
-  // 校验和，hash值的和
-  private long checksum;
+  // hash默认值
+  private static final long DEFAULT_HASH = 17;
+  // 参与hash计算的乘数(64位黄金分割数)
+  private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+  // 默认预留的组成部分个数
+  private static final int DEFAULT_CAPACITY = 8;
+
+  // 64位hash，在update函数中实时运算出来的，两个key的hash碰巧相同的概率比原来的int小很多
+  private long hash;
   //updateList的中元素个数
   private int count;
-  private List<Object> updateList;
+  private Object[] updateList;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedUpdates how many components the key will probably get, so that they fit without resizing
+   */
+  public CacheKey(int expectedUpdates) {
+    this.hash = DEFAULT_HASH;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updateList = new Object[Math.max(expectedUpdates, 1)];
   }
 
   //传入一个Object数组，更新hashcode和效验码
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
     if (object != null && object.getClass().isArray()) {
-        //如果是数组，则循环调用doUpdate
-      int length = Array.getLength(object);
-      for (int i = 0; i < length; i++) {
-        Object element = Array.get(object, i);
-        doUpdate(element);
+      //如果是数组，则循环调用doUpdate，常见的数组类型不走反射
+      if (object instanceof Object[]) {
+        for (Object element : (Object[]) object) {
+          doUpdate(element);
+        }
+      } else if (object instanceof byte[]) {
+        for (byte element : (byte[]) object) {
+          doUpdate(Byte.valueOf(element));
+        }
+      } else if (object instanceof int[]) {
+        for (int element : (int[]) object) {
+          doUpdate(Integer.valueOf(element));
+        }
+      } else if (object instanceof long[]) {
+        for (long element : (long[]) object) {
+          doUpdate(Long.valueOf(element));
+        }
+      } else if (object instanceof char[]) {
+        for (char element : (char[]) object) {
+          doUpdate(Character.valueOf(element));
+        }
+      } else {
+        int length = Array.getLength(object);
+        for (int i = 0; i < length; i++) {
+          doUpdate(Array.get(object, i));
+        }
       }
     } else {
         //否则，doUpdate
@@ -91,17 +116,16 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   private void doUpdate(Object object) {
-    //计算hash值，校验码
+    //计算hash值，和位置有关，顺序不同hash就不同
     int baseHashCode = object == null ? 1 : object.hashCode();
+    hash = (hash + baseHashCode) * MULTIPLIER;
+    hash ^= hash >>> 29;
 
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
-
-    hashcode = multiplier * hashcode + baseHashCode;
-
-    //同时将对象加入列表，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    updateList.add(object);
+    //同时将对象加入数组，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
+    if (count == updateList.length) {
+      updateList = Arrays.copyOf(updateList, count << 1);
+    }
+    updateList[count++] = object;
   }
 
   public void updateAll(Object[] objects) {
@@ -121,11 +145,8 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    //先比hashcode，checksum，count，理论上可以快速比出来
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
+    //先比hash，count，理论上可以快速比出来
+    if (hash != cacheKey.hash) {
       return false;
     }
     if (count != cacheKey.count) {
@@ -133,10 +154,9 @@ public class CacheKey implements Cloneable, Serializable {
     }
 
     //万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    //这里两个list的size没比是否相等，其实前面count相等就已经保证了
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
       if (thisObject == null) {
         if (thatObject != null) {
           return false;
@@ -152,14 +172,14 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    return (int) (hash ^ (hash >>> 32));
   }
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (int i = 0; i < updateList.size(); i++) {
-      returnValue.append(':').append(updateList.get(i));
+    StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(hash);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(updateList[i]);
     }
 
     return returnValue.toString();
@@ -168,7 +188,7 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    clonedCacheKey.updateList = updateList.clone();
     return clonedCacheKey;
   }
 
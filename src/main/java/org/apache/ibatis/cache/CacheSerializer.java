@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Turns the values of a read/write cache into bytes and back, so that every get
+ * returns a copy that the caller is free to modify.
+ * <p>
+ * A new instance is created for each cache, with a public no-arg constructor,
+ * and may be called from several threads at once.
+ */
+/**
+ * 读写缓存（readOnly=false）用的序列化器，SerializedCache用它复制缓存的值
+ */
+public interface CacheSerializer {
+
+  byte[] serialize(Object value);
+
+  Object deserialize(byte[] data);
+
+}
@@ -0,0 +1,408 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ * Identity map of mapped entities, shared by all sessions.
+ * <p>
+ * Objects of result maps with {@code <id>} mappings and without nested mappings
+ * are kept by result map and id values. When a row with the same id is mapped
+ * again, the kept instance is returned instead of a new one, and nested selects
+ * that declare the entity they look up are resolved without running them.
+ * Statements that declare the entity they write remove it by the id found in
+ * their parameter, or every entity of its type when there is none. A transaction
+ * that ran any update neither reads nor fills the map until it completes, when
+ * the written entities are removed again. Entities mapped by a transaction are
+ * only shared once it commits, or ends without anything to roll back.
+ * <p>
+ * The instances are shared: callers must not modify them.
+ */
+/**
+ * 实体缓存（identity map），全局共享
+ * 按resultMap和id的值记住映射出来的对象，同一个id再映射时直接返回同一个对象，
+ * 声明了entity的嵌套查询直接从这里取，不再执行；声明了entity的写语句按参数里的id删掉实体。
+ * 执行过更新的事务在结束前既不读也不放，结束时再删一次写过的实体。
+ * 事务里映射出来的实体先暂存，提交（或者没有要回滚的东西就结束）时才共享出去。
+ */
+public class EntityCache {
+
+  private static final int DEFAULT_SIZE = 1024;
+
+  private final Configuration configuration;
+  private int size = DEFAULT_SIZE;
+  private final ConcurrentMap<Class<?>, Entities> entitiesByType = new ConcurrentHashMap<Class<?>, Entities>();
+  //每个resultMap的id映射，不能缓存的放空列表
+  private final ConcurrentMap<String, List<ResultMapping>> idMappings = new ConcurrentHashMap<String, List<ResultMapping>>();
+  //写过实体还没结束的事务，要是忘了关session也不会泄漏
+  private final Map<Transaction, List<Write>> writes = Collections.synchronizedMap(new WeakHashMap<Transaction, List<Write>>());
+  //还没结束的事务映射出来的实体，结束时才放进去
+  private final Map<Transaction, Map<EntityKey, Pending>> pendings = Collections.synchronizedMap(new WeakHashMap<Transaction, Map<EntityKey, Pending>>());
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public EntityCache(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Most entities kept for each type.
+   */
+  public void setSize(int size) {
+    this.size = size;
+  }
+
+  /**
+   * The id mappings of the result map, null if its objects are not kept.
+   */
+  public List<ResultMapping> getIdMappings(ResultMap resultMap) {
+    List<ResultMapping> mappings = idMappings.get(resultMap.getId());
+    if (mappings == null) {
+      mappings = findIdMappings(resultMap);
+      idMappings.put(resultMap.getId(), mappings);
+    }
+    return mappings.isEmpty() ? null : mappings;
+  }
+
+  /**
+   * Builds the id of an entity from its id values, in the order of the id mappings.
+   */
+  public static CacheKey newId(Object[] values) {
+    CacheKey id = new CacheKey(values.length);
+    for (Object value : values) {
+      id.update(normalize(value));
+    }
+    return id;
+  }
+
+  /**
+   * The id of the entity of the result map carried by a statement parameter: the
+   * parameter itself for a single id, or its id properties. Null if it carries none.
+   */
+  public CacheKey idOf(ResultMap resultMap, Object parameterObject) {
+    List<ResultMapping> mappings = getIdMappings(resultMap);
+    if (mappings == null || parameterObject == null) {
+      return null;
+    }
+    Object[] values = new Object[mappings.size()];
+    if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+      if (mappings.size() != 1 || !isSameType(parameterObject, mappings.get(0))) {
+        return null;
+      }
+      values[0] = parameterObject;
+    } else {
+      MetaObject metaObject = configuration.newMetaObject(parameterObject);
+      for (int i = 0; i < values.length; i++) {
+        ResultMapping mapping = mappings.get(i);
+        if (mapping.getProperty() == null || !metaObject.hasGetter(mapping.getProperty())) {
+          return null;
+        }
+        values[i] = metaObject.getValue(mapping.getProperty());
+        if (values[i] == null || !isSameType(values[i], mapping)) {
+          return null;
+        }
+      }
+    }
+    return newId(values);
+  }
+
+  /**
+   * The kept entity, null if there is none or the transaction ran updates. Entities
+   * the transaction mapped itself are found before they are shared.
+   */
+  public Object get(Transaction transaction, ResultMap resultMap, CacheKey id) {
+    if (isWriting(transaction)) {
+      return null;
+    }
+    EntityKey key = new EntityKey(resultMap.getId(), id);
+    Object entity = null;
+    Map<EntityKey, Pending> transactionPendings = pendings.get(transaction);
+    if (transactionPendings != null) {
+      Pending pending = transactionPendings.get(key);
+      entity = pending == null ? null : pending.entity;
+    }
+    if (entity == null) {
+      Entities entities = entitiesByType.get(resultMap.getType());
+      entity = entities == null ? null : entities.cache.getObject(key);
+    }
+    if (entity == null) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.incrementAndGet();
+    }
+    return entity;
+  }
+
+  /**
+   * Keeps the entity for the transaction, to be shared when it completes.
+   */
+  public void put(Transaction transaction, ResultMap resultMap, CacheKey id, Object entity) {
+    synchronized (pendings) {
+      if (isWriting(transaction)) {
+        return;
+      }
+      Map<EntityKey, Pending> transactionPendings = pendings.get(transaction);
+      if (transactionPendings == null) {
+        transactionPendings = new HashMap<EntityKey, Pending>();
+        pendings.put(transaction, transactionPendings);
+      }
+      //一个事务最多暂存size个，多的不要了
+      if (transactionPendings.size() < size) {
+        transactionPendings.put(new EntityKey(resultMap.getId(), id), new Pending(resultMap, entity));
+      }
+    }
+  }
+
+  private void share(EntityKey key, Pending pending) {
+    ResultMap resultMap = pending.resultMap;
+    Entities entities = entitiesByType.get(resultMap.getType());
+    if (entities == null) {
+      entities = new Entities(resultMap.getType().getName(), size);
+      Entities previous = entitiesByType.putIfAbsent(resultMap.getType(), entities);
+      entities = previous == null ? entities : previous;
+    }
+    entities.resultMapIds.add(resultMap.getId());
+    entities.cache.putObject(key, pending.entity);
+  }
+
+  /**
+   * Stops the transaction from reading and filling the map until it completes, as it
+   * ran an update: what it maps may not be committed, and what it mapped may be stale.
+   */
+  public void updated(Transaction transaction) {
+    synchronized (pendings) {
+      pendings.remove(transaction);
+      synchronized (writes) {
+        if (!writes.containsKey(transaction)) {
+          writes.put(transaction, new ArrayList<Write>());
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the entity of the result map written with the parameter, and remembers
+   * to remove it again when the transaction completes.
+   */
+  public void written(Transaction transaction, ResultMap resultMap, Object parameterObject) {
+    Write write = new Write(resultMap.getType(), idOf(resultMap, parameterObject));
+    synchronized (pendings) {
+      updated(transaction);
+      synchronized (writes) {
+        writes.get(transaction).add(write);
+      }
+    }
+    remove(write);
+  }
+
+  /**
+   * Removes the entities written by the transaction again, now that it completed, and
+   * shares the entities it mapped if it committed or had nothing to roll back.
+   */
+  public void completed(Transaction transaction, boolean share) {
+    Map<EntityKey, Pending> transactionPendings;
+    List<Write> transactionWrites;
+    synchronized (pendings) {
+      transactionPendings = pendings.remove(transaction);
+      transactionWrites = writes.remove(transaction);
+    }
+    if (transactionWrites != null) {
+      for (Write write : transactionWrites) {
+        remove(write);
+      }
+    }
+    if (share && transactionPendings != null) {
+      for (Map.Entry<EntityKey, Pending> entry : transactionPendings.entrySet()) {
+        share(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  public boolean isWriting(Transaction transaction) {
+    return !writes.isEmpty() && writes.containsKey(transaction);
+  }
+
+  public void clear() {
+    for (Entities entities : entitiesByType.values()) {
+      entities.cache.clear();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  private void remove(Write write) {
+    //子类（discriminator）的实体也要删
+    for (Map.Entry<Class<?>, Entities> entry : entitiesByType.entrySet()) {
+      if (!write.type.isAssignableFrom(entry.getKey())) {
+        continue;
+      }
+      Entities entities = entry.getValue();
+      if (write.id == null) {
+        entities.cache.clear();
+      } else {
+        for (String resultMapId : entities.resultMapIds) {
+          entities.cache.removeObject(new EntityKey(resultMapId, write.id));
+        }
+      }
+    }
+  }
+
+  //有<id>、没有嵌套映射的resultMap的对象才能缓存
+  private List<ResultMapping> findIdMappings(ResultMap resultMap) {
+    if (resultMap.hasNestedQueries() || resultMap.hasNestedResultMaps()
+        || configuration.getTypeHandlerRegistry().hasTypeHandler(resultMap.getType())) {
+      return Collections.emptyList();
+    }
+    for (ResultMapping mapping : resultMap.getPropertyResultMappings()) {
+      //resultSet的子对象会加到实体里，共享的实体不能改
+      if (mapping.getResultSet() != null || mapping.getNestedResultMapId() != null) {
+        return Collections.emptyList();
+      }
+    }
+    List<ResultMapping> mappings = new ArrayList<ResultMapping>();
+    for (ResultMapping mapping : resultMap.getIdResultMappings()) {
+      if (!mapping.getFlags().contains(ResultFlag.ID)) {
+        //没写<id>时所有映射都算id，不是实体
+        return Collections.emptyList();
+      }
+      if (mapping.getColumn() == null || mapping.isCompositeResult()) {
+        return Collections.emptyList();
+      }
+      mappings.add(mapping);
+    }
+    return mappings;
+  }
+
+  //参数里id的类型和实体的不一样时，按值比较会对不上，宁可不用
+  private static boolean isSameType(Object value, ResultMapping mapping) {
+    Class<?> javaType = mapping.getJavaType();
+    return javaType == null || Object.class.equals(javaType)
+        || normalize(value).getClass().equals(normalizedType(javaType));
+  }
+
+  //整数类型统一成Long，Integer的1和Long的1算同一个id
+  private static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return Long.valueOf(((Number) value).longValue());
+    }
+    return value;
+  }
+
+  private static Class<?> normalizedType(Class<?> type) {
+    if (type == int.class || type == short.class || type == byte.class || type == long.class
+        || type == Integer.class || type == Short.class || type == Byte.class) {
+      return Long.class;
+    }
+    if (type == char.class) {
+      return Character.class;
+    }
+    if (type == boolean.class) {
+      return Boolean.class;
+    }
+    if (type == double.class) {
+      return Double.class;
+    }
+    if (type == float.class) {
+      return Float.class;
+    }
+    return type;
+  }
+
+  private static class Entities {
+    final Cache cache;
+    final CopyOnWriteArraySet<String> resultMapIds = new CopyOnWriteArraySet<String>();
+
+    Entities(String id, int size) {
+      TinyLfuCache tinyLfuCache = new TinyLfuCache(new PerpetualCache(id));
+      tinyLfuCache.setSize(size);
+      this.cache = tinyLfuCache;
+    }
+  }
+
+  private static class EntityKey {
+    private final String resultMapId;
+    private final CacheKey id;
+
+    EntityKey(String resultMapId, CacheKey id) {
+      this.resultMapId = resultMapId;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) {
+        return true;
+      }
+      if (!(object instanceof EntityKey)) {
+        return false;
+      }
+      EntityKey other = (EntityKey) object;
+      return resultMapId.equals(other.resultMapId) && id.equals(other.id);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * resultMapId.hashCode() + id.hashCode();
+    }
+  }
+
+  private static class Pending {
+    final ResultMap resultMap;
+    final Object entity;
+
+    Pending(ResultMap resultMap, Object entity) {
+      this.resultMap = resultMap;
+      this.entity = entity;
+    }
+  }
+
+  private static class Write {
+    final Class<?> type;
+    //null表示不知道是哪个，整个类型都删
+    final CacheKey id;
+
+    Write(Class<?> type, CacheKey id) {
+      this.type = type;
+      this.id = id;
+    }
+  }
+
+}
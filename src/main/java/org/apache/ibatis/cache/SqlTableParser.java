@@ -0,0 +1,190 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the tables a SQL statement reads or writes, for table level cache invalidation.
+ * <p>
+ * This is not a SQL parser. It looks for the names that follow {@code FROM},
+ * {@code JOIN}, {@code UPDATE} and {@code INTO}, including comma separated
+ * lists after {@code FROM}. Anything else that happens to follow those keywords
+ * (e.g. a column in {@code EXTRACT(YEAR FROM col)}) is reported too, which only
+ * causes extra invalidations. Names are lower cased, unquoted and stripped of
+ * their schema.
+ */
+/**
+ * 从SQL里找出读写的表名，给按表失效的二级缓存用
+ * 只是简单地找FROM/JOIN/UPDATE/INTO后面的名字，多找出来的名字只会导致多失效一些缓存，不影响正确性
+ */
+public final class SqlTableParser {
+
+  private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList("from", "join", "update", "into"));
+
+  //出现在表名后面，不是别名的关键字
+  private static final Set<String> CLAUSE_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "where", "on", "using", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "straight_join",
+      "set", "values", "value", "select", "group", "order", "having", "limit", "offset", "union", "intersect",
+      "except", "minus", "fetch", "for", "window", "with", "returning", "connect", "start", "default"));
+
+  private SqlTableParser() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /**
+   * @return the table names, or null when no table was found (e.g. a stored procedure call)
+   */
+  public static Set<String> parse(String sql) {
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new HashSet<String>();
+    collect(tokens, 0, tokens.size(), tables);
+    return tables.isEmpty() ? null : Collections.unmodifiableSet(tables);
+  }
+
+  private static void collect(List<String> tokens, int start, int end, Set<String> tables) {
+    int i = start;
+    while (i < end) {
+      String token = tokens.get(i++);
+      if (!TABLE_KEYWORDS.contains(token)) {
+        continue;
+      }
+      boolean list = "from".equals(token);
+      while (i < end) {
+        String name = tokens.get(i);
+        if ("(".equals(name)) {
+          //派生表，括号里面单独找，然后跳过括号和别名继续读逗号后面的表
+          int close = matchingParenthesis(tokens, i, end);
+          collect(tokens, i + 1, close, tables);
+          i = close + 1;
+        } else if (isName(name)) {
+          i++;
+          tables.add(unqualified(name));
+        } else {
+          break;
+        }
+        //跳过别名
+        if (i < end && "as".equals(tokens.get(i))) {
+          i += 2;
+        } else if (i < end && isName(tokens.get(i))) {
+          i++;
+        }
+        if (list && i < end && ",".equals(tokens.get(i))) {
+          i++;
+        } else {
+          break;
+        }
+      }
+    }
+  }
+
+  //没有配对的右括号时返回end
+  private static int matchingParenthesis(List<String> tokens, int open, int end) {
+    int depth = 0;
+    for (int i = open; i < end; i++) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        depth++;
+      } else if (")".equals(token) && --depth == 0) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private static boolean isName(String token) {
+    char first = token.charAt(0);
+    return (first == '"' || Character.isLetter(first) || first == '_') && !CLAUSE_KEYWORDS.contains(token);
+  }
+
+  private static String unqualified(String name) {
+    String table = name.substring(name.lastIndexOf('.') + 1);
+    return table.replace("\"", "");
+  }
+
+  //名字（带引号的前面加"标记）和单个符号，跳过字符串和注释
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (isNameStart(c)) {
+        StringBuilder name = new StringBuilder();
+        while (i < length) {
+          c = sql.charAt(i);
+          if (c == '"' || c == '`' || c == '[') {
+            char close = c == '[' ? ']' : c;
+            int end = sql.indexOf(close, i + 1);
+            end = end < 0 ? length : end;
+            name.append('"').append(sql.substring(i + 1, end));
+            i = end + 1;
+          } else if (isNamePart(c) || c == '.') {
+            name.append(c);
+            i++;
+          } else {
+            break;
+          }
+        }
+        tokens.add(name.toString().toLowerCase(Locale.ENGLISH));
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static int skipQuoted(String sql, int start, char quote) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == quote) {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isNameStart(char c) {
+    return isNamePart(c) || c == '"' || c == '`' || c == '[';
+  }
+
+  private static boolean isNamePart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which tables each second level cache entry was read from, so a
+ * committed write only removes the entries that read one of the written
+ * tables, in every cache of the configuration.
+ * <p>
+ * Entries whose tables are unknown are removed by any write. Keys evicted by the
+ * cache itself stay tracked until they are invalidated, so once a cache has too
+ * many tracked keys the whole cache is cleared instead of growing the index.
+ */
+/**
+ * 表级依赖索引，全局共享
+ * 记录每个二级缓存条目读了哪些表，提交写操作时只删除读过被写的表的条目（所有namespace的缓存都算）
+ */
+public class TableDependencies {
+
+  //读了哪些表不知道的条目，任何写都要删除
+  private static final String ANY_TABLE = "";
+  private static final int MAX_TRACKED_KEYS = 16384;
+
+  private final Map<Cache, Index> indexes = new HashMap<Cache, Index>();
+
+  /**
+   * Registers the tables of the key and puts the entry while holding the index lock,
+   * so a concurrent {@link #invalidate(Set)} either sees the registration or runs after
+   * the entry is in the cache, and never leaves an untracked stale entry behind.
+   */
+  public synchronized void putObject(Cache cache, Object key, Object value, Set<String> tables) {
+    register(cache, key, tables);
+    cache.putObject(key, value);
+  }
+
+  public synchronized void register(Cache cache, Object key, Set<String> tables) {
+    Index index = indexes.get(cache);
+    if (index == null) {
+      index = new Index();
+      indexes.put(cache, index);
+    }
+    index.remove(key);
+    if (index.tablesByKey.size() >= MAX_TRACKED_KEYS) {
+      //索引太大了（被缓存自己淘汰的key也还在），干脆全部清掉
+      cache.clear();
+      index = new Index();
+      indexes.put(cache, index);
+    }
+    Set<String> keyTables = new HashSet<String>();
+    if (tables == null) {
+      keyTables.add(ANY_TABLE);
+    } else {
+      keyTables.addAll(tables);
+    }
+    index.tablesByKey.put(key, keyTables);
+    for (String table : keyTables) {
+      Set<Object> keys = index.keysByTable.get(table);
+      if (keys == null) {
+        keys = new HashSet<Object>();
+        index.keysByTable.put(table, keys);
+      }
+      keys.add(key);
+    }
+  }
+
+  /**
+   * Removes every cache entry that read one of the tables or whose tables are unknown.
+   */
+  public synchronized void invalidate(Set<String> tables) {
+    for (Map.Entry<Cache, Index> entry : indexes.entrySet()) {
+      Cache cache = entry.getKey();
+      Index index = entry.getValue();
+      Set<Object> keys = new HashSet<Object>();
+      addKeys(index, ANY_TABLE, keys);
+      for (String table : tables) {
+        addKeys(index, table, keys);
+      }
+      for (Object key : keys) {
+        index.remove(key);
+        cache.removeObject(key);
+      }
+    }
+  }
+
+  /**
+   * Forgets the entries of a cache that has been cleared.
+   */
+  public synchronized void clear(Cache cache) {
+    indexes.remove(cache);
+  }
+
+  private static void addKeys(Index index, String table, Set<Object> keys) {
+    Set<Object> tableKeys = index.keysByTable.get(table);
+    if (tableKeys != null) {
+      keys.addAll(tableKeys);
+    }
+  }
+
+  private static class Index {
+    final Map<String, Set<Object>> keysByTable = new HashMap<String, Set<Object>>();
+    final Map<Object, Set<String>> tablesByKey = new HashMap<Object, Set<String>>();
+
+    void remove(Object key) {
+      Set<String> tables = tablesByKey.remove(key);
+      if (tables == null) {
+        return;
+      }
+      for (String table : tables) {
+        Set<Object> keys = keysByTable.get(table);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          keysByTable.remove(table);
+        }
+      }
+    }
+  }
+
+}
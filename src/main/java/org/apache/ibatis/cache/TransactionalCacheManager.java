@@ -15,10 +15,14 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
 
 /**
  * @author Clinton Begin
@@ -31,22 +35,76 @@ public class TransactionalCacheManager {
 
   //管理了许多TransactionalCache
   private Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+  //按表失效时用，null表示按namespace整个清空
+  private final TableDependencies dependencies;
+  //本事务里写过的表，提交时统一失效
+  private final Set<String> tablesToInvalidateOnCommit = new HashSet<String>();
+  //不为null时提交的失效要广播给别的节点
+  private final InvalidationBus invalidationBus;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  public TransactionalCacheManager(TableDependencies dependencies) {
+    this(dependencies, null);
+  }
+
+  public TransactionalCacheManager(TableDependencies dependencies, InvalidationBus invalidationBus) {
+    this.dependencies = dependencies;
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
   }
 
+  /**
+   * Records a write to the given tables. Entries that read them are removed
+   * from every cache on commit, and are not served by this transaction until then.
+   */
+  public void invalidate(Set<String> tables) {
+    tablesToInvalidateOnCommit.addAll(tables);
+    for (TransactionalCache txCache : transactionalCaches.values()) {
+      txCache.invalidate(tables);
+    }
+  }
+
   //得到某个TransactionalCache的值
   public Object getObject(Cache cache, CacheKey key) {
     return getTransactionalCache(cache).getObject(key);
   }
+
+  /**
+   * Gets an entry read from the given tables, null if they are unknown.
+   */
+  public Object getObject(Cache cache, CacheKey key, Set<String> tables) {
+    Object value = getTransactionalCache(cache).getObject(key);
+    //本事务写过这些表，缓存里的是旧数据
+    if (value != null && isInvalidated(tables)) {
+      return null;
+    }
+    return value;
+  }
   
   public void putObject(Cache cache, CacheKey key, Object value) {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void putObject(Cache cache, CacheKey key, Object value, Set<String> tables) {
+    getTransactionalCache(cache).putObject(key, value, tables);
+  }
+
   //提交时全部提交
   public void commit() {
+    //先失效别的事务放进去的旧数据，再放入本事务的数据
+    if (!tablesToInvalidateOnCommit.isEmpty()) {
+      dependencies.invalidate(tablesToInvalidateOnCommit);
+      if (invalidationBus != null) {
+        invalidationBus.publishTables(tablesToInvalidateOnCommit);
+      }
+      tablesToInvalidateOnCommit.clear();
+    }
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
     }
@@ -54,15 +112,23 @@ public class TransactionalCacheManager {
 
   //回滚时全部回滚
   public void rollback() {
+    tablesToInvalidateOnCommit.clear();
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.rollback();
     }
   }
 
+  private boolean isInvalidated(Set<String> tables) {
+    if (tablesToInvalidateOnCommit.isEmpty()) {
+      return false;
+    }
+    return tables == null || !Collections.disjoint(tables, tablesToInvalidateOnCommit);
+  }
+
   private TransactionalCache getTransactionalCache(Cache cache) {
     TransactionalCache txCache = transactionalCaches.get(cache);
     if (txCache == null) {
-      txCache = new TransactionalCache(cache);
+      txCache = new TransactionalCache(cache, dependencies, invalidationBus);
       transactionalCaches.put(cache, txCache);
     }
     return txCache;
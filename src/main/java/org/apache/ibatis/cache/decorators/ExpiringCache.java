@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Expires each entry on its own, a time to live after it was put.
+ * <p>
+ * Unlike {@link ScheduledCache} entries do not all expire at once. The time to live
+ * of each entry can be shortened by a random jitter, so entries put together are
+ * reloaded at different times. With refresh ahead, the first read of an entry that
+ * is close to expiring claims a refresh of it: the read still returns the cached
+ * value and the caller ({@link org.apache.ibatis.executor.CachingExecutor}) reloads
+ * the entry in the background, see {@link #takeRefresh(Object)}. A claim that is
+ * not acted on must be released, so a later read can claim the refresh again.
+ */
+/**
+ * 按条目过期的缓存
+ * ScheduledCache是到时间整个清空，所有条目一起失效，数据库一下子要重新查很多；
+ * 这里每个条目放入后各自计时，还可以随机缩短一点（jitter）把过期时间错开。
+ * 开启refreshAhead时，条目快过期时的第一次读会认领一次刷新，读照样返回旧值，
+ * 由CachingExecutor在后台重新执行语句换掉它。
+ */
+public class ExpiringCache implements Cache {
+
+  //本线程最近一次认领的刷新，CachingExecutor读完缓存马上取走
+  private static final ThreadLocal<Refresh> claimedRefresh = new ThreadLocal<Refresh>();
+
+  private final Cache delegate;
+  private final Random random = new Random();
+  //存活时间(毫秒)
+  private long timeToLive;
+  //存活时间随机缩短的上限(毫秒)
+  private long timeToLiveJitter;
+  //过期前多少毫秒内的读会触发刷新，0为不刷新
+  private long refreshAhead;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+    //和ScheduledCache一样默认1小时
+    this.timeToLive = 60 * 60 * 1000; // 1 hour
+  }
+
+  public void setTimeToLive(long timeToLive) {
+    this.timeToLive = timeToLive;
+  }
+
+  public void setTimeToLiveJitter(long timeToLiveJitter) {
+    this.timeToLiveJitter = timeToLiveJitter;
+  }
+
+  public void setRefreshAhead(long refreshAhead) {
+    this.refreshAhead = refreshAhead;
+  }
+
+  /**
+   * Takes the refresh claimed by the last read of this thread, if it was a read of the given key.
+   * A claim of another key is released.
+   *
+   * @return the claim if the caller should reload the entry of the key, null otherwise
+   */
+  public static Refresh takeRefresh(Object key) {
+    Refresh claimed = claimedRefresh.get();
+    if (claimed == null) {
+      return null;
+    }
+    claimedRefresh.remove();
+    if (!claimed.key.equals(key)) {
+      claimed.release();
+      return null;
+    }
+    return claimed;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long now = currentTimeMillis();
+    long jitter = Math.min(timeToLiveJitter, timeToLive);
+    long lifetime = jitter > 0 ? timeToLive - (long) (random.nextDouble() * jitter) : timeToLive;
+    delegate.putObject(key, new Entry(value, now + lifetime, refreshAhead > 0 ? now + lifetime - refreshAhead : Long.MAX_VALUE));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = (Entry) delegate.getObject(key);
+    if (entry == null) {
+      return null;
+    }
+    long now = currentTimeMillis();
+    //过期的不删，下次put会覆盖，删的话可能把别的线程刚放的新值删掉
+    if (now >= entry.expiresAt) {
+      return null;
+    }
+    if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+      Refresh previous = claimedRefresh.get();
+      if (previous != null) {
+        //上一次的认领没人取走
+        previous.release();
+      }
+      claimedRefresh.set(new Refresh(key, entry));
+    }
+    return entry.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Entry entry = (Entry) delegate.removeObject(key);
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //测试时可以覆盖
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /**
+   * A refresh claimed by a read. Release it when the entry will not be reloaded.
+   */
+  public static final class Refresh {
+    private final Object key;
+    private final Entry entry;
+
+    private Refresh(Object key, Entry entry) {
+      this.key = key;
+      this.entry = entry;
+    }
+
+    public void release() {
+      entry.refreshing.set(false);
+    }
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final long expiresAt;
+    private final long refreshAt;
+    //只让一次读认领刷新
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Entry(Object value, long expiresAt, long refreshAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+      this.refreshAt = refreshAt;
+    }
+  }
+
+}
@@ -15,18 +15,17 @@
  */
 package org.apache.ibatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
 import org.apache.ibatis.io.Resources;
 
 /**
@@ -43,9 +42,16 @@ import org.apache.ibatis.io.Resources;
 public class SerializedCache implements Cache {
 
   private Cache delegate;
+  //怎么序列化，默认java序列化
+  private CacheSerializer serializer;
 
   public SerializedCache(Cache delegate) {
+    this(delegate, new JdkCacheSerializer());
+  }
+
+  public SerializedCache(Cache delegate, CacheSerializer serializer) {
     this.delegate = delegate;
+    this.serializer = serializer;
   }
 
   @Override
@@ -62,7 +68,7 @@ public class SerializedCache implements Cache {
   public void putObject(Object key, Object object) {
     if (object == null || object instanceof Serializable) {
         //先序列化，再委托被包装者putObject
-      delegate.putObject(key, serialize((Serializable) object));
+      delegate.putObject(key, serializer.serialize(object));
     } else {
       throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
     }
@@ -72,7 +78,7 @@ public class SerializedCache implements Cache {
   public Object getObject(Object key) {
       //先委托被包装者getObject,再反序列化
     Object object = delegate.getObject(key);
-    return object == null ? null : deserialize((byte[]) object);
+    return object == null ? null : serializer.deserialize((byte[]) object);
   }
 
   @Override
@@ -100,34 +106,6 @@ public class SerializedCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private byte[] serialize(Serializable value) {
-    try {
-        //序列化核心就是ByteArrayOutputStream
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(bos);
-      oos.writeObject(value);
-      oos.flush();
-      oos.close();
-      return bos.toByteArray();
-    } catch (Exception e) {
-      throw new CacheException("Error serializing object.  Cause: " + e, e);
-    }
-  }
-
-  private Serializable deserialize(byte[] value) {
-    Serializable result;
-    try {
-        //反序列化核心就是ByteArrayInputStream
-      ByteArrayInputStream bis = new ByteArrayInputStream(value);
-      ObjectInputStream ois = new CustomObjectInputStream(bis);
-      result = (Serializable) ois.readObject();
-      ois.close();
-    } catch (Exception e) {
-      throw new CacheException("Error deserializing object.  Cause: " + e, e);
-    }
-    return result;
-  }
-
   //这个Custom不明白何意
   public static class CustomObjectInputStream extends ObjectInputStream {
 
@@ -0,0 +1,431 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Thread safe W-TinyLFU cache decorator.
+ * <p>
+ * Entries are kept in a {@link ConcurrentHashMap} owned by this decorator, so
+ * reads never lock. A read only records the entry in a small lossy buffer, and
+ * the buffers are replayed into the eviction policy under a lock once they
+ * fill up or on the next write. The policy is a small LRU admission window
+ * in front of a segmented LRU main space. An entry leaving the window only
+ * replaces the main space's victim if a 4-bit count-min sketch estimates it
+ * has been used more often.
+ * <p>
+ * The decorated cache only supplies the id and is cleared along with this one.
+ * Since this cache does its own locking, {@code CacheBuilder} does not wrap it
+ * in a {@link SynchronizedCache}.
+ */
+/**
+ * TinyLFU缓存
+ * 和LruCache不同，自己用ConcurrentHashMap存数据，读不加锁，
+ * 读操作只是把节点放进缓冲区，攒够了（或者写的时候）再加锁统一调整顺序。
+ * 淘汰策略：1%的LRU窗口 + 分段LRU主区（试用区20%、保护区80%），
+ * 窗口里出来的新数据要和主区里将被淘汰的数据比较使用频率（count-min sketch估算），频率高的留下。
+ */
+public class TinyLfuCache implements Cache {
+
+  //每个读缓冲区的大小，必须是2的幂
+  private static final int READ_BUFFER_SIZE = 32;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+  private static final int READ_BUFFERS = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+  //节点所在的队列，NEW表示已放进map但还没加入队列
+  private static final int NEW = -1;
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+  private static final int DEAD = 3;
+
+  private final Cache delegate;
+  private final ConcurrentMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+  private final ReadBuffer[] readBuffers;
+  //下面的字段都由evictionLock保护
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AccessOrderDeque window = new AccessOrderDeque();
+  private final AccessOrderDeque probation = new AccessOrderDeque();
+  private final AccessOrderDeque protectedSpace = new AccessOrderDeque();
+  private FrequencySketch sketch;
+  private int maximumSize;
+  private int windowMaximum;
+  private int protectedMaximum;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    this.readBuffers = new ReadBuffer[READ_BUFFERS];
+    for (int i = 0; i < READ_BUFFERS; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  public void setSize(int size) {
+    evictionLock.lock();
+    try {
+      maximumSize = Math.max(1, size);
+      windowMaximum = Math.max(1, maximumSize / 100);
+      protectedMaximum = (int) ((maximumSize - windowMaximum) * 0.8);
+      sketch = new FrequencySketch(maximumSize);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Node node = new Node(key, value);
+    Node prior = data.putIfAbsent(key, node);
+    if (prior != null) {
+      //已经有了就直接替换值，当作一次访问
+      prior.value = value;
+      afterRead(prior);
+      return;
+    }
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      //removeObject/clear可能已经抢先把节点移除了
+      if (node.queue == NEW) {
+        sketch.increment(key);
+        node.queue = WINDOW;
+        window.addLast(node);
+        evict();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    Object value = node.value;
+    afterRead(node);
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    evictionLock.lock();
+    try {
+      unlink(node);
+    } finally {
+      evictionLock.unlock();
+    }
+    return node.value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      data.clear();
+      clear(window);
+      clear(probation);
+      clear(protectedSpace);
+      delegate.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //记录一次读，缓冲区满了就丢掉（只影响淘汰的精度），攒到一半尝试整理
+  private void afterRead(Node node) {
+    ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFERS - 1)];
+    long writes = buffer.writes.get();
+    long pending = writes - buffer.reads;
+    if (pending < READ_BUFFER_SIZE && buffer.writes.compareAndSet(writes, writes + 1)) {
+      buffer.slots.lazySet((int) (writes & READ_BUFFER_MASK), node);
+      pending++;
+    }
+    if (pending >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void drainReadBuffers() {
+    for (ReadBuffer buffer : readBuffers) {
+      long reads = buffer.reads;
+      long writes = buffer.writes.get();
+      for (; reads < writes; reads++) {
+        int index = (int) (reads & READ_BUFFER_MASK);
+        Node node = buffer.slots.get(index);
+        if (node == null) {
+          //写线程已经占了位置但还没放进来，下次再处理
+          break;
+        }
+        buffer.slots.lazySet(index, null);
+        onAccess(node);
+      }
+      buffer.reads = reads;
+    }
+  }
+
+  private void onAccess(Node node) {
+    if (node.queue == NEW || node.queue == DEAD) {
+      return;
+    }
+    sketch.increment(node.key);
+    if (node.queue == WINDOW) {
+      window.moveToBack(node);
+    } else if (node.queue == PROBATION) {
+      //试用区里再次被访问，升入保护区，保护区满了把最老的降回试用区
+      probation.remove(node);
+      node.queue = PROTECTED;
+      protectedSpace.addLast(node);
+      while (protectedSpace.size > protectedMaximum) {
+        Node demoted = protectedSpace.removeFirst();
+        demoted.queue = PROBATION;
+        probation.addLast(demoted);
+      }
+    } else {
+      protectedSpace.moveToBack(node);
+    }
+  }
+
+  private void evict() {
+    //窗口满了，把最老的移到试用区末尾作为候选
+    while (window.size > windowMaximum) {
+      Node candidate = window.removeFirst();
+      candidate.queue = PROBATION;
+      probation.addLast(candidate);
+    }
+    while (window.size + probation.size + protectedSpace.size > maximumSize) {
+      Node victim = probation.first;
+      Node candidate = probation.last;
+      if (victim == null) {
+        victim = protectedSpace.first != null ? protectedSpace.first : window.first;
+        evictEntry(victim);
+      } else if (victim == candidate || sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        evictEntry(victim);
+      } else {
+        evictEntry(candidate);
+      }
+    }
+  }
+
+  private void evictEntry(Node node) {
+    data.remove(node.key, node);
+    unlink(node);
+  }
+
+  private void unlink(Node node) {
+    if (node.queue == WINDOW) {
+      window.remove(node);
+    } else if (node.queue == PROBATION) {
+      probation.remove(node);
+    } else if (node.queue == PROTECTED) {
+      protectedSpace.remove(node);
+    }
+    node.queue = DEAD;
+  }
+
+  private static void clear(AccessOrderDeque deque) {
+    while (deque.first != null) {
+      deque.removeFirst().queue = DEAD;
+    }
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, x) - 1));
+  }
+
+  //缓存节点，同时是队列的链表节点
+  private static final class Node {
+    final Object key;
+    volatile Object value;
+    //下面的字段由evictionLock保护
+    int queue = NEW;
+    Node prev;
+    Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  //有损的环形读缓冲区
+  private static final class ReadBuffer {
+    final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    final AtomicLong writes = new AtomicLong();
+    //由evictionLock保护，读线程只用来估计剩余空间
+    volatile long reads;
+  }
+
+  //按访问顺序排列的双向链表，first最老
+  private static final class AccessOrderDeque {
+    Node first;
+    Node last;
+    int size;
+
+    void addLast(Node node) {
+      node.prev = last;
+      node.next = null;
+      if (last == null) {
+        first = node;
+      } else {
+        last.next = node;
+      }
+      last = node;
+      size++;
+    }
+
+    Node removeFirst() {
+      Node node = first;
+      remove(node);
+      return node;
+    }
+
+    void remove(Node node) {
+      if (node.prev == null) {
+        first = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        last = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      size--;
+    }
+
+    void moveToBack(Node node) {
+      if (node != last) {
+        remove(node);
+        addLast(node);
+      }
+    }
+  }
+
+  //4位计数器的count-min sketch，每个long存16个计数器，
+  //总计数达到容量的10倍时所有计数减半，让过去的热点逐渐冷却
+  private static final class FrequencySketch {
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+      int length = ceilingPowerOfTwo(maximumSize);
+      table = new long[length];
+      tableMask = length - 1;
+      sampleSize = 10 * maximumSize;
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++additions == sampleSize) {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+      int offset = counter << 2;
+      long mask = 0xfL << offset;
+      if ((table[index] & mask) != mask) {
+        table[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void reset() {
+      int odd = 0;
+      for (int i = 0; i < table.length; i++) {
+        odd += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions = (additions >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+      long hash = (item + SEEDS[i]) * SEEDS[i];
+      hash += hash >>> 32;
+      return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+    }
+  }
+
+}
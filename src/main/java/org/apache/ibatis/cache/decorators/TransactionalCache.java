@@ -15,13 +15,17 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.TableDependencies;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
 
 /**
  * The 2nd level cache transactional buffer.
@@ -64,13 +68,29 @@ public class TransactionalCache implements Cache {
   // 读取缓存时，没有数据的key集合，提交时，创建value为null的entry对象，放入cache实例
   // BlockingCache.getObject()
   private Set<Object> entriesMissedInCache;
+  //按表失效时，记录每个待提交条目读了哪些表（null表示不知道）
+  private TableDependencies dependencies;
+  private Map<Object, Set<String>> tablesOfEntries;
+  //不为null时把清空缓存广播给别的节点
+  private InvalidationBus invalidationBus;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, TableDependencies dependencies) {
+    this(delegate, dependencies, null);
+  }
+
+  public TransactionalCache(Cache delegate, TableDependencies dependencies, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
     //默认commit时不清缓存
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
+    this.dependencies = dependencies;
+    this.tablesOfEntries = new HashMap<Object, Set<String>>();
   }
 
   @Override
@@ -111,7 +131,29 @@ public class TransactionalCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     // 放入到临时集合，等待提交
+    putObject(key, object, null);
+  }
+
+  /**
+   * Adds an entry that was read from the given tables, null if they are unknown.
+   */
+  public void putObject(Object key, Object object, Set<String> tables) {
     entriesToAddOnCommit.put(key, object);
+    tablesOfEntries.put(key, tables);
+  }
+
+  /**
+   * Discards the entries added in this transaction that read one of the written tables.
+   */
+  public void invalidate(Set<String> tables) {
+    Iterator<Map.Entry<Object, Set<String>>> iterator = tablesOfEntries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Object, Set<String>> entry = iterator.next();
+      if (entry.getValue() == null || !Collections.disjoint(entry.getValue(), tables)) {
+        entriesToAddOnCommit.remove(entry.getKey());
+        iterator.remove();
+      }
+    }
   }
 
   @Override
@@ -123,6 +165,7 @@ public class TransactionalCache implements Cache {
   public void clear() {
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
+    tablesOfEntries.clear();
   }
 
   // 将entriesToAddOnCommit集合中的结果对象添加到二级缓存中，
@@ -140,6 +183,12 @@ public class TransactionalCache implements Cache {
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
+      if (dependencies != null) {
+        dependencies.clear(delegate);
+      }
+      if (invalidationBus != null) {
+        invalidationBus.publishClear(delegate.getId());
+      }
     }
     flushPendingEntries();
     reset();
@@ -156,12 +205,18 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tablesOfEntries.clear();
   }
 
   // 在事务提交时将缓存中的待处理条目刷新到实际的缓存实例中
   private void flushPendingEntries() {
     for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
+      if (dependencies != null) {
+        //登记和放入在同一把锁里做，防止并发的失效操作夹在中间留下没登记的脏条目
+        dependencies.putObject(delegate, entry.getKey(), entry.getValue(), tablesOfEntries.get(entry.getKey()));
+      } else {
+        delegate.putObject(entry.getKey(), entry.getValue());
+      }
     }
     for (Object entry : entriesMissedInCache) {
       if (!entriesToAddOnCommit.containsKey(entry)) {
@@ -0,0 +1,313 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session local cache that can be bounded by a number of entries and by an approximate
+ * number of bytes, evicting the least recently used entries.
+ * <p>
+ * Entries are never evicted by {@link #putObject}: the executor calls {@link #trim()} once
+ * no query is running any more, so the placeholders of the queries in progress and the
+ * results deferred loads still have to read stay in the cache. Transient entries, and the
+ * entries larger than the whole byte budget, are dropped by the next trim.
+ * <p>
+ * Sizes are estimated by walking the cached objects a few levels deep and sampling large
+ * collections. Estimation only happens when a byte budget is set.
+ */
+/**
+ * 有界的本地缓存(一级缓存)
+ * 条目数和估算的字节数超了就按LRU淘汰。
+ * 淘汰只在trim()里做，执行器在没有查询在跑的时候才调，这样占位符和延迟加载要读的结果不会被淘汰。
+ *
+ */
+public class BoundedLocalCache extends PerpetualCache {
+
+  //估算对象大小时最多往下走几层，循环引用也靠它停下来
+  private static final int MAX_DEPTH = 3;
+  //集合只估算前几个元素，再按个数放大
+  private static final int SAMPLES = 8;
+  private static final Map<Class<?>, Fields> FIELDS = new ConcurrentHashMap<Class<?>, Fields>();
+
+  //访问顺序的LinkedHashMap，最老的就是最近最少使用的
+  private final LinkedHashMap<Object, Entry> cache = new LinkedHashMap<Object, Entry>(16, .75F, true);
+  //语句结束就要扔掉的条目
+  private final Set<Object> transientKeys = new HashSet<Object>();
+  private int maxEntries;
+  private long maxBytes;
+  private long bytes;
+  private long evictionCount;
+
+  public BoundedLocalCache(String id) {
+    super(id);
+  }
+
+  /**
+   * Maximum number of entries kept after a trim, 0 for no limit.
+   */
+  public void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Approximate maximum number of bytes of the values kept after a trim, 0 for no limit.
+   */
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    put(key, value, false);
+  }
+
+  /**
+   * Puts an entry that is dropped by the next {@link #trim()}.
+   */
+  public void putTransientObject(Object key, Object value) {
+    put(key, value, true);
+  }
+
+  private void put(Object key, Object value, boolean temporary) {
+    long size = maxBytes > 0 ? estimateSize(value, 0) : 0;
+    Entry previous = cache.put(key, new Entry(value, size));
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += size;
+    //比整个预算还大的结果留不住，当成临时的
+    if (temporary || (maxBytes > 0 && size > maxBytes)) {
+      transientKeys.add(key);
+    } else {
+      transientKeys.remove(key);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = cache.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    transientKeys.remove(key);
+    Entry entry = cache.remove(key);
+    if (entry == null) {
+      return null;
+    }
+    bytes -= entry.bytes;
+    return entry.value;
+  }
+
+  @Override
+  public void clear() {
+    cache.clear();
+    transientKeys.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Drops the transient entries, then evicts the least recently used entries until the
+   * cache is within its limits. Must only be called when no query is in progress.
+   */
+  public void trim() {
+    if (!transientKeys.isEmpty()) {
+      for (Object key : new ArrayList<Object>(transientKeys)) {
+        removeObject(key);
+      }
+    }
+    Iterator<Entry> eldest = cache.values().iterator();
+    while (eldest.hasNext() && isOverLimit()) {
+      bytes -= eldest.next().bytes;
+      eldest.remove();
+      evictionCount++;
+    }
+  }
+
+  private boolean isOverLimit() {
+    return (maxEntries > 0 && cache.size() > maxEntries) || (maxBytes > 0 && bytes > maxBytes);
+  }
+
+  /**
+   * Estimated bytes of the values in the cache, 0 when no byte budget is set.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  //估算对象占的字节数，不求准，只求便宜
+  static long estimateSize(Object value, int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      return 40 + 2L * ((String) value).length();
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return 16;
+    }
+    if (value instanceof Date) {
+      return 24;
+    }
+    if (value instanceof Enum || value instanceof Class) {
+      //共享的，不算
+      return 0;
+    }
+    if (depth >= MAX_DEPTH) {
+      return 16;
+    }
+    Class<?> type = value.getClass();
+    if (type.isArray()) {
+      int length = Array.getLength(value);
+      Class<?> componentType = type.getComponentType();
+      if (componentType == byte.class || componentType == boolean.class) {
+        return 16 + length;
+      } else if (componentType == char.class || componentType == short.class) {
+        return 16 + 2L * length;
+      } else if (componentType.isPrimitive()) {
+        return 16 + 8L * length;
+      }
+      long sampled = 0;
+      int samples = Math.min(length, SAMPLES);
+      for (int i = 0; i < samples; i++) {
+        sampled += estimateSize(Array.get(value, i), depth + 1);
+      }
+      return 16 + 4L * length + extrapolate(sampled, samples, length);
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      long sampled = 0;
+      int samples = 0;
+      for (Iterator<?> it = collection.iterator(); it.hasNext() && samples < SAMPLES; samples++) {
+        sampled += estimateSize(it.next(), depth + 1);
+      }
+      return 48 + 16L * collection.size() + extrapolate(sampled, samples, collection.size());
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      long sampled = 0;
+      int samples = 0;
+      for (Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator(); it.hasNext() && samples < SAMPLES; samples++) {
+        Map.Entry<?, ?> entry = it.next();
+        sampled += estimateSize(entry.getKey(), depth + 1) + estimateSize(entry.getValue(), depth + 1);
+      }
+      return 48 + 32L * map.size() + extrapolate(sampled, samples, map.size());
+    }
+    //普通的对象，按字段算
+    Fields fields = fieldsOf(type);
+    long size = 16 + 8L * fields.count;
+    for (Field field : fields.readable) {
+      try {
+        size += estimateSize(field.get(value), depth + 1);
+      } catch (IllegalAccessException e) {
+        // ignore, counted as a reference only
+      }
+    }
+    return size;
+  }
+
+  private static long extrapolate(long sampled, int samples, int size) {
+    return samples == 0 ? 0 : sampled * size / samples;
+  }
+
+  private static Fields fieldsOf(Class<?> type) {
+    Fields fields = FIELDS.get(type);
+    if (fields == null) {
+      int count = 0;
+      List<Field> readable = new ArrayList<Field>();
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        //JDK自己的类不往里走（JDK 9以后也打不开），字段只算引用
+        boolean walked = !isJdkType(c);
+        for (Field field : c.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            count++;
+            //setAccessible成功了才记下来往里走，不再问已废弃的isAccessible
+            if (walked && !field.getType().isPrimitive()) {
+              try {
+                field.setAccessible(true);
+                readable.add(field);
+              } catch (RuntimeException e) {
+                // ignore, SecurityException or InaccessibleObjectException: counted as a reference only
+              }
+            }
+          }
+        }
+      }
+      fields = new Fields(count, readable.toArray(new Field[readable.size()]));
+      FIELDS.put(type, fields);
+    }
+    return fields;
+  }
+
+  private static boolean isJdkType(Class<?> type) {
+    String name = type.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("com.sun.") || name.startsWith("jdk.");
+  }
+
+  //一个类的实例字段数，和其中打开了、可以往里估算的引用字段
+  private static class Fields {
+    private final int count;
+    private final Field[] readable;
+
+    Fields(int count, Field[] readable) {
+      this.count = count;
+      this.readable = readable;
+    }
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final long bytes;
+
+    Entry(Object value, long bytes) {
+      this.value = value;
+      this.bytes = bytes;
+    }
+  }
+
+}
@@ -0,0 +1,473 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.TableDependencies;
+import org.apache.ibatis.cache.decorators.SerializedCache.CustomObjectInputStream;
+
+/**
+ * Cache that keeps serialized values outside of the Java heap, so large read mostly
+ * caches do not add to garbage collection pauses.
+ * <p>
+ * Values are appended to a ring of fixed size slabs, either direct buffers or the
+ * regions of a memory-mapped file. Only the keys and the positions of their values
+ * stay on the heap. When the ring is full the oldest slab is reused and every entry
+ * in it is evicted, so {@code maxBytes} bounds the memory used by values.
+ * <p>
+ * With a {@code file} the slabs are memory-mapped and the cache is read back from
+ * the file when it is created again, e.g. after a restart. The keys are written to
+ * the file too, so both keys and values must be serializable. Only use a file for
+ * data that does not change while the application is down. With table level
+ * invalidation the tables of the entries read back are unknown, so they are
+ * registered to be removed by the first write to any table.
+ * <p>
+ * Being a custom implementation, this cache is not wrapped by the standard decorators:
+ * it does its own locking, returns a copy of the value on every get, and ignores
+ * {@code eviction}, {@code readOnly} and {@code size}.
+ */
+/**
+ * 堆外缓存
+ * 值序列化后存到堆外（直接内存或者内存映射文件），堆上只保留key和位置，减少GC压力。
+ * 空间分成固定大小的slab，按顺序追加写，写满了重用最老的slab，并淘汰里面的所有条目。
+ * 配了file就用内存映射文件，重启后能从文件里恢复缓存。
+ */
+public class OffHeapCache implements Cache {
+
+  //slab头：魔数(int) + 序号(long) + 已用字节(int)
+  private static final int MAGIC = 0x4d424f48;
+  private static final int SLAB_HEADER = 16;
+  //记录头：长度(int，删除后取负) + key长度(int)
+  private static final int RECORD_HEADER = 8;
+
+  private final String id;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private long maxBytes = 64L * 1024 * 1024;
+  private int slabSize = 1024 * 1024;
+  private String file;
+  private TableDependencies tableDependencies;
+
+  //下面的字段在第一次使用时初始化，因为属性是构造之后才设置的
+  private volatile boolean opened;
+  private ByteBuffer[] slabs;
+  private List<List<Object>> keysBySlab;
+  private final Map<Object, Location> index = new HashMap<Object, Location>();
+  private int currentSlab;
+  private long sequence;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  /**
+   * Set when table level invalidation is enabled, to register the entries read back from the file.
+   */
+  public void setTableDependencies(TableDependencies tableDependencies) {
+    this.tableDependencies = tableDependencies;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    ensureOpen();
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    byte[] keyBytes = file == null ? new byte[0] : serialize(key);
+    byte[] valueBytes = serialize(value);
+    int length = RECORD_HEADER + keyBytes.length + valueBytes.length;
+    ensureOpen();
+    lock.writeLock().lock();
+    try {
+      remove(key);
+      if (length > slabSize - SLAB_HEADER) {
+        //比一个slab还大，不缓存
+        return;
+      }
+      ByteBuffer slab = slabs[currentSlab];
+      int used = slab.getInt(12);
+      if (used + length > slabSize) {
+        currentSlab = (currentSlab + 1) % slabs.length;
+        slab = slabs[currentSlab];
+        evictSlab(currentSlab);
+        used = SLAB_HEADER;
+      }
+      ByteBuffer record = slab.duplicate();
+      record.position(used);
+      record.putInt(length);
+      record.putInt(keyBytes.length);
+      record.put(keyBytes);
+      record.put(valueBytes);
+      //记录写完再更新已用字节，写了一半的记录重启时会被忽略
+      slab.putInt(12, used + length);
+      index.put(key, new Location(currentSlab, used, length, keyBytes.length));
+      keysBySlab.get(currentSlab).add(key);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    ensureOpen();
+    byte[] valueBytes;
+    lock.readLock().lock();
+    try {
+      Location location = index.get(key);
+      valueBytes = location == null ? null : read(location);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return valueBytes == null ? null : deserialize(valueBytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    ensureOpen();
+    lock.writeLock().lock();
+    try {
+      remove(key);
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    ensureOpen();
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < slabs.length; i++) {
+        resetSlab(i, 0);
+        keysBySlab.get(i).clear();
+      }
+      index.clear();
+      currentSlab = 0;
+      resetSlab(0, ++sequence);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //持久化的缓存要从文件读入索引，第一次使用时才做
+  private void ensureOpen() {
+    if (!opened) {
+      if (tableDependencies == null) {
+        openLocked();
+      } else {
+        //先拿索引的锁再拿缓存的锁，和提交、失效时的加锁顺序一致，恢复的条目登记完才能被读到
+        synchronized (tableDependencies) {
+          openLocked();
+        }
+      }
+    }
+  }
+
+  private void openLocked() {
+    lock.writeLock().lock();
+    try {
+      open();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void open() {
+    if (opened) {
+      return;
+    }
+    if (slabSize <= SLAB_HEADER + RECORD_HEADER) {
+      throw new CacheException("Slab size of cache " + id + " is too small: " + slabSize);
+    }
+    int count = (int) Math.max(2, maxBytes / slabSize);
+    ByteBuffer[] buffers = new ByteBuffer[count];
+    if (file == null) {
+      for (int i = 0; i < count; i++) {
+        buffers[i] = ByteBuffer.allocateDirect(slabSize);
+      }
+    } else {
+      map(buffers);
+    }
+    slabs = buffers;
+    keysBySlab = new ArrayList<List<Object>>(count);
+    for (int i = 0; i < count; i++) {
+      keysBySlab.add(new ArrayList<Object>());
+    }
+    boolean recovered = file != null && recover();
+    if (!recovered) {
+      for (int i = 0; i < count; i++) {
+        resetSlab(i, 0);
+      }
+      currentSlab = 0;
+      sequence = 1;
+      resetSlab(0, sequence);
+    }
+    opened = true;
+    if (recovered && tableDependencies != null) {
+      registerRecovered();
+    }
+  }
+
+  //恢复的条目不知道读了哪些表，登记成任何写都要删除
+  private void registerRecovered() {
+    for (Object key : new ArrayList<Object>(index.keySet())) {
+      if (index.isEmpty()) {
+        //登记的key太多，索引把整个缓存清掉了
+        break;
+      }
+      tableDependencies.register(this, key, null);
+    }
+  }
+
+  private void map(ByteBuffer[] buffers) {
+    long length = (long) buffers.length * slabSize;
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(new File(file), "rw");
+      if (raf.length() != length) {
+        //大小变了，旧内容作废
+        raf.setLength(0);
+        raf.setLength(length);
+      }
+      FileChannel channel = raf.getChannel();
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * slabSize, slabSize);
+      }
+    } catch (IOException e) {
+      throw new CacheException("Error mapping file " + file + " of cache " + id + ".  Cause: " + e, e);
+    } finally {
+      if (raf != null) {
+        try {
+          //关闭文件不影响已经映射的内存
+          raf.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  //按序号从老到新重放各个slab里的记录，重建索引
+  private boolean recover() {
+    Integer[] order = new Integer[slabs.length];
+    final long[] sequences = new long[slabs.length];
+    for (int i = 0; i < slabs.length; i++) {
+      order[i] = i;
+      sequences[i] = isValid(slabs[i]) ? slabs[i].getLong(4) : 0;
+      if (sequences[i] == 0) {
+        resetSlab(i, 0);
+      }
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long s1 = sequences[o1];
+        long s2 = sequences[o2];
+        return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+      }
+    });
+    int newest = order[order.length - 1];
+    if (sequences[newest] == 0) {
+      return false;
+    }
+    for (Integer slab : order) {
+      if (sequences[slab] != 0) {
+        replay(slab);
+      }
+    }
+    currentSlab = newest;
+    sequence = sequences[newest];
+    return true;
+  }
+
+  private boolean isValid(ByteBuffer slab) {
+    int used = slab.getInt(12);
+    return slab.getInt(0) == MAGIC && used >= SLAB_HEADER && used <= slabSize;
+  }
+
+  private void replay(int slabIndex) {
+    ByteBuffer slab = slabs[slabIndex];
+    int used = slab.getInt(12);
+    int offset = SLAB_HEADER;
+    while (offset + RECORD_HEADER <= used) {
+      int length = slab.getInt(offset);
+      int removedLength = -length;
+      if (length < 0 && removedLength >= RECORD_HEADER) {
+        offset += removedLength;
+        continue;
+      }
+      int keyLength = slab.getInt(offset + 4);
+      if (length < RECORD_HEADER + keyLength || keyLength <= 0 || offset + length > used) {
+        //格式不对，后面的都不要了
+        break;
+      }
+      byte[] keyBytes = new byte[keyLength];
+      ByteBuffer record = slab.duplicate();
+      record.position(offset + RECORD_HEADER);
+      record.get(keyBytes);
+      try {
+        Object key = deserialize(keyBytes);
+        remove(key);
+        index.put(key, new Location(slabIndex, offset, length, keyLength));
+        keysBySlab.get(slabIndex).add(key);
+      } catch (CacheException e) {
+        //key的类已经变了，这条记录不要了
+        slab.putInt(offset, -length);
+      }
+      offset += length;
+    }
+  }
+
+  private void resetSlab(int slabIndex, long slabSequence) {
+    ByteBuffer slab = slabs[slabIndex];
+    slab.putInt(0, MAGIC);
+    slab.putLong(4, slabSequence);
+    slab.putInt(12, SLAB_HEADER);
+  }
+
+  //重用slab前淘汰里面的所有条目
+  private void evictSlab(int slabIndex) {
+    for (Object key : keysBySlab.get(slabIndex)) {
+      Location location = index.get(key);
+      if (location != null && location.slab == slabIndex) {
+        index.remove(key);
+      }
+    }
+    keysBySlab.get(slabIndex).clear();
+    resetSlab(slabIndex, ++sequence);
+  }
+
+  private void remove(Object key) {
+    Location location = index.remove(key);
+    if (location != null) {
+      //长度取负，标记为已删除，重启时跳过
+      slabs[location.slab].putInt(location.offset, -location.length);
+    }
+  }
+
+  private byte[] read(Location location) {
+    byte[] bytes = new byte[location.length - RECORD_HEADER - location.keyLength];
+    ByteBuffer record = slabs[location.slab].duplicate();
+    record.position(location.offset + RECORD_HEADER + location.keyLength);
+    record.get(bytes);
+    return bytes;
+  }
+
+  private byte[] serialize(Object object) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject((Serializable) object);
+      oos.flush();
+      oos.close();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object for cache " + id + ".  Cause: " + e, e);
+    }
+  }
+
+  private Object deserialize(byte[] value) {
+    try {
+      ObjectInputStream ois = new CustomObjectInputStream(new ByteArrayInputStream(value));
+      Object result = ois.readObject();
+      ois.close();
+      return result;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object from cache " + id + ".  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+    return id.equals(((Cache) o).getId());
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+
+  //值在堆外的位置
+  private static class Location {
+    final int slab;
+    final int offset;
+    final int length;
+    final int keyLength;
+
+    Location(int slab, int offset, int length, int keyLength) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+      this.keyLength = keyLength;
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Publishes the second level cache invalidations of this node to the other nodes,
+ * and applies theirs here.
+ * <p>
+ * Committed transactions publish the namespaces they cleared and, with table
+ * invalidation, the tables they wrote. Invalidations published within the batch
+ * delay of each other are merged into one message. A node that receives tables
+ * but does not track which entries read which tables clears all its caches.
+ */
+/**
+ * 缓存失效总线，全局共享
+ * 事务提交时把清空的namespace和写过的表发给别的节点，收到别的节点的消息就在本地清掉对应的缓存。
+ * 一小段时间（batchDelay）内的失效合并成一条消息发送。
+ */
+public class InvalidationBus {
+
+  private static final Log log = LogFactory.getLog(InvalidationBus.class);
+  private static final long DEFAULT_BATCH_DELAY = 10;
+
+  private final Configuration configuration;
+  private final InvalidationTransport transport;
+  //本节点的id，收到自己发的消息时忽略
+  private final String nodeId = UUID.randomUUID().toString();
+  private final ScheduledExecutorService scheduler;
+  private long batchDelay = DEFAULT_BATCH_DELAY;
+  //还没发出去的失效
+  private final Set<String> pendingNamespaces = new LinkedHashSet<String>();
+  private final Set<String> pendingTables = new LinkedHashSet<String>();
+  private boolean flushScheduled;
+  private final AtomicLong publishedCount = new AtomicLong();
+  private final AtomicLong sentCount = new AtomicLong();
+  private final AtomicLong receivedCount = new AtomicLong();
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  public InvalidationBus(Configuration configuration, InvalidationTransport transport) {
+    this.configuration = configuration;
+    this.transport = transport;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mybatis-cache-invalidation");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public void start() {
+    transport.start(this);
+  }
+
+  /**
+   * How long invalidations wait to be merged with the next ones, in milliseconds.
+   * With 0 each one is sent right away.
+   */
+  public void setBatchDelay(long batchDelay) {
+    this.batchDelay = batchDelay;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public InvalidationTransport getTransport() {
+    return transport;
+  }
+
+  public void publishClear(String namespace) {
+    synchronized (this) {
+      pendingNamespaces.add(namespace);
+    }
+    published();
+  }
+
+  public void publishTables(Set<String> tables) {
+    synchronized (this) {
+      pendingTables.addAll(tables);
+    }
+    published();
+  }
+
+  /**
+   * Sends the pending invalidations now.
+   */
+  public void flush() {
+    InvalidationMessage message;
+    synchronized (this) {
+      flushScheduled = false;
+      if (pendingNamespaces.isEmpty() && pendingTables.isEmpty()) {
+        return;
+      }
+      message = new InvalidationMessage(nodeId, pendingNamespaces, pendingTables);
+      pendingNamespaces.clear();
+      pendingTables.clear();
+    }
+    try {
+      transport.send(message);
+      sentCount.incrementAndGet();
+    } catch (RuntimeException e) {
+      //发不出去，别的节点的条目只能等过期了
+      log.warn("Could not send " + message + ". Cause: " + e);
+    }
+  }
+
+  /**
+   * Applies the invalidations of another node. Called by the transport.
+   */
+  public void receive(InvalidationMessage message) {
+    if (nodeId.equals(message.getOrigin())) {
+      return;
+    }
+    receivedCount.incrementAndGet();
+    for (String namespace : message.getNamespaces()) {
+      if (configuration.hasCache(namespace)) {
+        Cache cache = configuration.getCache(namespace);
+        cache.clear();
+        configuration.getTableDependencies().clear(cache);
+      }
+    }
+    if (!message.getTables().isEmpty()) {
+      if (configuration.isTableCacheInvalidation()) {
+        configuration.getTableDependencies().invalidate(message.getTables());
+      } else {
+        //本节点不知道条目读了哪些表，只能全清；短名字重复时StrictMap里放的不是Cache
+        for (Object cache : configuration.getCaches()) {
+          if (cache instanceof Cache) {
+            ((Cache) cache).clear();
+          }
+        }
+      }
+    }
+  }
+
+  public void close() {
+    flush();
+    scheduler.shutdown();
+    transport.close();
+  }
+
+  public long getPublishedCount() {
+    return publishedCount.get();
+  }
+
+  public long getSentCount() {
+    return sentCount.get();
+  }
+
+  public long getReceivedCount() {
+    return receivedCount.get();
+  }
+
+  private void published() {
+    publishedCount.incrementAndGet();
+    if (batchDelay <= 0) {
+      flush();
+      return;
+    }
+    synchronized (this) {
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+    }
+    scheduler.schedule(flushTask, batchDelay, TimeUnit.MILLISECONDS);
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * The invalidations of one node, batched: namespaces whose cache was cleared and
+ * tables that were written.
+ */
+/**
+ * 一批失效消息：清空了哪些namespace的缓存，写了哪些表
+ */
+public class InvalidationMessage {
+
+  private static final int VERSION = 1;
+
+  private final String origin;
+  private final Set<String> namespaces;
+  private final Set<String> tables;
+
+  public InvalidationMessage(String origin, Set<String> namespaces, Set<String> tables) {
+    this.origin = origin;
+    this.namespaces = Collections.unmodifiableSet(new LinkedHashSet<String>(namespaces));
+    this.tables = Collections.unmodifiableSet(new LinkedHashSet<String>(tables));
+  }
+
+  /**
+   * Id of the bus that sent the message.
+   */
+  public String getOrigin() {
+    return origin;
+  }
+
+  public Set<String> getNamespaces() {
+    return namespaces;
+  }
+
+  public Set<String> getTables() {
+    return tables;
+  }
+
+  //只有字符串，自己写比java序列化小很多
+  public byte[] toBytes() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      output.writeByte(VERSION);
+      output.writeUTF(origin);
+      writeStrings(output, namespaces);
+      writeStrings(output, tables);
+      output.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new CacheException("Error writing cache invalidation message.  Cause: " + e, e);
+    }
+  }
+
+  public static InvalidationMessage fromBytes(byte[] data) {
+    try {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+      int version = input.readByte();
+      if (version != VERSION) {
+        throw new CacheException("Unsupported cache invalidation message version " + version + ".");
+      }
+      String origin = input.readUTF();
+      Set<String> namespaces = readStrings(input);
+      Set<String> tables = readStrings(input);
+      return new InvalidationMessage(origin, namespaces, tables);
+    } catch (IOException e) {
+      throw new CacheException("Error reading cache invalidation message.  Cause: " + e, e);
+    }
+  }
+
+  private static void writeStrings(DataOutputStream output, Set<String> strings) throws IOException {
+    output.writeInt(strings.size());
+    for (String string : strings) {
+      output.writeUTF(string);
+    }
+  }
+
+  private static Set<String> readStrings(DataInputStream input) throws IOException {
+    int size = input.readInt();
+    Set<String> strings = new LinkedHashSet<String>();
+    for (int i = 0; i < size; i++) {
+      strings.add(input.readUTF());
+    }
+    return strings;
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidationMessage[origin=" + origin + ", namespaces=" + namespaces + ", tables=" + tables + "]";
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.Properties;
+
+/**
+ * Carries invalidation messages between the nodes of a cluster.
+ * <p>
+ * Implementations need a public no-arg constructor. They get the configuration's
+ * properties before they are started, and deliver the messages of the other nodes
+ * to the bus they were started with. Sending is best effort: a message that cannot
+ * be delivered is dropped, the cache entries of that node then live until they expire.
+ */
+/**
+ * 失效消息的传输SPI，把本节点的失效消息发给别的节点，收到的交给InvalidationBus
+ */
+public interface InvalidationTransport {
+
+  void setProperties(Properties properties);
+
+  void start(InvalidationBus bus);
+
+  void send(InvalidationMessage message);
+
+  void close();
+
+}
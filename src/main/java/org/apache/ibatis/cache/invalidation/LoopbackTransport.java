@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Delivers messages to the other buses of the same JVM that joined the same channel.
+ * Meant for tests and for several configurations in one application.
+ * <p>
+ * The channel is read from the <code>cacheInvalidation.channel</code> property, "default" if not set.
+ */
+/**
+ * JVM内的传输，同一个channel的总线互相投递，测试用
+ */
+public class LoopbackTransport implements InvalidationTransport {
+
+  private static final Map<String, List<LoopbackTransport>> channels = new HashMap<String, List<LoopbackTransport>>();
+
+  private String channel = "default";
+  private InvalidationBus bus;
+
+  @Override
+  public void setProperties(Properties properties) {
+    if (properties != null) {
+      channel = properties.getProperty("cacheInvalidation.channel", channel);
+    }
+  }
+
+  public void setChannel(String channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public void start(InvalidationBus bus) {
+    this.bus = bus;
+    synchronized (channels) {
+      List<LoopbackTransport> members = channels.get(channel);
+      if (members == null) {
+        members = new ArrayList<LoopbackTransport>();
+        channels.put(channel, members);
+      }
+      members.add(this);
+    }
+  }
+
+  @Override
+  public void send(InvalidationMessage message) {
+    List<LoopbackTransport> members;
+    synchronized (channels) {
+      List<LoopbackTransport> joined = channels.get(channel);
+      if (joined == null) {
+        return;
+      }
+      members = new ArrayList<LoopbackTransport>(joined);
+    }
+    for (LoopbackTransport member : members) {
+      if (member != this) {
+        member.bus.receive(message);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (channels) {
+      List<LoopbackTransport> members = channels.get(channel);
+      if (members != null) {
+        members.remove(this);
+        if (members.isEmpty()) {
+          channels.remove(channel);
+        }
+      }
+    }
+  }
+
+}
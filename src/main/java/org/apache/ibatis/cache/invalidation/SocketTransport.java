@@ -0,0 +1,307 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Sends messages over TCP to a fixed list of peers, and listens for theirs.
+ * Each message is written as its length followed by its bytes.
+ * <p>
+ * Properties:
+ * <ul>
+ * <li><code>cacheInvalidation.host</code>: address to listen on, 127.0.0.1 by default</li>
+ * <li><code>cacheInvalidation.port</code>: port to listen on, any free port by default</li>
+ * <li><code>cacheInvalidation.peers</code>: comma separated host:port of the other nodes</li>
+ * <li><code>cacheInvalidation.timeout</code>: connect and socket timeout in milliseconds, 1000 by default</li>
+ * </ul>
+ * A peer that cannot be reached is skipped for a while, one second after the first
+ * failure and twice as long after each next one, up to a minute.
+ */
+/**
+ * socket传输，连到配置好的各个节点发消息，同时监听别的节点发来的消息
+ * 消息格式：长度+内容。发不出去就丢掉，下次再重连。
+ * 连不上的节点先跳过一段时间，每失败一次时间加倍，最多一分钟。
+ */
+public class SocketTransport implements InvalidationTransport {
+
+  private static final Log log = LogFactory.getLog(SocketTransport.class);
+  //消息不会这么大，超过了说明连错了
+  private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+  private static final long MIN_RETRY_DELAY = 1000;
+  private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+  private String host = "127.0.0.1";
+  private int port;
+  private int timeout = 1000;
+  private final List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+  private final List<Socket> accepted = new ArrayList<Socket>();
+  private ServerSocket serverSocket;
+  private volatile boolean closed;
+
+  @Override
+  public void setProperties(Properties properties) {
+    if (properties == null) {
+      return;
+    }
+    host = properties.getProperty("cacheInvalidation.host", host);
+    String portValue = properties.getProperty("cacheInvalidation.port");
+    if (portValue != null) {
+      port = Integer.parseInt(portValue.trim());
+    }
+    String timeoutValue = properties.getProperty("cacheInvalidation.timeout");
+    if (timeoutValue != null) {
+      timeout = Integer.parseInt(timeoutValue.trim());
+    }
+    String peerValue = properties.getProperty("cacheInvalidation.peers");
+    if (peerValue != null) {
+      for (String peer : peerValue.split(",")) {
+        peer = peer.trim();
+        int colon = peer.lastIndexOf(':');
+        if (colon <= 0) {
+          throw new CacheException("Invalid cache invalidation peer '" + peer + "', expected host:port.");
+        }
+        addPeer(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+      }
+    }
+  }
+
+  public void addPeer(String host, int port) {
+    peers.add(new Peer(new InetSocketAddress(host, port)));
+  }
+
+  /**
+   * Connect and socket timeout in milliseconds.
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * The port this node listens on, once started.
+   */
+  public int getPort() {
+    return serverSocket == null ? port : serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void start(final InvalidationBus bus) {
+    try {
+      serverSocket = new ServerSocket(port, 50, InetAddress.getByName(host));
+    } catch (IOException e) {
+      throw new CacheException("Could not listen for cache invalidations on " + host + ":" + port + ".  Cause: " + e, e);
+    }
+    startThread("mybatis-cache-invalidation-accept", new Runnable() {
+      @Override
+      public void run() {
+        accept(bus);
+      }
+    });
+  }
+
+  @Override
+  public void send(InvalidationMessage message) {
+    byte[] data = message.toBytes();
+    for (Peer peer : peers) {
+      //每个节点一把锁，一个节点慢不影响发给别的节点
+      synchronized (peer) {
+        long now = System.currentTimeMillis();
+        if (closed || now < peer.retryAt) {
+          continue;
+        }
+        boolean reused = peer.connection != null;
+        //用过的连接断了（对方重启过）重连一次
+        if (write(peer, data) || (reused && write(peer, data))) {
+          peer.failures = 0;
+          peer.retryAt = 0;
+        } else {
+          peer.failures++;
+          long delay = retryDelay(peer.failures);
+          peer.retryAt = now + delay;
+          log.debug("Could not send cache invalidation to " + peer.address + ", skipping it for " + delay + " ms.");
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    closeQuietly(serverSocket);
+    for (Peer peer : peers) {
+      synchronized (peer) {
+        peer.disconnect();
+      }
+    }
+    synchronized (accepted) {
+      for (Socket socket : accepted) {
+        closeQuietly(socket);
+      }
+      accepted.clear();
+    }
+  }
+
+  //调用方持有peer的锁
+  private boolean write(Peer peer, byte[] data) {
+    try {
+      if (peer.connection == null) {
+        Socket socket = new Socket();
+        try {
+          socket.connect(peer.address, timeout);
+          socket.setSoTimeout(timeout);
+          socket.setTcpNoDelay(true);
+          peer.connection = new Connection(socket);
+        } catch (IOException e) {
+          closeQuietly(socket);
+          throw e;
+        }
+      }
+      peer.connection.output.writeInt(data.length);
+      peer.connection.output.write(data);
+      peer.connection.output.flush();
+      return true;
+    } catch (IOException e) {
+      peer.disconnect();
+      return false;
+    }
+  }
+
+  private static long retryDelay(int failures) {
+    long delay = MIN_RETRY_DELAY << Math.min(failures - 1, 16);
+    return Math.min(delay, MAX_RETRY_DELAY);
+  }
+
+  private void accept(final InvalidationBus bus) {
+    while (!closed) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        if (!closed) {
+          log.warn("Stopped accepting cache invalidations. Cause: " + e);
+        }
+        return;
+      }
+      synchronized (accepted) {
+        accepted.add(socket);
+      }
+      startThread("mybatis-cache-invalidation-receive", new Runnable() {
+        @Override
+        public void run() {
+          receive(socket, bus);
+        }
+      });
+    }
+  }
+
+  private void receive(Socket socket, InvalidationBus bus) {
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      while (!closed) {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+          log.warn("Dropping cache invalidation connection from " + socket.getRemoteSocketAddress() + ", bad message length " + length + ".");
+          return;
+        }
+        byte[] data = new byte[length];
+        input.readFully(data);
+        try {
+          bus.receive(InvalidationMessage.fromBytes(data));
+        } catch (RuntimeException e) {
+          log.warn("Could not apply cache invalidation. Cause: " + e);
+        }
+      }
+    } catch (IOException e) {
+      //对方关闭了连接
+    } finally {
+      closeQuietly(socket);
+      synchronized (accepted) {
+        accepted.remove(socket);
+      }
+    }
+  }
+
+  private static void startThread(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static void closeQuietly(ServerSocket socket) {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  //一个节点，发送时持有它的锁
+  private static class Peer {
+    private final InetSocketAddress address;
+    private Connection connection;
+    //连续失败的次数，和下次再试的时间
+    private int failures;
+    private long retryAt;
+
+    Peer(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    void disconnect() {
+      if (connection != null) {
+        closeQuietly(connection.socket);
+        connection = null;
+      }
+    }
+  }
+
+  private static class Connection {
+    private final Socket socket;
+    private final DataOutputStream output;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+  }
+
+}
@@ -0,0 +1,568 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * Compact binary copy of result objects, built on the {@link Reflector} metadata
+ * MyBatis already keeps for the result types.
+ * <p>
+ * A class is written by its index in a table of class descriptors that is kept
+ * for the life of this serializer, instead of by name. Beans are written as the
+ * values of their properties, the usual collections and maps as their elements,
+ * and shared or circular references are kept. A class is treated as a bean when
+ * it has a default constructor, every non transient field can be read and written
+ * through its property, and it does not customize its Java serialization. Any
+ * other value is written with Java serialization, so the same values as with
+ * {@link JdkCacheSerializer} are accepted.
+ * <p>
+ * The bytes refer to this instance's descriptor table and are only meant to be
+ * read back by it, within the same JVM. Caches built from mappers use the
+ * reflector factory of their configuration.
+ */
+/**
+ * 基于Reflector的二进制序列化器
+ * 类描述（属性的getter/setter）每个缓存只建一次，写的时候只写序号；
+ * 符合JavaBean规范的对象只写属性值，常用的集合和Map只写元素，支持共享和循环引用；
+ * 其他的对象还是用java序列化。
+ * 序列化出来的字节只能由同一个实例读回。
+ */
+public class ReflectorCacheSerializer implements CacheSerializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte FLOAT = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte TRUE = 9;
+  private static final byte FALSE = 10;
+  private static final byte CHARACTER = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BIG_INTEGER = 13;
+  private static final byte DATE = 14;
+  private static final byte SQL_DATE = 15;
+  private static final byte SQL_TIME = 16;
+  private static final byte SQL_TIMESTAMP = 17;
+  private static final byte BYTES = 18;
+  private static final byte ENUM = 19;
+  private static final byte COLLECTION = 20;
+  private static final byte MAP = 21;
+  private static final byte BEAN = 22;
+  private static final byte SERIALIZED = 23;
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+
+  private static final List<Class<?>> COLLECTION_TYPES = Arrays.<Class<?>> asList(
+      ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class);
+  private static final List<Class<?>> MAP_TYPES = Arrays.<Class<?>> asList(HashMap.class, LinkedHashMap.class);
+
+  private final JdkCacheSerializer jdkSerializer = new JdkCacheSerializer();
+  private ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  private final ConcurrentMap<Class<?>, Descriptor> descriptors = new ConcurrentHashMap<Class<?>, Descriptor>();
+  private volatile Descriptor[] descriptorTable = new Descriptor[0];
+
+  public void setReflectorFactory(ReflectorFactory reflectorFactory) {
+    this.reflectorFactory = reflectorFactory;
+  }
+
+  @Override
+  public byte[] serialize(Object value) {
+    try {
+      Output output = new Output();
+      write(value, output);
+      return output.toByteArray();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] data) {
+    try {
+      return read(new Input(data));
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private void write(Object value, Output out) throws Exception {
+    if (value == null) {
+      out.writeByte(NULL);
+      return;
+    }
+    Class<?> type = value.getClass();
+    //先处理不可变的常见类型
+    if (type == String.class) {
+      out.writeByte(STRING);
+      out.writeString((String) value);
+    } else if (type == Integer.class) {
+      out.writeByte(INTEGER);
+      out.writeVarLong((Integer) value);
+    } else if (type == Long.class) {
+      out.writeByte(LONG);
+      out.writeVarLong((Long) value);
+    } else if (type == Double.class) {
+      out.writeByte(DOUBLE);
+      out.writeLong(Double.doubleToRawLongBits((Double) value));
+    } else if (type == Float.class) {
+      out.writeByte(FLOAT);
+      out.writeVarLong(Float.floatToRawIntBits((Float) value));
+    } else if (type == Short.class) {
+      out.writeByte(SHORT);
+      out.writeVarLong((Short) value);
+    } else if (type == Byte.class) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (type == Boolean.class) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (type == Character.class) {
+      out.writeByte(CHARACTER);
+      out.writeVarLong((Character) value);
+    } else if (type == BigDecimal.class) {
+      out.writeByte(BIG_DECIMAL);
+      out.writeVarLong(((BigDecimal) value).scale());
+      out.writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+    } else if (type == BigInteger.class) {
+      out.writeByte(BIG_INTEGER);
+      out.writeBytes(((BigInteger) value).toByteArray());
+    } else if (type == Date.class) {
+      out.writeByte(DATE);
+      out.writeVarLong(((Date) value).getTime());
+    } else if (type == java.sql.Date.class) {
+      out.writeByte(SQL_DATE);
+      out.writeVarLong(((Date) value).getTime());
+    } else if (type == java.sql.Time.class) {
+      out.writeByte(SQL_TIME);
+      out.writeVarLong(((Date) value).getTime());
+    } else if (type == java.sql.Timestamp.class) {
+      out.writeByte(SQL_TIMESTAMP);
+      out.writeVarLong(((Date) value).getTime());
+      out.writeVarLong(((java.sql.Timestamp) value).getNanos());
+    } else if (type == byte[].class) {
+      out.writeByte(BYTES);
+      out.writeBytes((byte[]) value);
+    } else {
+      writeObject(value, type, out);
+    }
+  }
+
+  private void writeObject(Object value, Class<?> type, Output out) throws Exception {
+    Descriptor descriptor = descriptorFor(type);
+    if (descriptor.kind == Descriptor.OTHER) {
+      if (!(value instanceof Serializable)) {
+        throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + value);
+      }
+      out.writeByte(SERIALIZED);
+      out.writeBytes(jdkSerializer.serialize(value));
+      return;
+    }
+    if (descriptor.kind == Descriptor.ENUM) {
+      out.writeByte(ENUM);
+      out.writeVarLong(descriptor.id);
+      out.writeVarLong(((Enum<?>) value).ordinal());
+      return;
+    }
+    //可变对象记下序号，再次遇到时只写引用
+    Integer handle = out.handles.get(value);
+    if (handle != null) {
+      out.writeByte(REFERENCE);
+      out.writeVarLong(handle);
+      return;
+    }
+    out.handles.put(value, out.handles.size());
+    if (descriptor.kind == Descriptor.COLLECTION) {
+      Collection<?> collection = (Collection<?>) value;
+      out.writeByte(COLLECTION);
+      out.writeVarLong(descriptor.id);
+      out.writeVarLong(collection.size());
+      for (Object element : collection) {
+        write(element, out);
+      }
+    } else if (descriptor.kind == Descriptor.MAP) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(MAP);
+      out.writeVarLong(descriptor.id);
+      out.writeVarLong(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        write(entry.getKey(), out);
+        write(entry.getValue(), out);
+      }
+    } else {
+      out.writeByte(BEAN);
+      out.writeVarLong(descriptor.id);
+      for (Invoker getter : descriptor.getters) {
+        write(getter.invoke(value, NO_ARGUMENTS), out);
+      }
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private Object read(Input in) throws Exception {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case REFERENCE:
+        return in.handles.get((int) in.readVarLong());
+      case STRING:
+        return in.readString();
+      case INTEGER:
+        return Integer.valueOf((int) in.readVarLong());
+      case LONG:
+        return Long.valueOf(in.readVarLong());
+      case DOUBLE:
+        return Double.valueOf(Double.longBitsToDouble(in.readLong()));
+      case FLOAT:
+        return Float.valueOf(Float.intBitsToFloat((int) in.readVarLong()));
+      case SHORT:
+        return Short.valueOf((short) in.readVarLong());
+      case BYTE:
+        return Byte.valueOf(in.readByte());
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case CHARACTER:
+        return Character.valueOf((char) in.readVarLong());
+      case BIG_DECIMAL:
+        int scale = (int) in.readVarLong();
+        return new BigDecimal(new BigInteger(in.readBytes()), scale);
+      case BIG_INTEGER:
+        return new BigInteger(in.readBytes());
+      case DATE:
+        return new Date(in.readVarLong());
+      case SQL_DATE:
+        return new java.sql.Date(in.readVarLong());
+      case SQL_TIME:
+        return new java.sql.Time(in.readVarLong());
+      case SQL_TIMESTAMP:
+        java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readVarLong());
+        timestamp.setNanos((int) in.readVarLong());
+        return timestamp;
+      case BYTES:
+        return in.readBytes();
+      case ENUM:
+        Descriptor enumDescriptor = descriptorAt(in.readVarLong());
+        return enumDescriptor.type.getEnumConstants()[(int) in.readVarLong()];
+      case COLLECTION:
+        Collection collection = (Collection) descriptorAt(in.readVarLong()).newInstance();
+        in.handles.add(collection);
+        for (long i = in.readVarLong(); i > 0; i--) {
+          collection.add(read(in));
+        }
+        return collection;
+      case MAP:
+        Map map = (Map) descriptorAt(in.readVarLong()).newInstance();
+        in.handles.add(map);
+        for (long i = in.readVarLong(); i > 0; i--) {
+          Object key = read(in);
+          map.put(key, read(in));
+        }
+        return map;
+      case BEAN:
+        Descriptor descriptor = descriptorAt(in.readVarLong());
+        Object bean = descriptor.newInstance();
+        in.handles.add(bean);
+        for (Invoker setter : descriptor.setters) {
+          setter.invoke(bean, new Object[] { read(in) });
+        }
+        return bean;
+      case SERIALIZED:
+        return jdkSerializer.deserialize(in.readBytes());
+      default:
+        throw new CacheException("Unknown tag " + tag + " in cached value.");
+    }
+  }
+
+  private Descriptor descriptorFor(Class<?> type) {
+    Descriptor descriptor = descriptors.get(type);
+    if (descriptor == null) {
+      descriptor = register(type);
+    }
+    return descriptor;
+  }
+
+  private Descriptor descriptorAt(long id) {
+    return descriptorTable[(int) id];
+  }
+
+  //分配序号要加锁，读的时候用volatile数组，不用加锁
+  private synchronized Descriptor register(Class<?> type) {
+    Descriptor descriptor = descriptors.get(type);
+    if (descriptor == null) {
+      Descriptor[] table = descriptorTable;
+      descriptor = new Descriptor(table.length, type, reflectorFactory);
+      Descriptor[] newTable = Arrays.copyOf(table, table.length + 1);
+      newTable[descriptor.id] = descriptor;
+      descriptorTable = newTable;
+      descriptors.put(type, descriptor);
+    }
+    return descriptor;
+  }
+
+  //类描述，只写序号
+  private static class Descriptor {
+    static final int OTHER = 0;
+    static final int ENUM = 1;
+    static final int COLLECTION = 2;
+    static final int MAP = 3;
+    static final int BEAN = 4;
+
+    final int id;
+    final Class<?> type;
+    final int kind;
+    Invoker[] getters;
+    Invoker[] setters;
+    Reflector reflector;
+
+    Descriptor(int id, Class<?> type, ReflectorFactory reflectorFactory) {
+      this.id = id;
+      if (type.isEnum() || (type.getSuperclass() != null && type.getSuperclass().isEnum())) {
+        //带方法体的枚举常量是匿名子类
+        this.type = type.isEnum() ? type : type.getSuperclass();
+        this.kind = ENUM;
+      } else if (COLLECTION_TYPES.contains(type)) {
+        this.type = type;
+        this.kind = COLLECTION;
+      } else if (MAP_TYPES.contains(type)) {
+        this.type = type;
+        this.kind = MAP;
+      } else {
+        this.type = type;
+        this.kind = initBean(reflectorFactory) ? BEAN : OTHER;
+      }
+    }
+
+    Object newInstance() throws Exception {
+      if (kind == BEAN) {
+        return reflector.getDefaultConstructor().newInstance(NO_ARGUMENTS);
+      }
+      return type.newInstance();
+    }
+
+    //是不是能按属性复制的JavaBean
+    private boolean initBean(ReflectorFactory reflectorFactory) {
+      if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)
+          || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+          || type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+        return false;
+      }
+      Reflector beanReflector = reflectorFactory.findForClass(type);
+      if (!beanReflector.hasDefaultConstructor()) {
+        return false;
+      }
+      List<Invoker> beanGetters = new ArrayList<Invoker>();
+      List<Invoker> beanSetters = new ArrayList<Invoker>();
+      HashSet<String> names = new HashSet<String>();
+      for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+        if (customizesSerialization(c) || c.getName().startsWith("java.")) {
+          return false;
+        }
+        for (Field field : c.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+            continue;
+          }
+          String name = field.getName();
+          //字段必须都能通过属性读写，才能保证复制完整
+          if (!names.add(name) || !beanReflector.hasGetter(name) || !beanReflector.hasSetter(name)
+              || beanReflector.getGetterType(name) != field.getType()
+              || beanReflector.getSetterType(name) != field.getType()) {
+            return false;
+          }
+          beanGetters.add(beanReflector.getGetInvoker(name));
+          beanSetters.add(beanReflector.getSetInvoker(name));
+        }
+      }
+      reflector = beanReflector;
+      getters = beanGetters.toArray(new Invoker[beanGetters.size()]);
+      setters = beanSetters.toArray(new Invoker[beanSetters.size()]);
+      return true;
+    }
+
+    private static boolean customizesSerialization(Class<?> c) {
+      return hasMethod(c, "writeObject") || hasMethod(c, "readObject") || hasMethod(c, "writeReplace")
+          || hasMethod(c, "readResolve") || hasMethod(c, "readObjectNoData");
+    }
+
+    private static boolean hasMethod(Class<?> c, String name) {
+      for (Method method : c.getDeclaredMethods()) {
+        if (method.getName().equals(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  //可增长的字节数组
+  private static class Output {
+    final IdentityHashMap<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+    byte[] buffer = new byte[256];
+    int size;
+
+    void writeByte(int b) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) b;
+    }
+
+    void writeLong(long v) {
+      ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[size++] = (byte) (v >>> shift);
+      }
+    }
+
+    //zigzag变长编码，小数字只占一个字节
+    void writeVarLong(long v) {
+      ensureCapacity(10);
+      long zigzag = (v << 1) ^ (v >> 63);
+      while ((zigzag & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+      buffer[size++] = (byte) zigzag;
+    }
+
+    void writeBytes(byte[] bytes) {
+      writeVarLong(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    void writeString(String s) {
+      int length = s.length();
+      writeVarLong(length);
+      ensureCapacity(length);
+      for (int i = 0; i < length; i++) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          buffer[size++] = (byte) c;
+        } else {
+          //非ASCII字符：标记位+两个字节
+          ensureCapacity(3 + length - i);
+          buffer[size++] = (byte) 0x80;
+          buffer[size++] = (byte) (c >>> 8);
+          buffer[size++] = (byte) c;
+        }
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+      }
+    }
+  }
+
+  private static class Input {
+    final List<Object> handles = new ArrayList<Object>();
+    final byte[] buffer;
+    int position;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    byte readByte() {
+      return buffer[position++];
+    }
+
+    long readLong() {
+      long v = 0;
+      for (int i = 0; i < 8; i++) {
+        v = (v << 8) | (buffer[position++] & 0xFF);
+      }
+      return v;
+    }
+
+    long readVarLong() {
+      long zigzag = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer[position++];
+        zigzag |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    byte[] readBytes() {
+      int length = (int) readVarLong();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    String readString() {
+      int length = (int) readVarLong();
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        int b = buffer[position++];
+        if (b >= 0) {
+          chars[i] = (char) b;
+        } else {
+          chars[i] = (char) (((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF));
+          position += 2;
+        }
+      }
+      return new String(chars);
+    }
+  }
+
+}
@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor;
+
+import java.io.Closeable;
+
+/**
+ * Cursor contract to handle fetching items lazily using an Iterator.
+ * Cursors are a perfect fit to handle millions of items queries that would not normally fit in memory.
+ * Cursor SQL queries must be ordered (resultOrdered="true") using the id columns of the resultMap
+ * if the resultMap contains collections.
+ */
+/**
+ * 游标，逐行从ResultSet中取数据，而不是一次把所有记录都放到List里
+ * 注意：游标只能遍历一次，且必须在SqlSession关闭之前使用
+ *
+ * @param <T> the returned object type
+ */
+public interface Cursor<T> extends Closeable, Iterable<T> {
+
+  /**
+   * @return true if the cursor has started to fetch items from database.
+   */
+  boolean isOpen();
+
+  /**
+   * @return true if the cursor is fully consumed and has returned all elements matching the query.
+   */
+  boolean isConsumed();
+
+  /**
+   * Get the current item index. The first item has the index 0.
+   * @return -1 if the first cursor item has not been retrieved. The index of the current item retrieved.
+   */
+  int getCurrentIndex();
+
+  /**
+   * Closes the cursor, the underlying result set and its statement.
+   * Calling it more than once has no effect.
+   */
+  @Override
+  void close();
+
+}
@@ -0,0 +1,237 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetWrapper;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * This is the default implementation of a MyBatis Cursor.
+ * This implementation is not thread safe.
+ */
+/**
+ * 默认游标实现
+ * 每次next都让DefaultResultSetHandler只处理一条(或嵌套结果的一组)记录,然后停下来
+ *
+ */
+public class DefaultCursor<T> implements Cursor<T> {
+
+  // ResultSetHandler stuff
+  private final DefaultResultSetHandler resultSetHandler;
+  private final ResultMap resultMap;
+  private final ResultSetWrapper rsw;
+  private final RowBounds rowBounds;
+  private final ObjectWrapperResultHandler<T> objectWrapperResultHandler = new ObjectWrapperResultHandler<T>();
+
+  private final CursorIterator cursorIterator = new CursorIterator();
+  private boolean iteratorRetrieved;
+
+  private CursorStatus status = CursorStatus.CREATED;
+  //包括被RowBounds跳过的记录在内，已经取出的记录下标
+  private int indexWithRowBound = -1;
+
+  private enum CursorStatus {
+
+    /**
+     * A freshly created cursor, database ResultSet consuming has not started
+     */
+    CREATED,
+    /**
+     * A cursor currently in use, database ResultSet consuming has started
+     */
+    OPEN,
+    /**
+     * A closed cursor, not fully consumed
+     */
+    CLOSED,
+    /**
+     * A fully consumed cursor, a consumed cursor is always closed
+     */
+    CONSUMED
+  }
+
+  public DefaultCursor(DefaultResultSetHandler resultSetHandler, ResultMap resultMap, ResultSetWrapper rsw, RowBounds rowBounds) {
+    this.resultSetHandler = resultSetHandler;
+    this.resultMap = resultMap;
+    this.rsw = rsw;
+    this.rowBounds = rowBounds;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return status == CursorStatus.OPEN;
+  }
+
+  @Override
+  public boolean isConsumed() {
+    return status == CursorStatus.CONSUMED;
+  }
+
+  @Override
+  public int getCurrentIndex() {
+    return rowBounds.getOffset() + cursorIterator.iteratorIndex;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    //游标只能遍历一次
+    if (iteratorRetrieved) {
+      throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+    }
+    iteratorRetrieved = true;
+    return cursorIterator;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed()) {
+      return;
+    }
+    ResultSet rs = rsw.getResultSet();
+    try {
+      if (rs != null) {
+        //游标拥有自己的Statement，关闭ResultSet的同时也要关闭Statement
+        Statement statement = rs.getStatement();
+        rs.close();
+        if (statement != null) {
+          statement.close();
+        }
+      }
+    } catch (SQLException e) {
+      // ignore
+    } finally {
+      status = CursorStatus.CLOSED;
+    }
+  }
+
+  protected T fetchNextUsingRowBound() {
+    T result = fetchNextObjectFromDatabase();
+    //跳过offset之前的记录
+    while (objectWrapperResultHandler.fetched && indexWithRowBound < rowBounds.getOffset()) {
+      result = fetchNextObjectFromDatabase();
+    }
+    return result;
+  }
+
+  protected T fetchNextObjectFromDatabase() {
+    objectWrapperResultHandler.reset();
+    if (isClosed()) {
+      return null;
+    }
+    try {
+      status = CursorStatus.OPEN;
+      resultSetHandler.handleRowValues(rsw, resultMap, objectWrapperResultHandler, RowBounds.DEFAULT, null);
+    } catch (SQLException e) {
+      close();
+      throw new ExecutorException("Error fetching next object from cursor.  Cause: " + e, e);
+    }
+
+    T next = objectWrapperResultHandler.result;
+    if (objectWrapperResultHandler.fetched) {
+      indexWithRowBound++;
+    }
+    // No more object or limit reached
+    if (!objectWrapperResultHandler.fetched || getReadItemsCount() == rowBounds.getOffset() + rowBounds.getLimit()) {
+      close();
+      status = CursorStatus.CONSUMED;
+    }
+    return next;
+  }
+
+  /**
+   * Tells whether the cursor was closed, either explicitly or by reading all its rows.
+   */
+  public boolean isClosed() {
+    return status == CursorStatus.CLOSED || status == CursorStatus.CONSUMED;
+  }
+
+  private int getReadItemsCount() {
+    return indexWithRowBound + 1;
+  }
+
+  //只接收一个结果，收到后马上让ResultSetHandler停下来
+  private static class ObjectWrapperResultHandler<T> implements ResultHandler {
+
+    private T result;
+    private boolean fetched;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void handleResult(ResultContext context) {
+      this.result = (T) context.getResultObject();
+      this.fetched = true;
+      context.stop();
+    }
+
+    private void reset() {
+      this.result = null;
+      this.fetched = false;
+    }
+  }
+
+  private class CursorIterator implements Iterator<T> {
+
+    /**
+     * Holder for the next object to be returned
+     */
+    private T object;
+    private boolean hasObject;
+
+    /**
+     * Index of objects returned using next(), and as such, visible to users.
+     */
+    private int iteratorIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (!hasObject) {
+        object = fetchNextUsingRowBound();
+        hasObject = objectWrapperResultHandler.fetched;
+      }
+      return hasObject;
+    }
+
+    @Override
+    public T next() {
+      if (hasNext()) {
+        T next = object;
+        object = null;
+        hasObject = false;
+        iteratorIndex++;
+        return next;
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cannot remove element from Cursor");
+    }
+  }
+
+}
@@ -0,0 +1,318 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free container of pooled connections used by {@link PooledDataSource} when
+ * <code>poolLockFree</code> is enabled.
+ * <p>
+ * Every connection occupies one slot of a fixed size array, so the maximum number of
+ * connections is enforced without a lock. Connections move between states by CAS on
+ * {@link PooledConnection}; a thread first looks at the connections it returned itself,
+ * then scans the slots, and finally parks on a fair handoff queue.
+ */
+/**
+ * 无锁的连接容器
+ * 1.槽位数组：每个连接占一个槽位，槽位数就是最大活动连接数
+ * 2.线程本地：优先拿自己刚还回来的连接（亲和性）
+ * 3.公平的SynchronousQueue：归还连接时直接交给等待的线程
+ */
+class ConcurrentBag {
+
+  //每个线程最多记住的最近归还的连接数
+  private static final int MAX_THREAD_LOCAL_CONNECTIONS = 16;
+
+  private final AtomicReferenceArray<PooledConnection> slots;
+  //已占用(含预留)的槽位数
+  private final AtomicInteger totalCount = new AtomicInteger();
+  //空闲连接数
+  private final AtomicInteger idleCount = new AtomicInteger();
+  //等待中的线程数
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+  private final ThreadLocal<List<WeakReference<PooledConnection>>> threadList = new ThreadLocal<List<WeakReference<PooledConnection>>>() {
+    @Override
+    protected List<WeakReference<PooledConnection>> initialValue() {
+      return new ArrayList<WeakReference<PooledConnection>>(MAX_THREAD_LOCAL_CONNECTIONS);
+    }
+  };
+  private volatile boolean closed;
+
+  public ConcurrentBag(int capacity) {
+    this.slots = new AtomicReferenceArray<PooledConnection>(Math.max(capacity, 1));
+  }
+
+  /*
+   * Takes an idle connection without blocking
+   *
+   * @return A connection in STATE_IN_USE, or null if none is idle
+   */
+  public PooledConnection borrow() {
+    //先看本线程归还过的连接
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      PooledConnection conn = list.remove(i).get();
+      if (conn != null && conn.getBag() == this && tryAcquire(conn)) {
+        return conn;
+      }
+    }
+    //再扫描所有槽位
+    for (int i = 0; i < slots.length(); i++) {
+      PooledConnection conn = slots.get(i);
+      if (conn != null && tryAcquire(conn)) {
+        return conn;
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Waits for a connection handed off by a returning thread
+   *
+   * @param timeout - the maximum number of milliseconds to wait
+   * @return A connection in STATE_IN_USE, or null if the time elapsed
+   */
+  public PooledConnection poll(long timeout) throws InterruptedException {
+    waiters.incrementAndGet();
+    try {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      do {
+        //登记为等待者之后再扫描一次，避免错过刚归还的连接
+        PooledConnection conn = borrow();
+        if (conn != null) {
+          return conn;
+        }
+        conn = handoffQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (conn != null && tryAcquire(conn)) {
+          return conn;
+        }
+      } while (deadline - System.nanoTime() > 0);
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Reserves a slot for a connection that is about to be created
+   *
+   * @return True if the bag has room for one more connection
+   */
+  public boolean reserve() {
+    for (;;) {
+      int total = totalCount.get();
+      if (closed || total >= slots.length()) {
+        return false;
+      }
+      if (totalCount.compareAndSet(total, total + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+   * Gives back a slot obtained with reserve() when the connection could not be created
+   */
+  public void unreserve() {
+    totalCount.decrementAndGet();
+  }
+
+  /*
+   * Puts a newly created, checked out connection into a previously reserved slot
+   *
+   * @return False if the bag was closed meanwhile
+   */
+  public boolean add(PooledConnection conn) {
+    for (;;) {
+      for (int i = 0; i < slots.length(); i++) {
+        if (slots.get(i) == null && slots.compareAndSet(i, null, conn)) {
+          conn.assignSlot(this, i);
+          if (closed && slots.compareAndSet(i, conn, null)) {
+            totalCount.decrementAndGet();
+            return false;
+          }
+          return true;
+        }
+      }
+      //预留过槽位就一定有空槽，只是被别的线程抢先了
+      Thread.yield();
+    }
+  }
+
+  /*
+   * Marks a checked out connection as being returned
+   *
+   * @return False if the connection was claimed or removed by another thread
+   */
+  public boolean release(PooledConnection conn) {
+    return conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_RESERVED);
+  }
+
+  /*
+   * Reserves room for one more idle connection
+   *
+   * @param maximumIdle - the idle connection limit
+   * @return True if the connection may be kept
+   */
+  public boolean reserveIdle(int maximumIdle) {
+    for (;;) {
+      int idle = idleCount.get();
+      if (idle >= maximumIdle) {
+        return false;
+      }
+      if (idleCount.compareAndSet(idle, idle + 1)) {
+        return true;
+      }
+    }
+  }
+
+  public void unreserveIdle() {
+    idleCount.decrementAndGet();
+  }
+
+  /*
+   * Replaces a released connection by a fresh idle wrapper of the same real connection,
+   * then hands it to a waiting thread if there is one
+   *
+   * @param oldConn - the connection that was released
+   * @param newConn - the wrapper that takes over its slot
+   * @return False if the bag was closed meanwhile
+   */
+  public boolean requite(PooledConnection oldConn, PooledConnection newConn) {
+    if (!replace(oldConn, newConn)) {
+      return false;
+    }
+    if (!newConn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_NOT_IN_USE)) {
+      return false;
+    }
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    if (list.size() >= MAX_THREAD_LOCAL_CONNECTIONS) {
+      list.remove(0);
+    }
+    list.add(new WeakReference<PooledConnection>(newConn));
+    //有线程在等，就直接交过去
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (newConn.getState() != PooledConnection.STATE_NOT_IN_USE || handoffQueue.offer(newConn)) {
+        break;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Swaps the wrapper stored in a slot, e.g. when an overdue connection is claimed
+   *
+   * @return False if the old connection is no longer in the bag
+   */
+  public boolean replace(PooledConnection oldConn, PooledConnection newConn) {
+    int slot = oldConn.getSlot();
+    if (oldConn.getBag() != this || slot < 0) {
+      return false;
+    }
+    newConn.assignSlot(this, slot);
+    return slots.compareAndSet(slot, oldConn, newConn);
+  }
+
+  /*
+   * Removes a connection from the bag, freeing its slot
+   *
+   * @return True if this call removed it
+   */
+  public boolean remove(PooledConnection conn) {
+    int slot = conn.getSlot();
+    if (conn.getBag() != this || slot < 0) {
+      return false;
+    }
+    int previous = conn.getAndSetState(PooledConnection.STATE_REMOVED);
+    if (slots.compareAndSet(slot, conn, null)) {
+      if (previous == PooledConnection.STATE_NOT_IN_USE) {
+        idleCount.decrementAndGet();
+      }
+      totalCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Finds the connection that has been checked out for the longest time
+   *
+   * @return The connection, or null if none is in use
+   */
+  public PooledConnection oldestInUse() {
+    PooledConnection oldest = null;
+    for (int i = 0; i < slots.length(); i++) {
+      PooledConnection conn = slots.get(i);
+      //刚取出还没记录checkout时间的连接不算
+      if (conn != null && conn.getState() == PooledConnection.STATE_IN_USE && conn.getCheckoutTimestamp() > 0
+          && (oldest == null || conn.getCheckoutTimestamp() < oldest.getCheckoutTimestamp())) {
+        oldest = conn;
+      }
+    }
+    return oldest;
+  }
+
+  /*
+   * Closes the bag and removes every connection from it
+   *
+   * @return The removed connections, which the caller must close
+   */
+  public List<PooledConnection> close() {
+    closed = true;
+    List<PooledConnection> removed = new ArrayList<PooledConnection>();
+    for (int i = 0; i < slots.length(); i++) {
+      PooledConnection conn = slots.get(i);
+      if (conn != null && remove(conn)) {
+        removed.add(conn);
+      }
+    }
+    return removed;
+  }
+
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+
+  public int getActiveCount() {
+    return Math.max(totalCount.get() - idleCount.get(), 0);
+  }
+
+  public int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  private boolean tryAcquire(PooledConnection conn) {
+    if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+      idleCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+}
@@ -17,6 +17,7 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Clinton Begin
@@ -47,55 +48,140 @@ public class PoolState {
   //坏的连接次数
   protected long badConnectionCount = 0;
 
+  //无锁模式不持有state的锁，统计信息记在下面这些原子计数器里，读取时再和上面的字段相加
+  private final AtomicLong lockFreeRequestCount = new AtomicLong();
+  private final AtomicLong lockFreeRequestTime = new AtomicLong();
+  private final AtomicLong lockFreeCheckoutTime = new AtomicLong();
+  private final AtomicLong lockFreeOverdueCount = new AtomicLong();
+  private final AtomicLong lockFreeOverdueCheckoutTime = new AtomicLong();
+  private final AtomicLong lockFreeWaitTime = new AtomicLong();
+  private final AtomicLong lockFreeHadToWaitCount = new AtomicLong();
+  private final AtomicLong lockFreeBadConnectionCount = new AtomicLong();
+  //语句缓存命中、未命中、淘汰的次数，两种模式下都不在state的锁里统计
+  private final AtomicLong statementCacheHitCount = new AtomicLong();
+  private final AtomicLong statementCacheMissCount = new AtomicLong();
+  private final AtomicLong statementCacheEvictionCount = new AtomicLong();
+
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
   public synchronized long getRequestCount() {
-    return requestCount;
+    return requestCount + lockFreeRequestCount.get();
   }
 
   public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+    long requests = getRequestCount();
+    return requests == 0 ? 0 : (accumulatedRequestTime + lockFreeRequestTime.get()) / requests;
   }
 
   public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+    long waits = getHadToWaitCount();
+    return waits == 0 ? 0 : (accumulatedWaitTime + lockFreeWaitTime.get()) / waits;
 
   }
 
   public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+    return hadToWaitCount + lockFreeHadToWaitCount.get();
   }
 
   public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+    return badConnectionCount + lockFreeBadConnectionCount.get();
   }
 
   public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+    return claimedOverdueConnectionCount + lockFreeOverdueCount.get();
   }
 
   public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+    long claimed = getClaimedOverdueConnectionCount();
+    return claimed == 0 ? 0 : (accumulatedCheckoutTimeOfOverdueConnections + lockFreeOverdueCheckoutTime.get()) / claimed;
   }
 
   public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+    long requests = getRequestCount();
+    return requests == 0 ? 0 : (accumulatedCheckoutTime + lockFreeCheckoutTime.get()) / requests;
+  }
+
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.get();
+  }
+
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.get();
+  }
+
+  public long getStatementCacheEvictionCount() {
+    return statementCacheEvictionCount.get();
+  }
+
+  //命中率，没有prepare过时为0
+  public double getStatementCacheHitRatio() {
+    long hits = statementCacheHitCount.get();
+    long requests = hits + statementCacheMissCount.get();
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  //----------以下供无锁模式和语句缓存记录统计信息----------
+  void lockFreeRequest(long requestTime) {
+    lockFreeRequestCount.incrementAndGet();
+    lockFreeRequestTime.addAndGet(requestTime);
+  }
+
+  void lockFreeCheckout(long checkoutTime) {
+    lockFreeCheckoutTime.addAndGet(checkoutTime);
+  }
+
+  void lockFreeOverdueClaim(long checkoutTime) {
+    lockFreeOverdueCount.incrementAndGet();
+    lockFreeOverdueCheckoutTime.addAndGet(checkoutTime);
+    lockFreeCheckoutTime.addAndGet(checkoutTime);
+  }
+
+  void lockFreeHadToWait() {
+    lockFreeHadToWaitCount.incrementAndGet();
+  }
+
+  void lockFreeWait(long waitTime) {
+    lockFreeWaitTime.addAndGet(waitTime);
+  }
+
+  void lockFreeBadConnection() {
+    lockFreeBadConnectionCount.incrementAndGet();
   }
 
+  void statementCacheHit() {
+    statementCacheHitCount.incrementAndGet();
+  }
+
+  void statementCacheMiss() {
+    statementCacheMissCount.incrementAndGet();
+  }
 
+  void statementCacheEviction() {
+    statementCacheEvictionCount.incrementAndGet();
+  }
+
+  //无锁模式下连接都在ConcurrentBag里，否则还是读两个列表
   public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+    ConcurrentBag bag = dataSource.bag;
+    return bag != null ? bag.getIdleCount() : idleConnections.size();
   }
 
   public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+    ConcurrentBag bag = dataSource.bag;
+    return bag != null ? bag.getActiveCount() : activeConnections.size();
+  }
+
+  //正在等待连接的线程数，只在无锁模式下统计
+  public int getWaitingThreadCount() {
+    ConcurrentBag bag = dataSource.bag;
+    return bag == null ? 0 : bag.getWaitingThreadCount();
   }
 
   //打印统计信息，可以供性能优化用
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -109,6 +195,8 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolLockFree                   ").append(dataSource.poolLockFree);
+    builder.append("\n poolPreparedStatementCacheSize ").append(dataSource.poolPreparedStatementCacheSize);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -119,7 +207,11 @@ public class PoolState {
     builder.append("\n averageOverdueCheckoutTime     ").append(getAverageOverdueCheckoutTime());
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
+    builder.append("\n waitingThreads                 ").append(getWaitingThreadCount());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n statementCacheHits             ").append(getStatementCacheHitCount());
+    builder.append("\n statementCacheMisses           ").append(getStatementCacheMissCount());
+    builder.append("\n statementCacheEvictions        ").append(getStatementCacheEvictionCount());
     builder.append("\n===============================================================");
     return builder.toString();
   }
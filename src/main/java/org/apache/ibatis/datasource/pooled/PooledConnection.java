@@ -19,7 +19,9 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -32,19 +34,33 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
+  //无锁模式下连接在ConcurrentBag中的状态，靠CAS切换
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = -1;
+  static final int STATE_RESERVED = -2;
+
   private int hashCode = 0;
   private PooledDataSource dataSource;
   //真正的连接
   private Connection realConnection;
   //代理的连接
   private Connection proxyConnection;
-  private long checkoutTimestamp;
+  private volatile long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
+  //新建的连接总是先交给调用者使用，所以初始状态是IN_USE
+  private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+  //所在的ConcurrentBag和槽位，只在无锁模式下使用
+  private ConcurrentBag bag;
+  private int slot = -1;
+  //真正的连接上缓存的PreparedStatement，换PooledConnection时跟着走，没开启时为null
+  private final PreparedStatementCache statementCache;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -53,6 +69,19 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, dataSource.getPoolPreparedStatementCacheSize() > 0
+        ? new PreparedStatementCache(dataSource.getPoolPreparedStatementCacheSize(), dataSource.getPoolState()) : null);
+  }
+
+  /*
+   * Constructor that wraps a connection again, keeping the statements cached on it
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param statementCache - the statements cached on the connection, or null
+   */
+  public PooledConnection(Connection connection, PooledDataSource dataSource, PreparedStatementCache statementCache) {
+    this.statementCache = statementCache;
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
@@ -96,6 +125,25 @@ class PooledConnection implements InvocationHandler {
     return proxyConnection;
   }
 
+  /*
+   * Getter for the prepared statements cached on the real connection
+   *
+   * @return The cache, or null if statements are not cached
+   */
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Closes the statements cached on the real connection, then the real connection
+   */
+  void closeRealConnection() throws SQLException {
+    if (statementCache != null) {
+      statementCache.clear();
+    }
+    realConnection.close();
+  }
+
   /*
    * Gets the hashcode of the real connection (or 0 if it is null)
    *
@@ -105,6 +153,49 @@ class PooledConnection implements InvocationHandler {
     return realConnection == null ? 0 : realConnection.hashCode();
   }
 
+  /*
+   * Getter for the lock-free pool state of this connection
+   *
+   * @return One of the STATE_* constants
+   */
+  int getState() {
+    return state.get();
+  }
+
+  /*
+   * Atomically moves this connection from one lock-free pool state to another
+   *
+   * @param expect - the state the connection must currently be in
+   * @param update - the new state
+   * @return True if the transition happened
+   */
+  boolean compareAndSetState(int expect, int update) {
+    return state.compareAndSet(expect, update);
+  }
+
+  /*
+   * Unconditionally moves this connection to the given state
+   *
+   * @param update - the new state
+   * @return The previous state
+   */
+  int getAndSetState(int update) {
+    return state.getAndSet(update);
+  }
+
+  ConcurrentBag getBag() {
+    return bag;
+  }
+
+  int getSlot() {
+    return slot;
+  }
+
+  void assignSlot(ConcurrentBag bag, int slot) {
+    this.bag = bag;
+    this.slot = slot;
+  }
+
   /*
    * Getter for the connection type (based on url + user + password)
    *
@@ -249,6 +340,13 @@ class PooledConnection implements InvocationHandler {
         	//除了toString()方法，其他方法调用之前要检查connection是否还是合法的,不合法要抛出SQLException
           checkConnection();
         }
+        //开启了语句缓存的话，prepareStatement先到缓存里找
+        if (statementCache != null && PREPARE_STATEMENT.equals(methodName)) {
+          PreparedStatement statement = statementCache.prepareStatement(realConnection, args);
+          if (statement != null) {
+            return statement;
+          }
+        }
         //其他的方法，则交给真正的connection去调用
         return method.invoke(realConnection, args);
       } catch (Throwable t) {
@@ -23,6 +23,7 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -69,8 +70,15 @@ public class PooledDataSource implements DataSource {
   protected boolean poolPingEnabled = false;
   //用来配置 poolPingQuery 多次时间被用一次
   protected int poolPingConnectionsNotUsedFor = 0;
+  //开启无锁模式，连接放在ConcurrentBag里，取连接和还连接都不再锁住state
+  protected boolean poolLockFree = false;
+  //每个连接缓存的PreparedStatement个数，0表示不缓存
+  protected int poolPreparedStatementCacheSize = 0;
 
-  private int expectedConnectionTypeCode;
+  //无锁模式下的连接容器，普通模式下为null
+  volatile ConcurrentBag bag;
+
+  private volatile int expectedConnectionTypeCode;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -234,6 +242,29 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * Switches the pool to lock-free mode: connections are kept in a concurrent bag with
+   * thread-local affinity and waiting threads are served by a fair handoff queue
+   * instead of synchronizing on the pool state.
+   *
+   * @param poolLockFree True to use the lock-free pool
+   */
+  public void setPoolLockFree(boolean poolLockFree) {
+    this.poolLockFree = poolLockFree;
+    forceCloseAll();
+  }
+
+  /*
+   * Caches up to this many prepared statements on each connection, keyed by their SQL and
+   * result set settings. Closing a cached statement returns it to the cache.
+   *
+   * @param poolPreparedStatementCacheSize The number of statements per connection, 0 to disable
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -290,6 +321,14 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public boolean isPoolLockFree() {
+    return poolLockFree;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
@@ -306,7 +345,7 @@ public class PooledDataSource implements DataSource {
           if (!realConn.getAutoCommit()) {
             realConn.rollback();
           }
-          realConn.close();
+          conn.closeRealConnection();
         } catch (Exception e) {
           // ignore
         }
@@ -320,11 +359,19 @@ public class PooledDataSource implements DataSource {
           if (!realConn.getAutoCommit()) {
             realConn.rollback();
           }
-          realConn.close();
+          conn.closeRealConnection();
         } catch (Exception e) {
           // ignore
         }
       }
+      //无锁模式：换一个新的bag（容量可能变了），再关掉旧bag里的连接
+      ConcurrentBag oldBag = bag;
+      bag = poolLockFree ? new ConcurrentBag(poolMaximumActiveConnections) : null;
+      if (oldBag != null) {
+        for (PooledConnection conn : oldBag.close()) {
+          closeQuietly(conn);
+        }
+      }
     }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
@@ -339,7 +386,30 @@ public class PooledDataSource implements DataSource {
     return ("" + url + username + password).hashCode();
   }
 
+  private void closeQuietly(PooledConnection conn) {
+    conn.invalidate();
+    Connection realConn = conn.getRealConnection();
+    try {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+    } catch (Exception e) {
+      // ignore
+    }
+    //回滚失败也要关掉真正的连接
+    try {
+      conn.closeRealConnection();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   protected void pushConnection(PooledConnection conn) throws SQLException {
+    //无锁模式下连接属于某个bag
+    if (conn.getBag() != null) {
+      pushConnectionLockFree(conn);
+      return;
+    }
 
     synchronized (state) {
       //先从activeConnections中删除此connection
@@ -352,7 +422,7 @@ public class PooledDataSource implements DataSource {
             conn.getRealConnection().rollback();
           }
           //new一个新的Connection，加入到idle列表
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this, conn.getStatementCache());
           state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
@@ -369,7 +439,7 @@ public class PooledDataSource implements DataSource {
             conn.getRealConnection().rollback();
           }
           //那就将connection关闭就可以了
-          conn.getRealConnection().close();
+          conn.closeRealConnection();
           if (log.isDebugEnabled()) {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
           }
@@ -384,7 +454,62 @@ public class PooledDataSource implements DataSource {
     }
   }
 
+  private void pushConnectionLockFree(PooledConnection conn) throws SQLException {
+    ConcurrentBag connBag = conn.getBag();
+    //CAS失败说明连接已经被当作过期连接收回或被强制关闭了
+    if (!connBag.release(conn) || !conn.isValid()) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      connBag.remove(conn);
+      state.lockFreeBadConnection();
+      return;
+    }
+    state.lockFreeCheckout(conn.getCheckoutTime());
+    if (conn.getConnectionTypeCode() == expectedConnectionTypeCode && connBag.reserveIdle(poolMaximumIdleConnections)) {
+      //还能放进空闲连接，换一个新的PooledConnection放回原槽位
+      PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this, conn.getStatementCache());
+      newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+      newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+      boolean returned = false;
+      try {
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+        conn.invalidate();
+        returned = connBag.requite(conn, newConn);
+      } finally {
+        if (!returned) {
+          connBag.unreserveIdle();
+          connBag.remove(conn);
+          connBag.remove(newConn);
+          closeQuietly(newConn);
+        }
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+      }
+    } else {
+      //空闲的连接已经足够了，关闭它并让出槽位
+      try {
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+        conn.closeRealConnection();
+        if (log.isDebugEnabled()) {
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
+        }
+      } finally {
+        conn.invalidate();
+        connBag.remove(conn);
+      }
+    }
+  }
+
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    if (poolLockFree) {
+      return popConnectionLockFree(username, password);
+    }
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
@@ -428,7 +553,7 @@ public class PooledDataSource implements DataSource {
                 oldestActiveConnection.getRealConnection().rollback();
               }
               //删掉最老的连接，然后再new一个新连接
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getStatementCache());
               oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
                 log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
@@ -499,6 +624,131 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  private PooledConnection popConnectionLockFree(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    PooledConnection conn = null;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (conn == null) {
+      ConcurrentBag currentBag = bag;
+      conn = currentBag.borrow();
+      if (conn != null) {
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if (currentBag.reserve()) {
+        //还有空槽位，新建连接
+        Connection realConn;
+        try {
+          realConn = dataSource.getConnection();
+        } catch (SQLException e) {
+          currentBag.unreserve();
+          throw e;
+        } catch (RuntimeException e) {
+          currentBag.unreserve();
+          throw e;
+        }
+        conn = new PooledConnection(realConn, this);
+        if (!currentBag.add(conn)) {
+          //bag在此期间被关闭了，换新的bag重试
+          closeQuietly(conn);
+          conn = null;
+          continue;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        PooledConnection oldestActiveConnection = currentBag.oldestInUse();
+        long longestCheckoutTime = oldestActiveConnection == null ? 0 : oldestActiveConnection.getCheckoutTime();
+        if (longestCheckoutTime > poolMaximumCheckoutTime
+            && oldestActiveConnection.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_RESERVED)) {
+          //抢到了过期的连接
+          state.lockFreeOverdueClaim(longestCheckoutTime);
+          oldestActiveConnection.invalidate();
+          conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getStatementCache());
+          if (!currentBag.replace(oldestActiveConnection, conn)) {
+            currentBag.remove(oldestActiveConnection);
+            closeQuietly(conn);
+            conn = null;
+            continue;
+          }
+          try {
+            if (!conn.getRealConnection().getAutoCommit()) {
+              conn.getRealConnection().rollback();
+            }
+          } catch (SQLException e) {
+            //回滚失败的连接不能再用，关掉再丢弃
+            currentBag.remove(conn);
+            closeQuietly(conn);
+            throw e;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+          }
+        } else {
+          //在公平队列上等待其他线程归还连接
+          if (!countedWait) {
+            state.lockFreeHadToWait();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          try {
+            conn = currentBag.poll(poolTimeToWait);
+          } catch (InterruptedException e) {
+            break;
+          } finally {
+            state.lockFreeWait(System.currentTimeMillis() - wt);
+          }
+        }
+      }
+      if (conn != null) {
+        if (conn.isValid()) {
+          try {
+            if (!conn.getRealConnection().getAutoCommit()) {
+              conn.getRealConnection().rollback();
+            }
+          } catch (SQLException e) {
+            conn.getBag().remove(conn);
+            closeQuietly(conn);
+            throw e;
+          }
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          state.lockFreeRequest(System.currentTimeMillis() - t);
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          conn.getBag().remove(conn);
+          state.lockFreeBadConnection();
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+            if (log.isDebugEnabled()) {
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
+            }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+          }
+        }
+      }
+    }
+
+    if (conn == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+      }
+      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+
+    return conn;
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -539,7 +789,7 @@ public class PooledDataSource implements DataSource {
           } catch (Exception e) {
             log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
             try {
-              conn.getRealConnection().close();
+              conn.closeRealConnection();
             } catch (Exception e2) {
               //ignore
             }
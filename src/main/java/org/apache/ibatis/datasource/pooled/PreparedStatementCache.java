@@ -0,0 +1,330 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Least recently used cache of the prepared statements of one real connection. It moves
+ * with the connection from one {@link PooledConnection} to the next, so statements are
+ * reused by all the sessions that get the connection from the pool.
+ * <p>
+ * Statements are handed out wrapped: closing the wrapper returns the statement to the
+ * cache, after clearing its parameters and batch and resetting the limits that were
+ * changed. A statement is only handed out once at a time; if its SQL is prepared again
+ * while it is in use, the second one is not cached. The result sets of a handed out
+ * statement are wrapped too, so closing their {@code getStatement()} also returns it.
+ */
+/**
+ * 连接级的PreparedStatement缓存(LRU)
+ * 跟着真正的连接走，所以从池里拿到同一个连接的session都能复用。close只是还回缓存。
+ *
+ */
+class PreparedStatementCache {
+
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+  private static final Class<?>[] RESULT_SET_IFACES = new Class<?>[] { ResultSet.class };
+
+  private final int size;
+  private final PoolState state;
+  //访问顺序的LinkedHashMap，最老的就是最近最少使用的
+  private final Map<Key, Entry> statements = new LinkedHashMap<Key, Entry>(16, .75F, true);
+
+  PreparedStatementCache(int size, PoolState state) {
+    this.size = size;
+    this.state = state;
+  }
+
+  /**
+   * Gets a cached statement, or prepares and caches a new one.
+   *
+   * @param args the arguments of {@link Connection#prepareStatement}
+   * @return null if statements prepared with these arguments are not cached
+   */
+  PreparedStatement prepareStatement(Connection connection, Object[] args) throws SQLException {
+    Key key = Key.of(args);
+    if (key == null) {
+      return null;
+    }
+    Entry entry;
+    synchronized (this) {
+      entry = statements.get(key);
+      if (entry != null && !entry.inUse) {
+        entry.inUse = true;
+        state.statementCacheHit();
+        return entry.handOut();
+      }
+    }
+    state.statementCacheMiss();
+    PreparedStatement statement = key.prepare(connection);
+    synchronized (this) {
+      if (entry != null) {
+        //同样的SQL还在用，这个就不缓存了
+        return statement;
+      }
+      entry = new Entry(key, statement);
+      entry.inUse = true;
+      statements.put(key, entry);
+      evict();
+      return entry.handOut();
+    }
+  }
+
+  //超出大小就关掉最老的空闲语句，用着的等还回来再说
+  private void evict() {
+    Iterator<Entry> eldest = statements.values().iterator();
+    while (statements.size() > size && eldest.hasNext()) {
+      Entry entry = eldest.next();
+      if (!entry.inUse) {
+        eldest.remove();
+        state.statementCacheEviction();
+        closeQuietly(entry.statement);
+      }
+    }
+  }
+
+  //还回来的语句
+  private void release(Entry entry) {
+    boolean reusable = entry.reset();
+    synchronized (this) {
+      entry.inUse = false;
+      if (!reusable) {
+        statements.remove(entry.key);
+        closeQuietly(entry.statement);
+      } else if (statements.get(entry.key) != entry) {
+        //已经被淘汰了
+        closeQuietly(entry.statement);
+      } else {
+        evict();
+      }
+    }
+  }
+
+  synchronized int getSize() {
+    return statements.size();
+  }
+
+  /**
+   * Closes all the cached statements, e.g. before the connection is closed.
+   */
+  synchronized void clear() {
+    for (Entry entry : statements.values()) {
+      closeQuietly(entry.statement);
+    }
+    statements.clear();
+  }
+
+  private static void closeQuietly(Statement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  //SQL、结果集类型、并发、主键设置都一样才能复用
+  private static class Key {
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int autoGeneratedKeys;
+    private final String[] columnNames;
+    private final int hashCode;
+
+    private Key(String sql, int resultSetType, int resultSetConcurrency, int autoGeneratedKeys, String[] columnNames) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+      this.columnNames = columnNames;
+      this.hashCode = ((sql.hashCode() * 31 + resultSetType) * 31 + resultSetConcurrency) * 31 + autoGeneratedKeys * 17
+          + Arrays.hashCode(columnNames);
+    }
+
+    //只缓存prepareStatement(sql)、(sql, type, concurrency)、(sql, autoGeneratedKeys)、(sql, columnNames)
+    static Key of(Object[] args) {
+      if (args == null || args.length == 0 || !(args[0] instanceof String)) {
+        return null;
+      }
+      String sql = (String) args[0];
+      if (args.length == 1) {
+        return new Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, Statement.NO_GENERATED_KEYS, null);
+      } else if (args.length == 2 && args[1] instanceof Integer) {
+        return new Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, (Integer) args[1], null);
+      } else if (args.length == 2 && args[1] instanceof String[]) {
+        return new Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, Statement.NO_GENERATED_KEYS, ((String[]) args[1]).clone());
+      } else if (args.length == 3) {
+        return new Key(sql, (Integer) args[1], (Integer) args[2], Statement.NO_GENERATED_KEYS, null);
+      }
+      return null;
+    }
+
+    PreparedStatement prepare(Connection connection) throws SQLException {
+      if (columnNames != null) {
+        return connection.prepareStatement(sql, columnNames);
+      } else if (autoGeneratedKeys != Statement.NO_GENERATED_KEYS) {
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+      } else if (resultSetType != ResultSet.TYPE_FORWARD_ONLY || resultSetConcurrency != ResultSet.CONCUR_READ_ONLY) {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      }
+      return connection.prepareStatement(sql);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hashCode == other.hashCode && sql.equals(other.sql) && resultSetType == other.resultSetType
+          && resultSetConcurrency == other.resultSetConcurrency && autoGeneratedKeys == other.autoGeneratedKeys
+          && Arrays.equals(columnNames, other.columnNames);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private class Entry {
+    private final Key key;
+    private final PreparedStatement statement;
+    private boolean inUse;
+    //用的人改过这些设置，还回来时要恢复
+    private boolean limitsChanged;
+
+    Entry(Key key, PreparedStatement statement) {
+      this.key = key;
+      this.statement = statement;
+    }
+
+    PreparedStatement handOut() {
+      return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, new Handle(this));
+    }
+
+    //清掉上一个使用者留下的状态，出错就不再复用
+    boolean reset() {
+      try {
+        statement.clearParameters();
+        statement.clearBatch();
+        statement.clearWarnings();
+        if (limitsChanged) {
+          statement.setQueryTimeout(0);
+          statement.setMaxRows(0);
+          statement.setFetchSize(0);
+          limitsChanged = false;
+        }
+        return true;
+      } catch (SQLException e) {
+        return false;
+      }
+    }
+  }
+
+  //交给使用者的语句，close就是还回缓存
+  private class Handle implements InvocationHandler {
+    private final Entry entry;
+    private boolean closed;
+
+    Handle(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if ("close".equals(methodName) && method.getParameterTypes().length == 0) {
+        if (!closed) {
+          closed = true;
+          release(entry);
+        }
+        return null;
+      } else if ("isClosed".equals(methodName) && closed) {
+        return true;
+      } else if (Object.class.equals(method.getDeclaringClass())) {
+        if ("equals".equals(methodName)) {
+          return proxy == args[0];
+        } else if ("hashCode".equals(methodName)) {
+          return System.identityHashCode(proxy);
+        }
+        return method.invoke(entry.statement, args);
+      }
+      if (closed) {
+        throw new SQLException("Statement is closed.");
+      }
+      if ("setQueryTimeout".equals(methodName) || "setMaxRows".equals(methodName) || "setFetchSize".equals(methodName)) {
+        entry.limitsChanged = true;
+      }
+      Object result;
+      try {
+        result = method.invoke(entry.statement, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+      if (result instanceof ResultSet) {
+        //结果集的getStatement也要返回包装，否则关的是真正的语句，条目永远还不回来
+        return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), RESULT_SET_IFACES,
+            new ResultSetHandle((ResultSet) result, (PreparedStatement) proxy));
+      }
+      return result;
+    }
+  }
+
+  //交给使用者的结果集，getStatement返回包装过的语句
+  private static class ResultSetHandle implements InvocationHandler {
+    private final ResultSet resultSet;
+    private final PreparedStatement statement;
+
+    ResultSetHandle(ResultSet resultSet, PreparedStatement statement) {
+      this.resultSet = resultSet;
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if ("getStatement".equals(methodName) && method.getParameterTypes().length == 0) {
+        return statement;
+      } else if (Object.class.equals(method.getDeclaringClass())) {
+        if ("equals".equals(methodName)) {
+          return proxy == args[0];
+        } else if ("hashCode".equals(methodName)) {
+          return System.identityHashCode(proxy);
+        }
+      }
+      try {
+        return method.invoke(resultSet, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+  }
+
+}
@@ -20,11 +20,17 @@ import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOL
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.BoundedLocalCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
@@ -32,6 +38,7 @@ import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
@@ -58,10 +65,12 @@ public abstract class BaseExecutor implements Executor {
 
   //延迟加载队列（线程安全）
   protected ConcurrentLinkedQueue<DeferredLoad> deferredLoads;
+  //查出来的延迟加载器和查出它们的线程id，对象被回收了也就不用管了
+  private final Map<ResultLoaderMap, Long> lazyLoaders = new WeakHashMap<ResultLoaderMap, Long>();
   //本地缓存机制（Local Cache）防止循环引用（circular references）和加速重复嵌套查询(一级缓存)
-  //本地缓存
+  //默认是BoundedLocalCache，可以限制条目数和字节数
   protected PerpetualCache localCache;
-  //本地输出参数缓存
+  //本地输出参数缓存，和本地缓存一起淘汰
   protected PerpetualCache localOutputParameterCache;
   protected Configuration configuration;
 
@@ -72,8 +81,13 @@ public abstract class BaseExecutor implements Executor {
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-    this.localCache = new PerpetualCache("LocalCache");
-    this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
+    BoundedLocalCache boundedLocalCache = new BoundedLocalCache("LocalCache");
+    boundedLocalCache.setMaxEntries(configuration.getLocalCacheSize());
+    boundedLocalCache.setMaxBytes(configuration.getLocalCacheMaxBytes());
+    this.localCache = boundedLocalCache;
+    BoundedLocalCache boundedOutputParameterCache = new BoundedLocalCache("LocalOutputParameterCache");
+    boundedOutputParameterCache.setMaxEntries(configuration.getLocalCacheSize());
+    this.localOutputParameterCache = boundedOutputParameterCache;
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
@@ -123,6 +137,14 @@ public abstract class BaseExecutor implements Executor {
     }
     //先清局部缓存，再更新，如何更新交由子类，模板方法模式
     clearLocalCache();
+    //更新过的事务不再用实体缓存；声明了实体的写语句，先从实体缓存删掉，事务结束时再删一次
+    if (configuration.isEntityCacheEnabled()) {
+      if (ms.getEntity() != null) {
+        configuration.getEntityCache().written(transaction, configuration.getResultMap(ms.getEntity()), parameter);
+      } else {
+        configuration.getEntityCache().updated(transaction);
+      }
+    }
     return doUpdate(ms, parameter);
   }
 
@@ -144,8 +166,8 @@ public abstract class BaseExecutor implements Executor {
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
     //得到绑定sql
     BoundSql boundSql = ms.getBoundSql(parameter);
-    //创建缓存Key
-    CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
+    //创建缓存Key，这次查询用不到本地缓存就不算了
+    CacheKey key = isCacheKeyNeeded(ms) ? createCacheKey(ms, parameter, rowBounds, boundSql) : CacheKey.NULL_CACHE_KEY;
     //查询
     return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
  }
@@ -191,11 +213,27 @@ public abstract class BaseExecutor implements Executor {
         // issue #482
     	//如果是STATEMENT，清本地缓存
         clearLocalCache();
+      } else {
+        //没有查询在跑了，延迟加载也做完了，这时才能淘汰
+        trim(localCache);
+        trim(localOutputParameterCache);
       }
     }
     return list;
   }
 
+  //SqlSession.selectCursor会调用此方法
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    ErrorContext.instance().resource(ms.getResource()).activity("executing a cursor query").object(ms.getId());
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    BoundSql boundSql = ms.getBoundSql(parameter);
+    //游标不放入本地缓存，直接交给子类
+    return doQueryCursor(ms, parameter, rowBounds, boundSql);
+  }
+
   //延迟加载，DefaultResultSetHandler.getNestedQueryMappingValue调用.属于嵌套查询，比较高级.
   @Override
   public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
@@ -212,20 +250,50 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  //DefaultResultSetHandler对每个带延迟加载属性的结果对象调用
+  @Override
+  public void registerLazyLoader(ResultLoaderMap lazyLoader) {
+    synchronized (lazyLoaders) {
+      lazyLoaders.put(lazyLoader, Thread.currentThread().getId());
+    }
+  }
+
+  //在别的线程上加载时ResultLoader会另建执行器，所以只看当前线程查出来的
+  @Override
+  public boolean hasPendingLazyLoads() {
+    long threadId = Thread.currentThread().getId();
+    synchronized (lazyLoaders) {
+      Iterator<Map.Entry<ResultLoaderMap, Long>> iterator = lazyLoaders.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<ResultLoaderMap, Long> entry = iterator.next();
+        if (entry.getKey().size() == 0) {
+          //都加载完了
+          iterator.remove();
+        } else if (entry.getValue().longValue() == threadId) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   //创建缓存Key
   @Override
   public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    //id,offset,limit,sql,environment加上参数，一次分配够
+    CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
     //MyBatis 对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
     cacheKey.update(ms.getId());
     cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
     cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
     cacheKey.update(boundSql.getSql());
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+    //参数对象的MetaObject只建一次
+    MetaObject metaObject = null;
     // mimic DefaultParameterHandler logic
     //模仿DefaultParameterHandler的逻辑,不再重复，请参考DefaultParameterHandler
     for (int i = 0; i < parameterMappings.size(); i++) {
@@ -240,7 +308,9 @@ public abstract class BaseExecutor implements Executor {
         } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
           value = parameterObject;
         } else {
-          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          if (metaObject == null) {
+            metaObject = configuration.newMetaObject(parameterObject);
+          }
           value = metaObject.getValue(propertyName);
         }
         cacheKey.update(value);
@@ -253,6 +323,20 @@ public abstract class BaseExecutor implements Executor {
     return cacheKey;
   }    
 
+  //本地缓存只在一条语句内有效，语句又不会在执行中再查别的语句时，顶层的查询用不到CacheKey
+  private boolean isCacheKeyNeeded(MappedStatement ms) {
+    if (queryStack > 0 || configuration.getLocalCacheScope() != LocalCacheScope.STATEMENT
+        || ms.getStatementType() == StatementType.CALLABLE) {
+      return true;
+    }
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      if (resultMap.hasNestedQueries() || resultMap.hasNestedResultMaps() || resultMap.getDiscriminator() != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public boolean isCached(MappedStatement ms, CacheKey key) {
     return localCache.getObject(key) != null;
@@ -268,6 +352,7 @@ public abstract class BaseExecutor implements Executor {
     if (required) {
       transaction.commit();
     }
+    completeEntityWrites(true);
   }
 
   @Override
@@ -280,10 +365,18 @@ public abstract class BaseExecutor implements Executor {
         if (required) {
           transaction.rollback();
         }
+        //没有要回滚的东西（比如只读的session关闭）时，映射出来的实体照样共享
+        completeEntityWrites(!required);
       }
     }
   }
 
+  private void completeEntityWrites(boolean share) {
+    if (configuration.isEntityCacheEnabled()) {
+      configuration.getEntityCache().completed(transaction, share);
+    }
+  }
+
   @Override
   public void clearLocalCache() {
     if (!closed) {
@@ -302,6 +395,10 @@ public abstract class BaseExecutor implements Executor {
   protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException;
 
+  //返回的游标负责关闭Statement
+  protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+      throws SQLException;
+
   protected void closeStatement(Statement statement) {
     if (statement != null) {
       try {
@@ -341,15 +438,39 @@ public abstract class BaseExecutor implements Executor {
       //最后删除占位符
       localCache.removeObject(key);
     }
-    //加入缓存
-    localCache.putObject(key, list);
+    //加入缓存，不用本地缓存的语句只留到语句结束，循环引用和延迟加载还要用
+    if (ms.isUseLocalCache()) {
+      localCache.putObject(key, list);
+    } else {
+      putTransientObject(localCache, key, list);
+    }
     //如果是存储过程，OUT参数也加入缓存
     if (ms.getStatementType() == StatementType.CALLABLE) {
-      localOutputParameterCache.putObject(key, parameter);
+      if (ms.isUseLocalCache()) {
+        localOutputParameterCache.putObject(key, parameter);
+      } else {
+        putTransientObject(localOutputParameterCache, key, parameter);
+      }
     }
     return list;
   }
 
+  //子类可能把本地缓存换成普通的PerpetualCache，那样就不淘汰了
+  private static void trim(PerpetualCache cache) {
+    if (cache instanceof BoundedLocalCache) {
+      ((BoundedLocalCache) cache).trim();
+    }
+  }
+
+  //普通的PerpetualCache不区分临时条目，清本地缓存时一起清掉
+  private static void putTransientObject(PerpetualCache cache, Object key, Object value) {
+    if (cache instanceof BoundedLocalCache) {
+      ((BoundedLocalCache) cache).putTransientObject(key, value);
+    } else {
+      cache.putObject(key, value);
+    }
+  }
+
   protected Connection getConnection(Log statementLog) throws SQLException {
     Connection connection = transaction.getConnection();
     if (statementLog.isDebugEnabled()) {
@@ -21,14 +21,19 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.BatchGrouping;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -45,9 +50,19 @@ public class BatchExecutor extends BaseExecutor {
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
   private String currentSql;
   private MappedStatement currentStatement;
+  private final BatchGrouping batchGrouping;
+  //按语句和SQL记住最后打开的批在statementList里的位置
+  private final Map<StatementKey, Integer> openStatements = new HashMap<StatementKey, Integer>();
+  //每个批碰到的表，TABLES时判断能不能往前并
+  private final List<Set<String>> statementTables = new ArrayList<Set<String>>();
+  //改写成多行VALUES的批，没改写的为null
+  private final List<MultiRowInsert> multiRowInserts = new ArrayList<MultiRowInsert>();
+  //所有批加起来还没执行的行数
+  private int pendingRows;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
+    this.batchGrouping = configuration.getBatchGrouping();
   }
 
   @Override
@@ -57,24 +72,118 @@ public class BatchExecutor extends BaseExecutor {
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
     final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      BatchResult batchResult = batchResultList.get(last);
+    int index = findStatement(ms, sql, parameterObject, boundSql);
+    final BatchResult batchResult;
+    final MultiRowInsert multiRowInsert;
+    if (index >= 0) {
+      stmt = statementList.get(index);
+      multiRowInsert = multiRowInserts.get(index);
+      batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection);
+      Integer rowsPerStatement = configuration.getMultiRowInsertSize();
+      multiRowInsert = rowsPerStatement != null ? MultiRowInsert.rewrite(this, ms, boundSql, rowsPerStatement) : null;
+      if (multiRowInsert == null) {
+        Connection connection = getConnection(ms.getStatementLog());
+        stmt = handler.prepare(connection);
+      } else {
+        //多行的语句自己准备
+        stmt = null;
+      }
       currentSql = sql;
       currentStatement = ms;
+      if (batchGrouping != BatchGrouping.CONSECUTIVE) {
+        openStatements.put(new StatementKey(ms, sql), statementList.size());
+        statementTables.add(batchGrouping == BatchGrouping.TABLES ? ms.getTables(parameterObject, boundSql) : null);
+      }
       statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      multiRowInserts.add(multiRowInsert);
+      batchResult = new BatchResult(ms, sql, parameterObject);
+      batchResultList.add(batchResult);
+    }
+    if (multiRowInsert != null) {
+      multiRowInsert.addRow(parameterObject, boundSql);
+    } else {
+      handler.parameterize(stmt);
+      handler.batch(stmt);
+    }
+    pendingRows++;
+    //所有批加起来攒够了就不等flush，按打开的顺序把所有的批都执行掉
+    //按单个批算的话，语句来回切换时（CONSECUTIVE）每个批都攒不满，打开的语句会越来越多
+    Integer batchSize = ms.getBatchSize() != null ? ms.getBatchSize() : configuration.getDefaultBatchSize();
+    if (batchSize != null && batchSize > 0 && pendingRows >= batchSize) {
+      executePendingBatches();
     }
-    handler.parameterize(stmt);
-    handler.batch(stmt);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  //执行所有攒着的批，语句不关，参数对象交给BatchResultHandler后放掉
+  private void executePendingBatches() throws SQLException {
+    BatchResultHandler batchResultHandler = configuration.getBatchResultHandler();
+    List<BatchResult> results = new ArrayList<BatchResult>();
+    for (int i = 0, n = statementList.size(); i < n; i++) {
+      BatchResult batchResult = batchResultList.get(i);
+      if (batchResult.getParameterObjects().isEmpty()) {
+        continue;
+      }
+      executeBatch(i, statementList.get(i), batchResult, results);
+      results.add(batchResult);
+      if (batchResultHandler != null) {
+        batchResultHandler.handleBatchResult(batchResult);
+      }
+      BatchResult next = new BatchResult(batchResult.getMappedStatement(), batchResult.getSql());
+      next.addExecuted(batchResult);
+      batchResultList.set(i, next);
+    }
+    pendingRows = 0;
+    if (batchGrouping == BatchGrouping.CONSECUTIVE) {
+      //只有最后一个批还能并，前面的执行完就关掉，结果留到flush时返回
+      for (int i = 0, n = statementList.size() - 1; i < n; i++) {
+        closeStatement(statementList.get(i));
+        statementList.set(i, null);
+        MultiRowInsert multiRowInsert = multiRowInserts.get(i);
+        if (multiRowInsert != null) {
+          multiRowInsert.close();
+          multiRowInserts.set(i, null);
+        }
+      }
+    }
+  }
+
+  //找能并进去的批，没有就返回-1
+  private int findStatement(MappedStatement ms, String sql, Object parameterObject, BoundSql boundSql) {
+    if (batchGrouping == BatchGrouping.CONSECUTIVE) {
+      return sql.equals(currentSql) && ms.equals(currentStatement) ? statementList.size() - 1 : -1;
+    }
+    Integer index = openStatements.get(new StatementKey(ms, sql));
+    if (index == null) {
+      return -1;
+    }
+    if (batchGrouping == BatchGrouping.TABLES) {
+      //并进去就等于跑到后面打开的批前面执行了，它们不能碰同样的表，已经执行完的批不算
+      Set<String> tables = ms.getTables(parameterObject, boundSql);
+      for (int i = index + 1, n = statementTables.size(); i < n; i++) {
+        if (!batchResultList.get(i).getParameterObjects().isEmpty() && overlap(tables, statementTables.get(i))) {
+          return -1;
+        }
+      }
+    }
+    return index;
+  }
+
+  //不知道碰哪些表就当作有冲突
+  private static boolean overlap(Set<String> tables, Set<String> otherTables) {
+    if (tables == null || tables.isEmpty() || otherTables == null || otherTables.isEmpty()) {
+      return true;
+    }
+    for (String table : tables) {
+      if (otherTables.contains(table)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -92,6 +201,17 @@ public class BatchExecutor extends BaseExecutor {
     }
   }
 
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    Statement stmt = handler.prepare(connection);
+    handler.parameterize(stmt);
+    return handler.<E>queryCursor(stmt);
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
@@ -102,32 +222,11 @@ public class BatchExecutor extends BaseExecutor {
       for (int i = 0, n = statementList.size(); i < n; i++) {
         Statement stmt = statementList.get(i);
         BatchResult batchResult = batchResultList.get(i);
-        try {
-          batchResult.setUpdateCounts(stmt.executeBatch());
-          MappedStatement ms = batchResult.getMappedStatement();
-          List<Object> parameterObjects = batchResult.getParameterObjects();
-          KeyGenerator keyGenerator = ms.getKeyGenerator();
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
-            }
-          }
-        } catch (BatchUpdateException e) {
-          StringBuilder message = new StringBuilder();
-          message.append(batchResult.getMappedStatement().getId())
-              .append(" (batch index #")
-              .append(i + 1)
-              .append(")")
-              .append(" failed.");
-          if (i > 0) {
-            message.append(" ")
-                .append(i)
-                .append(" prior sub executor(s) completed successfully, but will be rolled back.");
-          }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
+        if (batchResult.getParameterObjects().isEmpty()) {
+          //攒够batchSize时已经全执行了
+          batchResult.setUpdateCounts(new int[0]);
+        } else {
+          executeBatch(i, stmt, batchResult, results);
         }
         results.add(batchResult);
       }
@@ -136,9 +235,78 @@ public class BatchExecutor extends BaseExecutor {
       for (Statement stmt : statementList) {
         closeStatement(stmt);
       }
+      for (MultiRowInsert multiRowInsert : multiRowInserts) {
+        if (multiRowInsert != null) {
+          multiRowInsert.close();
+        }
+      }
       currentSql = null;
+      pendingRows = 0;
+      multiRowInserts.clear();
       statementList.clear();
       batchResultList.clear();
+      openStatements.clear();
+      statementTables.clear();
+    }
+  }
+
+  private void executeBatch(int index, Statement stmt, BatchResult batchResult, List<BatchResult> results) throws SQLException {
+    try {
+      MultiRowInsert multiRowInsert = multiRowInserts.get(index);
+      if (multiRowInsert != null) {
+        //多行VALUES的语句自己算每行的更新数和主键
+        batchResult.setUpdateCounts(multiRowInsert.execute(batchResult.getParameterObjects()));
+        return;
+      }
+      batchResult.setUpdateCounts(stmt.executeBatch());
+      MappedStatement ms = batchResult.getMappedStatement();
+      List<Object> parameterObjects = batchResult.getParameterObjects();
+      KeyGenerator keyGenerator = ms.getKeyGenerator();
+      if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+        Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+        jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+      } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+        for (Object parameter : parameterObjects) {
+          keyGenerator.processAfter(this, ms, stmt, parameter);
+        }
+      }
+    } catch (BatchUpdateException e) {
+      StringBuilder message = new StringBuilder();
+      message.append(batchResult.getMappedStatement().getId())
+          .append(" (batch index #")
+          .append(index + 1)
+          .append(")")
+          .append(" failed.");
+      if (index > 0) {
+        message.append(" ")
+            .append(index)
+            .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+      }
+      throw new BatchExecutorException(message.toString(), e, results, batchResult);
+    }
+  }
+
+  private static class StatementKey {
+    private final MappedStatement mappedStatement;
+    private final String sql;
+
+    StatementKey(MappedStatement mappedStatement, String sql) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) o;
+      return mappedStatement.equals(other.mappedStatement) && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mappedStatement.hashCode() + sql.hashCode();
     }
   }
 
@@ -30,6 +30,9 @@ public class BatchResult {
   private final List<Object> parameterObjects;
 
   private int[] updateCounts;
+  //攒够batchSize自动执行掉、已经放掉参数对象的条数和更新行数
+  private int executedCount;
+  private long executedUpdateCount;
 
   public BatchResult(MappedStatement mappedStatement, String sql) {
     super();
@@ -72,4 +75,32 @@ public class BatchResult {
     this.parameterObjects.add(parameterObject);
   }
 
+  /**
+   * Number of parameter objects of this batch that were run before the flush, because the batch
+   * reached its batch size, and are not in {@link #getParameterObjects()} any more.
+   */
+  public int getExecutedCount() {
+    return executedCount;
+  }
+
+  /**
+   * Sum of the known update counts of the executions counted by {@link #getExecutedCount()}.
+   */
+  public long getExecutedUpdateCount() {
+    return executedUpdateCount;
+  }
+
+  //记下一个已执行的批，再放掉它的参数对象
+  void addExecuted(BatchResult executed) {
+    executedCount += executed.executedCount + executed.parameterObjects.size();
+    executedUpdateCount += executed.executedUpdateCount;
+    if (executed.updateCounts != null) {
+      for (int updateCount : executed.updateCounts) {
+        if (updateCount > 0) {
+          executedUpdateCount += updateCount;
+        }
+      }
+    }
+  }
+
 }
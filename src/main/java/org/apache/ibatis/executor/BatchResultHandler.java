@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+/**
+ * Receives the batches the batch executor runs by itself when they reach their batch size,
+ * so their parameter objects do not have to be kept until the flush.
+ * <p>
+ * Generated keys are already set on the parameter objects when the handler is called.
+ */
+/**
+ * 批处理结果处理器，攒够batchSize自动执行的批交给它，参数对象就不用一直留到flush
+ *
+ */
+public interface BatchResultHandler {
+
+  void handleBatchResult(BatchResult batchResult);
+
+}
@@ -0,0 +1,228 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Lets concurrent second level cache misses for the same key share one query.
+ * <p>
+ * The first session that misses becomes the leader and runs the query. Sessions
+ * that miss the same key meanwhile wait for the leader's result instead of
+ * running it again. When the cache is read/write they each get their own copy,
+ * made with the cache's serializer. If the leader fails, the waiters run the
+ * query themselves. A load is forgotten as soon as the leader is done.
+ */
+/**
+ * 二级缓存未命中合并（single-flight），全局共享
+ * 多个session同时查同一个key时，只有第一个（leader）真正去查数据库，其他的等它的结果。
+ * 读写缓存给每个等待者一份反序列化的拷贝；leader失败了等待者自己去查。
+ */
+public class CacheMissCoalescer {
+
+  private static final Log log = LogFactory.getLog(CacheMissCoalescer.class);
+  //ConcurrentHashMap不能放null，用它表示不需要拷贝
+  private static final Object SHARED = new Object();
+
+  private final Configuration configuration;
+  private final ConcurrentMap<CacheKey, Load> loads = new ConcurrentHashMap<CacheKey, Load>();
+  //每个缓存的CacheSerializer，或者SHARED
+  private final ConcurrentMap<String, Object> serializers = new ConcurrentHashMap<String, Object>();
+  private final AtomicLong loadCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong waitTime = new AtomicLong();
+
+  public CacheMissCoalescer(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Joins the load of a key that is in flight, or starts one.
+   * The caller runs the query if {@link Load#isLeader()}, and must then call
+   * {@link Load#complete} or {@link Load#fail}.
+   */
+  public Load join(Cache cache, CacheKey key) {
+    while (true) {
+      Load load = new Load(this, cache, key);
+      Load current = loads.putIfAbsent(key, load);
+      if (current == null) {
+        loadCount.incrementAndGet();
+        return load;
+      }
+      if (current.addWaiter()) {
+        return current;
+      }
+      //刚好完成了，重新来一遍
+      loads.remove(key, current);
+    }
+  }
+
+  /**
+   * @return the number of queries run by leaders
+   */
+  public long getLoadCount() {
+    return loadCount.get();
+  }
+
+  /**
+   * @return the number of misses that were answered with the result of another session
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * @return total time in milliseconds the waiters spent waiting
+   */
+  public long getWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+  }
+
+  /**
+   * @return the number of loads running now
+   */
+  public int getInFlightCount() {
+    return loads.size();
+  }
+
+  private CacheSerializer serializerFor(Cache cache) {
+    Object serializer = serializers.get(cache.getId());
+    if (serializer == null) {
+      CacheBuilder cacheBuilder = configuration.getCacheBuilder(cache.getId());
+      serializer = cacheBuilder == null ? null : cacheBuilder.newCopySerializer();
+      serializer = serializer == null ? SHARED : serializer;
+      serializers.put(cache.getId(), serializer);
+    }
+    return serializer == SHARED ? null : (CacheSerializer) serializer;
+  }
+
+  /**
+   * One query of a key, shared by the leader and the sessions waiting for it.
+   */
+  public static class Load {
+
+    private final CacheMissCoalescer coalescer;
+    private final Cache cache;
+    private final CacheKey key;
+    private final Thread leader = Thread.currentThread();
+    private final CountDownLatch done = new CountDownLatch(1);
+    //下面的字段由this保护
+    private int waiters;
+    private boolean completed;
+    private boolean failed;
+    private Object result;
+    private byte[] copy;
+    private CacheSerializer serializer;
+
+    Load(CacheMissCoalescer coalescer, Cache cache, CacheKey key) {
+      this.coalescer = coalescer;
+      this.cache = cache;
+      this.key = key;
+    }
+
+    public boolean isLeader() {
+      return leader == Thread.currentThread();
+    }
+
+    /**
+     * Hands the leader's result to the waiters.
+     */
+    public void complete(List<?> list) {
+      try {
+        synchronized (this) {
+          completed = true;
+          if (waiters > 0) {
+            serializer = coalescer.serializerFor(cache);
+            //有等待者才需要拷贝，而且要在leader的调用者改动结果之前
+            if (serializer != null) {
+              copy = serializer.serialize(list);
+            } else {
+              result = list;
+            }
+          }
+        }
+      } catch (RuntimeException e) {
+        //拷贝不了就让等待者自己去查
+        synchronized (this) {
+          failed = true;
+        }
+      } finally {
+        finish();
+      }
+    }
+
+    /**
+     * Lets the waiters run the query themselves.
+     */
+    public void fail() {
+      synchronized (this) {
+        completed = true;
+        failed = true;
+      }
+      finish();
+    }
+
+    /**
+     * Waits for the leader.
+     *
+     * @return the leader's result, or null if the leader failed
+     */
+    public List<?> await() throws InterruptedException {
+      long start = System.nanoTime();
+      done.await();
+      long waited = System.nanoTime() - start;
+      coalescer.waitTime.addAndGet(waited);
+      synchronized (this) {
+        if (failed) {
+          return null;
+        }
+        coalescer.coalescedCount.incrementAndGet();
+        if (log.isDebugEnabled()) {
+          log.debug("Cache miss in " + cache.getId() + " answered by a concurrent query after "
+              + TimeUnit.NANOSECONDS.toMillis(waited) + " ms");
+        }
+        return (List<?>) (copy != null ? serializer.deserialize(copy) : result);
+      }
+    }
+
+    private synchronized boolean addWaiter() {
+      if (completed) {
+        return false;
+      }
+      waiters++;
+      return true;
+    }
+
+    private void finish() {
+      coalescer.loads.remove(key, this);
+      done.countDown();
+    }
+  }
+
+}
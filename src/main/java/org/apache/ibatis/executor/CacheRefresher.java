@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+
+/**
+ * Reloads second level cache entries in the background before they expire.
+ * <p>
+ * A refresh re-executes the statement that loaded the entry, in a transaction of
+ * its own, and puts the result straight into the cache. Refreshes run on a small
+ * pool of daemon threads with a bounded queue: when the queue is full the refresh
+ * is dropped and the entry simply expires. A refresh is skipped as well when the
+ * parameter object was changed since the entry was loaded, as it would no longer
+ * load the entry's key.
+ * <p>
+ * Refreshes are disabled when a plugin intercepts {@link Executor}: such a plugin
+ * wraps the session's executor, and a reload outside of the session could not run
+ * the query the way the plugin does.
+ */
+/**
+ * 二级缓存提前刷新，全局共享
+ * 在后台用单独的事务重新执行加载条目的语句，结果直接放进缓存。
+ * 线程池有界，排不上队就不刷新，条目到时间正常过期。
+ * 有拦截Executor的插件时不刷新，因为后台重新查询经过不了session执行器上的插件。
+ */
+public class CacheRefresher {
+
+  private static final Log log = LogFactory.getLog(CacheRefresher.class);
+  private static final int DEFAULT_THREADS = 2;
+  private static final int DEFAULT_QUEUE_SIZE = 256;
+
+  private final Configuration configuration;
+  private final int threads;
+  private final int queueSize;
+  //第一次刷新时才建线程池
+  private ThreadPoolExecutor executor;
+  private final AtomicLong refreshCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+
+  public CacheRefresher(Configuration configuration) {
+    this(configuration, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+  }
+
+  public CacheRefresher(Configuration configuration, int threads, int queueSize) {
+    this.configuration = configuration;
+    this.threads = threads;
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * Schedules a reload of the entry of the key. The claim is released if the reload
+   * does not replace the entry.
+   *
+   * @return false if the refresh was dropped, the caller must then release the claim
+   */
+  public boolean refresh(final MappedStatement ms, final Object parameterObject, final RowBounds rowBounds, final CacheKey key,
+      final ExpiringCache.Refresh claim) {
+    if (configuration.getEnvironment() == null || hasExecutorPlugins()) {
+      return false;
+    }
+    try {
+      executor().execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!reload(ms, parameterObject, rowBounds, key)) {
+            claim.release();
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejectedCount.incrementAndGet();
+      return false;
+    }
+  }
+
+  public long getRefreshCount() {
+    return refreshCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  //和Plugin.wrap一样看@Intercepts里的类型
+  private boolean hasExecutorPlugins() {
+    for (Interceptor interceptor : configuration.getInterceptors()) {
+      Intercepts intercepts = interceptor.getClass().getAnnotation(Intercepts.class);
+      if (intercepts == null) {
+        continue;
+      }
+      for (Signature signature : intercepts.value()) {
+        if (Executor.class.isAssignableFrom(signature.type())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  //返回false表示没有换掉缓存里的条目
+  private boolean reload(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key) {
+    Environment environment = configuration.getEnvironment();
+    TransactionFactory transactionFactory = environment.getTransactionFactory() == null
+        ? new ManagedTransactionFactory() : environment.getTransactionFactory();
+    Executor executor = null;
+    try {
+      Transaction transaction = transactionFactory.newTransaction(environment.getDataSource(), null, false);
+      executor = new SimpleExecutor(configuration, transaction);
+      BoundSql boundSql = ms.getBoundSql(parameterObject);
+      //参数对象被调用方改过了，查出来的就不是这个key的结果
+      if (!key.equals(executor.createCacheKey(ms, parameterObject, rowBounds, boundSql))) {
+        return false;
+      }
+      List<Object> list = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+      Cache cache = ms.getCache();
+      cache.putObject(key, list);
+      if (configuration.isTableCacheInvalidation()) {
+        configuration.getTableDependencies().register(cache, key, ms.getTables(parameterObject, boundSql));
+      }
+      refreshCount.incrementAndGet();
+      return true;
+    } catch (Exception e) {
+      failureCount.incrementAndGet();
+      if (log.isDebugEnabled()) {
+        log.debug("Could not refresh cache entry of " + ms.getId() + ". Cause: " + e);
+      }
+      return false;
+    } finally {
+      if (executor != null) {
+        executor.close(false);
+      }
+    }
+  }
+
+  private synchronized ThreadPoolExecutor executor() {
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(queueSize), new RefreshThreadFactory());
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
+
+  //守护线程，不影响应用退出
+  private static class RefreshThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-cache-refresh-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
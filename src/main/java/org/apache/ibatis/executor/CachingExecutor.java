@@ -17,16 +17,24 @@ package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.TableDependencies;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -41,10 +49,39 @@ import org.apache.ibatis.transaction.Transaction;
 public class CachingExecutor implements Executor {
 
   private Executor delegate;
-  private TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private TransactionalCacheManager tcm;
+  //是否按表失效缓存
+  private boolean tableInvalidation;
+  //不为null时合并并发的缓存未命中
+  private CacheMissCoalescer coalescer;
+  //不为null时在后台刷新快过期的条目
+  private CacheRefresher refresher;
+  //有没提交的写操作，这时查到的结果不能给别的session
+  private boolean dirty;
+  //嵌套查询（如association的select）的深度，嵌套的查询不等别人，避免互相等待
+  private int queryDepth;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null, null, null, null);
+  }
+
+  /**
+   * Uses the second level cache features enabled in the configuration: table level invalidation,
+   * coalescing of concurrent misses, refresh ahead and the invalidation bus.
+   */
+  public CachingExecutor(Executor delegate, Configuration configuration) {
+    this(delegate, configuration.isTableCacheInvalidation() ? configuration.getTableDependencies() : null,
+        configuration.isCacheMissCoalescing() ? configuration.getCacheMissCoalescer() : null,
+        configuration.getCacheRefresher(), configuration.getInvalidationBus());
+  }
+
+  private CachingExecutor(Executor delegate, TableDependencies dependencies, CacheMissCoalescer coalescer, CacheRefresher refresher,
+      InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.tcm = new TransactionalCacheManager(dependencies, invalidationBus);
+    this.tableInvalidation = dependencies != null;
+    this.coalescer = coalescer;
+    this.refresher = refresher;
     delegate.setExecutorWrapper(this);
   }
 
@@ -75,18 +112,36 @@ public class CachingExecutor implements Executor {
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
 	//刷新缓存完再update
-    flushCacheIfRequired(ms);
+    dirty = true;
+    if (tableInvalidation && ms.isFlushCacheRequired()) {
+      invalidateTables(ms, parameterObject);
+    } else {
+      flushCacheIfRequired(ms);
+    }
     return delegate.update(ms, parameterObject);
   }
 
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
+    Cache cache = ms.getCache();
+    if (cache == null || !ms.isUseCache() || resultHandler != null) {
+      //用不到二级缓存，要不要算CacheKey由delegate决定
+      flushCacheIfRequired(ms);
+      return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler);
+    }
     BoundSql boundSql = ms.getBoundSql(parameterObject);
 	//query时传入一个cachekey参数
     CacheKey key = createCacheKey(ms, parameterObject, rowBounds, boundSql);
     return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  //游标结果不放入二级缓存
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    flushCacheIfRequired(ms);
+    return delegate.queryCursor(ms, parameter, rowBounds);
+  }
+
   //被ResultLoader.selectList调用
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql)
@@ -98,10 +153,22 @@ public class CachingExecutor implements Executor {
       flushCacheIfRequired(ms);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, parameterObject, boundSql);
+        if (tableInvalidation) {
+          Set<String> tables = ms.getTables(parameterObject, boundSql);
+          @SuppressWarnings("unchecked")
+          List<E> list = (List<E>) tcm.getObject(cache, key, tables);
+          refreshIfClaimed(ms, parameterObject, rowBounds, key, list);
+          if (list == null) {
+            list = queryMissed(cache, ms, parameterObject, rowBounds, key, boundSql);
+            tcm.putObject(cache, key, list, tables);
+          }
+          return list;
+        }
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
+        refreshIfClaimed(ms, parameterObject, rowBounds, key, list);
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          list = queryMissed(cache, ms, parameterObject, rowBounds, key, boundSql);
           tcm.putObject(cache, key, list); // issue #578 and #116
         }
         return list;
@@ -110,6 +177,64 @@ public class CachingExecutor implements Executor {
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  //缓存未命中，去查数据库，开启了合并的话同一个key只查一次
+  private <E> List<E> queryMissed(Cache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    if (coalescer == null || dirty || queryDepth > 0) {
+      return queryDelegate(ms, parameterObject, rowBounds, key, boundSql);
+    }
+    CacheMissCoalescer.Load load = coalescer.join(cache, key);
+    if (!load.isLeader()) {
+      List<?> list;
+      try {
+        list = load.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutorException("Interrupted while waiting for a concurrent query of " + ms.getId() + ".", e);
+      }
+      if (list != null) {
+        @SuppressWarnings("unchecked")
+        List<E> result = (List<E>) list;
+        return result;
+      }
+      //leader失败了，自己查
+      return queryDelegate(ms, parameterObject, rowBounds, key, boundSql);
+    }
+    boolean completed = false;
+    try {
+      List<E> list = queryDelegate(ms, parameterObject, rowBounds, key, boundSql);
+      load.complete(list);
+      completed = true;
+      return list;
+    } finally {
+      if (!completed) {
+        load.fail();
+      }
+    }
+  }
+
+  //命中的条目快过期了，这次读认领了刷新，交给后台重新查，不等它
+  private void refreshIfClaimed(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, List<?> list) {
+    ExpiringCache.Refresh claim = ExpiringCache.takeRefresh(key);
+    if (claim == null) {
+      return;
+    }
+    //命中被事务屏蔽了（缓存清空过或者读过的表被写了）、没有刷新器或者排不上队，放掉认领，以后的读还能再认领
+    if (list == null || refresher == null || !refresher.refresh(ms, parameterObject, rowBounds, key, claim)) {
+      claim.release();
+    }
+  }
+
+  private <E> List<E> queryDelegate(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    queryDepth++;
+    try {
+      return delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+    } finally {
+      queryDepth--;
+    }
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -119,6 +244,7 @@ public class CachingExecutor implements Executor {
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
     tcm.commit();
+    dirty = false;
   }
 
   @Override
@@ -126,6 +252,7 @@ public class CachingExecutor implements Executor {
     try {
       delegate.rollback(required);
     } finally {
+      dirty = false;
       if (required) {
         tcm.rollback();
       }
@@ -157,6 +284,16 @@ public class CachingExecutor implements Executor {
     delegate.deferLoad(ms, resultObject, property, key, targetType);
   }
 
+  @Override
+  public void registerLazyLoader(ResultLoaderMap lazyLoader) {
+    delegate.registerLazyLoader(lazyLoader);
+  }
+
+  @Override
+  public boolean hasPendingLazyLoads() {
+    return delegate.hasPendingLazyLoads();
+  }
+
   @Override
   public void clearLocalCache() {
     delegate.clearLocalCache();
@@ -169,6 +306,16 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  //只失效读过被写的表的缓存，不论在哪个namespace；找不到表名时还是清空整个namespace的缓存
+  private void invalidateTables(MappedStatement ms, Object parameterObject) {
+    Set<String> tables = ms.getSqlCommandType() == SqlCommandType.SELECT ? null : ms.getTables(parameterObject, null);
+    if (tables != null) {
+      tcm.invalidate(tables);
+    } else {
+      flushCacheIfRequired(ms);
+    }
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
@@ -0,0 +1,327 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * Batch of a single row {@code INSERT ... VALUES (...)} statement sent as multi row
+ * {@code VALUES (...), (...), ...} statements.
+ * <p>
+ * The values of each row are resolved when the row is added, like a batched statement
+ * is parameterized, and bound as additional parameters of the multi row statement. Full
+ * statements are added to a JDBC batch; the remaining rows are inserted by one shorter
+ * statement when the batch is executed. Update counts are reported per row and generated
+ * keys are set on the parameter objects in row order.
+ */
+/**
+ * 把单行INSERT的批改写成多行VALUES的语句
+ *
+ */
+final class MultiRowInsert {
+
+  private final BatchExecutor executor;
+  private final MappedStatement ms;
+  private final Configuration configuration;
+  //VALUES之前（含VALUES）的部分
+  private final String prefix;
+  //一行的VALUES (...)
+  private final String row;
+  private final List<ParameterMapping> rowMappings;
+  private final int rowsPerStatement;
+  //满行语句的SQL和参数映射都一样，只建一次
+  private final String fullSql;
+  private final List<ParameterMapping> fullMappings;
+  //还没放进语句的行的值
+  private final List<Object[]> pendingRows = new ArrayList<Object[]>();
+  private PreparedStatement statement;
+  private int batchedStatements;
+
+  private MultiRowInsert(BatchExecutor executor, MappedStatement ms, String prefix, String row, List<ParameterMapping> rowMappings, int rowsPerStatement) {
+    this.executor = executor;
+    this.ms = ms;
+    this.configuration = ms.getConfiguration();
+    this.prefix = prefix;
+    this.row = row;
+    this.rowMappings = rowMappings;
+    this.rowsPerStatement = rowsPerStatement;
+    this.fullSql = sql(rowsPerStatement);
+    this.fullMappings = mappings(rowsPerStatement);
+  }
+
+  /**
+   * @return null if the statement cannot be rewritten
+   */
+  static MultiRowInsert rewrite(BatchExecutor executor, MappedStatement ms, BoundSql boundSql, int rowsPerStatement) {
+    if (rowsPerStatement < 2 || ms.getSqlCommandType() != SqlCommandType.INSERT || ms.getStatementType() != StatementType.PREPARED) {
+      return null;
+    }
+    //selectKey之类要一行一行处理的主键生成器不行
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (!Jdbc3KeyGenerator.class.equals(keyGenerator.getClass()) && !NoKeyGenerator.class.equals(keyGenerator.getClass())) {
+      return null;
+    }
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    for (ParameterMapping parameterMapping : parameterMappings) {
+      if (parameterMapping.getMode() != ParameterMode.IN) {
+        return null;
+      }
+    }
+    String[] parts = splitValues(boundSql.getSql());
+    if (parts == null || countPlaceholders(parts[1]) != parameterMappings.size()) {
+      return null;
+    }
+    return new MultiRowInsert(executor, ms, parts[0], parts[1], parameterMappings, rowsPerStatement);
+  }
+
+  /**
+   * Splits {@code INSERT ... VALUES (...)} into the part up to the row and the row.
+   *
+   * @return null if the SQL does not end with a single row of values, or has placeholders before it
+   */
+  static String[] splitValues(String sql) {
+    String lowerSql = sql.toLowerCase(Locale.ENGLISH);
+    int values = -1;
+    int open = -1;
+    int close = -1;
+    int depth = 0;
+    char quote = 0;
+    for (int i = 0, n = sql.length(); i < n; i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        if (depth == 0 && values >= 0 && open < 0) {
+          open = i;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0 && open >= 0 && close < 0) {
+          close = i;
+        }
+      } else if (depth == 0 && !Character.isWhitespace(c)) {
+        if (close >= 0) {
+          //后面还有别的，比如第二行、ON DUPLICATE KEY、RETURNING
+          return null;
+        } else if (values >= 0) {
+          return null;
+        } else if (lowerSql.startsWith("values", i) && isWordBoundary(sql, i - 1) && isWordBoundary(sql, i + 6)) {
+          values = i;
+          i += 5;
+        }
+      }
+    }
+    if (close < 0) {
+      return null;
+    }
+    String prefix = sql.substring(0, open);
+    if (countPlaceholders(prefix) > 0) {
+      return null;
+    }
+    return new String[] { prefix, sql.substring(open, close + 1) };
+  }
+
+  private static boolean isWordBoundary(String sql, int index) {
+    return index < 0 || index >= sql.length() || !Character.isJavaIdentifierPart(sql.charAt(index));
+  }
+
+  private static int countPlaceholders(String sql) {
+    int count = 0;
+    char quote = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '?') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  //和DefaultParameterHandler一样取出这一行的值
+  void addRow(Object parameterObject, BoundSql boundSql) throws SQLException {
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    Object[] values = new Object[parameterMappings.size()];
+    MetaObject metaObject = null;
+    for (int i = 0; i < values.length; i++) {
+      String propertyName = parameterMappings.get(i).getProperty();
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        values[i] = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        values[i] = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        values[i] = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        values[i] = metaObject.getValue(propertyName);
+      }
+    }
+    pendingRows.add(values);
+    //攒满一条语句就放进JDBC批里
+    if (pendingRows.size() >= rowsPerStatement) {
+      if (statement == null) {
+        statement = prepare(fullSql, fullMappings, pendingRows);
+      } else {
+        newStatementHandler(fullSql, fullMappings, pendingRows).parameterize(statement);
+      }
+      statement.addBatch();
+      batchedStatements++;
+      pendingRows.clear();
+    }
+  }
+
+  /**
+   * Executes the batched statements, then inserts the remaining rows.
+   *
+   * @param parameterObjects the parameter objects of all the rows added since the last execution
+   * @return the update count of each row
+   */
+  int[] execute(List<Object> parameterObjects) throws SQLException {
+    int[] updateCounts = new int[parameterObjects.size()];
+    int rows = 0;
+    if (batchedStatements > 0) {
+      int[] statementCounts = statement.executeBatch();
+      for (int i = 0; i < batchedStatements; i++) {
+        fillUpdateCounts(updateCounts, rows, rowsPerStatement, i < statementCounts.length ? statementCounts[i] : Statement.SUCCESS_NO_INFO);
+        rows += rowsPerStatement;
+      }
+      batchedStatements = 0;
+      processGeneratedKeys(statement, parameterObjects.subList(0, rows));
+    }
+    if (!pendingRows.isEmpty()) {
+      int pending = pendingRows.size();
+      PreparedStatement remaining = null;
+      try {
+        try {
+          remaining = prepare(sql(pending), mappings(pending), pendingRows);
+          fillUpdateCounts(updateCounts, rows, pending, remaining.executeUpdate());
+        } catch (SQLException e) {
+          //和批执行失败一样报，BatchExecutor才能带上批的序号和之前的结果；前面满行语句的更新数也带上
+          throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, rows), e);
+        }
+        processGeneratedKeys(remaining, parameterObjects.subList(rows, rows + pending));
+      } finally {
+        executor.closeStatement(remaining);
+        pendingRows.clear();
+      }
+    }
+    return updateCounts;
+  }
+
+  void close() {
+    executor.closeStatement(statement);
+    statement = null;
+    batchedStatements = 0;
+    pendingRows.clear();
+  }
+
+  //一条语句插了几行就给每行记1，对不上就记SUCCESS_NO_INFO
+  private static void fillUpdateCounts(int[] updateCounts, int from, int rows, int statementCount) {
+    int rowCount = statementCount == rows ? 1 : (statementCount < 0 ? statementCount : Statement.SUCCESS_NO_INFO);
+    Arrays.fill(updateCounts, from, Math.min(from + rows, updateCounts.length), rowCount);
+  }
+
+  private void processGeneratedKeys(Statement stmt, List<Object> parameterObjects) {
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+      ((Jdbc3KeyGenerator) keyGenerator).processBatch(ms, stmt, parameterObjects);
+    }
+  }
+
+  private PreparedStatement prepare(String sql, List<ParameterMapping> mappings, List<Object[]> rows) throws SQLException {
+    StatementHandler handler = newStatementHandler(sql, mappings, rows);
+    Statement stmt = handler.prepare(executor.getConnection(ms.getStatementLog()));
+    handler.parameterize(stmt);
+    return (PreparedStatement) stmt;
+  }
+
+  //每行的值都作为附加参数绑定
+  private StatementHandler newStatementHandler(String sql, List<ParameterMapping> mappings, List<Object[]> rows) {
+    BoundSql boundSql = new BoundSql(configuration, sql, mappings, null);
+    for (int r = 0; r < rows.size(); r++) {
+      Object[] values = rows.get(r);
+      for (int i = 0; i < values.length; i++) {
+        boundSql.setAdditionalParameter(propertyName(r, i), values[i]);
+      }
+    }
+    return configuration.newStatementHandler(executor, ms, null, RowBounds.DEFAULT, null, boundSql);
+  }
+
+  private String sql(int rows) {
+    StringBuilder sql = new StringBuilder(prefix.length() + rows * (row.length() + 1));
+    sql.append(prefix).append(row);
+    for (int r = 1; r < rows; r++) {
+      sql.append(',').append(row);
+    }
+    return sql.toString();
+  }
+
+  private List<ParameterMapping> mappings(int rows) {
+    List<ParameterMapping> mappings = new ArrayList<ParameterMapping>(rows * rowMappings.size());
+    for (int r = 0; r < rows; r++) {
+      for (int i = 0; i < rowMappings.size(); i++) {
+        ParameterMapping rowMapping = rowMappings.get(i);
+        mappings.add(new ParameterMapping.Builder(configuration, propertyName(r, i), rowMapping.getTypeHandler())
+            .javaType(rowMapping.getJavaType())
+            .jdbcType(rowMapping.getJdbcType())
+            .jdbcTypeName(rowMapping.getJdbcTypeName())
+            .numericScale(rowMapping.getNumericScale())
+            .build());
+      }
+    }
+    return mappings;
+  }
+
+  private static String propertyName(int row, int index) {
+    return "__row" + row + "_" + index;
+  }
+
+}
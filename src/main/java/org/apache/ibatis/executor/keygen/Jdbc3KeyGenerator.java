@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.executor.keygen;
 
+import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -37,7 +38,9 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
  * JDBC3键值生成器,核心是使用JDBC3的Statement.getGeneratedKeys
  * 
  */
-public class Jdbc3KeyGenerator implements KeyGenerator {
+public class Jdbc3KeyGenerator implements KeyGenerator, Serializable {
+
+  private static final long serialVersionUID = 4301319056108509274L;
 
   @Override
   public void processBefore(Executor executor, MappedStatement ms, Statement stmt, Object parameter) {
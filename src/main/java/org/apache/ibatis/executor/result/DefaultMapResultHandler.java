@@ -18,6 +18,8 @@ package org.apache.ibatis.executor.result;
 import java.util.Map;
 
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.SystemMetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.ResultContext;
@@ -37,11 +39,17 @@ public class DefaultMapResultHandler<K, V> implements ResultHandler {
   private final String mapKey;
   private final ObjectFactory objectFactory;
   private final ObjectWrapperFactory objectWrapperFactory;
+  private final ReflectorFactory reflectorFactory;
 
-  @SuppressWarnings("unchecked")
   public DefaultMapResultHandler(String mapKey, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory) {
+    this(mapKey, objectFactory, objectWrapperFactory, SystemMetaObject.DEFAULT_REFLECTOR_FACTORY);
+  }
+
+  @SuppressWarnings("unchecked")
+  public DefaultMapResultHandler(String mapKey, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory, ReflectorFactory reflectorFactory) {
     this.objectFactory = objectFactory;
     this.objectWrapperFactory = objectWrapperFactory;
+    this.reflectorFactory = reflectorFactory;
     this.mappedResults = objectFactory.create(Map.class);
     this.mapKey = mapKey;
   }
@@ -54,7 +62,7 @@ public class DefaultMapResultHandler<K, V> implements ResultHandler {
     final V value = (V) context.getResultObject();
     //MetaObject.forObject,包装一下记录
     //MetaObject是用反射来包装各种类型
-    final MetaObject mo = MetaObject.forObject(value, objectFactory, objectWrapperFactory);
+    final MetaObject mo = MetaObject.forObject(value, objectFactory, objectWrapperFactory, reflectorFactory);
     // TODO is that assignment always true?
     final K key = (K) mo.getValue(mapKey);
     mappedResults.put(key, value);
@@ -29,6 +29,9 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.EntityCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
@@ -76,11 +79,16 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private final BoundSql boundSql;
   private final TypeHandlerRegistry typeHandlerRegistry;
   private final ObjectFactory objectFactory;
+  //开启了实体缓存时不为null
+  private final EntityCache entityCache;
 
   // nested resultmaps
   private final Map<CacheKey, Object> nestedResultObjects = new HashMap<CacheKey, Object>();
   private final Map<CacheKey, Object> ancestorObjects = new HashMap<CacheKey, Object>();
   private final Map<String, String> ancestorColumnPrefix = new HashMap<String, String>();
+  //游标模式下，上一次调用还没输出的嵌套结果对象
+  private Object previousRowValue;
+  private boolean cursorMode;
 
   // multiple resultsets
   private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
@@ -102,6 +110,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
     this.objectFactory = configuration.getObjectFactory();
     this.resultHandler = resultHandler;
+    this.entityCache = configuration.isEntityCacheEnabled() ? configuration.getEntityCache() : null;
   }
 
   //
@@ -190,6 +199,26 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return collapseSingleResultList(multipleResults);
   }
 
+  @Override
+  public <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException {
+    ErrorContext.instance().activity("handling cursor results").object(mappedStatement.getId());
+
+    ResultSetWrapper rsw = getFirstResultSet(stmt);
+
+    List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+
+    int resultMapCount = resultMaps.size();
+    validateResultMapsCount(rsw, resultMapCount);
+    //游标只支持一个结果集
+    if (resultMapCount != 1) {
+      throw new ExecutorException("Cursor results cannot be mapped to multiple resultMaps");
+    }
+
+    ResultMap resultMap = resultMaps.get(0);
+    cursorMode = true;
+    return new DefaultCursor<E>(this, resultMap, rsw, rowBounds);
+  }
+
   private ResultSetWrapper getFirstResultSet(Statement stmt) throws SQLException {
     ResultSet rs = stmt.getResultSet();
     //HSQLDB2.1特殊情况处理
@@ -281,7 +310,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // HANDLE ROWS FOR SIMPLE RESULTMAP
   //
 
-  private void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
+  public void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
     if (resultMap.hasNestedResultMaps()) {
       ensureNoRowBounds();
       checkResultHandler();
@@ -352,6 +381,23 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   //核心，取得一行的值
   private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+    //实体缓存里有这个id的对象就直接用，没有就映射完放进去
+    final CacheKey entityId = entityCache == null ? null : createEntityId(rsw, resultMap);
+    if (entityId != null) {
+      Object entity = entityCache.get(executor.getTransaction(), resultMap, entityId);
+      if (entity != null) {
+        return entity;
+      }
+      Object rowValue = mapRowValue(rsw, resultMap);
+      if (rowValue != null && isCompleteEntity(rsw, resultMap)) {
+        entityCache.put(executor.getTransaction(), resultMap, entityId, rowValue);
+      }
+      return rowValue;
+    }
+    return mapRowValue(rsw, resultMap);
+  }
+
+  private Object mapRowValue(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
     //实例化ResultLoaderMap(延迟加载器)
     final ResultLoaderMap lazyLoader = new ResultLoaderMap();
     //调用自己的createResultObject,内部就是new一个对象(如果是简单类型，new完也把值赋进去)
@@ -367,12 +413,20 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       }
       foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
       foundValues = lazyLoader.size() > 0 || foundValues;
+      registerLazyLoader(lazyLoader);
       resultObject = foundValues ? resultObject : null;
       return resultObject;
     }
     return resultObject;
   }
 
+  //有没加载的属性时交给执行器记下，会话据此判断能不能异步执行
+  private void registerLazyLoader(ResultLoaderMap lazyLoader) {
+    if (lazyLoader.size() > 0) {
+      executor.registerLazyLoader(lazyLoader);
+    }
+  }
+
   private boolean shouldApplyAutomaticMappings(ResultMap resultMap, boolean isNested) {
     if (resultMap.getAutoMapping() != null) {
       return resultMap.getAutoMapping();
@@ -391,27 +445,51 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private boolean applyPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, ResultLoaderMap lazyLoader, String columnPrefix)
       throws SQLException {
-    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final RowMappingPlan plan = rsw.getRowMappingPlan(resultMap, columnPrefix);
+    List<RowMappingPlan.ColumnMapping> propertyMappings = plan.getPropertyMappings();
+    if (propertyMappings == null) {
+      propertyMappings = createPropertyMappings(rsw, resultMap, metaObject, columnPrefix);
+      plan.setPropertyMappings(propertyMappings);
+    }
     boolean foundValues = false;
-    final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
-    for (ResultMapping propertyMapping : propertyMappings) {
+    for (RowMappingPlan.ColumnMapping mapping : propertyMappings) {
+      //简单列直接按列序号取值
+      Object value = mapping.getColumnIndex() > 0
+          ? mapping.getTypeHandler().getResult(rsw.getResultSet(), mapping.getColumnIndex())
+          : getPropertyMappingValue(rsw.getResultSet(), metaObject, mapping.getResultMapping(), lazyLoader, columnPrefix);
+      // issue #541 make property optional
+      final String property = mapping.getProperty();
+      // issue #377, call setter on nulls
+      if (value != NO_VALUE && property != null && (value != null || configuration.isCallSettersOnNulls())) {
+        if (value != null || !metaObject.getSetterType(property).isPrimitive()) {
+          mapping.setValue(metaObject, value);
+        }
+        foundValues = true;
+      }
+    }
+    return foundValues;
+  }
+
+  //找出这个结果集里要处理的属性映射，只做一次
+  private List<RowMappingPlan.ColumnMapping> createPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix)
+      throws SQLException {
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final List<RowMappingPlan.ColumnMapping> propertyMappings = new ArrayList<RowMappingPlan.ColumnMapping>();
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
       final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
       if (propertyMapping.isCompositeResult() 
           || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) 
           || propertyMapping.getResultSet() != null) {
-        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix);
-        // issue #541 make property optional
-        final String property = propertyMapping.getProperty();
-        // issue #377, call setter on nulls
-        if (value != NO_VALUE && property != null && (value != null || configuration.isCallSettersOnNulls())) {
-          if (value != null || !metaObject.getSetterType(property).isPrimitive()) {
-            metaObject.setValue(property, value);
-          }
-          foundValues = true;
-        }
+        final boolean simpleColumn = propertyMapping.getNestedQueryId() == null
+            && propertyMapping.getResultSet() == null
+            && propertyMapping.getNestedResultMapId() == null
+            && column != null;
+        final int columnIndex = simpleColumn ? rsw.getColumnIndex(column) : 0;
+        propertyMappings.add(new RowMappingPlan.ColumnMapping(propertyMapping, propertyMapping.getProperty(), columnIndex,
+            propertyMapping.getTypeHandler(), false, metaObject));
       }
     }
-    return foundValues;
+    return propertyMappings;
   }
 
   private Object getPropertyMappingValue(ResultSet rs, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix)
@@ -433,8 +511,33 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   //自动映射咯
   private boolean applyAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-    final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+    final RowMappingPlan plan = rsw.getRowMappingPlan(resultMap, columnPrefix);
+    List<RowMappingPlan.ColumnMapping> autoMappings = plan.getAutomaticMappings();
+    if (autoMappings == null) {
+      autoMappings = createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix);
+      plan.setAutomaticMappings(autoMappings);
+    }
     boolean foundValues = false;
+    for (RowMappingPlan.ColumnMapping mapping : autoMappings) {
+      //巧妙的用TypeHandler取得结果
+      final Object value = mapping.getTypeHandler().getResult(rsw.getResultSet(), mapping.getColumnIndex());
+      // issue #377, call setter on nulls
+      if (value != null || configuration.isCallSettersOnNulls()) {
+        if (value != null || !mapping.isPrimitive()) {
+          //然后巧妙的用反射来设置到对象
+          mapping.setValue(metaObject, value);
+        }
+        foundValues = true;
+      }
+    }
+    return foundValues;
+  }
+
+  //解析未映射的列对应的属性、TypeHandler和setter，每个结果集只做一次
+  private List<RowMappingPlan.ColumnMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix)
+      throws SQLException {
+    final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+    final List<RowMappingPlan.ColumnMapping> autoMappings = new ArrayList<RowMappingPlan.ColumnMapping>();
     for (String columnName : unmappedColumnNames) {
       String propertyName = columnName;
       if (columnPrefix != null && !columnPrefix.isEmpty()) {
@@ -451,20 +554,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         final Class<?> propertyType = metaObject.getSetterType(property);
         if (typeHandlerRegistry.hasTypeHandler(propertyType)) {
           final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
-          //巧妙的用TypeHandler取得结果
-          final Object value = typeHandler.getResult(rsw.getResultSet(), columnName);
-          // issue #377, call setter on nulls
-          if (value != null || configuration.isCallSettersOnNulls()) {
-            if (value != null || !propertyType.isPrimitive()) {
-              //然后巧妙的用反射来设置到对象
-              metaObject.setValue(property, value);
-            }
-            foundValues = true;
-          }
+          autoMappings.add(new RowMappingPlan.ColumnMapping(null, property, rsw.getColumnIndex(columnName), typeHandler,
+              propertyType.isPrimitive(), metaObject));
         }
       }
     }
-    return foundValues;
+    return autoMappings;
   }
 
   // MULTIPLE RESULT SETS
@@ -575,7 +670,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       throws SQLException {
 	//得到result type
     final Class<?> resultType = resultMap.getType();
-    final MetaClass metaType = MetaClass.forClass(resultType);
+    final MetaClass metaType = MetaClass.forClass(resultType, configuration.getReflectorFactory());
     final List<ResultMapping> constructorMappings = resultMap.getConstructorResultMappings();
     if (typeHandlerRegistry.hasTypeHandler(resultType)) {
       //基本型
@@ -690,6 +785,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
     final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
     Object value = NO_VALUE;
+    //嵌套查询按id查实体，实体缓存里有就不用查了
+    if (nestedQueryParameterObject != null && entityCache != null) {
+      final Object entity = getCachedEntity(nestedQuery, nestedQueryParameterObject, propertyMapping.getJavaType());
+      if (entity != null) {
+        return entity;
+      }
+    }
     if (nestedQueryParameterObject != null) {
       final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
       final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
@@ -711,6 +813,16 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return value;
   }
 
+  private Object getCachedEntity(MappedStatement nestedQuery, Object parameterObject, Class<?> targetType) {
+    if (nestedQuery.getEntity() == null || nestedQuery.getResultMaps().size() != 1
+        || (targetType != null && objectFactory.isCollection(targetType))) {
+      return null;
+    }
+    final ResultMap resultMap = nestedQuery.getResultMaps().get(0);
+    final CacheKey id = entityCache.idOf(resultMap, parameterObject);
+    return id == null ? null : entityCache.get(executor.getTransaction(), resultMap, id);
+  }
+
   private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
     if (resultMapping.isCompositeResult()) {
       return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -798,13 +910,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private void handleRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
     final DefaultResultContext resultContext = new DefaultResultContext();
     skipRows(rsw.getResultSet(), rowBounds);
-    Object rowValue = null;
+    Object rowValue = previousRowValue;
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
       final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
       final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
       Object partialObject = nestedResultObjects.get(rowKey);
       // issue #577 && #542
-      if (mappedStatement.isResultOrdered()) {
+      if (isResultOrdered()) {
         if (partialObject == null && rowValue != null) {
           nestedResultObjects.clear();
           storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
@@ -817,10 +929,19 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
-    if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+    if (rowValue != null && isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
       storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+      previousRowValue = null;
+    } else if (rowValue != null && cursorMode) {
+      //游标停下来时，当前这组记录还没读完，留到下一次调用
+      previousRowValue = rowValue;
     }
   }
+
+  //游标只有在一组记录读完之后才能输出父对象，因此总是按有序结果处理
+  private boolean isResultOrdered() {
+    return mappedStatement.isResultOrdered() || cursorMode;
+  }
   
   //
   // GET VALUE FROM ROW FOR NESTED RESULT MAP
@@ -848,6 +969,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         foundValues = applyNestedResultMappings(rsw, resultMap, metaObject, columnPrefix, combinedKey, true) || foundValues;
         ancestorObjects.remove(absoluteKey);
         foundValues = lazyLoader.size() > 0 || foundValues;
+        registerLazyLoader(lazyLoader);
         resultObject = foundValues ? resultObject : null;
       }
       if (combinedKey != CacheKey.NULL_CACHE_KEY) {
@@ -945,6 +1067,39 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return resolveDiscriminatedResultMap(rs, nestedResultMap, columnPrefix);
   }
 
+  //
+  // ENTITY ID
+  //
+
+  //按<id>映射的列取出实体的id，取不到（没有<id>、有null值）返回null
+  private CacheKey createEntityId(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+    final List<ResultMapping> idMappings = entityCache.getIdMappings(resultMap);
+    if (idMappings == null) {
+      return null;
+    }
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, null);
+    final Object[] values = new Object[idMappings.size()];
+    for (int i = 0; i < values.length; i++) {
+      final ResultMapping idMapping = idMappings.get(i);
+      if (!mappedColumnNames.contains(idMapping.getColumn().toUpperCase(Locale.ENGLISH))) {
+        return null;
+      }
+      values[i] = idMapping.getTypeHandler().getResult(rsw.getResultSet(), idMapping.getColumn());
+      if (values[i] == null) {
+        return null;
+      }
+    }
+    return EntityCache.newId(values);
+  }
+
+  //只查了部分列的行不能共享，不然别的查询会拿到缺属性的对象；会被自动映射的多余列也一样
+  private boolean isCompleteEntity(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+    if (!rsw.getMappedColumnNames(resultMap, null).containsAll(resultMap.getMappedColumns())) {
+      return false;
+    }
+    return !shouldApplyAutomaticMappings(resultMap, false) || rsw.getUnmappedColumnNames(resultMap, null).isEmpty();
+  }
+
   //
   // UNIQUE RESULT KEY
   //
@@ -1011,7 +1166,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, String columnPrefix) throws SQLException {
-    final MetaClass metaType = MetaClass.forClass(resultMap.getType());
+    final MetaClass metaType = MetaClass.forClass(resultMap.getType(), configuration.getReflectorFactory());
     List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
     for (String column : unmappedColumnNames) {
       String property = column;
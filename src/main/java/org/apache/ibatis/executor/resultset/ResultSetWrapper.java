@@ -38,7 +38,7 @@ import org.apache.ibatis.type.UnknownTypeHandler;
 /**
  * @author Iwao AVE!
  */
-class ResultSetWrapper {
+public class ResultSetWrapper {
 
   private final ResultSet resultSet;
   private final TypeHandlerRegistry typeHandlerRegistry;
@@ -48,6 +48,7 @@ class ResultSetWrapper {
   private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<String, Map<Class<?>, TypeHandler<?>>>();
   private Map<String, List<String>> mappedColumnNamesMap = new HashMap<String, List<String>>();
   private Map<String, List<String>> unMappedColumnNamesMap = new HashMap<String, List<String>>();
+  private final Map<String, RowMappingPlan> rowMappingPlans = new HashMap<String, RowMappingPlan>();
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
     super();
@@ -74,6 +75,35 @@ class ResultSetWrapper {
     return Collections.unmodifiableList(classNames);
   }
 
+  /**
+   * Gets the 1-based index of a column, matched case-insensitively as JDBC does.
+   *
+   * @param columnName
+   * @return the index of the first matching column, or 0 if there is none
+   */
+  public int getColumnIndex(String columnName) {
+    for (int i = 0; i < columnNames.size(); i++) {
+      if (columnNames.get(i).equalsIgnoreCase(columnName)) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the row mapping plan of a result map for this result set.
+   * The plan is filled by the result set handler the first time it maps a row.
+   */
+  RowMappingPlan getRowMappingPlan(ResultMap resultMap, String columnPrefix) {
+    final String mapKey = getMapKey(resultMap, columnPrefix);
+    RowMappingPlan plan = rowMappingPlans.get(mapKey);
+    if (plan == null) {
+      plan = new RowMappingPlan();
+      rowMappingPlans.put(mapKey, plan);
+    }
+    return plan;
+  }
+
   /**
    * Gets the type handler to use when reading the result set.
    * Tries to get from the TypeHandlerRegistry by searching for the property type.
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.util.List;
+
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.BeanWrapper;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Row mapping resolved once per (ResultMap, column prefix) for one result set: column
+ * indexes, type handlers and setter invokers, so that rows are read with
+ * {@link TypeHandler#getResult(java.sql.ResultSet, int)} and no property lookups.
+ */
+/**
+ * 预编译的行映射计划
+ * 每个结果集对每个(ResultMap, 列前缀)只解析一次列序号、TypeHandler和setter，
+ * 之后每一行都按列序号取值，不再做属性查找
+ */
+final class RowMappingPlan {
+
+  private List<ColumnMapping> automaticMappings;
+  private List<ColumnMapping> propertyMappings;
+
+  public List<ColumnMapping> getAutomaticMappings() {
+    return automaticMappings;
+  }
+
+  public void setAutomaticMappings(List<ColumnMapping> automaticMappings) {
+    this.automaticMappings = automaticMappings;
+  }
+
+  public List<ColumnMapping> getPropertyMappings() {
+    return propertyMappings;
+  }
+
+  public void setPropertyMappings(List<ColumnMapping> propertyMappings) {
+    this.propertyMappings = propertyMappings;
+  }
+
+  static final class ColumnMapping {
+    private final ResultMapping resultMapping;
+    private final String property;
+    //从1开始的列序号，0表示不能直接按列读取(嵌套查询等)
+    private final int columnIndex;
+    private final TypeHandler<?> typeHandler;
+    private final boolean primitive;
+    private final Class<?> setterOwner;
+    private final Invoker setter;
+
+    ColumnMapping(ResultMapping resultMapping, String property, int columnIndex, TypeHandler<?> typeHandler, boolean primitive, MetaObject metaObject) {
+      this.resultMapping = resultMapping;
+      this.property = property;
+      this.columnIndex = columnIndex;
+      this.typeHandler = typeHandler;
+      this.primitive = primitive;
+      //简单的bean属性直接记住setter，嵌套属性和Map还是交给MetaObject
+      Class<?> owner = null;
+      Invoker invoker = null;
+      if (property != null && metaObject.getObjectWrapper() instanceof BeanWrapper
+          && property.indexOf('.') < 0 && property.indexOf('[') < 0) {
+        Reflector reflector = metaObject.getReflectorFactory().findForClass(metaObject.getOriginalObject().getClass());
+        if (reflector.hasSetter(property)) {
+          owner = reflector.getType();
+          invoker = reflector.getSetInvoker(property);
+        }
+      }
+      this.setterOwner = owner;
+      this.setter = invoker;
+    }
+
+    public ResultMapping getResultMapping() {
+      return resultMapping;
+    }
+
+    public String getProperty() {
+      return property;
+    }
+
+    public int getColumnIndex() {
+      return columnIndex;
+    }
+
+    public TypeHandler<?> getTypeHandler() {
+      return typeHandler;
+    }
+
+    public boolean isPrimitive() {
+      return primitive;
+    }
+
+    public void setValue(MetaObject metaObject, Object value) {
+      final Object object = metaObject.getOriginalObject();
+      if (setter == null || object.getClass() != setterOwner) {
+        metaObject.setValue(property, value);
+        return;
+      }
+      try {
+        setter.invoke(object, new Object[] { value });
+      } catch (Throwable t) {
+        Throwable cause = ExceptionUtil.unwrapThrowable(t);
+        throw new ReflectionException("Could not set property '" + property + "' of '" + object.getClass() + "' with value '" + value + "' Cause: " + cause.toString(), cause);
+      }
+    }
+  }
+
+}
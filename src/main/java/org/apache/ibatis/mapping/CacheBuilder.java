@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,14 +24,22 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.TableDependencies;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
+import org.apache.ibatis.cache.serializer.ReflectorCacheSerializer;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
 /**
@@ -40,15 +49,25 @@ import org.apache.ibatis.reflection.SystemMetaObject;
  * 缓存构建器,建造者模式
  * 
  */
-public class CacheBuilder {
+public class CacheBuilder implements Serializable {
+
+  private static final long serialVersionUID = -9106492421004740593L;
+
   private String id;
   private Class<? extends Cache> implementation;
   private List<Class<? extends Cache>> decorators;
   private Integer size;
   private Long clearInterval;
+  private Long timeToLive;
+  private Long timeToLiveJitter;
+  private Long refreshAhead;
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private Class<? extends CacheSerializer> serializer;
+  //不写进快照，读快照时按当时的设置重新给
+  private transient TableDependencies tableDependencies;
+  private transient ReflectorFactory reflectorFactory;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -77,6 +96,21 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder timeToLive(Long timeToLive) {
+    this.timeToLive = timeToLive;
+    return this;
+  }
+
+  public CacheBuilder timeToLiveJitter(Long timeToLiveJitter) {
+    this.timeToLiveJitter = timeToLiveJitter;
+    return this;
+  }
+
+  public CacheBuilder refreshAhead(Long refreshAhead) {
+    this.refreshAhead = refreshAhead;
+    return this;
+  }
+
   public CacheBuilder readWrite(boolean readWrite) {
     this.readWrite = readWrite;
     return this;
@@ -87,6 +121,21 @@ public class CacheBuilder {
     return this;
   }
   
+  public CacheBuilder serializer(Class<? extends CacheSerializer> serializer) {
+    this.serializer = serializer;
+    return this;
+  }
+
+  public CacheBuilder tableDependencies(TableDependencies tableDependencies) {
+    this.tableDependencies = tableDependencies;
+    return this;
+  }
+
+  public CacheBuilder reflectorFactory(ReflectorFactory reflectorFactory) {
+    this.reflectorFactory = reflectorFactory;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -98,6 +147,10 @@ public class CacheBuilder {
     Cache cache = newBaseCacheInstance(implementation, id);
     //设额外属性
     setCacheProperties(cache);
+    if (tableDependencies != null && cache instanceof OffHeapCache) {
+      //从文件恢复的条目要登记到表级依赖索引
+      ((OffHeapCache) cache).setTableDependencies(tableDependencies);
+    }
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
       for (Class<? extends Cache> decorator : decorators) {
@@ -129,6 +182,8 @@ public class CacheBuilder {
   private Cache setStandardDecorators(Cache cache) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
+      //TinyLfuCache自己处理并发，不需要再套一层全局锁
+      boolean threadSafe = cache instanceof TinyLfuCache;
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
@@ -137,14 +192,28 @@ public class CacheBuilder {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
+      if (timeToLive != null) {
+        //每个条目各自过期，可以错开过期时间和提前刷新
+        ExpiringCache expiringCache = new ExpiringCache(cache);
+        expiringCache.setTimeToLive(timeToLive);
+        if (timeToLiveJitter != null) {
+          expiringCache.setTimeToLiveJitter(timeToLiveJitter);
+        }
+        if (refreshAhead != null) {
+          expiringCache.setRefreshAhead(refreshAhead);
+        }
+        cache = expiringCache;
+      }
       if (readWrite) {
           //如果readOnly=false,可读写的缓存 会返回缓存对象的拷贝(通过序列化) 。这会慢一些,但是安全,因此默认是 false。
-        cache = new SerializedCache(cache);
+        cache = new SerializedCache(cache, newSerializerInstance());
       }
       //日志缓存
       cache = new LoggingCache(cache);
       //同步缓存, 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
-      cache = new SynchronizedCache(cache);
+      if (!threadSafe) {
+        cache = new SynchronizedCache(cache);
+      }
       if (blocking) {
         cache = new BlockingCache(cache);
       }
@@ -195,6 +264,35 @@ public class CacheBuilder {
     }
   }
 
+  /**
+   * Serializer for copies of the values of the built cache.
+   *
+   * @return null if the cache hands out the cached instances themselves
+   */
+  public CacheSerializer newCopySerializer() {
+    //和build()一样，只有PerpetualCache才会加SerializedCache
+    boolean decorated = implementation == null || PerpetualCache.class.equals(implementation);
+    return decorated && readWrite ? newSerializerInstance() : null;
+  }
+
+  //每个缓存一个序列化器
+  private CacheSerializer newSerializerInstance() {
+    if (serializer == null) {
+      return new JdkCacheSerializer();
+    }
+    CacheSerializer instance;
+    try {
+      instance = serializer.newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache serializer (" + serializer + "). Cause: " + e, e);
+    }
+    if (reflectorFactory != null && instance instanceof ReflectorCacheSerializer) {
+      //用configuration配置的ReflectorFactory
+      ((ReflectorCacheSerializer) instance).setReflectorFactory(reflectorFactory);
+    }
+    return instance;
+  }
+
   private Cache newBaseCacheInstance(Class<? extends Cache> cacheClass, String id) {
     Constructor<? extends Cache> cacheConstructor = getBaseCacheConstructor(cacheClass);
     try {
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.Map;
 
@@ -28,7 +29,9 @@ import org.apache.ibatis.session.Configuration;
  * 有时一个查询也许返回很多不同数据类型的结果集。
  * 鉴别器的表现很像 Java 语言中的 switch 语句。
  */
-public class Discriminator {
+public class Discriminator implements Serializable {
+
+  private static final long serialVersionUID = -1533498011472495790L;
 
   private ResultMapping resultMapping;
   private Map<String, String> discriminatorMap;
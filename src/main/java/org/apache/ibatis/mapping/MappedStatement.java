@@ -15,11 +15,18 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.SqlTableParser;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -35,13 +42,17 @@ import org.apache.ibatis.session.Configuration;
  * 映射的语句
  *
  */
-public final class MappedStatement {
+public final class MappedStatement implements Serializable {
+
+  private static final long serialVersionUID = -6716812763951688203L;
 
   private String resource;
   private Configuration configuration;
   private String id;
   private Integer fetchSize;
   private Integer timeout;
+  //批处理时攒够多少条就自动执行，null用全局的defaultBatchSize
+  private Integer batchSize;
   private StatementType statementType;
   private ResultSetType resultSetType;
   //SQL源码
@@ -51,6 +62,8 @@ public final class MappedStatement {
   private List<ResultMap> resultMaps;
   private boolean flushCacheRequired;
   private boolean useCache;
+  //结果要不要留在本地缓存(一级缓存)里
+  private boolean useLocalCache;
   private boolean resultOrdered;
   private SqlCommandType sqlCommandType;
   private KeyGenerator keyGenerator;
@@ -58,9 +71,15 @@ public final class MappedStatement {
   private String[] keyColumns;
   private boolean hasNestedResultMaps;
   private String databaseId;
-  private Log statementLog;
+  //日志不参与序列化，反序列化时按id重新取
+  private transient Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  //读写的表，没声明就从SQL里找
+  private Set<String> tables;
+  //语句参数里带的是哪个实体（resultMap）的id
+  private String entity;
+  private transient volatile ParsedTables parsedTables;
 
   MappedStatement() {
     // constructor disabled
@@ -79,12 +98,9 @@ public final class MappedStatement {
       mappedStatement.resultMaps = new ArrayList<ResultMap>();
       mappedStatement.timeout = configuration.getDefaultStatementTimeout();
       mappedStatement.sqlCommandType = sqlCommandType;
+      mappedStatement.useLocalCache = true;
       mappedStatement.keyGenerator = configuration.isUseGeneratedKeys() && SqlCommandType.INSERT.equals(sqlCommandType) ? new Jdbc3KeyGenerator() : new NoKeyGenerator();
-      String logId = id;
-      if (configuration.getLogPrefix() != null) {
-        logId = configuration.getLogPrefix() + id;
-      }
-      mappedStatement.statementLog = LogFactory.getLog(logId);
+      mappedStatement.statementLog = createStatementLog(configuration, id);
       mappedStatement.lang = configuration.getDefaultScriptingLanuageInstance();
     }
 
@@ -115,6 +131,11 @@ public final class MappedStatement {
       return this;
     }
 
+    public Builder batchSize(Integer batchSize) {
+      mappedStatement.batchSize = batchSize;
+      return this;
+    }
+
     public Builder timeout(Integer timeout) {
       mappedStatement.timeout = timeout;
       return this;
@@ -145,6 +166,11 @@ public final class MappedStatement {
       return this;
     }
 
+    public Builder useLocalCache(boolean useLocalCache) {
+      mappedStatement.useLocalCache = useLocalCache;
+      return this;
+    }
+
     public Builder resultOrdered(boolean resultOrdered) {
       mappedStatement.resultOrdered = resultOrdered;
       return this;
@@ -179,6 +205,25 @@ public final class MappedStatement {
       mappedStatement.resultSets = delimitedStringtoArray(resultSet);
       return this;
     }
+
+    public Builder entity(String entity) {
+      mappedStatement.entity = entity;
+      return this;
+    }
+
+    public Builder tables(String tables) {
+      String[] names = delimitedStringtoArray(tables);
+      if (names == null) {
+        mappedStatement.tables = null;
+      } else {
+        Set<String> set = new HashSet<String>();
+        for (String name : names) {
+          set.add(name.trim().toLowerCase(Locale.ENGLISH));
+        }
+        mappedStatement.tables = Collections.unmodifiableSet(set);
+      }
+      return this;
+    }
     
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
@@ -254,6 +299,24 @@ public final class MappedStatement {
     return useCache;
   }
 
+  /**
+   * Number of batched parameter objects, counted over all the open batches, after which the
+   * batch executor runs them when this statement is batched, without waiting for a flush.
+   * Null to use the {@code defaultBatchSize} setting.
+   */
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Whether the results stay in the session local cache after the statement. Results of
+   * statements that do not are still kept while the statement runs, for circular references
+   * and deferred loads.
+   */
+  public boolean isUseLocalCache() {
+    return useLocalCache;
+  }
+
   public boolean isResultOrdered() {
     return resultOrdered;
   }
@@ -281,6 +344,41 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  /**
+   * Id of the result map of the entity whose id the parameter carries, declared with
+   * the {@code entity} attribute. Null if none was declared.
+   */
+  public String getEntity() {
+    return entity;
+  }
+
+  /**
+   * Tables declared with the {@code tables} attribute, null if none were declared.
+   */
+  public Set<String> getTables() {
+    return tables;
+  }
+
+  /**
+   * Tables this statement reads or writes: the declared ones, or the ones found in its SQL.
+   *
+   * @param boundSql the statement's SQL for this parameter, built when needed if null
+   * @return null if they are unknown
+   */
+  public Set<String> getTables(Object parameterObject, BoundSql boundSql) {
+    if (tables != null) {
+      return tables;
+    }
+    String sql = (boundSql != null ? boundSql : getBoundSql(parameterObject)).getSql();
+    //静态SQL每次都一样，记住上次的结果
+    ParsedTables parsed = parsedTables;
+    if (parsed == null || !parsed.sql.equals(sql)) {
+      parsed = new ParsedTables(sql, SqlTableParser.parse(sql));
+      parsedTables = parsed;
+    }
+    return parsed.tables;
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
 	//其实就是调用sqlSource.getBoundSql
@@ -305,6 +403,29 @@ public final class MappedStatement {
     return boundSql;
   }
 
+  private static Log createStatementLog(Configuration configuration, String id) {
+    String logId = id;
+    if (configuration.getLogPrefix() != null) {
+      logId = configuration.getLogPrefix() + id;
+    }
+    return LogFactory.getLog(logId);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    statementLog = createStatementLog(configuration, id);
+  }
+
+  private static class ParsedTables {
+    final String sql;
+    final Set<String> tables;
+
+    ParsedTables(String sql, Set<String> tables) {
+      this.sql = sql;
+      this.tables = tables;
+    }
+  }
+
   private static String[] delimitedStringtoArray(String in) {
     if (in == null || in.trim().length() == 0) {
       return null;
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
 
@@ -23,7 +24,9 @@ import org.apache.ibatis.session.Configuration;
 /**
  * @author Clinton Begin
  */
-public class ParameterMap {
+public class ParameterMap implements Serializable {
+
+  private static final long serialVersionUID = -5409586074846451135L;
 
   private String id;
   private Class<?> type;
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.Serializable;
 import java.sql.ResultSet;
 
 import org.apache.ibatis.session.Configuration;
@@ -29,7 +30,9 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
  * 参数映射
  * 
  */
-public class ParameterMapping {
+public class ParameterMapping implements Serializable {
+
+  private static final long serialVersionUID = -2127248135183910776L;
 
   private Configuration configuration;
 
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -31,7 +32,10 @@ import org.apache.ibatis.session.Configuration;
  * 结果映射
  * MyBatis 中最重要最强大的元素
  */
-public class ResultMap {
+public class ResultMap implements Serializable {
+
+  private static final long serialVersionUID = 6281885132088926268L;
+
   private String id;
   private Class<?> type;
   private List<ResultMapping> resultMappings;
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -32,7 +33,9 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
  * 结果映射
  * MyBatis 中最重要最强大的元素
  */
-public class ResultMapping {
+public class ResultMapping implements Serializable {
+
+  private static final long serialVersionUID = 4095604291306569217L;
 
   private Configuration configuration;
   private String property;
@@ -0,0 +1,242 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.reflection.invoker.InvokerFactory;
+import org.apache.ibatis.reflection.invoker.ReflectionInvokerFactory;
+
+/**
+ * Default {@link ReflectorFactory}: a concurrent cache whose keys are weak references to the
+ * classes, so classes of an undeployed class loader can be collected. A reflector refers to its
+ * class, so it is only held strongly by the cache when its class cannot be unloaded before MyBatis
+ * itself: classes of the class loader of MyBatis or one of its parents. Reflectors of classes of
+ * other class loaders are held by their class through a {@link ClassValue} and only weakly by the
+ * cache, so they live exactly as long as their class. The number of cached classes can optionally
+ * be bounded, in which case the least recently used class is evicted.
+ */
+/**
+ * 默认的反射器工厂
+ * 类作为弱引用的key。Reflector强引用着类，所以只有MyBatis自己的ClassLoader(及其父加载器)加载的类才由缓存强引用Reflector，
+ * 别的ClassLoader加载的类的Reflector通过ClassValue挂在类自己身上，缓存里只弱引用，
+ * 这样类活着Reflector就一直在，重新部署后旧的ClassLoader又可以被回收
+ * 还记录了命中/未命中次数
+ */
+public class DefaultReflectorFactory implements ReflectorFactory {
+
+  private final ConcurrentMap<ClassKey, Entry> reflectorMap = new ConcurrentHashMap<ClassKey, Entry>();
+  //被回收的类的key会进入这个队列
+  private final ReferenceQueue<Class<?>> staleKeys = new ReferenceQueue<Class<?>>();
+  //别的ClassLoader加载的类的Reflector存在类自己身上，清空缓存时整个换掉
+  private volatile ClassValue<AtomicReference<Reflector>> foreignReflectors = newForeignReflectors();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  //有上限时用来记录最近使用的顺序
+  private final AtomicLong accessClock = new AtomicLong();
+  private volatile boolean classCacheEnabled = true;
+  private volatile InvokerFactory invokerFactory = new ReflectionInvokerFactory();
+  //最多缓存多少个类，0表示不限
+  private volatile int maximumSize;
+
+  public DefaultReflectorFactory() {
+  }
+
+  public DefaultReflectorFactory(InvokerFactory invokerFactory) {
+    setInvokerFactory(invokerFactory);
+  }
+
+  @Override
+  public boolean isClassCacheEnabled() {
+    return classCacheEnabled;
+  }
+
+  @Override
+  public void setClassCacheEnabled(boolean classCacheEnabled) {
+    this.classCacheEnabled = classCacheEnabled;
+  }
+
+  @Override
+  public InvokerFactory getInvokerFactory() {
+    return invokerFactory;
+  }
+
+  @Override
+  public void setInvokerFactory(InvokerFactory invokerFactory) {
+    if (invokerFactory == null) {
+      invokerFactory = new ReflectionInvokerFactory();
+    }
+    this.invokerFactory = invokerFactory;
+    clear();
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  //超出上限时淘汰最久没用过的类
+  public void setMaximumSize(int maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  @Override
+  public Reflector findForClass(Class<?> type) {
+    if (!classCacheEnabled) {
+      return new Reflector(type, invokerFactory);
+    }
+    // synchronized (type) removed see issue #461
+    Entry entry = reflectorMap.get(new ClassKey(type, null));
+    Reflector cached = entry == null ? null : entry.get();
+    if (cached != null) {
+      hitCount.incrementAndGet();
+      if (maximumSize > 0) {
+        entry.lastUsed = accessClock.incrementAndGet();
+      }
+      return cached;
+    }
+    missCount.incrementAndGet();
+    expungeStaleEntries();
+    cached = new Reflector(type, invokerFactory);
+    if (maximumSize > 0 && reflectorMap.size() >= maximumSize) {
+      evictLeastRecentlyUsed();
+    }
+    if (isUnloadable(type)) {
+      foreignReflectors.get(type).set(cached);
+      entry = new Entry(null, new WeakReference<Reflector>(cached));
+    } else {
+      entry = new Entry(cached, null);
+    }
+    entry.lastUsed = accessClock.incrementAndGet();
+    reflectorMap.put(new ClassKey(type, staleKeys), entry);
+    return cached;
+  }
+
+  //只在缓存满了的时候扫一遍，命中时不用加锁
+  private void evictLeastRecentlyUsed() {
+    Map.Entry<ClassKey, Entry> eldest = null;
+    for (Map.Entry<ClassKey, Entry> candidate : reflectorMap.entrySet()) {
+      if (eldest == null || candidate.getValue().lastUsed < eldest.getValue().lastUsed) {
+        eldest = candidate;
+      }
+    }
+    if (eldest != null && reflectorMap.remove(eldest.getKey(), eldest.getValue())) {
+      Class<?> type = eldest.getKey().get();
+      if (type != null && eldest.getValue().reflector == null) {
+        foreignReflectors.remove(type);
+      }
+    }
+  }
+
+  //类的ClassLoader不是MyBatis的ClassLoader或其父加载器的话，类可能比MyBatis先卸载
+  private static boolean isUnloadable(Class<?> type) {
+    ClassLoader classLoader = type.getClassLoader();
+    if (classLoader == null) {
+      return false;
+    }
+    for (ClassLoader own = DefaultReflectorFactory.class.getClassLoader(); own != null; own = own.getParent()) {
+      if (own == classLoader) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //静态方法创建，ClassValue不引用工厂本身
+  private static ClassValue<AtomicReference<Reflector>> newForeignReflectors() {
+    return new ClassValue<AtomicReference<Reflector>>() {
+      @Override
+      protected AtomicReference<Reflector> computeValue(Class<?> type) {
+        return new AtomicReference<Reflector>();
+      }
+    };
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public int getCachedClassCount() {
+    expungeStaleEntries();
+    return reflectorMap.size();
+  }
+
+  public void clear() {
+    foreignReflectors = newForeignReflectors();
+    reflectorMap.clear();
+  }
+
+  private void expungeStaleEntries() {
+    Reference<? extends Class<?>> staleKey;
+    while ((staleKey = staleKeys.poll()) != null) {
+      reflectorMap.remove(staleKey);
+    }
+  }
+
+  //缓存的值，Reflector和它的WeakReference只有一个不为null
+  private static final class Entry {
+    private final Reflector reflector;
+    private final WeakReference<Reflector> weakReflector;
+    private volatile long lastUsed;
+
+    Entry(Reflector reflector, WeakReference<Reflector> weakReflector) {
+      this.reflector = reflector;
+      this.weakReflector = weakReflector;
+    }
+
+    Reflector get() {
+      return reflector != null ? reflector : weakReflector.get();
+    }
+  }
+
+  //按类的身份比较的弱引用key
+  private static final class ClassKey extends WeakReference<Class<?>> {
+    private final int hashCode;
+
+    ClassKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+      super(type, queue);
+      this.hashCode = System.identityHashCode(type);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ClassKey)) {
+        return false;
+      }
+      Class<?> type = get();
+      return type != null && type == ((ClassKey) obj).get();
+    }
+  }
+
+}
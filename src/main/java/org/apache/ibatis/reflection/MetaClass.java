@@ -37,14 +37,21 @@ public class MetaClass {
 
     //有一个反射器
     //可以看到方法基本都是再次委派给这个Reflector
+  private ReflectorFactory reflectorFactory;
   private Reflector reflector;
 
-  private MetaClass(Class<?> type) {
-    this.reflector = Reflector.forClass(type);
+  private MetaClass(Class<?> type, ReflectorFactory reflectorFactory) {
+    this.reflectorFactory = reflectorFactory;
+    this.reflector = reflectorFactory.findForClass(type);
   }
 
+  public static MetaClass forClass(Class<?> type, ReflectorFactory reflectorFactory) {
+    return new MetaClass(type, reflectorFactory);
+  }
+
+  //没有Configuration时用系统默认的ReflectorFactory
   public static MetaClass forClass(Class<?> type) {
-    return new MetaClass(type);
+    return new MetaClass(type, SystemMetaObject.DEFAULT_REFLECTOR_FACTORY);
   }
 
   public static boolean isClassCacheEnabled() {
@@ -57,7 +64,7 @@ public class MetaClass {
 
   public MetaClass metaClassForProperty(String name) {
     Class<?> propType = reflector.getGetterType(name);
-    return MetaClass.forClass(propType);
+    return MetaClass.forClass(propType, reflectorFactory);
   }
 
   public String findProperty(String name) {
@@ -102,7 +109,7 @@ public class MetaClass {
 
   private MetaClass metaClassForProperty(PropertyTokenizer prop) {
     Class<?> propType = getGetterType(prop);
-    return MetaClass.forClass(propType);
+    return MetaClass.forClass(propType, reflectorFactory);
   }
 
   private Class<?> getGetterType(PropertyTokenizer prop) {
@@ -42,11 +42,13 @@ public class MetaObject {
   private ObjectWrapper objectWrapper;
   private ObjectFactory objectFactory;
   private ObjectWrapperFactory objectWrapperFactory;
+  private ReflectorFactory reflectorFactory;
 
-  private MetaObject(Object object, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory) {
+  private MetaObject(Object object, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory, ReflectorFactory reflectorFactory) {
     this.originalObject = object;
     this.objectFactory = objectFactory;
     this.objectWrapperFactory = objectWrapperFactory;
+    this.reflectorFactory = reflectorFactory;
 
     if (object instanceof ObjectWrapper) {
         //如果对象本身已经是ObjectWrapper型，则直接赋给objectWrapper
@@ -66,15 +68,20 @@ public class MetaObject {
     }
   }
 
-  public static MetaObject forObject(Object object, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory) {
+  public static MetaObject forObject(Object object, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory, ReflectorFactory reflectorFactory) {
     if (object == null) {
         //处理一下null,将null包装起来
       return SystemMetaObject.NULL_META_OBJECT;
     } else {
-      return new MetaObject(object, objectFactory, objectWrapperFactory);
+      return new MetaObject(object, objectFactory, objectWrapperFactory, reflectorFactory);
     }
   }
 
+  //没有Configuration时用系统默认的ReflectorFactory
+  public static MetaObject forObject(Object object, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory) {
+    return forObject(object, objectFactory, objectWrapperFactory, SystemMetaObject.DEFAULT_REFLECTOR_FACTORY);
+  }
+
   public ObjectFactory getObjectFactory() {
     return objectFactory;
   }
@@ -83,6 +90,10 @@ public class MetaObject {
     return objectWrapperFactory;
   }
 
+  public ReflectorFactory getReflectorFactory() {
+    return reflectorFactory;
+  }
+
   public Object getOriginalObject() {
     return originalObject;
   }
@@ -170,7 +181,7 @@ public class MetaObject {
   public MetaObject metaObjectForProperty(String name) {
       //实际是递归调用
     Object value = getValue(name);
-    return MetaObject.forObject(value, objectFactory, objectWrapperFactory);
+    return MetaObject.forObject(value, objectFactory, objectWrapperFactory, reflectorFactory);
   }
 
   public ObjectWrapper getObjectWrapper() {
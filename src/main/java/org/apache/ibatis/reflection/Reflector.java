@@ -27,13 +27,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
-import org.apache.ibatis.reflection.invoker.GetFieldInvoker;
 import org.apache.ibatis.reflection.invoker.Invoker;
-import org.apache.ibatis.reflection.invoker.MethodInvoker;
-import org.apache.ibatis.reflection.invoker.SetFieldInvoker;
+import org.apache.ibatis.reflection.invoker.InvokerFactory;
+import org.apache.ibatis.reflection.invoker.ReflectionInvokerFactory;
 import org.apache.ibatis.reflection.property.PropertyNamer;
 
 /*
@@ -50,10 +47,7 @@ import org.apache.ibatis.reflection.property.PropertyNamer;
  */
 public class Reflector {
 
-  private static boolean classCacheEnabled = true;
   private static final String[] EMPTY_STRING_ARRAY = new String[0];
-  //这里用ConcurrentHashMap，多线程支持，作为一个缓存
-  private static final Map<Class<?>, Reflector> REFLECTOR_MAP = new ConcurrentHashMap<Class<?>, Reflector>();
 
   private Class<?> type;
   //getter的属性列表
@@ -72,9 +66,16 @@ public class Reflector {
   private Constructor<?> defaultConstructor;
 
   private Map<String, String> caseInsensitivePropertyMap = new HashMap<String, String>();
+  //这个反射器用的调用者工厂
+  private final InvokerFactory invokerFactory;
 
-  private Reflector(Class<?> clazz) {
+  public Reflector(Class<?> clazz) {
+    this(clazz, new ReflectionInvokerFactory());
+  }
+
+  public Reflector(Class<?> clazz, InvokerFactory invokerFactory) {
     type = clazz;
+    this.invokerFactory = invokerFactory;
     //加入构造函数
     addDefaultConstructor(clazz);
     //加入getter
@@ -168,7 +169,7 @@ public class Reflector {
 
   private void addGetMethod(String name, Method method) {
     if (isValidPropertyName(name)) {
-      getMethods.put(name, new MethodInvoker(method));
+      getMethods.put(name, invokerFactory.createMethodInvoker(method));
       getTypes.put(name, method.getReturnType());
     }
   }
@@ -233,7 +234,7 @@ public class Reflector {
 
   private void addSetMethod(String name, Method method) {
     if (isValidPropertyName(name)) {
-      setMethods.put(name, new MethodInvoker(method));
+      setMethods.put(name, invokerFactory.createMethodInvoker(method));
       setTypes.put(name, method.getParameterTypes()[0]);
     }
   }
@@ -270,14 +271,14 @@ public class Reflector {
 
   private void addSetField(Field field) {
     if (isValidPropertyName(field.getName())) {
-      setMethods.put(field.getName(), new SetFieldInvoker(field));
+      setMethods.put(field.getName(), invokerFactory.createSetFieldInvoker(field));
       setTypes.put(field.getName(), field.getType());
     }
   }
 
   private void addGetField(Field field) {
     if (isValidPropertyName(field.getName())) {
-      getMethods.put(field.getName(), new GetFieldInvoker(field));
+      getMethods.put(field.getName(), invokerFactory.createGetFieldInvoker(field));
       getTypes.put(field.getName(), field.getType());
     }
   }
@@ -480,31 +481,21 @@ public class Reflector {
 
   /*
    * Gets an instance of ClassInfo for the specified class.
-   * 得到某个类的反射器，是静态方法，而且要缓存，又要多线程，所以REFLECTOR_MAP是一个ConcurrentHashMap
+   * 得到某个类的反射器，缓存交给SystemMetaObject里默认的ReflectorFactory，
+   * 有Configuration的地方应该用Configuration.getReflectorFactory()
    *
    * @param clazz The class for which to lookup the method cache.
    * @return The method cache for the class
    */
   public static Reflector forClass(Class<?> clazz) {
-    if (classCacheEnabled) {
-      // synchronized (clazz) removed see issue #461
-        //对于每个类来说，我们假设它是不会变的，这样可以考虑将这个类的信息(构造函数，getter,setter,字段)加入缓存，以提高速度
-      Reflector cached = REFLECTOR_MAP.get(clazz);
-      if (cached == null) {
-        cached = new Reflector(clazz);
-        REFLECTOR_MAP.put(clazz, cached);
-      }
-      return cached;
-    } else {
-      return new Reflector(clazz);
-    }
+    return SystemMetaObject.DEFAULT_REFLECTOR_FACTORY.findForClass(clazz);
   }
 
   public static void setClassCacheEnabled(boolean classCacheEnabled) {
-    Reflector.classCacheEnabled = classCacheEnabled;
+    SystemMetaObject.DEFAULT_REFLECTOR_FACTORY.setClassCacheEnabled(classCacheEnabled);
   }
 
   public static boolean isClassCacheEnabled() {
-    return classCacheEnabled;
+    return SystemMetaObject.DEFAULT_REFLECTOR_FACTORY.isClassCacheEnabled();
   }
 }
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection;
+
+import org.apache.ibatis.reflection.invoker.InvokerFactory;
+
+/**
+ * Creates and caches the {@link Reflector}s used by {@link MetaClass} and {@link MetaObject}.
+ * Each {@link org.apache.ibatis.session.Configuration} owns one.
+ */
+/**
+ * 反射器工厂
+ * 每个Configuration一个，决定Reflector怎么缓存、用什么调用者
+ */
+public interface ReflectorFactory {
+
+  boolean isClassCacheEnabled();
+
+  void setClassCacheEnabled(boolean classCacheEnabled);
+
+  InvokerFactory getInvokerFactory();
+
+  //换了调用者工厂之后，已缓存的Reflector要重新生成
+  void setInvokerFactory(InvokerFactory invokerFactory);
+
+  //得到某个类的反射器
+  Reflector findForClass(Class<?> type);
+
+}
@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.invoker;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Creates the {@link Invoker}s that a {@link org.apache.ibatis.reflection.Reflector}
+ * uses to call getters, setters and fields.
+ */
+/**
+ * 调用者工厂
+ * 决定Reflector用什么方式去调用getter/setter/字段，默认是反射
+ */
+public interface InvokerFactory {
+
+  //getter或setter方法
+  Invoker createMethodInvoker(Method method);
+
+  //读字段
+  Invoker createGetFieldInvoker(Field field);
+
+  //写字段
+  Invoker createSetFieldInvoker(Field field);
+
+}
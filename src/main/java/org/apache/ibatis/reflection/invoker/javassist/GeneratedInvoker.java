@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.invoker.javassist;
+
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * Base class of the invokers generated by {@link JavassistInvokerFactory}.
+ */
+/**
+ * 生成的调用者的父类，子类只需实现invoke
+ */
+public abstract class GeneratedInvoker implements Invoker {
+
+  private Class<?> type;
+
+  protected GeneratedInvoker() {
+  }
+
+  void setType(Class<?> type) {
+    this.type = type;
+  }
+
+  @Override
+  public Class<?> getType() {
+    return type;
+  }
+
+}
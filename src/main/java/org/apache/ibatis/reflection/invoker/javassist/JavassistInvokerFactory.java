@@ -0,0 +1,246 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.invoker.javassist;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.InvokerFactory;
+import org.apache.ibatis.reflection.invoker.ReflectionInvokerFactory;
+
+/**
+ * Generates, for every public getter, setter and field of a public class, an {@link Invoker}
+ * that calls it directly instead of through <code>Method.invoke</code>.
+ * Anything that cannot be generated (non public members, JDK classes, missing permissions)
+ * falls back to the reflective invokers.
+ *
+ * @see ReflectionInvokerFactory
+ */
+/**
+ * Javassist调用者工厂
+ * 用javassist为每个getter/setter生成一个直接调用的类，代替Method.invoke
+ * 生成不了的(非public，JDK的类等)还是用反射
+ */
+public class JavassistInvokerFactory implements InvokerFactory {
+
+  private static final Log log = LogFactory.getLog(JavassistInvokerFactory.class);
+  private static final String INVOKER_SUFFIX = "$$MyBatisInvoker$$";
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private static final Map<ClassLoader, WeakReference<InvokerClassLoader>> DEFINERS = new WeakHashMap<ClassLoader, WeakReference<InvokerClassLoader>>();
+
+  private final InvokerFactory fallback = new ReflectionInvokerFactory();
+
+  public JavassistInvokerFactory() {
+    try {
+      //先检查是否有javassist
+      Resources.classForName("javassist.ClassPool");
+    } catch (Throwable e) {
+      throw new IllegalStateException("Cannot generate property accessors because Javassist is not available. Add Javassist to your classpath.", e);
+    }
+  }
+
+  @Override
+  public Invoker createMethodInvoker(Method method) {
+    final Class<?> owner = method.getDeclaringClass();
+    final Class<?>[] parameterTypes = method.getParameterTypes();
+    if (isAccessible(owner, method.getModifiers()) && parameterTypes.length <= 1) {
+      final String call = "t." + method.getName();
+      final StringBuilder body = new StringBuilder();
+      final Class<?> type;
+      if (parameterTypes.length == 1) {
+        //setter
+        type = parameterTypes[0];
+        body.append(sourceName(type)).append(" v = ").append(unbox("args[0]", type)).append(";");
+        body.append("try { ").append(call).append("(v); }");
+        body.append(" catch (java.lang.Throwable e) { throw new java.lang.reflect.InvocationTargetException(e); }");
+        body.append(" return null;");
+      } else {
+        //getter
+        type = method.getReturnType();
+        body.append("try { return ").append(box(call + "()", type)).append("; }");
+        body.append(" catch (java.lang.Throwable e) { throw new java.lang.reflect.InvocationTargetException(e); }");
+      }
+      Invoker invoker = generate(owner, type, body.toString());
+      if (invoker != null) {
+        return invoker;
+      }
+    }
+    return fallback.createMethodInvoker(method);
+  }
+
+  @Override
+  public Invoker createGetFieldInvoker(Field field) {
+    final Class<?> owner = field.getDeclaringClass();
+    if (isAccessible(owner, field.getModifiers())) {
+      Invoker invoker = generate(owner, field.getType(), "return " + box("t." + field.getName(), field.getType()) + ";");
+      if (invoker != null) {
+        return invoker;
+      }
+    }
+    return fallback.createGetFieldInvoker(field);
+  }
+
+  @Override
+  public Invoker createSetFieldInvoker(Field field) {
+    final Class<?> owner = field.getDeclaringClass();
+    if (isAccessible(owner, field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+      Invoker invoker = generate(owner, field.getType(), "t." + field.getName() + " = " + unbox("args[0]", field.getType()) + "; return null;");
+      if (invoker != null) {
+        return invoker;
+      }
+    }
+    return fallback.createSetFieldInvoker(field);
+  }
+
+  //只有public类的public实例成员才能被生成的类直接访问
+  private boolean isAccessible(Class<?> owner, int modifiers) {
+    return Modifier.isPublic(owner.getModifiers())
+        && Modifier.isPublic(modifiers)
+        && !Modifier.isStatic(modifiers)
+        && owner.getClassLoader() != null;
+  }
+
+  private Invoker generate(Class<?> owner, Class<?> type, String body) {
+    final String className = owner.getName() + INVOKER_SUFFIX + COUNTER.incrementAndGet();
+    try {
+      InvokerClassLoader definer = definerFor(owner.getClassLoader());
+      Class<?> generatedClass;
+      //ClassPool不是线程安全的，同一个类加载器的生成串行进行
+      synchronized (definer) {
+        ClassPool pool = definer.pool;
+        CtClass ctClass = pool.makeClass(className, pool.get(GeneratedInvoker.class.getName()));
+        try {
+          ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+          ctClass.addMethod(CtNewMethod.make("public java.lang.Object invoke(java.lang.Object target, java.lang.Object[] args)"
+              + " throws java.lang.IllegalAccessException, java.lang.reflect.InvocationTargetException {"
+              + " " + sourceName(owner) + " t = (" + sourceName(owner) + ") target; " + body + " }", ctClass));
+          generatedClass = definer.define(className, ctClass.toBytecode(), owner.getProtectionDomain());
+        } finally {
+          ctClass.detach();
+        }
+      }
+      GeneratedInvoker invoker = (GeneratedInvoker) generatedClass.newInstance();
+      invoker.setType(type);
+      return invoker;
+    } catch (Throwable t) {
+      log.warn("Could not generate invoker for " + owner.getName() + ", using reflection. Cause: " + t);
+      return null;
+    }
+  }
+
+  //每个类加载器共用一个InvokerClassLoader和它的ClassPool
+  //生成的invoker引用着InvokerClassLoader，这里只弱引用，invoker都没了就可以一起卸载
+  private static InvokerClassLoader definerFor(ClassLoader loader) {
+    synchronized (DEFINERS) {
+      WeakReference<InvokerClassLoader> ref = DEFINERS.get(loader);
+      InvokerClassLoader definer = ref == null ? null : ref.get();
+      if (definer == null) {
+        definer = new InvokerClassLoader(loader);
+        DEFINERS.put(loader, new WeakReference<InvokerClassLoader>(definer));
+      }
+      return definer;
+    }
+  }
+
+  private static String sourceName(Class<?> type) {
+    if (type.isArray()) {
+      return sourceName(type.getComponentType()) + "[]";
+    }
+    return type.getName();
+  }
+
+  //基本类型要自己装箱拆箱，javassist的编译器不会自动做
+  private static String box(String expression, Class<?> type) {
+    if (!type.isPrimitive()) {
+      return expression;
+    }
+    return wrapperName(type) + ".valueOf(" + expression + ")";
+  }
+
+  private static String unbox(String expression, Class<?> type) {
+    if (!type.isPrimitive()) {
+      return "(" + sourceName(type) + ") " + expression;
+    }
+    return "((" + wrapperName(type) + ") " + expression + ")." + type.getName() + "Value()";
+  }
+
+  private static String wrapperName(Class<?> type) {
+    if (type == int.class) {
+      return "java.lang.Integer";
+    } else if (type == char.class) {
+      return "java.lang.Character";
+    }
+    String name = type.getName();
+    return "java.lang." + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  /**
+   * Defines the generated invokers as children of the loader of the class they access, so no
+   * reflective call to <code>ClassLoader.defineClass</code> is needed on any JDK.
+   * The invoker base types always resolve to the ones MyBatis itself was loaded with.
+   */
+  /**
+   * 生成的类定义在这个类加载器里，父加载器是被访问类的加载器
+   * 用的是自己的protected defineClass，不需要反射打开ClassLoader.defineClass，新版JDK上也能用
+   * 生成的类和被访问类不在同一个运行时包，所以只生成public类的public成员
+   */
+  private static final class InvokerClassLoader extends ClassLoader {
+
+    private final ClassPool pool;
+
+    InvokerClassLoader(ClassLoader parent) {
+      super(parent);
+      pool = new ClassPool(true);
+      pool.appendClassPath(new LoaderClassPath(parent));
+      pool.appendClassPath(new ClassClassPath(GeneratedInvoker.class));
+    }
+
+    //父类和接口必须是MyBatis自己的，父加载器可能看不到或者另有一份
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (GeneratedInvoker.class.getName().equals(name)) {
+        return GeneratedInvoker.class;
+      } else if (Invoker.class.getName().equals(name)) {
+        return Invoker.class;
+      }
+      return super.loadClass(name, resolve);
+    }
+
+    Class<?> define(String name, byte[] bytecode, ProtectionDomain domain) {
+      return defineClass(name, bytecode, 0, bytecode.length, domain);
+    }
+
+  }
+
+}
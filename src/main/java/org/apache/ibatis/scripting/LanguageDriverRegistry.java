@@ -15,8 +15,8 @@
  */
 package org.apache.ibatis.scripting;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Frank D. Martinez [mnesarco]
@@ -27,8 +27,8 @@ import java.util.Map;
  */
 public class LanguageDriverRegistry {
 
-  //map
-  private final Map<Class<?>, LanguageDriver> LANGUAGE_DRIVER_MAP = new HashMap<Class<?>, LanguageDriver>();
+  //map，并行解析mapper时语句上的lang属性会并发注册
+  private final ConcurrentMap<Class<?>, LanguageDriver> LANGUAGE_DRIVER_MAP = new ConcurrentHashMap<Class<?>, LanguageDriver>();
 
   private Class<?> defaultDriverClass = null;
 
@@ -45,7 +45,7 @@ public class LanguageDriverRegistry {
       try {
         //单例模式，即一个Class只有一个对应的LanguageDriver
         driver = (LanguageDriver) cls.newInstance();
-        LANGUAGE_DRIVER_MAP.put(cls, driver);
+        LANGUAGE_DRIVER_MAP.putIfAbsent(cls, driver);
       } catch (Exception ex) {
         throw new ScriptingException("Failed to load language driver for " + cls.getName(), ex);
       }
@@ -53,7 +53,7 @@ public class LanguageDriverRegistry {
   }
 
   public LanguageDriver getDriver(Class<?> cls) {
-    return LANGUAGE_DRIVER_MAP.get(cls);
+    return cls == null ? null : LANGUAGE_DRIVER_MAP.get(cls);
   }
 
   public LanguageDriver getDefaultDriver() {
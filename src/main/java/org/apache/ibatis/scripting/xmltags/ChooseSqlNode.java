@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
 import java.util.List;
 
 /**
@@ -24,7 +25,10 @@ import java.util.List;
  * choose SQL节点
  *
  */
-public class ChooseSqlNode implements SqlNode {
+public class ChooseSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = 4699727417249630847L;
+
   private SqlNode defaultSqlNode;
   private List<SqlNode> ifSqlNodes;
 
@@ -49,4 +53,14 @@ public class ChooseSqlNode implements SqlNode {
     //如果连otherwise都没有，返回false
     return false;
   }
+
+  @Override
+  public boolean isCompilable() {
+    for (SqlNode sqlNode : ifSqlNodes) {
+      if (!DynamicSqlSource.isCompilable(sqlNode)) {
+        return false;
+      }
+    }
+    return defaultSqlNode == null || DynamicSqlSource.isCompilable(defaultSqlNode);
+  }
 }
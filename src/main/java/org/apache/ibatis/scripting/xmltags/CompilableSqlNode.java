@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+/**
+ * A {@link SqlNode} whose generated text is fully determined by the branch
+ * outcomes it records in the {@link DynamicContext}. Statements built only
+ * from such nodes can reuse parsed SQL between calls.
+ */
+/**
+ * 可编译的SQL节点
+ * 生成的SQL文本只取决于记录下来的分支走向（if真假、foreach迭代次数），
+ * 不取决于参数的具体值（比如${}就不行）
+ */
+interface CompilableSqlNode extends SqlNode {
+
+  boolean isCompilable();
+
+}
@@ -38,6 +38,12 @@ public class DynamicContext {
   public static final String PARAMETER_OBJECT_KEY = "_parameter";
   public static final String DATABASE_ID_KEY = "_databaseId";
 
+  //分支走向的记号：if成立、if不成立、foreach的一次迭代、foreach结束
+  static final char BRANCH_TAKEN = '1';
+  static final char BRANCH_SKIPPED = '0';
+  static final char LOOP_ITEM = '+';
+  static final char LOOP_END = ';';
+
   static {
     //TODO OgnlRuntime
     //定义属性->getter方法映射，ContextMap到ContextAccessor的映射，注册到ognl运行时
@@ -52,6 +58,8 @@ public class DynamicContext {
   private final ContextMap bindings;
   private final StringBuilder sqlBuilder = new StringBuilder();
   private int uniqueNumber = 0;
+  //编译模式下记录分支走向，不记录时为null
+  private StringBuilder branchTrace;
 
   //在DynamicContext的构造函数中，根据传入的参数对象是否为Map类型，有两个不同构造ContextMap的方式。
   //而ContextMap作为一个继承了HashMap的对象，作用就是用于统一参数的访问方式：用Map接口方法来访问数据。
@@ -91,6 +99,22 @@ public class DynamicContext {
     return uniqueNumber++;
   }
 
+  //开始记录分支走向
+  void traceBranches() {
+    branchTrace = new StringBuilder();
+  }
+
+  void recordBranch(char branch) {
+    if (branchTrace != null) {
+      branchTrace.append(branch);
+    }
+  }
+
+  //分支走向，和参数类型一起决定了生成的SQL
+  String getBranchTrace() {
+    return branchTrace == null ? null : branchTrace.toString();
+  }
+
   //上下文map，静态内部类
   static class ContextMap extends HashMap<String, Object> {
     private static final long serialVersionUID = 2977601501966151582L;
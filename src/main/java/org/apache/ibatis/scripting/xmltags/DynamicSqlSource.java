@@ -15,11 +15,22 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -29,14 +40,25 @@ import org.apache.ibatis.session.Configuration;
  * 动态SQL源码
  * 
  */
-public class DynamicSqlSource implements SqlSource {
+public class DynamicSqlSource implements SqlSource, Serializable {
+
+  private static final long serialVersionUID = 5549337108793072490L;
+
+  //每个语句最多缓存多少种SQL形状（比如foreach的不同长度）
+  private static final int MAX_COMPILED_SHAPES = 256;
 
   private Configuration configuration;
   private SqlNode rootSqlNode;
+  //静态分析的结果：SQL文本是否只取决于分支走向
+  private boolean compilable;
+  //编译模式下，分支走向+参数类型 -> 解析好的SQL
+  private transient ConcurrentMap<CacheKey, CompiledSql> compiledSqls;
 
   public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
     this.configuration = configuration;
     this.rootSqlNode = rootSqlNode;
+    this.compilable = isCompilable(rootSqlNode);
+    this.compiledSqls = new ConcurrentHashMap<CacheKey, CompiledSql>();
   }
 
   //得到绑定的SQL
@@ -44,19 +66,107 @@ public class DynamicSqlSource implements SqlSource {
   public BoundSql getBoundSql(Object parameterObject) {
     //生成一个动态上下文
     DynamicContext context = new DynamicContext(configuration, parameterObject);
+    boolean compiled = compilable && configuration.isCompiledDynamicSql();
+    if (compiled) {
+      context.traceBranches();
+    }
 	//这里SqlNode.apply只是将${}这种参数替换掉，并没有替换#{}这种参数
     rootSqlNode.apply(context);
-	//调用SqlSourceBuilder
-    SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
     Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
-	//SqlSourceBuilder.parse,注意这里返回的是StaticSqlSource,解析完了就把那些参数都替换成?了，也就是最基本的JDBC的SQL写法
-    SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
+    SqlSource sqlSource = null;
+    CacheKey shapeKey = null;
+    if (compiled) {
+      //同样的分支走向和参数类型生成的SQL是一样的，直接用上次解析的结果
+      shapeKey = new CacheKey();
+      shapeKey.update(parameterType);
+      shapeKey.update(context.getBranchTrace());
+      CompiledSql compiledSql = compiledSqls.get(shapeKey);
+      if (compiledSql != null && compiledSql.matches(configuration, context.getBindings())) {
+        sqlSource = compiledSql.sqlSource;
+      }
+    }
+    boolean parsed = sqlSource == null;
+    if (parsed) {
+      //调用SqlSourceBuilder
+      SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+      //SqlSourceBuilder.parse,注意这里返回的是StaticSqlSource,解析完了就把那些参数都替换成?了，也就是最基本的JDBC的SQL写法
+      sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
+    }
 	//看似是又去递归调用SqlSource.getBoundSql，其实因为是StaticSqlSource，所以没问题，不是递归调用
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+    if (compiled && parsed && (compiledSqls.size() < MAX_COMPILED_SHAPES || compiledSqls.containsKey(shapeKey))) {
+      compiledSqls.put(shapeKey, new CompiledSql(configuration, sqlSource, boundSql.getParameterMappings(), context.getBindings()));
+    }
     for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
       boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
     }
     return boundSql;
   }
 
+  //静态分析：只有全部由CompilableSqlNode组成的树才能编译
+  static boolean isCompilable(SqlNode sqlNode) {
+    return sqlNode instanceof CompilableSqlNode && ((CompilableSqlNode) sqlNode).isCompilable();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    compiledSqls = new ConcurrentHashMap<CacheKey, CompiledSql>();
+  }
+
+  //解析好的SQL
+  //#{}引用<bind>或foreach绑定的变量时，参数映射的类型取自变量的运行时类型，所以要记下来，命中时再核对一遍
+  private static class CompiledSql {
+
+    private final SqlSource sqlSource;
+    private final String[] boundProperties;
+    private final Class<?>[] boundTypes;
+
+    CompiledSql(Configuration configuration, SqlSource sqlSource, List<ParameterMapping> parameterMappings, Map<String, Object> bindings) {
+      this.sqlSource = sqlSource;
+      List<String> properties = new ArrayList<String>();
+      for (ParameterMapping parameterMapping : parameterMappings) {
+        String property = parameterMapping.getProperty();
+        if (property != null && bindings.containsKey(new PropertyTokenizer(property).getName())) {
+          properties.add(property);
+        }
+      }
+      this.boundProperties = properties.toArray(new String[properties.size()]);
+      this.boundTypes = boundTypes(configuration, boundProperties, bindings);
+    }
+
+    boolean matches(Configuration configuration, Map<String, Object> bindings) {
+      if (boundProperties.length == 0) {
+        return true;
+      }
+      Class<?>[] types = boundTypes(configuration, boundProperties, bindings);
+      for (int i = 0; i < types.length; i++) {
+        if (types[i] != boundTypes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    //和SqlSourceBuilder里取参数类型的方式保持一致
+    private static Class<?>[] boundTypes(Configuration configuration, String[] properties, Map<String, Object> bindings) {
+      Class<?>[] types = new Class<?>[properties.length];
+      MetaObject metaBindings = null;
+      for (int i = 0; i < properties.length; i++) {
+        if (bindings.containsKey(properties[i])) {
+          //最常见的是foreach的__frch_item_0，直接取值的类型，省掉MetaObject
+          Object value = bindings.get(properties[i]);
+          types[i] = value == null ? Object.class : value.getClass();
+        } else {
+          if (metaBindings == null) {
+            metaBindings = configuration.newMetaObject(bindings);
+          }
+          if (metaBindings.hasGetter(properties[i])) {
+            types[i] = metaBindings.getGetterType(properties[i]);
+          }
+        }
+      }
+      return types;
+    }
+  }
+
 }
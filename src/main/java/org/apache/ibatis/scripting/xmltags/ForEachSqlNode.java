@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
 import java.util.Map;
 
 import org.apache.ibatis.parsing.GenericTokenParser;
@@ -28,7 +29,10 @@ import org.apache.ibatis.session.Configuration;
  * foreach SQL节点
  *TODO
  */
-public class ForEachSqlNode implements SqlNode {
+public class ForEachSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = -1360143891668604585L;
+
   public static final String ITEM_PREFIX = "__frch_";
 
   private ExpressionEvaluator evaluator;
@@ -59,6 +63,7 @@ public class ForEachSqlNode implements SqlNode {
 	//解析collectionExpression->iterable,核心用的ognl
     final Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
     if (!iterable.iterator().hasNext()) {
+      context.recordBranch(DynamicContext.LOOP_END);
       return true;
     }
     boolean first = true;
@@ -74,6 +79,7 @@ public class ForEachSqlNode implements SqlNode {
       } else {
           context = new PrefixedContext(context, "");
       }
+      context.recordBranch(DynamicContext.LOOP_ITEM);
       int uniqueNumber = context.getUniqueNumber();
       // Issue #709 
       if (o instanceof Map.Entry) {
@@ -96,9 +102,15 @@ public class ForEachSqlNode implements SqlNode {
     }
 	//加上)
     applyClose(context);
+    context.recordBranch(DynamicContext.LOOP_END);
     return true;
   }
 
+  @Override
+  public boolean isCompilable() {
+    return DynamicSqlSource.isCompilable(contents);
+  }
+
   private void applyIndex(DynamicContext context, Object o, int i) {
     if (index != null) {
       context.bind(index, o);
@@ -180,6 +192,11 @@ public class ForEachSqlNode implements SqlNode {
       return delegate.getUniqueNumber();
     }
 
+    @Override
+    void recordBranch(char branch) {
+      delegate.recordBranch(branch);
+    }
+
   }
 
 
@@ -228,6 +245,11 @@ public class ForEachSqlNode implements SqlNode {
     public int getUniqueNumber() {
       return delegate.getUniqueNumber();
     }
+
+    @Override
+    void recordBranch(char branch) {
+      delegate.recordBranch(branch);
+    }
   }
 
 }
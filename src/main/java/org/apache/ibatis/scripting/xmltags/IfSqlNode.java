@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
+
 /**
  * @author Clinton Begin
  */
@@ -22,7 +24,10 @@ package org.apache.ibatis.scripting.xmltags;
  * if SQL节点
  *
  */
-public class IfSqlNode implements SqlNode {
+public class IfSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = -7111790232017791309L;
+
   private ExpressionEvaluator evaluator;
   private String test;
   private SqlNode contents;
@@ -37,10 +42,17 @@ public class IfSqlNode implements SqlNode {
   public boolean apply(DynamicContext context) {
     //如果满足条件，则apply，并返回true
     if (evaluator.evaluateBoolean(test, context.getBindings())) {
+      context.recordBranch(DynamicContext.BRANCH_TAKEN);
       contents.apply(context);
       return true;
     }
+    context.recordBranch(DynamicContext.BRANCH_SKIPPED);
     return false;
   }
 
+  @Override
+  public boolean isCompilable() {
+    return DynamicSqlSource.isCompilable(contents);
+  }
+
 }
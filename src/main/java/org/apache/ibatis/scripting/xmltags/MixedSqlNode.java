@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
 import java.util.List;
 
 /**
@@ -24,7 +25,10 @@ import java.util.List;
  * 混合SQL节点
  * 
  */
-public class MixedSqlNode implements SqlNode {
+public class MixedSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = -1376689973059771884L;
+
   //组合模式，拥有一个SqlNode的List
   private List<SqlNode> contents;
 
@@ -40,4 +44,14 @@ public class MixedSqlNode implements SqlNode {
     }
     return true;
   }
+
+  @Override
+  public boolean isCompilable() {
+    for (SqlNode sqlNode : contents) {
+      if (!DynamicSqlSource.isCompilable(sqlNode)) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -35,12 +35,24 @@ import org.apache.ibatis.builder.BuilderException;
 public final class OgnlCache {
 
   private static final Map<String, Object> expressionCache = new ConcurrentHashMap<String, Object>();
+  //编译好的简单表达式，不支持的表达式存NOT_SIMPLE，以后直接走OGNL
+  private static final Map<String, Object> simpleExpressionCache = new ConcurrentHashMap<String, Object>();
+  private static final Object NOT_SIMPLE = new Object();
 
   private OgnlCache() {
     // Prevent Instantiation of Static Class
   }
 
   public static Object getValue(String expression, Object root) {
+    //常见的简单表达式不用OGNL，求值出错或者需要OGNL的类型转换时再交给OGNL
+    Object simpleExpression = simpleExpression(expression);
+    if (simpleExpression != NOT_SIMPLE) {
+      try {
+        return ((SimpleExpression) simpleExpression).getValue(root);
+      } catch (RuntimeException e) {
+        // fall back to OGNL
+      }
+    }
     try {
       Map<Object, OgnlClassResolver> context = Ognl.createDefaultContext(root, new OgnlClassResolver());
       return Ognl.getValue(parseExpression(expression), context, root);
@@ -49,6 +61,18 @@ public final class OgnlCache {
     }
   }
 
+  private static Object simpleExpression(String expression) {
+    Object node = simpleExpressionCache.get(expression);
+    if (node == null) {
+      node = SimpleExpression.compile(expression);
+      if (node == null) {
+        node = NOT_SIMPLE;
+      }
+      simpleExpressionCache.put(expression, node);
+    }
+    return node;
+  }
+
   private static Object parseExpression(String expression) throws OgnlException {
     Object node = expressionCache.get(expression);
     if (node == null) {
@@ -0,0 +1,523 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.SystemMetaObject;
+
+/**
+ * A compiled expression of the subset of OGNL used by most dynamic SQL
+ * tests: property paths, null/boolean/number/string literals, comparisons,
+ * boolean logic and {@code size()}/{@code isEmpty()}/{@code length()}.
+ * Properties are read through {@link org.apache.ibatis.reflection.MetaObject}.
+ * <p>
+ * {@link #compile(String)} returns null for anything outside the subset, and
+ * {@link #getValue(Object)} throws {@link UnsupportedOperationException} when
+ * the operand types would need OGNL's conversion rules. In both cases the
+ * caller evaluates the expression with OGNL instead.
+ */
+/**
+ * 简单表达式
+ * 覆盖动态SQL里最常见的写法：属性路径、null判断、比较、and/or/not、size()等，
+ * 编译成一棵求值树缓存起来，属性用MetaObject读取，不需要每次都创建OGNL上下文。
+ * 不支持的写法（包括运行时遇到的OGNL类型转换）交给OGNL处理。
+ */
+abstract class SimpleExpression {
+
+  //运行时发现需要OGNL处理时抛出，预先创建好，不填充堆栈
+  private static final UnsupportedOperationException UNSUPPORTED = new UnsupportedOperationException("Expression requires OGNL") {
+    private static final long serialVersionUID = -2836530213584106447L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  };
+
+  abstract Object getValue(Object root);
+
+  //编译表达式，不支持的写法返回null
+  static SimpleExpression compile(String expression) {
+    Parser parser = new Parser(expression);
+    try {
+      SimpleExpression result = parser.parseOr();
+      return parser.atEnd() ? result : null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  //和OGNL的OgnlOps.booleanValue一致
+  static boolean booleanValue(Object value) {
+    if (value == null) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof Character) {
+      return (Character) value != 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue() != 0;
+    }
+    return true;
+  }
+
+  //只处理OGNL不需要类型转换就能确定结果的情况，其余交给OGNL
+  static boolean isEqual(Object left, Object right) {
+    if (left == right) {
+      return true;
+    }
+    if (left == null || right == null) {
+      return false;
+    }
+    if (isPrimitiveNumber(left) && isPrimitiveNumber(right)) {
+      return compareNumbers((Number) left, (Number) right) == 0;
+    }
+    if (left.getClass() != right.getClass() || left instanceof Number || left instanceof Character || left.getClass().isArray()) {
+      throw UNSUPPORTED;
+    }
+    return compareSameClass(left, right) == 0 || left.equals(right);
+  }
+
+  static int compare(Object left, Object right) {
+    if (left == null || right == null) {
+      throw UNSUPPORTED;
+    }
+    if (isPrimitiveNumber(left) && isPrimitiveNumber(right)) {
+      return compareNumbers((Number) left, (Number) right);
+    }
+    if (left.getClass() != right.getClass() || !(left instanceof Comparable) || left instanceof Number || left instanceof Character
+        || left instanceof Boolean) {
+      throw UNSUPPORTED;
+    }
+    return compareSameClass(left, right);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static int compareSameClass(Object left, Object right) {
+    if (left instanceof Comparable) {
+      return ((Comparable) left).compareTo(right);
+    }
+    return left.equals(right) ? 0 : 1;
+  }
+
+  private static boolean isPrimitiveNumber(Object value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+        || value instanceof Double || value instanceof Float;
+  }
+
+  private static boolean isIntegral(Number value) {
+    return !(value instanceof Double || value instanceof Float);
+  }
+
+  private static int compareNumbers(Number left, Number right) {
+    if (isIntegral(left) && isIntegral(right)) {
+      long l = left.longValue();
+      long r = right.longValue();
+      return l < r ? -1 : (l == r ? 0 : 1);
+    }
+    double l = left.doubleValue();
+    double r = right.doubleValue();
+    return l < r ? -1 : (l == r ? 0 : 1);
+  }
+
+  //常量
+  private static class Literal extends SimpleExpression {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return value;
+    }
+  }
+
+  //属性，target为null时从根对象取
+  private static class Property extends SimpleExpression {
+    private final SimpleExpression target;
+    private final String name;
+
+    Property(SimpleExpression target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      if (target == null) {
+        if (root instanceof DynamicContext.ContextMap) {
+          //和DynamicContext.ContextAccessor的取值方式一致
+          Map<?, ?> bindings = (Map<?, ?>) root;
+          Object value = bindings.get(name);
+          if (value == null) {
+            Object parameterObject = bindings.get(DynamicContext.PARAMETER_OBJECT_KEY);
+            if (parameterObject instanceof Map) {
+              return ((Map<?, ?>) parameterObject).get(name);
+            }
+          }
+          return value;
+        }
+        return read(root, name);
+      }
+      return read(target.getValue(root), name);
+    }
+
+    private static Object read(Object object, String name) {
+      if (object == null) {
+        throw UNSUPPORTED;
+      }
+      if (object instanceof Map) {
+        //OGNL把Map的size、keys、values等当成特殊属性
+        if ("size".equals(name) || "isEmpty".equals(name) || "keys".equals(name) || "keySet".equals(name) || "values".equals(name)) {
+          throw UNSUPPORTED;
+        }
+        return ((Map<?, ?>) object).get(name);
+      }
+      if (object instanceof Collection || object.getClass().isArray()) {
+        throw UNSUPPORTED;
+      }
+      return SystemMetaObject.forObject(object).getValue(name);
+    }
+  }
+
+  //size()、isEmpty()、length()
+  private static class MethodCall extends SimpleExpression {
+    private final SimpleExpression target;
+    private final String name;
+
+    MethodCall(SimpleExpression target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object object = target.getValue(root);
+      if ("size".equals(name)) {
+        if (object instanceof Collection) {
+          return ((Collection<?>) object).size();
+        }
+        if (object instanceof Map) {
+          return ((Map<?, ?>) object).size();
+        }
+      } else if ("isEmpty".equals(name)) {
+        if (object instanceof Collection) {
+          return ((Collection<?>) object).isEmpty();
+        }
+        if (object instanceof Map) {
+          return ((Map<?, ?>) object).isEmpty();
+        }
+        if (object instanceof String) {
+          return ((String) object).length() == 0;
+        }
+      } else if (object instanceof String) {
+        return ((String) object).length();
+      }
+      throw UNSUPPORTED;
+    }
+  }
+
+  private static class Not extends SimpleExpression {
+    private final SimpleExpression operand;
+
+    Not(SimpleExpression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return !booleanValue(operand.getValue(root));
+    }
+  }
+
+  //and、or和OGNL一样返回操作数本身
+  private static class Logical extends SimpleExpression {
+    private final boolean and;
+    private final SimpleExpression left;
+    private final SimpleExpression right;
+
+    Logical(boolean and, SimpleExpression left, SimpleExpression right) {
+      this.and = and;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = left.getValue(root);
+      if (booleanValue(value) != and) {
+        return value;
+      }
+      return right.getValue(root);
+    }
+  }
+
+  private static class Comparison extends SimpleExpression {
+    private final String operator;
+    private final SimpleExpression left;
+    private final SimpleExpression right;
+
+    Comparison(String operator, SimpleExpression left, SimpleExpression right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object l = left.getValue(root);
+      Object r = right.getValue(root);
+      if ("==".equals(operator)) {
+        return isEqual(l, r);
+      } else if ("!=".equals(operator)) {
+        return !isEqual(l, r);
+      } else if ("<".equals(operator)) {
+        return compare(l, r) < 0;
+      } else if ("<=".equals(operator)) {
+        return compare(l, r) <= 0;
+      } else if (">".equals(operator)) {
+        return compare(l, r) > 0;
+      } else {
+        return compare(l, r) >= 0;
+      }
+    }
+  }
+
+  //递归下降解析器，优先级从低到高：or、and、相等、大小、not
+  private static class Parser {
+    private final String text;
+    private int pos;
+
+    Parser(String text) {
+      this.text = text;
+    }
+
+    boolean atEnd() {
+      skipWhitespace();
+      return pos == text.length();
+    }
+
+    SimpleExpression parseOr() {
+      SimpleExpression left = parseAnd();
+      while (acceptSymbol("||") || acceptWord("or")) {
+        left = new Logical(false, left, parseAnd());
+      }
+      return left;
+    }
+
+    private SimpleExpression parseAnd() {
+      SimpleExpression left = parseEquality();
+      while (acceptSymbol("&&") || acceptWord("and")) {
+        left = new Logical(true, left, parseEquality());
+      }
+      return left;
+    }
+
+    private SimpleExpression parseEquality() {
+      SimpleExpression left = parseRelational();
+      while (true) {
+        if (acceptSymbol("==") || acceptWord("eq")) {
+          left = new Comparison("==", left, parseRelational());
+        } else if (acceptSymbol("!=") || acceptWord("neq")) {
+          left = new Comparison("!=", left, parseRelational());
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private SimpleExpression parseRelational() {
+      SimpleExpression left = parseUnary();
+      while (true) {
+        if (acceptSymbol("<=") || acceptWord("lte")) {
+          left = new Comparison("<=", left, parseUnary());
+        } else if (acceptSymbol(">=") || acceptWord("gte")) {
+          left = new Comparison(">=", left, parseUnary());
+        } else if (acceptSymbol("<") || acceptWord("lt")) {
+          left = new Comparison("<", left, parseUnary());
+        } else if (acceptSymbol(">") || acceptWord("gt")) {
+          left = new Comparison(">", left, parseUnary());
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private SimpleExpression parseUnary() {
+      if (acceptWord("not") || (peek() == '!' && !text.startsWith("!=", pos) && acceptSymbol("!"))) {
+        return new Not(parseUnary());
+      }
+      return parsePrimary();
+    }
+
+    private SimpleExpression parsePrimary() {
+      skipWhitespace();
+      char c = peek();
+      if (c == '(') {
+        pos++;
+        SimpleExpression expression = parseOr();
+        if (!acceptSymbol(")")) {
+          throw UNSUPPORTED;
+        }
+        return expression;
+      }
+      if (c == '\'' || c == '"') {
+        return new Literal(parseString(c));
+      }
+      if (c >= '0' && c <= '9') {
+        return new Literal(parseNumber());
+      }
+      String word = parseIdentifier();
+      if ("null".equals(word)) {
+        return new Literal(null);
+      } else if ("true".equals(word)) {
+        return new Literal(Boolean.TRUE);
+      } else if ("false".equals(word)) {
+        return new Literal(Boolean.FALSE);
+      } else if (isKeyword(word)) {
+        throw UNSUPPORTED;
+      }
+      SimpleExpression expression = new Property(null, word);
+      while (peek() == '.') {
+        pos++;
+        String name = parseIdentifier();
+        if (peek() == '(') {
+          //只支持最后一段的无参size()、isEmpty()、length()
+          if (!("size".equals(name) || "isEmpty".equals(name) || "length".equals(name)) || !text.startsWith("()", pos)) {
+            throw UNSUPPORTED;
+          }
+          pos += 2;
+          return new MethodCall(expression, name);
+        }
+        expression = new Property(expression, name);
+      }
+      return expression;
+    }
+
+    //'x'在OGNL里是Character，不支持；不支持转义
+    private String parseString(char quote) {
+      int end = text.indexOf(quote, pos + 1);
+      if (end < 0) {
+        throw UNSUPPORTED;
+      }
+      String value = text.substring(pos + 1, end);
+      if (value.indexOf('\\') >= 0 || (quote == '\'' && value.length() == 1)) {
+        throw UNSUPPORTED;
+      }
+      pos = end + 1;
+      return value;
+    }
+
+    //只支持十进制的int和不带后缀的小数（OGNL里是Double）
+    private Object parseNumber() {
+      int start = pos;
+      while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+        pos++;
+      }
+      boolean decimal = pos < text.length() && text.charAt(pos) == '.';
+      if (decimal) {
+        pos++;
+        int fraction = pos;
+        while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+          pos++;
+        }
+        if (pos == fraction) {
+          throw UNSUPPORTED;
+        }
+      }
+      if (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+        throw UNSUPPORTED;
+      }
+      String number = text.substring(start, pos);
+      if (decimal) {
+        return Double.valueOf(number);
+      }
+      if (number.length() > 1 && number.charAt(0) == '0') {
+        throw UNSUPPORTED;
+      }
+      try {
+        return Integer.valueOf(number);
+      } catch (NumberFormatException e) {
+        throw UNSUPPORTED;
+      }
+    }
+
+    private String parseIdentifier() {
+      skipWhitespace();
+      int start = pos;
+      if (pos < text.length() && Character.isJavaIdentifierStart(text.charAt(pos))) {
+        pos++;
+        while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+          pos++;
+        }
+      }
+      if (pos == start) {
+        throw UNSUPPORTED;
+      }
+      return text.substring(start, pos);
+    }
+
+    private boolean acceptSymbol(String symbol) {
+      skipWhitespace();
+      if (text.startsWith(symbol, pos)) {
+        //<、>、!后面跟着=时是另一个运算符
+        if (symbol.length() == 1 && "<>".indexOf(symbol.charAt(0)) >= 0 && text.startsWith("=", pos + 1)) {
+          return false;
+        }
+        pos += symbol.length();
+        return true;
+      }
+      return false;
+    }
+
+    private boolean acceptWord(String word) {
+      skipWhitespace();
+      int end = pos + word.length();
+      if (text.startsWith(word, pos) && (end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end)))) {
+        pos = end;
+        return true;
+      }
+      return false;
+    }
+
+    private char peek() {
+      skipWhitespace();
+      return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void skipWhitespace() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    //OGNL的关键字不能当属性名
+    private static boolean isKeyword(String word) {
+      return "and".equals(word) || "or".equals(word) || "not".equals(word) || "eq".equals(word) || "neq".equals(word)
+          || "lt".equals(word) || "gt".equals(word) || "lte".equals(word) || "gte".equals(word) || "in".equals(word)
+          || "instanceof".equals(word) || "new".equals(word) || "shl".equals(word) || "shr".equals(word) || "ushr".equals(word)
+          || "band".equals(word) || "bor".equals(word) || "xor".equals(word) || "bnot".equals(word);
+    }
+  }
+
+}
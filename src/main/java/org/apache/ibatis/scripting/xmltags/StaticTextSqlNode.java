@@ -15,13 +15,18 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
+
 /**
  * @author Clinton Begin
  */
 /**
  * 静态文本SQL节点
  */
-public class StaticTextSqlNode implements SqlNode {
+public class StaticTextSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = -7318887823981490639L;
+
   private String text;
 
   public StaticTextSqlNode(String text) {
@@ -35,4 +40,9 @@ public class StaticTextSqlNode implements SqlNode {
     return true;
   }
 
+  @Override
+  public boolean isCompilable() {
+    return true;
+  }
+
 }
\ No newline at end of file
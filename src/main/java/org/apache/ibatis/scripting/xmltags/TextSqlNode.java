@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
 import java.util.regex.Pattern;
 
 import org.apache.ibatis.parsing.GenericTokenParser;
@@ -29,7 +30,10 @@ import org.apache.ibatis.type.SimpleTypeRegistry;
  * 文本SQL节点（CDATA|TEXT）
  *
  */
-public class TextSqlNode implements SqlNode {
+public class TextSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = 4117443689361902385L;
+
   private String text;
   private Pattern injectionFilter;
 
@@ -56,6 +60,12 @@ public class TextSqlNode implements SqlNode {
     context.appendSql(parser.parse(text));
     return true;
   }
+
+  //${}的值会直接拼进SQL，所以含${}的文本不能编译
+  @Override
+  public boolean isCompilable() {
+    return !isDynamic();
+  }
   
   private GenericTokenParser createParser(TokenHandler handler) {
     return new GenericTokenParser("${", "}", handler);
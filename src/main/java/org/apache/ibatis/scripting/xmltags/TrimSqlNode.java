@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -27,7 +28,9 @@ import org.apache.ibatis.session.Configuration;
 /**
  * @author Clinton Begin
  */
-public class TrimSqlNode implements SqlNode {
+public class TrimSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = 8744759093272831671L;
 
   private SqlNode contents;
   private String prefix;
@@ -57,6 +60,11 @@ public class TrimSqlNode implements SqlNode {
     return result;
   }
 
+  @Override
+  public boolean isCompilable() {
+    return DynamicSqlSource.isCompilable(contents);
+  }
+
   private static List<String> parseOverrides(String overrides) {
     if (overrides != null) {
       final StringTokenizer parser = new StringTokenizer(overrides, "|", false);
@@ -108,6 +116,11 @@ public class TrimSqlNode implements SqlNode {
       return delegate.getUniqueNumber();
     }
 
+    @Override
+    void recordBranch(char branch) {
+      delegate.recordBranch(branch);
+    }
+
     @Override
     public void appendSql(String sql) {
       sqlBuffer.append(sql);
@@ -15,10 +15,14 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.io.Serializable;
+
 /**
  * @author Frank D. Martinez [mnesarco]
  */
-public class VarDeclSqlNode implements SqlNode {
+public class VarDeclSqlNode implements CompilableSqlNode, Serializable {
+
+  private static final long serialVersionUID = -1467419793890418209L;
 
   private final String name;
   private final String expression;
@@ -35,4 +39,9 @@ public class VarDeclSqlNode implements SqlNode {
     return true;
   }
 
+  @Override
+  public boolean isCompilable() {
+    return true;
+  }
+
 }
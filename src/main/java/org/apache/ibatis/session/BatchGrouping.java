@@ -0,0 +1,45 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * Specifies which statements the batch executor may add to a JDBC batch it opened earlier.
+ */
+/**
+ * 批处理执行器把语句并到哪个已打开的JDBC批里
+ *
+ */
+public enum BatchGrouping {
+
+  /**
+   * Only adds to the last batch, when the statement and its SQL are the same as the previous ones.
+   */
+  CONSECUTIVE,
+
+  /**
+   * Adds to the batch of the same statement and SQL unless a batch opened after it touches one
+   * of the tables of the statement. The tables are the ones declared with the {@code tables}
+   * attribute or found in the SQL; declare referenced tables to keep rows behind the rows they
+   * refer to.
+   */
+  TABLES,
+
+  /**
+   * Always adds to the batch of the same statement and SQL, for statements that do not depend on
+   * each other.
+   */
+  ANY
+}
@@ -24,6 +24,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
@@ -31,15 +38,27 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EntityCache;
+import org.apache.ibatis.cache.TableDependencies;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
+import org.apache.ibatis.cache.invalidation.LoopbackTransport;
+import org.apache.ibatis.cache.invalidation.SocketTransport;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
+import org.apache.ibatis.cache.serializer.ReflectorCacheSerializer;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.BatchResultHandler;
+import org.apache.ibatis.executor.CacheMissCoalescer;
+import org.apache.ibatis.executor.CacheRefresher;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ReuseExecutor;
@@ -63,6 +82,7 @@ import org.apache.ibatis.logging.nologging.NoLoggingImpl;
 import org.apache.ibatis.logging.slf4j.Slf4jImpl;
 import org.apache.ibatis.logging.stdout.StdOutImpl;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CacheBuilder;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMap;
@@ -72,8 +92,13 @@ import org.apache.ibatis.parsing.XNode;
 import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.plugin.InterceptorChain;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.InvokerFactory;
+import org.apache.ibatis.reflection.invoker.ReflectionInvokerFactory;
+import org.apache.ibatis.reflection.invoker.javassist.JavassistInvokerFactory;
 import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
@@ -110,15 +135,39 @@ public class Configuration {
   //默认启用缓存
   protected boolean cacheEnabled = true;
   protected boolean callSettersOnNulls = false;
+  //并行解析mapper XML
+  protected boolean parallelMapperParsing = false;
+  //动态SQL按分支走向缓存解析结果
+  protected boolean compiledDynamicSql = false;
+  //二级缓存按表失效，而不是整个namespace清空
+  protected boolean tableCacheInvalidation = false;
+  //并发的二级缓存未命中只查一次数据库
+  protected boolean cacheMissCoalescing = false;
+  //跨session的实体缓存(identity map)
+  protected boolean entityCacheEnabled = false;
   
   protected String logPrefix;
   protected Class <? extends Log> logImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  //本地缓存最多留几个条目、大约多少字节，0为不限
+  protected int localCacheSize = 0;
+  protected long localCacheMaxBytes = 0;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
   //默认为简单执行器
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
+  //批处理时语句并到哪个已打开的批里，默认只并到紧挨着的上一个
+  protected BatchGrouping batchGrouping = BatchGrouping.CONSECUTIVE;
+  //批处理攒够多少条就自动执行，null为等到flush
+  protected Integer defaultBatchSize;
+  //自动执行的批交给它处理
+  protected BatchResultHandler batchResultHandler;
+  //批处理的单行INSERT改写成每条多少行的VALUES，null为不改写
+  protected Integer multiRowInsertSize;
+  //执行异步会话操作的线程数和排队长度
+  protected int asyncThreads = 4;
+  protected int asyncQueueSize = 256;
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
   //---------以上都是<settings>节点-------
 
@@ -126,6 +175,8 @@ public class Configuration {
   //对象工厂和对象包装器工厂
   protected ObjectFactory objectFactory = new DefaultObjectFactory();
   protected ObjectWrapperFactory objectWrapperFactory = new DefaultObjectWrapperFactory();
+  //反射器工厂，每个Configuration有自己的反射信息缓存
+  protected ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
   //映射注册机
   protected MapperRegistry mapperRegistry = new MapperRegistry(this);
 
@@ -150,16 +201,31 @@ public class Configuration {
   protected final LanguageDriverRegistry languageRegistry = new LanguageDriverRegistry();
 
   //映射的语句,存在Map里
-  protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
+  //这几个StrictMap默认是HashMap，开启parallelMapperParsing时换成ConcurrentStrictMap
+  protected Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   //缓存,存在Map里
-  protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  protected Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  //构建每个缓存的CacheBuilder,ConfigurationSnapshot用它重建缓存
+  protected final Map<String, CacheBuilder> cacheBuilders = new ConcurrentHashMap<String, CacheBuilder>();
+  //缓存条目读了哪些表，按表失效时用
+  protected final TableDependencies tableDependencies = new TableDependencies();
+  //合并并发的缓存未命中，统计等待的次数和时间
+  protected final CacheMissCoalescer cacheMissCoalescer = new CacheMissCoalescer(this);
+  //在后台刷新配置了refreshAhead的缓存里快过期的条目
+  protected final CacheRefresher cacheRefresher = new CacheRefresher(this);
+  //把二级缓存的失效广播给别的节点，没配传输时为null
+  protected InvalidationBus invalidationBus;
+  //执行异步会话操作的线程池，没设的话第一次用时按asyncThreads和asyncQueueSize建
+  protected ExecutorService asyncExecutor;
+  //按resultMap和id记住映射出来的实体
+  protected final EntityCache entityCache = new EntityCache(this);
   //结果映射,存在Map里
-  protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
-  protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
-  protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
+  protected Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
+  protected Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
+  protected Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
 
   protected final Set<String> loadedResources = new HashSet<String>();
-  protected final Map<String, XNode> sqlFragments = new StrictMap<XNode>("XML fragments parsed from previous mappers");
+  protected Map<String, XNode> sqlFragments = new StrictMap<XNode>("XML fragments parsed from previous mappers");
 
   //不完整的SQL语句
   protected final Collection<XMLStatementBuilder> incompleteStatements = new LinkedList<XMLStatementBuilder>();
@@ -193,6 +259,13 @@ public class Configuration {
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+
+    typeAliasRegistry.registerAlias("JDK", JdkCacheSerializer.class);
+    typeAliasRegistry.registerAlias("REFLECTOR", ReflectorCacheSerializer.class);
+
+    typeAliasRegistry.registerAlias("LOOPBACK", LoopbackTransport.class);
+    typeAliasRegistry.registerAlias("SOCKET", SocketTransport.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -210,6 +283,9 @@ public class Configuration {
     typeAliasRegistry.registerAlias("CGLIB", CglibProxyFactory.class);
     typeAliasRegistry.registerAlias("JAVASSIST", JavassistProxyFactory.class);
 
+    typeAliasRegistry.registerAlias("REFLECTION", ReflectionInvokerFactory.class);
+    typeAliasRegistry.registerAlias("BYTECODE", JavassistInvokerFactory.class);
+
     languageRegistry.setDefaultDriverClass(XMLLanguageDriver.class);
     languageRegistry.register(RawLanguageDriver.class);
   }
@@ -325,6 +401,15 @@ public class Configuration {
     this.proxyFactory = proxyFactory;
   }
 
+  public InvokerFactory getInvokerFactory() {
+    return reflectorFactory.getInvokerFactory();
+  }
+
+  //调用getter/setter的方式是ReflectorFactory的一部分
+  public void setInvokerFactory(InvokerFactory invokerFactory) {
+    reflectorFactory.setInvokerFactory(invokerFactory);
+  }
+
   public boolean isAggressiveLazyLoading() {
     return aggressiveLazyLoading;
   }
@@ -389,6 +474,166 @@ public class Configuration {
     this.useColumnLabel = useColumnLabel;
   }
 
+  public boolean isParallelMapperParsing() {
+    return parallelMapperParsing;
+  }
+
+  public void setParallelMapperParsing(boolean parallelMapperParsing) {
+    this.parallelMapperParsing = parallelMapperParsing;
+    if (parallelMapperParsing) {
+      //并行解析时多个线程同时注册和查找，这时才换成并发的Map
+      mappedStatements = concurrent(mappedStatements);
+      caches = concurrent(caches);
+      resultMaps = concurrent(resultMaps);
+      parameterMaps = concurrent(parameterMaps);
+      keyGenerators = concurrent(keyGenerators);
+      sqlFragments = concurrent(sqlFragments);
+    }
+  }
+
+  //已经放进去的全名、短名和Ambiguity原样复制过去
+  private static <V> Map<String, V> concurrent(Map<String, V> map) {
+    if (map instanceof StrictMap) {
+      return new ConcurrentStrictMap<V>(((StrictMap<V>) map).name, map);
+    }
+    return map;
+  }
+
+  public boolean isCompiledDynamicSql() {
+    return compiledDynamicSql;
+  }
+
+  public void setCompiledDynamicSql(boolean compiledDynamicSql) {
+    this.compiledDynamicSql = compiledDynamicSql;
+  }
+
+  public boolean isTableCacheInvalidation() {
+    return tableCacheInvalidation;
+  }
+
+  public void setTableCacheInvalidation(boolean tableCacheInvalidation) {
+    this.tableCacheInvalidation = tableCacheInvalidation;
+  }
+
+  public TableDependencies getTableDependencies() {
+    return tableDependencies;
+  }
+
+  public boolean isCacheMissCoalescing() {
+    return cacheMissCoalescing;
+  }
+
+  public void setCacheMissCoalescing(boolean cacheMissCoalescing) {
+    this.cacheMissCoalescing = cacheMissCoalescing;
+  }
+
+  public CacheMissCoalescer getCacheMissCoalescer() {
+    return cacheMissCoalescer;
+  }
+
+  public CacheRefresher getCacheRefresher() {
+    return cacheRefresher;
+  }
+
+  public boolean isEntityCacheEnabled() {
+    return entityCacheEnabled;
+  }
+
+  public void setEntityCacheEnabled(boolean entityCacheEnabled) {
+    this.entityCacheEnabled = entityCacheEnabled;
+  }
+
+  public EntityCache getEntityCache() {
+    return entityCache;
+  }
+
+  public InvalidationBus getInvalidationBus() {
+    return invalidationBus;
+  }
+
+  /**
+   * Starts broadcasting the second level cache invalidations of this configuration
+   * through the transport, and applying those of the other nodes.
+   */
+  public void setCacheInvalidationTransport(InvalidationTransport transport) {
+    if (invalidationBus != null) {
+      invalidationBus.close();
+    }
+    if (transport == null) {
+      invalidationBus = null;
+    } else {
+      invalidationBus = new InvalidationBus(this, transport);
+      invalidationBus.start();
+    }
+  }
+
+  public BatchGrouping getBatchGrouping() {
+    return batchGrouping;
+  }
+
+  public void setBatchGrouping(BatchGrouping batchGrouping) {
+    this.batchGrouping = batchGrouping;
+  }
+
+  public Integer getDefaultBatchSize() {
+    return defaultBatchSize;
+  }
+
+  public void setDefaultBatchSize(Integer defaultBatchSize) {
+    this.defaultBatchSize = defaultBatchSize;
+  }
+
+  public BatchResultHandler getBatchResultHandler() {
+    return batchResultHandler;
+  }
+
+  public void setBatchResultHandler(BatchResultHandler batchResultHandler) {
+    this.batchResultHandler = batchResultHandler;
+  }
+
+  public Integer getMultiRowInsertSize() {
+    return multiRowInsertSize;
+  }
+
+  public void setMultiRowInsertSize(Integer multiRowInsertSize) {
+    this.multiRowInsertSize = multiRowInsertSize;
+  }
+
+  public int getAsyncThreads() {
+    return asyncThreads;
+  }
+
+  public void setAsyncThreads(int asyncThreads) {
+    this.asyncThreads = asyncThreads;
+  }
+
+  public int getAsyncQueueSize() {
+    return asyncQueueSize;
+  }
+
+  public void setAsyncQueueSize(int asyncQueueSize) {
+    this.asyncQueueSize = asyncQueueSize;
+  }
+
+  /**
+   * Gets the pool that runs the asynchronous operations of the sessions. Unless one was
+   * set, a pool of {@code asyncThreads} daemon threads with a queue of {@code asyncQueueSize}
+   * sessions is created on first use.
+   */
+  public synchronized ExecutorService getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(asyncQueueSize), new AsyncThreadFactory());
+      executor.allowCoreThreadTimeOut(true);
+      asyncExecutor = executor;
+    }
+    return asyncExecutor;
+  }
+
+  public synchronized void setAsyncExecutor(ExecutorService asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
   public LocalCacheScope getLocalCacheScope() {
     return localCacheScope;
   }
@@ -397,6 +642,22 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  public int getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  public void setLocalCacheSize(int localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  public long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  public void setLocalCacheMaxBytes(long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -443,6 +704,14 @@ public class Configuration {
   public void setObjectWrapperFactory(ObjectWrapperFactory objectWrapperFactory) {
     this.objectWrapperFactory = objectWrapperFactory;
   }
+  public ReflectorFactory getReflectorFactory() {
+    return reflectorFactory;
+  }
+
+  public void setReflectorFactory(ReflectorFactory reflectorFactory) {
+    this.reflectorFactory = reflectorFactory;
+  }
+
 
   /**
    * @since 3.2.2
@@ -468,7 +737,7 @@ public class Configuration {
 
   //创建元对象
   public MetaObject newMetaObject(Object object) {
-    return MetaObject.forObject(object, objectFactory, objectWrapperFactory);
+    return MetaObject.forObject(object, objectFactory, objectWrapperFactory, reflectorFactory);
   }
 
   //创建参数处理器
@@ -519,7 +788,7 @@ public class Configuration {
     }
     //如果要求缓存，生成另一种CachingExecutor(默认就是有缓存),装饰者模式,所以默认都是返回CachingExecutor
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, this);
     }
     //此处调用插件,通过插件可以改变Executor行为
     executor = (Executor) interceptorChain.pluginAll(executor);
@@ -550,6 +819,14 @@ public class Configuration {
     caches.put(cache.getId(), cache);
   }
 
+  public void addCacheBuilder(String id, CacheBuilder cacheBuilder) {
+    cacheBuilders.put(id, cacheBuilder);
+  }
+
+  public CacheBuilder getCacheBuilder(String id) {
+    return cacheBuilders.get(id);
+  }
+
   public Collection<String> getCacheNames() {
     return caches.keySet();
   }
@@ -627,7 +904,9 @@ public class Configuration {
   }
 
   public void addIncompleteStatement(XMLStatementBuilder incompleteStatement) {
-    incompleteStatements.add(incompleteStatement);
+    synchronized (incompleteStatements) {
+      incompleteStatements.add(incompleteStatement);
+    }
   }
 
   public Collection<CacheRefResolver> getIncompleteCacheRefs() {
@@ -635,7 +914,9 @@ public class Configuration {
   }
 
   public void addIncompleteCacheRef(CacheRefResolver incompleteCacheRef) {
-    incompleteCacheRefs.add(incompleteCacheRef);
+    synchronized (incompleteCacheRefs) {
+      incompleteCacheRefs.add(incompleteCacheRef);
+    }
   }
 
   public Collection<ResultMapResolver> getIncompleteResultMaps() {
@@ -643,11 +924,15 @@ public class Configuration {
   }
 
   public void addIncompleteResultMap(ResultMapResolver resultMapResolver) {
-    incompleteResultMaps.add(resultMapResolver);
+    synchronized (incompleteResultMaps) {
+      incompleteResultMaps.add(resultMapResolver);
+    }
   }
 
   public void addIncompleteMethod(MethodResolver builder) {
-    incompleteMethods.add(builder);
+    synchronized (incompleteMethods) {
+      incompleteMethods.add(builder);
+    }
   }
 
   public Collection<MethodResolver> getIncompleteMethods() {
@@ -788,6 +1073,18 @@ public class Configuration {
     }
   }
 
+  //守护线程，不影响应用退出
+  private static class AsyncThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-async-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
   //静态内部类,严格的Map，不允许多次覆盖key所对应的value
   protected static class StrictMap<V> extends HashMap<String, V> {
 
@@ -852,7 +1149,7 @@ public class Configuration {
     }
 
     //取得短名称，也就是取得最后那个句号的后面那部分
-    private String getShortName(String key) {
+    private static String getShortName(String key) {
       final String[] keyparts = key.split("\\.");
       return keyparts[keyparts.length - 1];
     }
@@ -872,4 +1169,56 @@ public class Configuration {
     }
   }
 
+  //开启parallelMapperParsing时用的StrictMap，基于ConcurrentHashMap，读不加锁
+  //全名和缩略名两个key要一起检查和放入，所以整个put加锁
+  protected static class ConcurrentStrictMap<V> extends ConcurrentHashMap<String, V> {
+
+    private static final long serialVersionUID = 8318305285383451463L;
+    private String name;
+
+    public ConcurrentStrictMap(String name) {
+      super();
+      this.name = name;
+    }
+
+    public ConcurrentStrictMap(String name, Map<String, ? extends V> m) {
+      super(m);
+      this.name = name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized V put(String key, V value) {
+      if (containsKey(key)) {
+        throw new IllegalArgumentException(name + " already contains value for " + key);
+      }
+      if (key.contains(".")) {
+        final String shortKey = StrictMap.getShortName(key);
+        if (super.get(shortKey) == null) {
+          super.put(shortKey, value);
+        } else {
+          super.put(shortKey, (V) new StrictMap.Ambiguity(shortKey));
+        }
+      }
+      return super.put(key, value);
+    }
+
+    //与HashMap保持一致，null key视为不存在
+    //注意不能调super.containsKey，它会回调下面会报错的get
+    public boolean containsKey(Object key) {
+      return key != null && super.get(key) != null;
+    }
+
+    public V get(Object key) {
+      V value = key == null ? null : super.get(key);
+      if (value == null) {
+        throw new IllegalArgumentException(name + " does not contain value for " + key);
+      }
+      if (value instanceof StrictMap.Ambiguity) {
+        throw new IllegalArgumentException(((StrictMap.Ambiguity) value).getSubject() + " is ambiguous in " + name
+            + " (try using the full name including the namespace, or rename one of the entries)");
+      }
+      return value;
+    }
+  }
+
 }
@@ -0,0 +1,644 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.ibatis.binding.MapperRegistry;
+import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.builder.annotation.ProviderSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.LanguageDriverRegistry;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.scripting.xmltags.ChooseSqlNode;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
+import org.apache.ibatis.scripting.xmltags.IfSqlNode;
+import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
+import org.apache.ibatis.scripting.xmltags.SetSqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TrimSqlNode;
+import org.apache.ibatis.scripting.xmltags.VarDeclSqlNode;
+import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.TypeAliasRegistry;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * Binary snapshot of the mapping model of a {@link Configuration}: mapped
+ * statements with their SqlSource trees, result maps, parameter maps, key
+ * generators, cache definitions, cache-refs and mapper interfaces.
+ * <p>
+ * Everything that is set up by the configuration XML itself (settings, type
+ * aliases, type handlers, plugins, environment) is not part of the snapshot; a
+ * snapshot is read into a configuration parsed with
+ * {@link org.apache.ibatis.builder.xml.XMLConfigBuilder#parseWithoutMappers()}.
+ * Registered type handlers, language drivers and caches are written as
+ * references and resolved against that configuration when reading.
+ * <p>
+ * A snapshot is only used when it is current: it records a checksum of the
+ * configuration source, the variables and database id it was built with,
+ * CRC32 checksums of every mapper XML and annotated mapper class it contains,
+ * the classes found in every package scanned for mappers with the checksums of
+ * their class files, and a fingerprint of the MyBatis model classes.
+ * {@link #read} returns false when any of them differs, e.g. when a mapper
+ * interface was added to or removed from a scanned package.
+ *
+ * @see SqlSessionFactoryBuilder#build(InputStream, String, Properties, java.io.File)
+ */
+/**
+ * Configuration快照，把解析好的映射模型序列化到二进制文件，下次启动直接读入，省去XPath/DOM解析
+ * 只负责mappers部分，配置文件本身仍然正常解析
+ *
+ */
+public final class ConfigurationSnapshot {
+
+  private static final int MAGIC = 0x4d425353;
+  private static final int FORMAT_VERSION = 2;
+
+  //快照里会出现的MyBatis类，它们的字节码变了(升级MyBatis)快照就失效
+  private static final Class<?>[] MODEL_CLASSES = {
+    ConfigurationSnapshot.class, MappedStatement.class, ResultMap.class, ResultMapping.class, ParameterMap.class,
+    ParameterMapping.class, Discriminator.class, CacheBuilder.class, StaticSqlSource.class, RawSqlSource.class,
+    DynamicSqlSource.class, ProviderSqlSource.class, ChooseSqlNode.class, ForEachSqlNode.class, IfSqlNode.class,
+    MixedSqlNode.class, StaticTextSqlNode.class, TextSqlNode.class, TrimSqlNode.class, WhereSqlNode.class,
+    SetSqlNode.class, VarDeclSqlNode.class, ExpressionEvaluator.class, Jdbc3KeyGenerator.class,
+    NoKeyGenerator.class, SelectKeyGenerator.class, BaseTypeHandler.class };
+
+  private static volatile Long modelFingerprint;
+
+  private ConfigurationSnapshot() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /**
+   * Writes the mapping model of the configuration.
+   *
+   * @param sourceChecksum checksum of the configuration source, checked again by {@link #read}
+   * @throws NotSerializableException if the model holds an object that cannot be written,
+   *         e.g. a non serializable custom type handler that is not registered in the configuration
+   */
+  public static void write(Configuration configuration, long sourceChecksum, OutputStream out) throws IOException {
+    //先把不完整的语句都构建完，有问题直接报错
+    configuration.buildAllStatements();
+    Map<String, CacheBuilder> cacheBuilders = new LinkedHashMap<String, CacheBuilder>();
+    for (Cache cache : distinctValues(configuration.caches, Cache.class)) {
+      CacheBuilder cacheBuilder = configuration.getCacheBuilder(cache.getId());
+      if (cacheBuilder == null) {
+        throw new NotSerializableException("Cache " + cache.getId() + " was not built from a mapper definition");
+      }
+      cacheBuilders.put(cache.getId(), cacheBuilder);
+    }
+
+    ObjectOutputStream output = new SnapshotOutputStream(out, configuration);
+    //1.头部:用来判断快照是否还有效
+    output.writeInt(MAGIC);
+    output.writeInt(FORMAT_VERSION);
+    output.writeLong(getModelFingerprint());
+    output.writeLong(sourceChecksum);
+    output.writeObject(configuration.getDatabaseId());
+    output.writeObject(copyOf(configuration.getVariables()));
+    output.writeObject(checksums(configuration.loadedResources));
+    Map<String, String> packageScans = packageScans(configuration);
+    output.writeObject(packageScans);
+    output.writeObject(classChecksums(packageScans));
+    //2.映射模型,缓存要最先写,读的时候语句引用的缓存要先重建好
+    output.writeObject(cacheBuilders);
+    output.writeObject(primaryEntries(configuration.parameterMaps));
+    output.writeObject(primaryEntries(configuration.resultMaps));
+    output.writeObject(primaryEntries(configuration.mappedStatements));
+    output.writeObject(primaryEntries(configuration.keyGenerators));
+    output.writeObject(new HashMap<String, String>(configuration.cacheRefMap));
+    output.writeObject(new ArrayList<Class<?>>(configuration.getMapperRegistry().getMappers()));
+    output.writeObject(new ArrayList<String>(configuration.loadedResources));
+    output.flush();
+  }
+
+  /**
+   * Reads a snapshot into a configuration that was parsed without its mappers.
+   * Nothing is added to the configuration, and no cache is created, unless the
+   * whole snapshot is current and could be read.
+   *
+   * @return false if the snapshot is stale or was written by a different version
+   */
+  @SuppressWarnings("unchecked")
+  public static boolean read(Configuration configuration, long sourceChecksum, InputStream in) throws IOException {
+    Map<String, Cache> caches = new HashMap<String, Cache>();
+    SnapshotInputStream input;
+    try {
+      input = new SnapshotInputStream(in, configuration, caches);
+      if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION
+          || input.readLong() != getModelFingerprint() || input.readLong() != sourceChecksum) {
+        return false;
+      }
+      if (!nullSafeEquals(configuration.getDatabaseId(), input.readObject())
+          || !copyOf(configuration.getVariables()).equals(input.readObject())
+          || !checksumsMatch((Map<String, Long>) input.readObject())) {
+        return false;
+      }
+      //重新扫描<package>，加了或删了mapper接口、类文件变了都算过期
+      Map<String, String> packageScans = (Map<String, String>) input.readObject();
+      if (!classChecksums(packageScans).equals(input.readObject())) {
+        return false;
+      }
+
+      //读的过程中语句先引用占位的缓存，整个快照读完才真正创建缓存(比如打开堆外缓存的文件)
+      Map<String, CacheBuilder> cacheBuilders = (Map<String, CacheBuilder>) input.readObject();
+      for (String id : cacheBuilders.keySet()) {
+        caches.put(id, new PendingCache(id));
+      }
+      Map<String, ParameterMap> parameterMaps = (Map<String, ParameterMap>) input.readObject();
+      Map<String, ResultMap> resultMaps = (Map<String, ResultMap>) input.readObject();
+      Map<String, MappedStatement> mappedStatements = (Map<String, MappedStatement>) input.readObject();
+      Map<String, KeyGenerator> keyGenerators = (Map<String, KeyGenerator>) input.readObject();
+      Map<String, String> cacheRefMap = (Map<String, String>) input.readObject();
+      List<Class<?>> mappers = (List<Class<?>>) input.readObject();
+      List<String> loadedResources = (List<String>) input.readObject();
+
+      //3.全部读完再创建缓存，换掉语句里的占位，然后放进configuration
+      for (Map.Entry<String, CacheBuilder> entry : cacheBuilders.entrySet()) {
+        CacheBuilder cacheBuilder = entry.getValue()
+            .tableDependencies(configuration.isTableCacheInvalidation() ? configuration.getTableDependencies() : null)
+            .reflectorFactory(configuration.getReflectorFactory());
+        caches.put(entry.getKey(), cacheBuilder.build());
+      }
+      for (MappedStatement ms : mappedStatements.values()) {
+        if (ms.getCache() instanceof PendingCache) {
+          configuration.newMetaObject(ms).setValue("cache", caches.get(ms.getCache().getId()));
+        }
+      }
+      for (Map.Entry<String, CacheBuilder> entry : cacheBuilders.entrySet()) {
+        configuration.addCache(caches.get(entry.getKey()));
+        configuration.addCacheBuilder(entry.getKey(), entry.getValue());
+      }
+      putEach(configuration.parameterMaps, parameterMaps);
+      putEach(configuration.resultMaps, resultMaps);
+      putEach(configuration.mappedStatements, mappedStatements);
+      putEach(configuration.keyGenerators, keyGenerators);
+      configuration.cacheRefMap.putAll(cacheRefMap);
+      for (Class<?> mapper : mappers) {
+        if (!configuration.hasMapper(mapper)) {
+          configuration.getMapperRegistry().addParsedMapper(mapper);
+        }
+      }
+      configuration.loadedResources.addAll(loadedResources);
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (ObjectStreamException e) {
+      //类结构变了、引用的类型处理器不在了、文件损坏
+      return false;
+    } catch (RuntimeException e) {
+      //反序列化出来的对象对不上(比如ClassCastException)，同样当作过期，回去解析XML
+      return false;
+    }
+  }
+
+  //StrictMap里每个值会以全名和短名各放一次，只取全名那份，放回去时StrictMap会重新生成短名
+  private static <V> Map<String, V> primaryEntries(Map<String, V> strictMap) {
+    Map<Object, Object> qualified = new IdentityHashMap<Object, Object>();
+    Map<String, V> sorted = new TreeMap<String, V>();
+    for (Map.Entry<String, V> entry : strictMap.entrySet()) {
+      if (!(entry.getValue() instanceof Configuration.StrictMap.Ambiguity)) {
+        sorted.put(entry.getKey(), entry.getValue());
+        if (entry.getKey().indexOf('.') >= 0) {
+          qualified.put(entry.getValue(), entry.getValue());
+        }
+      }
+    }
+    Map<String, V> entries = new LinkedHashMap<String, V>();
+    for (Map.Entry<String, V> entry : sorted.entrySet()) {
+      if (entry.getKey().indexOf('.') >= 0 || !qualified.containsKey(entry.getValue())) {
+        entries.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return entries;
+  }
+
+  //逐个put，让StrictMap检查重复并生成短名
+  private static <V> void putEach(Map<String, V> strictMap, Map<String, V> entries) {
+    for (Map.Entry<String, V> entry : entries.entrySet()) {
+      strictMap.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private static <V> List<V> distinctValues(Map<String, ?> strictMap, Class<V> type) {
+    Map<V, V> values = new IdentityHashMap<V, V>();
+    for (Object value : strictMap.values()) {
+      if (type.isInstance(value)) {
+        values.put(type.cast(value), type.cast(value));
+      }
+    }
+    return new ArrayList<V>(values.keySet());
+  }
+
+  private static Properties copyOf(Properties variables) {
+    Properties copy = new Properties();
+    if (variables != null) {
+      copy.putAll(variables);
+    }
+    return copy;
+  }
+
+  private static boolean nullSafeEquals(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  //每个加载过的mapper XML和注解mapper类的CRC32
+  private static Map<String, Long> checksums(Collection<String> loadedResources) throws IOException {
+    Map<String, Long> checksums = new LinkedHashMap<String, Long>();
+    for (String resource : new TreeSet<String>(loadedResources)) {
+      InputStream source = openSource(resource);
+      if (source != null) {
+        checksums.put(resource, checksum(source));
+      }
+    }
+    return checksums;
+  }
+
+  private static boolean checksumsMatch(Map<String, Long> checksums) {
+    for (Map.Entry<String, Long> entry : checksums.entrySet()) {
+      try {
+        InputStream source = openSource(entry.getKey());
+        if (source == null || checksum(source) != entry.getValue().longValue()) {
+          return false;
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //按包扫描的包名 -> 超类型的类名
+  private static Map<String, String> packageScans(Configuration configuration) {
+    Map<String, String> packageScans = new TreeMap<String, String>();
+    for (Map.Entry<String, Class<?>> entry : configuration.getMapperRegistry().getPackageScans().entrySet()) {
+      packageScans.put(entry.getKey(), entry.getValue().getName());
+    }
+    return packageScans;
+  }
+
+  //扫描这些包找到的每个类的类名 -> 类文件的CRC32
+  private static Map<String, Long> classChecksums(Map<String, String> packageScans) throws IOException {
+    Map<String, Long> checksums = new TreeMap<String, Long>();
+    for (Map.Entry<String, String> entry : packageScans.entrySet()) {
+      Class<?> superType;
+      try {
+        superType = Resources.classForName(entry.getValue());
+      } catch (ClassNotFoundException e) {
+        //超类型没了，快照肯定过期，返回一个不会相等的结果
+        checksums.put(entry.getValue(), -1L);
+        continue;
+      }
+      for (Class<?> type : MapperRegistry.findMappers(entry.getKey(), superType)) {
+        InputStream source = Resources.getResourceAsStream(type.getClassLoader(), type.getName().replace('.', '/') + ".class");
+        checksums.put(type.getName(), checksum(source));
+      }
+    }
+    return checksums;
+  }
+
+  //namespace:xxx只是标记，不对应文件，返回null
+  private static InputStream openSource(String resource) throws IOException {
+    if (resource.startsWith("namespace:")) {
+      return null;
+    }
+    //MapperAnnotationBuilder记的是type.toString()
+    if (resource.startsWith("interface ")) {
+      return Resources.getResourceAsStream(resource.substring("interface ".length()).replace('.', '/') + ".class");
+    }
+    try {
+      new URL(resource);
+      return Resources.getUrlAsStream(resource);
+    } catch (MalformedURLException e) {
+      return Resources.getResourceAsStream(resource);
+    }
+  }
+
+  private static long checksum(InputStream source) throws IOException {
+    try {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = source.read(buffer)) != -1) {
+        crc.update(buffer, 0, n);
+      }
+      return crc.getValue();
+    } finally {
+      source.close();
+    }
+  }
+
+  private static long getModelFingerprint() {
+    Long fingerprint = modelFingerprint;
+    if (fingerprint == null) {
+      CRC32 crc = new CRC32();
+      for (Class<?> modelClass : MODEL_CLASSES) {
+        crc.update(modelClass.getName().getBytes());
+        InputStream classFile = modelClass.getResourceAsStream("/" + modelClass.getName().replace('.', '/') + ".class");
+        if (classFile != null) {
+          try {
+            crc.update(Long.toString(checksum(classFile)).getBytes());
+          } catch (IOException e) {
+            // the class name alone still identifies it
+          }
+        }
+      }
+      fingerprint = crc.getValue();
+      modelFingerprint = fingerprint;
+    }
+    return fingerprint;
+  }
+
+  //写的时候把Configuration里共享的、不能序列化的对象换成引用
+  private static class SnapshotOutputStream extends ObjectOutputStream {
+
+    private final Configuration configuration;
+
+    SnapshotOutputStream(OutputStream out, Configuration configuration) throws IOException {
+      super(out);
+      this.configuration = configuration;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+      if (obj instanceof Configuration) {
+        return new ConfigurationRef();
+      } else if (obj instanceof TypeHandlerRegistry) {
+        return new TypeHandlerRegistryRef();
+      } else if (obj instanceof TypeAliasRegistry) {
+        return new TypeAliasRegistryRef();
+      } else if (obj instanceof LanguageDriver) {
+        return new LanguageDriverRef(obj.getClass());
+      } else if (obj instanceof SqlSourceBuilder) {
+        return new SqlSourceBuilderRef();
+      } else if (obj instanceof Method) {
+        return new MethodRef((Method) obj);
+      } else if (obj instanceof Cache) {
+        String id = ((Cache) obj).getId();
+        if (configuration.getCacheBuilder(id) == null) {
+          throw new NotSerializableException("Cache " + id + " was not built from a mapper definition");
+        }
+        return new CacheRef(id);
+      } else if (obj instanceof TypeHandler) {
+        //注册过的类型处理器只写类名，读的时候从TypeHandlerRegistry拿同一个实例
+        @SuppressWarnings("unchecked")
+        Class<? extends TypeHandler<?>> handlerType = (Class<? extends TypeHandler<?>>) obj.getClass();
+        if (configuration.getTypeHandlerRegistry().getMappingTypeHandler(handlerType) == obj) {
+          return new TypeHandlerRef(handlerType);
+        }
+      }
+      return obj;
+    }
+  }
+
+  private static class SnapshotInputStream extends ObjectInputStream {
+
+    private final Configuration configuration;
+    private final Map<String, Cache> caches;
+
+    SnapshotInputStream(InputStream in, Configuration configuration, Map<String, Cache> caches) throws IOException {
+      super(in);
+      this.configuration = configuration;
+      this.caches = caches;
+      enableResolveObject(true);
+    }
+
+    //用MyBatis的类加载规则找类，应用服务器里默认的loader不一定找得到映射的类型
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      try {
+        return Resources.classForName(desc.getName());
+      } catch (ClassNotFoundException e) {
+        return super.resolveClass(desc);
+      }
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) throws IOException {
+      if (obj instanceof Ref) {
+        return ((Ref) obj).resolve(configuration, caches);
+      }
+      return obj;
+    }
+  }
+
+  private abstract static class Ref implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    abstract Object resolve(Configuration configuration, Map<String, Cache> caches) throws IOException;
+  }
+
+  private static class ConfigurationRef extends Ref {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) {
+      return configuration;
+    }
+  }
+
+  private static class TypeHandlerRegistryRef extends Ref {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) {
+      return configuration.getTypeHandlerRegistry();
+    }
+  }
+
+  private static class TypeAliasRegistryRef extends Ref {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) {
+      return configuration.getTypeAliasRegistry();
+    }
+  }
+
+  private static class SqlSourceBuilderRef extends Ref {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) {
+      return new SqlSourceBuilder(configuration);
+    }
+  }
+
+  private static class TypeHandlerRef extends Ref {
+    private static final long serialVersionUID = 1L;
+    private final Class<? extends TypeHandler<?>> handlerType;
+
+    TypeHandlerRef(Class<? extends TypeHandler<?>> handlerType) {
+      this.handlerType = handlerType;
+    }
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) throws IOException {
+      TypeHandler<?> handler = configuration.getTypeHandlerRegistry().getMappingTypeHandler(handlerType);
+      if (handler == null) {
+        throw new InvalidObjectException("Type handler " + handlerType.getName() + " is no longer registered");
+      }
+      return handler;
+    }
+  }
+
+  private static class LanguageDriverRef extends Ref {
+    private static final long serialVersionUID = 1L;
+    private final Class<?> driverType;
+
+    LanguageDriverRef(Class<?> driverType) {
+      this.driverType = driverType;
+    }
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) {
+      LanguageDriverRegistry languageRegistry = configuration.getLanguageRegistry();
+      if (languageRegistry.getDriver(driverType) == null) {
+        languageRegistry.register(driverType);
+      }
+      return languageRegistry.getDriver(driverType);
+    }
+  }
+
+  private static class CacheRef extends Ref {
+    private static final long serialVersionUID = 1L;
+    private final String id;
+
+    CacheRef(String id) {
+      this.id = id;
+    }
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) throws IOException {
+      Cache cache = caches.get(id);
+      if (cache == null) {
+        throw new InvalidObjectException("Cache " + id + " is missing from the snapshot");
+      }
+      return cache;
+    }
+  }
+
+  //读快照时语句暂时引用的缓存，真正的缓存在整个快照读完后才创建
+  private static final class PendingCache implements Cache {
+    private final String id;
+
+    PendingCache(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      throw new UnsupportedOperationException("Cache " + id + " is not built yet");
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      throw new UnsupportedOperationException("Cache " + id + " is not built yet");
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      throw new UnsupportedOperationException("Cache " + id + " is not built yet");
+    }
+
+    @Override
+    public void clear() {
+      throw new UnsupportedOperationException("Cache " + id + " is not built yet");
+    }
+
+    @Override
+    public int getSize() {
+      throw new UnsupportedOperationException("Cache " + id + " is not built yet");
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+  }
+
+  private static class MethodRef extends Ref {
+    private static final long serialVersionUID = 1L;
+    private final Class<?> declaringClass;
+    private final String name;
+    private final Class<?>[] parameterTypes;
+
+    MethodRef(Method method) {
+      this.declaringClass = method.getDeclaringClass();
+      this.name = method.getName();
+      this.parameterTypes = method.getParameterTypes();
+    }
+
+    @Override
+    Object resolve(Configuration configuration, Map<String, Cache> caches) throws IOException {
+      try {
+        return declaringClass.getDeclaredMethod(name, parameterTypes);
+      } catch (NoSuchMethodException e) {
+        throw new InvalidObjectException("Method " + declaringClass.getName() + "." + name + " no longer exists");
+      }
+    }
+  }
+
+}
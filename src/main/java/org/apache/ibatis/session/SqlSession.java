@@ -19,7 +19,9 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BatchResult;
 
 /**
@@ -137,6 +139,36 @@ public interface SqlSession extends Closeable {
    */
   <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds);
 
+  /**
+   * A Cursor offers the same results as a List, except it fetches data lazily using an Iterator.
+   * 以游标的方式获取多条记录，记录在遍历时才从数据库逐条读取，适合处理大量数据
+   * @param <T> the returned cursor element type.
+   * @param statement Unique identifier matching the statement to use.
+   * @return Cursor of mapped objects
+   */
+  <T> Cursor<T> selectCursor(String statement);
+
+  /**
+   * A Cursor offers the same results as a List, except it fetches data lazily using an Iterator.
+   * 以游标的方式获取多条记录，这个方法容许我们传递一些参数
+   * @param <T> the returned cursor element type.
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @return Cursor of mapped objects
+   */
+  <T> Cursor<T> selectCursor(String statement, Object parameter);
+
+  /**
+   * A Cursor offers the same results as a List, except it fetches data lazily using an Iterator.
+   * 以游标的方式获取多条记录，加上分页。游标会在SqlSession关闭时一并关闭
+   * @param <T> the returned cursor element type.
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @param rowBounds  Bounds to limit object retrieval
+   * @return Cursor of mapped objects
+   */
+  <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds);
+
   /**
    * Retrieve a single row mapped from the statement key and parameter
    * using a {@code ResultHandler}.
@@ -223,6 +255,77 @@ public interface SqlSession extends Closeable {
    */
   int delete(String statement, Object parameter);
 
+  //以下是异步方法，在会话的异步队列里按提交顺序执行
+  /**
+   * Retrieve a single row mapped from the statement key, without waiting for it.
+   * Asynchronous operations of a session run one after the other in the order they were
+   * submitted, on the pool configured by {@link Configuration#setAsyncExecutor}. Any blocking
+   * call on the session first waits for them to finish. They only free the calling thread:
+   * they never run at the same time as each other or as the blocking calls of the session.
+   * Asynchronous operations are refused while the session has open cursors, or while objects
+   * returned by its blocking calls still have lazy loaded properties to load, as these use
+   * the session on the calling thread.
+   * 异步获取一条记录
+   * @param <T> the returned object type
+   * @param statement Unique identifier matching the statement to use.
+   * @return CompletableFuture of the mapped object
+   */
+  <T> CompletableFuture<T> selectOneAsync(String statement);
+
+  /**
+   * Retrieve a single row mapped from the statement key and parameter, without waiting for it.
+   * @param <T> the returned object type
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @return CompletableFuture of the mapped object
+   */
+  <T> CompletableFuture<T> selectOneAsync(String statement, Object parameter);
+
+  /**
+   * Retrieve a list of mapped objects from the statement key, without waiting for it.
+   * 异步获取多条记录
+   * @param <E> the returned list element type
+   * @param statement Unique identifier matching the statement to use.
+   * @return CompletableFuture of the list of mapped objects
+   */
+  <E> CompletableFuture<List<E>> selectListAsync(String statement);
+
+  /**
+   * Retrieve a list of mapped objects from the statement key and parameter, without waiting for it.
+   * @param <E> the returned list element type
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @return CompletableFuture of the list of mapped objects
+   */
+  <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter);
+
+  /**
+   * Retrieve a list of mapped objects from the statement key and parameter,
+   * within the specified row bounds, without waiting for it.
+   * @param <E> the returned list element type
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @param rowBounds  Bounds to limit object retrieval
+   * @return CompletableFuture of the list of mapped objects
+   */
+  <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds);
+
+  /**
+   * Execute an update statement, without waiting for it.
+   * 异步更新，insert和delete也可以用
+   * @param statement Unique identifier matching the statement to execute.
+   * @return CompletableFuture of the number of rows affected by the update.
+   */
+  CompletableFuture<Integer> updateAsync(String statement);
+
+  /**
+   * Execute an update statement, without waiting for it.
+   * @param statement Unique identifier matching the statement to execute.
+   * @param parameter A parameter object to pass to the statement.
+   * @return CompletableFuture of the number of rows affected by the update.
+   */
+  CompletableFuture<Integer> updateAsync(String statement, Object parameter);
+
   //以下是事务控制方法,commit,rollback
   /**
    * Flushes batch statements and commits database connection.
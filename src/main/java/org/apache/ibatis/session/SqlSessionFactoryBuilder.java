@@ -15,14 +15,25 @@
  */
 package org.apache.ibatis.session;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.util.Properties;
+import java.util.zip.CRC32;
 
 import org.apache.ibatis.builder.xml.XMLConfigBuilder;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 
 /*
@@ -35,6 +46,8 @@ import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
  */
 public class SqlSessionFactoryBuilder {
 
+  private static final Log log = LogFactory.getLog(SqlSessionFactoryBuilder.class);
+
   //SqlSessionFactoryBuilder有9个build()方法
   //发现mybatis文档老了,http://www.mybatis.org/core/java-api.html,关于这块对不上
 
@@ -102,6 +115,98 @@ public class SqlSessionFactoryBuilder {
     }
   }
     
+  public SqlSessionFactory build(InputStream inputStream, File snapshotFile) {
+    return build(inputStream, null, null, snapshotFile);
+  }
+
+  /**
+   * Like {@link #build(InputStream, String, Properties)}, but keeps the parsed
+   * mappers in a {@link ConfigurationSnapshot} file. When the snapshot matches
+   * the configuration source, the variables and every mapper resource, the
+   * mappers are read from it instead of being parsed; otherwise they are parsed
+   * and the snapshot is rewritten. Failing to write the snapshot is logged and
+   * does not fail the build.
+   */
+  //带快照的build:快照有效就跳过mapper解析，否则正常解析并重写快照
+  public SqlSessionFactory build(InputStream inputStream, String environment, Properties properties, File snapshotFile) {
+    try {
+      byte[] source = readFully(inputStream);
+      CRC32 crc = new CRC32();
+      crc.update(source);
+      long sourceChecksum = crc.getValue();
+      XMLConfigBuilder parser = new XMLConfigBuilder(new ByteArrayInputStream(source), environment, properties);
+      Configuration configuration = parser.parseWithoutMappers();
+      if (readSnapshot(configuration, sourceChecksum, snapshotFile)) {
+        parser.startCacheInvalidation();
+      } else {
+        parser.parseMappers();
+        writeSnapshot(configuration, sourceChecksum, snapshotFile);
+      }
+      return build(configuration);
+    } catch (Exception e) {
+      throw ExceptionFactory.wrapException("Error building SqlSession.", e);
+    } finally {
+      ErrorContext.instance().reset();
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        // Intentionally ignore. Prefer previous error.
+      }
+    }
+  }
+
+  private boolean readSnapshot(Configuration configuration, long sourceChecksum, File snapshotFile) {
+    if (!snapshotFile.isFile()) {
+      return false;
+    }
+    try {
+      InputStream in = new BufferedInputStream(new FileInputStream(snapshotFile));
+      try {
+        boolean current = ConfigurationSnapshot.read(configuration, sourceChecksum, in);
+        if (!current && log.isDebugEnabled()) {
+          log.debug("Configuration snapshot " + snapshotFile + " is stale, parsing mappers.");
+        }
+        return current;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Could not read configuration snapshot " + snapshotFile + ", parsing mappers. Cause: " + e);
+      }
+      return false;
+    }
+  }
+
+  //先写临时文件再改名，别的进程不会读到写了一半的快照
+  private void writeSnapshot(Configuration configuration, long sourceChecksum, File snapshotFile) {
+    File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    try {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+      try {
+        ConfigurationSnapshot.write(configuration, sourceChecksum, out);
+      } finally {
+        out.close();
+      }
+      if (snapshotFile.exists() && !snapshotFile.delete() || !tempFile.renameTo(snapshotFile)) {
+        throw new IOException("Could not replace " + snapshotFile);
+      }
+    } catch (Exception e) {
+      tempFile.delete();
+      log.warn("Could not write configuration snapshot " + snapshotFile + ". Cause: " + e);
+    }
+  }
+
+  private byte[] readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = inputStream.read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
   //最后一个build方法使用了一个Configuration作为参数,并返回DefaultSqlSessionFactory
   public SqlSessionFactory build(Configuration config) {
     return new DefaultSqlSessionFactory(config);
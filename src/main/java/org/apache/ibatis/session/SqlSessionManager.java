@@ -24,6 +24,9 @@ import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.ibatis.cursor.Cursor;
 
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
@@ -199,6 +202,21 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionProxy.<E> selectList(statement, parameter, rowBounds);
   }
 
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    return sqlSessionProxy.<T> selectCursor(statement);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    return sqlSessionProxy.<T> selectCursor(statement, parameter);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    return sqlSessionProxy.<T> selectCursor(statement, parameter, rowBounds);
+  }
+
   @Override
   public void select(String statement, ResultHandler handler) {
     sqlSessionProxy.select(statement, handler);
@@ -244,6 +262,42 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionProxy.delete(statement, parameter);
   }
 
+  //没有托管session时，自动打开的session要等异步操作做完才能提交和关闭，所以效果上是同步的
+  @Override
+  public <T> CompletableFuture<T> selectOneAsync(String statement) {
+    return sqlSessionProxy.<T> selectOneAsync(statement);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> selectOneAsync(String statement, Object parameter) {
+    return sqlSessionProxy.<T> selectOneAsync(statement, parameter);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement) {
+    return sqlSessionProxy.<E> selectListAsync(statement);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+    return sqlSessionProxy.<E> selectListAsync(statement, parameter);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds) {
+    return sqlSessionProxy.<E> selectListAsync(statement, parameter, rowBounds);
+  }
+
+  @Override
+  public CompletableFuture<Integer> updateAsync(String statement) {
+    return sqlSessionProxy.updateAsync(statement);
+  }
+
+  @Override
+  public CompletableFuture<Integer> updateAsync(String statement, Object parameter) {
+    return sqlSessionProxy.updateAsync(statement, parameter);
+  }
+
   @Override
   public <T> T getMapper(Class<T> type) {
     return getConfiguration().getMapper(type, this);
@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.defaults;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.session.SqlSessionException;
+
+/**
+ * Runs the asynchronous operations of one session one after the other, in the order
+ * they were submitted, on a shared thread pool. At most one thread works on a session
+ * at a time, so the session itself does not need to be thread safe.
+ * <p>
+ * This only frees the calling thread. The operations never overlap each other, and the
+ * blocking calls of the session wait for them, so they take as long as the same calls
+ * made one by one.
+ * <p>
+ * When the pool rejects the queue, the submitting thread runs it instead. This keeps
+ * the order and slows callers down while the pool is saturated.
+ * <p>
+ * An operation waiting for the future of another operation of the same queue would
+ * wait forever, so it fails at once instead.
+ */
+/**
+ * 一个会话的异步操作队列
+ * 按提交顺序一个个在共享线程池里执行，同一时刻只有一个线程在用这个会话。
+ * 只是不占调用线程，操作之间不会同时执行，也不会和会话的同步调用同时执行。
+ * 线程池满了就由提交的线程自己执行。
+ * 队列里的操作等同一队列的Future会永远等下去，直接报错。
+ */
+class AsyncSessionQueue implements Runnable {
+
+  private final Executor executor;
+  private final Queue<Task<?>> tasks = new LinkedList<Task<?>>();
+  //已经交给线程池(或正在执行)
+  private boolean scheduled;
+  //正在执行队列的线程
+  private Thread runner;
+
+  AsyncSessionQueue(Executor executor) {
+    this.executor = executor;
+  }
+
+  <T> CompletableFuture<T> submit(Callable<T> callable) {
+    Task<T> task = new Task<T>(callable);
+    boolean schedule;
+    synchronized (this) {
+      tasks.add(task);
+      schedule = !scheduled;
+      scheduled = true;
+    }
+    if (schedule) {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        run();
+      }
+    }
+    return task;
+  }
+
+  /**
+   * Waits until all the submitted operations are done. Returns at once when called
+   * from one of the operations.
+   */
+  synchronized void await() {
+    if (isRunner()) {
+      return;
+    }
+    boolean interrupted = false;
+    while (scheduled) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Whether the current thread is running one of the operations.
+   */
+  synchronized boolean isRunner() {
+    return runner == Thread.currentThread();
+  }
+
+  //一直执行到队列空了为止
+  @Override
+  public void run() {
+    synchronized (this) {
+      runner = Thread.currentThread();
+    }
+    while (true) {
+      Task<?> task;
+      synchronized (this) {
+        task = tasks.poll();
+        if (task == null) {
+          scheduled = false;
+          runner = null;
+          notifyAll();
+          return;
+        }
+      }
+      task.run();
+    }
+  }
+
+  //操作自己等同一队列里还没做完的操作就是死锁
+  private class Task<T> extends CompletableFuture<T> implements Runnable {
+
+    private final Callable<T> callable;
+
+    Task(Callable<T> callable) {
+      this.callable = callable;
+    }
+
+    @Override
+    public void run() {
+      //已经取消了就不执行
+      if (isDone()) {
+        return;
+      }
+      try {
+        complete(callable.call());
+      } catch (Throwable t) {
+        completeExceptionally(t);
+      }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      checkNotRunner();
+      return super.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      checkNotRunner();
+      return super.get(timeout, unit);
+    }
+
+    @Override
+    public T join() {
+      checkNotRunner();
+      return super.join();
+    }
+
+    private void checkNotRunner() {
+      if (!isDone() && isRunner()) {
+        throw new SqlSessionException("An asynchronous operation of a session cannot wait for another operation of the same session.");
+      }
+    }
+  }
+
+}
@@ -17,12 +17,18 @@ package org.apache.ibatis.session.defaults;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
@@ -35,6 +41,7 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionException;
 
 /**
  * @author Clinton Begin
@@ -53,6 +60,10 @@ public class DefaultSqlSession implements SqlSession {
    */
   private boolean autoCommit;
   private boolean dirty;
+  //本会话打开的游标，关闭会话时一并关闭
+  private List<Cursor<?>> cursorList;
+  //异步操作队列，第一次异步调用时才建
+  private AsyncSessionQueue asyncQueue;
   
   public DefaultSqlSession(Configuration configuration, Executor executor, boolean autoCommit) {
     this.configuration = configuration;
@@ -103,7 +114,7 @@ public class DefaultSqlSession implements SqlSession {
     //转而去调用selectList
     final List<?> list = selectList(statement, parameter, rowBounds);
     final DefaultMapResultHandler<K, V> mapResultHandler = new DefaultMapResultHandler<K, V>(mapKey,
-        configuration.getObjectFactory(), configuration.getObjectWrapperFactory());
+        configuration.getObjectFactory(), configuration.getObjectWrapperFactory(), configuration.getReflectorFactory());
     final DefaultResultContext context = new DefaultResultContext();
     for (Object o : list) {
       //循环用DefaultMapResultHandler处理每条记录
@@ -114,6 +125,32 @@ public class DefaultSqlSession implements SqlSession {
     return mapResultHandler.getMappedResults();
   }
 
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    return selectCursor(statement, null);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    return selectCursor(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  //核心selectCursor
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    awaitAsync();
+    try {
+      MappedStatement ms = configuration.getMappedStatement(statement);
+      Cursor<T> cursor = executor.<T>queryCursor(ms, wrapCollection(parameter), rowBounds);
+      registerCursor(cursor);
+      return cursor;
+    } catch (Exception e) {
+      throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
   @Override
   public <E> List<E> selectList(String statement) {
     return this.selectList(statement, null);
@@ -127,11 +164,14 @@ public class DefaultSqlSession implements SqlSession {
   //核心selectList
   @Override
   public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+    //先等本会话的异步操作做完，保证顺序
+    awaitAsync();
     try {
       //根据statement id找到对应的MappedStatement
       MappedStatement ms = configuration.getMappedStatement(statement);
       //转而用执行器来查询结果,注意这里传入的ResultHandler是null
-      return executor.query(ms, wrapCollection(parameter), rowBounds, Executor.NO_RESULT_HANDLER);
+      List<E> list = executor.query(ms, wrapCollection(parameter), rowBounds, Executor.NO_RESULT_HANDLER);
+      return list;
     } catch (Exception e) {
       throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
     } finally {
@@ -152,6 +192,7 @@ public class DefaultSqlSession implements SqlSession {
   //核心select,带有ResultHandler，和selectList代码差不多的，区别就一个ResultHandler
   @Override
   public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+    awaitAsync();
     try {
       MappedStatement ms = configuration.getMappedStatement(statement);
       executor.query(ms, wrapCollection(parameter), rowBounds, handler);
@@ -181,6 +222,7 @@ public class DefaultSqlSession implements SqlSession {
   //核心update
   @Override
   public int update(String statement, Object parameter) {
+    awaitAsync();
     try {
       //每次要更新之前，dirty标志设为true
       dirty = true;
@@ -205,6 +247,89 @@ public class DefaultSqlSession implements SqlSession {
     return update(statement, parameter);
   }
 
+  @Override
+  public <T> CompletableFuture<T> selectOneAsync(String statement) {
+    return this.<T>selectOneAsync(statement, null);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> selectOneAsync(final String statement, final Object parameter) {
+    return submitAsync(new Callable<T>() {
+      @Override
+      public T call() {
+        return DefaultSqlSession.this.<T>selectOne(statement, parameter);
+      }
+    });
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement) {
+    return this.<E>selectListAsync(statement, null);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+    return this.<E>selectListAsync(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(final String statement, final Object parameter, final RowBounds rowBounds) {
+    return submitAsync(new Callable<List<E>>() {
+      @Override
+      public List<E> call() {
+        return DefaultSqlSession.this.<E>selectList(statement, parameter, rowBounds);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Integer> updateAsync(String statement) {
+    return updateAsync(statement, null);
+  }
+
+  @Override
+  public CompletableFuture<Integer> updateAsync(final String statement, final Object parameter) {
+    return submitAsync(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return update(statement, parameter);
+      }
+    });
+  }
+
+  //放进本会话的异步队列，连接在执行时才从池里取
+  private <T> CompletableFuture<T> submitAsync(Callable<T> task) {
+    //游标和延迟加载的对象在调用线程上直接用执行器，会和异步操作同时用同一个连接
+    if (hasOpenCursors()) {
+      throw new SqlSessionException("Cannot submit asynchronous operations while the session has open cursors.");
+    }
+    if (executor.hasPendingLazyLoads()) {
+      throw new SqlSessionException("Cannot submit asynchronous operations while objects returned by the session "
+          + "still have lazy loaded properties to load.");
+    }
+    if (asyncQueue == null) {
+      asyncQueue = new AsyncSessionQueue(configuration.getAsyncExecutor());
+    }
+    return asyncQueue.submit(task);
+  }
+
+  private boolean hasOpenCursors() {
+    if (cursorList != null) {
+      for (Cursor<?> cursor : cursorList) {
+        if (!isClosed(cursor)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void awaitAsync() {
+    if (asyncQueue != null) {
+      asyncQueue.await();
+    }
+  }
+
   @Override
   public void commit() {
     commit(false);
@@ -213,6 +338,7 @@ public class DefaultSqlSession implements SqlSession {
   //核心commit
   @Override
   public void commit(boolean force) {
+    awaitAsync();
     try {
       //转而用执行器来commit
       executor.commit(isCommitOrRollbackRequired(force));
@@ -233,6 +359,7 @@ public class DefaultSqlSession implements SqlSession {
   //核心rollback
   @Override
   public void rollback(boolean force) {
+    awaitAsync();
     try {
       //转而用执行器来rollback
       executor.rollback(isCommitOrRollbackRequired(force));
@@ -248,6 +375,7 @@ public class DefaultSqlSession implements SqlSession {
   //核心flushStatements
   @Override
   public List<BatchResult> flushStatements() {
+    awaitAsync();
     try {
       //转而用执行器来flushStatements
       return executor.flushStatements();
@@ -261,8 +389,10 @@ public class DefaultSqlSession implements SqlSession {
   //核心close
   @Override
   public void close() {
+    awaitAsync();
     try {
-      //转而用执行器来close
+      //先关闭游标，再用执行器来close
+      closeCursors();
       executor.close(isCommitOrRollbackRequired(false));
       //每次close之后，dirty标志设为false
       dirty = false;
@@ -271,6 +401,15 @@ public class DefaultSqlSession implements SqlSession {
     }
   }
 
+  private void closeCursors() {
+    if (cursorList != null && cursorList.size() != 0) {
+      for (Cursor<?> cursor : cursorList) {
+        cursor.close();
+      }
+      cursorList.clear();
+    }
+  }
+
   @Override
   public Configuration getConfiguration() {
     return configuration;
@@ -284,6 +423,7 @@ public class DefaultSqlSession implements SqlSession {
 
   @Override
   public Connection getConnection() {
+    awaitAsync();
     try {
       return executor.getTransaction().getConnection();
     } catch (SQLException e) {
@@ -294,10 +434,32 @@ public class DefaultSqlSession implements SqlSession {
   //核心clearCache
   @Override
   public void clearCache() {
+    awaitAsync();
     //转而用执行器来clearLocalCache
     executor.clearLocalCache();
   }
 
+  private <T> void registerCursor(Cursor<T> cursor) {
+    if (cursorList == null) {
+      cursorList = new ArrayList<Cursor<?>>();
+    }
+    //先去掉已经关闭的游标，长时间的会话打开很多游标时列表不会一直变大
+    Iterator<Cursor<?>> cursors = cursorList.iterator();
+    while (cursors.hasNext()) {
+      if (isClosed(cursors.next())) {
+        cursors.remove();
+      }
+    }
+    cursorList.add(cursor);
+  }
+
+  private static boolean isClosed(Cursor<?> cursor) {
+    if (cursor instanceof DefaultCursor) {
+      return ((DefaultCursor<?>) cursor).isClosed();
+    }
+    return cursor.isConsumed();
+  }
+
   //检查是否需要强制commit或rollback
   private boolean isCommitOrRollbackRequired(boolean force) {
     return (!autoCommit && dirty) || force;
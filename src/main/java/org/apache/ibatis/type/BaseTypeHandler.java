@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.type;
 
+import java.io.Serializable;
 import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -30,7 +31,9 @@ import org.apache.ibatis.session.Configuration;
  * 类型处理器的基类
  * 
  */
-public abstract class BaseTypeHandler<T> extends TypeReference<T> implements TypeHandler<T> {
+public abstract class BaseTypeHandler<T> extends TypeReference<T> implements TypeHandler<T>, Serializable {
+
+  private static final long serialVersionUID = 260727873928692814L;
 
   protected Configuration configuration;
 
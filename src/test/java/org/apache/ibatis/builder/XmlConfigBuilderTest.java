@@ -16,8 +16,10 @@
 package org.apache.ibatis.builder;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.InputStream;
 import java.io.StringReader;
@@ -25,9 +27,17 @@ import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
+import org.apache.ibatis.cache.invalidation.InvalidationMessage;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.invoker.ReflectionInvokerFactory;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.BaseTypeHandler;
 import org.apache.ibatis.type.JdbcType;
@@ -102,4 +112,125 @@ public class XmlConfigBuilderTest {
     assertTrue(typeHandler instanceof EnumOrderTypeHandler);
     assertArrayEquals(MyEnum.values(), ((EnumOrderTypeHandler) typeHandler).constants);
   }
+
+  @Test
+  public void shouldBuildSameStatementsWhenParsingMappersInParallel() {
+    Configuration sequential = parseBlogConfig(false);
+    Configuration parallel = parseBlogConfig(true);
+
+    assertTrue(parallel.isParallelMapperParsing());
+    assertEquals(new HashSet<String>(sequential.getMappedStatementNames()), new HashSet<String>(parallel.getMappedStatementNames()));
+    assertEquals(new HashSet<String>(sequential.getResultMapNames()), new HashSet<String>(parallel.getResultMapNames()));
+    assertEquals(new HashSet<String>(sequential.getCacheNames()), new HashSet<String>(parallel.getCacheNames()));
+    assertTrue(parallel.getIncompleteStatements().isEmpty());
+    assertTrue(parallel.getIncompleteResultMaps().isEmpty());
+    assertEquals(sequential.getMappedStatement("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectBlogWithPostsUsingSubSelect").getResultMaps().get(0).getId(),
+        parallel.getMappedStatement("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectBlogWithPostsUsingSubSelect").getResultMaps().get(0).getId());
+  }
+
+  @Test
+  public void shouldKeepInvokerFactoryOfCustomReflectorFactory() {
+    final String MAPPER_CONFIG = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+        + "<!DOCTYPE configuration PUBLIC \"-//mybatis.org//DTD Config 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-config.dtd\">\n"
+        + "<configuration>\n"
+        + "  <settings>\n"
+        + "    <setting name=\"cacheEnabled\" value=\"true\"/>\n"
+        + "  </settings>\n"
+        + "  <reflectorFactory type=\"org.apache.ibatis.builder.XmlConfigBuilderTest$CustomReflectorFactory\"/>\n"
+        + "</configuration>\n";
+
+    Configuration configuration = new XMLConfigBuilder(new StringReader(MAPPER_CONFIG)).parse();
+
+    assertTrue(configuration.getReflectorFactory().getInvokerFactory() instanceof CustomInvokerFactory);
+  }
+
+  @Test
+  public void shouldStartCacheInvalidationTransportOnlyWhenParsingSucceeds() {
+    CountingTransport.started.set(0);
+    try {
+      new XMLConfigBuilder(new StringReader(invalidationConfig("org/apache/ibatis/builder/MissingMapper.xml"))).parse();
+      fail("Parsing a missing mapper should fail.");
+    } catch (BuilderException e) {
+      assertEquals(0, CountingTransport.started.get());
+    }
+
+    Configuration configuration = new XMLConfigBuilder(new StringReader(invalidationConfig("org/apache/ibatis/builder/AuthorMapper.xml"))).parse();
+    assertEquals(1, CountingTransport.started.get());
+    assertNotNull(configuration.getInvalidationBus());
+    configuration.setCacheInvalidationTransport(null);
+  }
+
+  private static String invalidationConfig(String mapperResource) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+        + "<!DOCTYPE configuration PUBLIC \"-//mybatis.org//DTD Config 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-config.dtd\">\n"
+        + "<configuration>\n"
+        + "  <settings>\n"
+        + "    <setting name=\"cacheInvalidationTransport\" value=\"org.apache.ibatis.builder.XmlConfigBuilderTest$CountingTransport\"/>\n"
+        + "  </settings>\n"
+        + "  <typeAliases>\n"
+        + "    <typeAlias alias=\"Author\" type=\"org.apache.ibatis.domain.blog.Author\"/>\n"
+        + "  </typeAliases>\n"
+        + "  <mappers>\n"
+        + "    <mapper resource=\"" + mapperResource + "\"/>\n"
+        + "  </mappers>\n"
+        + "</configuration>\n";
+  }
+
+  public static class CountingTransport implements InvalidationTransport {
+    static final AtomicInteger started = new AtomicInteger();
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+    @Override
+    public void start(InvalidationBus bus) {
+      started.incrementAndGet();
+    }
+
+    @Override
+    public void send(InvalidationMessage message) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  public static class CustomInvokerFactory extends ReflectionInvokerFactory {
+  }
+
+  public static class CustomReflectorFactory extends DefaultReflectorFactory {
+    public CustomReflectorFactory() {
+      super(new CustomInvokerFactory());
+    }
+  }
+
+  private Configuration parseBlogConfig(boolean parallelMapperParsing) {
+    final String MAPPER_CONFIG = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+        + "<!DOCTYPE configuration PUBLIC \"-//mybatis.org//DTD Config 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-config.dtd\">\n"
+        + "<configuration>\n"
+        + "  <settings>\n"
+        + "    <setting name=\"parallelMapperParsing\" value=\"" + parallelMapperParsing + "\"/>\n"
+        + "  </settings>\n"
+        + "  <typeAliases>\n"
+        + "    <typeAlias alias=\"Author\" type=\"org.apache.ibatis.domain.blog.Author\"/>\n"
+        + "    <typeAlias alias=\"Blog\" type=\"org.apache.ibatis.domain.blog.Blog\"/>\n"
+        + "    <typeAlias alias=\"Comment\" type=\"org.apache.ibatis.domain.blog.Comment\"/>\n"
+        + "    <typeAlias alias=\"Post\" type=\"org.apache.ibatis.domain.blog.Post\"/>\n"
+        + "    <typeAlias alias=\"Section\" type=\"org.apache.ibatis.domain.blog.Section\"/>\n"
+        + "    <typeAlias alias=\"Tag\" type=\"org.apache.ibatis.domain.blog.Tag\"/>\n"
+        + "  </typeAliases>\n"
+        + "  <mappers>\n"
+        + "    <mapper resource=\"org/apache/ibatis/builder/AuthorMapper.xml\"/>\n"
+        + "    <mapper resource=\"org/apache/ibatis/builder/BlogMapper.xml\"/>\n"
+        + "    <mapper resource=\"org/apache/ibatis/builder/CachedAuthorMapper.xml\"/>\n"
+        + "    <mapper resource=\"org/apache/ibatis/builder/PostMapper.xml\"/>\n"
+        + "    <mapper resource=\"org/apache/ibatis/builder/NestedBlogMapper.xml\"/>\n"
+        + "  </mappers>\n"
+        + "</configuration>\n";
+
+    XMLConfigBuilder builder = new XMLConfigBuilder(new StringReader(MAPPER_CONFIG));
+    return builder.parse();
+  }
 }
@@ -16,6 +16,8 @@
 package org.apache.ibatis.builder.xml.dynamic;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -376,6 +378,50 @@ public class DynamicSqlSourceTest extends BaseDataTest {
     Assert.assertEquals("id=", sql);
   }
 
+  @Test
+  public void shouldReuseParsedSqlWhenBranchesAreTheSame() {
+    Configuration configuration = new Configuration();
+    configuration.setCompiledDynamicSql(true);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new TextSqlNode("SELECT * FROM BLOG"),
+        new WhereSqlNode(configuration, new IfSqlNode(mixedContents(new TextSqlNode("AND ID = #{id}")), "id != null"))));
+    BoundSql first = source.getBoundSql(new Bean("1"));
+    BoundSql second = source.getBoundSql(new Bean("2"));
+    BoundSql other = source.getBoundSql(new Bean(null));
+    assertEquals("SELECT * FROM BLOG WHERE  ID = ?", second.getSql());
+    assertSame(first.getParameterMappings(), second.getParameterMappings());
+    assertEquals("SELECT * FROM BLOG", other.getSql());
+  }
+
+  @Test
+  public void shouldResolveForEachItemTypesOnEveryCall() {
+    Configuration configuration = new Configuration();
+    configuration.setCompiledDynamicSql(true);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new TextSqlNode("SELECT * FROM BLOG WHERE ID IN"),
+        new ForEachSqlNode(configuration, mixedContents(new TextSqlNode("#{item}")), "list", "index", "item", "(", ")", ",")));
+    Map<String, Object> numbers = new HashMap<String, Object>();
+    numbers.put("list", Arrays.asList(1, 2));
+    Map<String, Object> names = new HashMap<String, Object>();
+    names.put("list", Arrays.asList("a", "b"));
+    assertEquals(Integer.class, source.getBoundSql(numbers).getParameterMappings().get(0).getJavaType());
+    BoundSql boundSql = source.getBoundSql(names);
+    assertEquals("SELECT * FROM BLOG WHERE ID IN (  ? , ? )", boundSql.getSql());
+    assertEquals(String.class, boundSql.getParameterMappings().get(1).getJavaType());
+    assertEquals("b", boundSql.getAdditionalParameter("__frch_item_1"));
+  }
+
+  @Test
+  public void shouldNotReuseParsedSqlWithTextSubstitution() {
+    Configuration configuration = new Configuration();
+    configuration.setCompiledDynamicSql(true);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(new TextSqlNode("SELECT * FROM BLOG WHERE ID = #{id} ORDER BY ${id}")));
+    BoundSql first = source.getBoundSql(new Bean("1"));
+    BoundSql second = source.getBoundSql(new Bean("2"));
+    assertEquals("SELECT * FROM BLOG WHERE ID = ? ORDER BY 2", second.getSql());
+    assertNotSame(first.getParameterMappings(), second.getParameterMappings());
+  }
+
   public static class Bean {
     public String id;
     public Bean(String property) {
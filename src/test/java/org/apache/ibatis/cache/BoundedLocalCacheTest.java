@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.impl.BoundedLocalCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class BoundedLocalCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesOnTrimOnly() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.setMaxEntries(3);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, cache.getSize());
+    assertEquals(0, cache.getObject(0));
+    cache.trim();
+    assertEquals(3, cache.getSize());
+    assertEquals(0, cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNull(cache.getObject(2));
+    assertEquals(2, cache.getEvictionCount());
+  }
+
+  @Test
+  public void shouldDropTransientEntriesOnTrim() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.putObject("kept", "kept");
+    cache.putTransientObject("large", "large");
+    assertEquals("large", cache.getObject("large"));
+    cache.trim();
+    assertNull(cache.getObject("large"));
+    assertEquals("kept", cache.getObject("kept"));
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void shouldKeepWithinByteBudget() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.setMaxBytes(10000);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, rows(20));
+    }
+    assertTrue(cache.getBytes() > 10000);
+    cache.trim();
+    assertTrue(cache.getBytes() <= 10000);
+    assertTrue(cache.getSize() > 0);
+    assertNotNull(cache.getObject(9));
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldNotKeepEntryLargerThanByteBudget() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.setMaxBytes(1000);
+    cache.putObject("small", rows(1));
+    cache.putObject("large", rows(1000));
+    cache.trim();
+    assertNull(cache.getObject("large"));
+    assertNotNull(cache.getObject("small"));
+  }
+
+  @Test
+  public void shouldEstimateCircularReferences() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.setMaxBytes(1000000);
+    Node a = new Node();
+    Node b = new Node();
+    a.next = b;
+    b.next = a;
+    List<Node> list = new ArrayList<Node>();
+    list.add(a);
+    cache.putObject("cycle", list);
+    assertTrue(cache.getBytes() > 0);
+  }
+
+  @Test
+  public void shouldCountFieldsOfJdkTypesWithoutWalkingThem() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.setMaxBytes(1000000);
+    cache.putObject("builder", new StringBuilder("a builder"));
+    cache.putObject("thread", Thread.currentThread());
+    assertTrue(cache.getBytes() > 0);
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache");
+    cache.setMaxBytes(1000000);
+    cache.putObject(0, rows(5));
+    cache.putTransientObject(1, rows(5));
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getBytes());
+  }
+
+  private static List<Row> rows(int count) {
+    List<Row> rows = new ArrayList<Row>();
+    for (int i = 0; i < count; i++) {
+      Row row = new Row();
+      row.id = i;
+      row.name = "name of row " + i;
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static class Row {
+    private int id;
+    private String name;
+  }
+
+  private static class Node {
+    private Node next;
+  }
+
+}
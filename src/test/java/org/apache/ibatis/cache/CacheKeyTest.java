@@ -80,4 +80,35 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldGrowBeyondExpectedUpdates() {
+    CacheKey key1 = new CacheKey(1);
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 20; i++) {
+      key1.update(i);
+      key2.update(i);
+    }
+    assertEquals(20, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+  }
+
+  @Test
+  public void shouldTestCacheKeysWithPrimitiveArrays() {
+    CacheKey key1 = new CacheKey(new Object[] { new int[] { 1, 2 }, new long[] { 3L }, new boolean[] { true } });
+    CacheKey key2 = new CacheKey(new Object[] { 1, 2, 3L, true });
+    assertEquals(key1, key2);
+    assertEquals(4, key1.getUpdateCount());
+  }
+
+  @Test
+  public void shouldNotShareComponentsWithClone() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1 });
+    CacheKey clone = key.clone();
+    assertEquals(key, clone);
+    clone.update(2);
+    assertFalse(key.equals(clone));
+    assertEquals(1, key.getUpdateCount());
+  }
+
 }
@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.DraftPost;
+import org.apache.ibatis.domain.blog.Post;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+  private final Configuration configuration = new Configuration();
+  private final EntityCache entityCache = configuration.getEntityCache();
+
+  @Test
+  public void shouldOnlyKeepResultMapsWithIds() {
+    assertNotNull(entityCache.getIdMappings(resultMap("author", Author.class, true)));
+    assertNull(entityCache.getIdMappings(resultMap("authorWithoutId", Author.class, false)));
+  }
+
+  @Test
+  public void shouldFindIdInParameter() {
+    ResultMap author = resultMap("author", Author.class, true);
+    CacheKey id = EntityCache.newId(new Object[] { 101 });
+    assertEquals(id, entityCache.idOf(author, new Author(101)));
+    assertEquals(id, entityCache.idOf(author, 101));
+    assertEquals(id, entityCache.idOf(author, 101L));
+    assertNull(entityCache.idOf(author, "101"));
+    assertNull(entityCache.idOf(author, null));
+  }
+
+  @Test
+  public void shouldShareEntityBetweenTransactions() {
+    ResultMap author = resultMap("author", Author.class, true);
+    CacheKey id = EntityCache.newId(new Object[] { 101 });
+    Author entity = new Author(101);
+    Transaction transaction = newTransaction();
+    entityCache.put(transaction, author, id, entity);
+    assertSame(entity, entityCache.get(transaction, author, id));
+    assertNull(entityCache.get(newTransaction(), author, id));
+    entityCache.completed(transaction, true);
+    assertSame(entity, entityCache.get(newTransaction(), author, id));
+    assertNull(entityCache.get(newTransaction(), resultMap("otherAuthor", Author.class, true), id));
+  }
+
+  @Test
+  public void shouldRemoveWrittenEntityAndBypassWritingTransaction() {
+    ResultMap author = resultMap("author", Author.class, true);
+    CacheKey id = EntityCache.newId(new Object[] { 101 });
+    CacheKey otherId = EntityCache.newId(new Object[] { 102 });
+    Transaction reader = newTransaction();
+    Transaction writer = newTransaction();
+    entityCache.put(reader, author, id, new Author(101));
+    entityCache.put(reader, author, otherId, new Author(102));
+    entityCache.completed(reader, true);
+
+    entityCache.written(writer, author, new Author(101));
+    assertNull(entityCache.get(reader, author, id));
+    assertNotNull(entityCache.get(reader, author, otherId));
+    assertTrue(entityCache.isWriting(writer));
+    assertNull(entityCache.get(writer, author, otherId));
+    entityCache.put(writer, author, id, new Author(101));
+    assertNull(entityCache.get(reader, author, id));
+
+    //别的事务在提交前放回了旧数据
+    entityCache.put(reader, author, id, new Author(101));
+    entityCache.completed(reader, true);
+    entityCache.completed(writer, true);
+    assertFalse(entityCache.isWriting(writer));
+    assertNull(entityCache.get(reader, author, id));
+    assertNotNull(entityCache.get(writer, author, otherId));
+  }
+
+  @Test
+  public void shouldRemoveAllEntitiesOfTypeWhenIdIsUnknown() {
+    ResultMap author = resultMap("author", Author.class, true);
+    Transaction transaction = newTransaction();
+    entityCache.put(transaction, author, EntityCache.newId(new Object[] { 101 }), new Author(101));
+    entityCache.put(transaction, author, EntityCache.newId(new Object[] { 102 }), new Author(102));
+    entityCache.completed(transaction, true);
+    entityCache.written(newTransaction(), author, "not an id");
+    assertNull(entityCache.get(transaction, author, EntityCache.newId(new Object[] { 101 })));
+    assertNull(entityCache.get(transaction, author, EntityCache.newId(new Object[] { 102 })));
+  }
+
+  @Test
+  public void shouldRemoveEntitiesOfSubtypes() {
+    ResultMap post = resultMap("post", Post.class, true);
+    ResultMap draftPost = resultMap("draftPost", DraftPost.class, true);
+    CacheKey id = EntityCache.newId(new Object[] { 1 });
+    Transaction transaction = newTransaction();
+    entityCache.put(transaction, draftPost, id, new DraftPost());
+    entityCache.completed(transaction, true);
+    entityCache.written(newTransaction(), post, 1);
+    assertNull(entityCache.get(transaction, draftPost, id));
+  }
+
+  @Test
+  public void shouldDropEntitiesOfTransactionThatUpdated() {
+    ResultMap author = resultMap("author", Author.class, true);
+    CacheKey id = EntityCache.newId(new Object[] { 101 });
+    Transaction transaction = newTransaction();
+    entityCache.put(transaction, author, id, new Author(101));
+    entityCache.updated(transaction);
+    assertTrue(entityCache.isWriting(transaction));
+    entityCache.put(transaction, author, id, new Author(101));
+    entityCache.completed(transaction, true);
+    assertNull(entityCache.get(newTransaction(), author, id));
+  }
+
+  @Test
+  public void shouldDropEntitiesOfTransactionNotShared() {
+    ResultMap author = resultMap("author", Author.class, true);
+    CacheKey id = EntityCache.newId(new Object[] { 101 });
+    Transaction transaction = newTransaction();
+    entityCache.put(transaction, author, id, new Author(101));
+    entityCache.completed(transaction, false);
+    assertNull(entityCache.get(transaction, author, id));
+  }
+
+  private ResultMap resultMap(String id, Class<?> type, boolean withId) {
+    List<ResultFlag> flags = new ArrayList<ResultFlag>();
+    if (withId) {
+      flags.add(ResultFlag.ID);
+    }
+    List<ResultMapping> mappings = new ArrayList<ResultMapping>();
+    mappings.add(new ResultMapping.Builder(configuration, "id", "id", int.class).flags(flags).build());
+    mappings.add(new ResultMapping.Builder(configuration, "username", "username", String.class).build());
+    return new ResultMap.Builder(configuration, id, type, mappings).build();
+  }
+
+  private static Transaction newTransaction() {
+    return new JdbcTransaction((DataSource) null, null, false);
+  }
+
+}
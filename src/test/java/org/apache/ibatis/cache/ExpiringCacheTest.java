@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  private long now = 1000000;
+
+  @Test
+  public void shouldExpireEachEntryAfterItsTimeToLive() {
+    ExpiringCache cache = newCache();
+    cache.setTimeToLive(200);
+    cache.putObject("first", 1);
+    now += 120;
+    cache.putObject("second", 2);
+    now += 120;
+    assertNull(cache.getObject("first"));
+    assertEquals(2, cache.getObject("second"));
+  }
+
+  @Test
+  public void shouldShortenTimeToLiveByAtMostTheJitter() {
+    ExpiringCache cache = newCache();
+    cache.setTimeToLive(400);
+    cache.setTimeToLiveJitter(200);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    now += 199;
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, cache.getObject(i));
+    }
+    now += 201;
+    for (int i = 0; i < 100; i++) {
+      assertNull(cache.getObject(i));
+    }
+  }
+
+  @Test
+  public void shouldClaimRefreshOnceWhenCloseToExpiring() {
+    ExpiringCache cache = newCache();
+    cache.setTimeToLive(60000);
+    cache.setRefreshAhead(10000);
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+    assertNull(ExpiringCache.takeRefresh("key"));
+    now += 50000;
+    assertEquals("value", cache.getObject("key"));
+    assertNotNull(ExpiringCache.takeRefresh("key"));
+    assertEquals("value", cache.getObject("key"));
+    assertNull(ExpiringCache.takeRefresh("key"));
+    cache.putObject("key", "refreshed");
+    assertEquals("refreshed", cache.getObject("key"));
+    assertNull(ExpiringCache.takeRefresh("key"));
+  }
+
+  @Test
+  public void shouldLetAnotherReadClaimReleasedRefresh() {
+    ExpiringCache cache = newCache();
+    cache.setTimeToLive(60000);
+    cache.setRefreshAhead(60000);
+    cache.putObject("key", "value");
+    cache.getObject("key");
+    ExpiringCache.takeRefresh("key").release();
+    cache.getObject("key");
+    assertNotNull(ExpiringCache.takeRefresh("key"));
+  }
+
+  @Test
+  public void shouldNotHandClaimToAnotherKey() {
+    ExpiringCache cache = newCache();
+    cache.setTimeToLive(60000);
+    cache.setRefreshAhead(60000);
+    cache.putObject("key", "value");
+    cache.getObject("key");
+    assertNull(ExpiringCache.takeRefresh("other"));
+    assertNull(ExpiringCache.takeRefresh("key"));
+    //认领给错了key会被放掉
+    cache.getObject("key");
+    assertNotNull(ExpiringCache.takeRefresh("key"));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    ExpiringCache cache = newCache();
+    cache.putObject(0, 0);
+    assertEquals(0, cache.removeObject(0));
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldBeBuiltWhenTimeToLiveIsSet() {
+    Cache cache = new CacheBuilder("DefaultCache").timeToLive(0L).build();
+    cache.putObject("key", "value");
+    assertNull(cache.getObject("key"));
+  }
+
+  private ExpiringCache newCache() {
+    return new ExpiringCache(new PerpetualCache("DefaultCache")) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+
+}
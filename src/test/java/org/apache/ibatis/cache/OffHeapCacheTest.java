@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfStoredValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>();
+    value.add("one");
+    cache.putObject(new CacheKey(new Object[] { 1 }), value);
+    Object cached = cache.getObject(new CacheKey(new Object[] { 1 }));
+    assertEquals(value, cached);
+    assertNotSame(value, cached);
+    assertNull(cache.getObject(new CacheKey(new Object[] { 2 })));
+  }
+
+  @Test
+  public void shouldEvictOldestSlabWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.setMaxBytes(4096);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+    }
+    assertTrue(cache.getSize() < 1000);
+    assertNull(cache.getObject(0));
+    assertEquals(999, cache.getObject(999));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new OffHeapCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldReadEntriesBackFromFile() throws Exception {
+    File file = File.createTempFile("mybatis-offheap", ".cache");
+    try {
+      OffHeapCache cache = newFileCache(file);
+      for (int i = 0; i < 100; i++) {
+        cache.putObject(new CacheKey(new Object[] { i }), "value" + i);
+      }
+      cache.removeObject(new CacheKey(new Object[] { 1 }));
+      cache.putObject(new CacheKey(new Object[] { 2 }), "updated");
+
+      OffHeapCache restarted = newFileCache(file);
+      assertEquals(cache.getSize(), restarted.getSize());
+      assertEquals("value0", restarted.getObject(new CacheKey(new Object[] { 0 })));
+      assertNull(restarted.getObject(new CacheKey(new Object[] { 1 })));
+      assertEquals("updated", restarted.getObject(new CacheKey(new Object[] { 2 })));
+      assertEquals("value99", restarted.getObject(new CacheKey(new Object[] { 99 })));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void shouldRemoveEntriesReadBackFromFileOnAnyWrite() throws Exception {
+    File file = File.createTempFile("mybatis-offheap", ".cache");
+    try {
+      OffHeapCache cache = newFileCache(file);
+      cache.putObject(new CacheKey(new Object[] { 1 }), "author");
+
+      TableDependencies dependencies = new TableDependencies();
+      OffHeapCache restarted = newFileCache(file);
+      restarted.setTableDependencies(dependencies);
+      assertEquals("author", restarted.getObject(new CacheKey(new Object[] { 1 })));
+      TransactionalCacheManager tcm = new TransactionalCacheManager(dependencies);
+      tcm.invalidate(Collections.singleton("post"));
+      tcm.commit();
+      assertNull(restarted.getObject(new CacheKey(new Object[] { 1 })));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void shouldBeConfiguredByCacheBuilder() {
+    Properties properties = new Properties();
+    properties.setProperty("maxBytes", "8192");
+    properties.setProperty("slabSize", "2048");
+    Cache cache = new CacheBuilder("default").implementation(OffHeapCache.class).properties(properties).build();
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+    }
+    assertTrue(cache.getSize() < 1000);
+    assertEquals(999, cache.getObject(999));
+  }
+
+  private static OffHeapCache newFileCache(File file) {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setMaxBytes(64 * 1024);
+    cache.setFile(file.getAbsolutePath());
+    return cache;
+  }
+
+}
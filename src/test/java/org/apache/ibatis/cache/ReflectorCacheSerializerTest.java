@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.ReflectorCacheSerializer;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ReflectorCacheSerializerTest {
+
+  @Test
+  public void shouldCopyBeansAndCollections() {
+    ReflectorCacheSerializer serializer = new ReflectorCacheSerializer();
+    List<Object> value = new ArrayList<Object>();
+    value.add(new Author(101, "jim", "********", "jim@ibatis.apache.org", "Something...", Section.NEWS));
+    value.add(new Author(102, "sally", "********", null, "Something else", null));
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("price", new BigDecimal("12.50"));
+    row.put("created", new Timestamp(1234567890123L));
+    row.put("name", "日本語");
+    value.add(row);
+
+    Object copy = serializer.deserialize(serializer.serialize(value));
+    assertEquals(value, copy);
+    assertNotSame(value.get(0), ((List<?>) copy).get(0));
+  }
+
+  @Test
+  public void shouldKeepSharedAndCircularReferences() {
+    ReflectorCacheSerializer serializer = new ReflectorCacheSerializer();
+    Node parent = new Node();
+    Node child = new Node();
+    child.setParent(parent);
+    parent.getChildren().add(child);
+    parent.getChildren().add(child);
+
+    Node copy = (Node) serializer.deserialize(serializer.serialize(parent));
+    assertEquals(2, copy.getChildren().size());
+    assertSame(copy.getChildren().get(0), copy.getChildren().get(1));
+    assertSame(copy, copy.getChildren().get(0).getParent());
+  }
+
+  @Test
+  public void shouldUseJavaSerializationForOtherObjects() {
+    ReflectorCacheSerializer serializer = new ReflectorCacheSerializer();
+    Immutable value = new Immutable("value");
+    Immutable copy = (Immutable) serializer.deserialize(serializer.serialize(value));
+    assertEquals("value", copy.getValue());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableObjects() {
+    ReflectorCacheSerializer serializer = new ReflectorCacheSerializer();
+    List<Object> value = new ArrayList<Object>();
+    value.add(new Object());
+    serializer.serialize(value);
+  }
+
+  @Test
+  public void shouldBeUsedByReadWriteCache() {
+    Cache cache = new CacheBuilder("default").readWrite(true).serializer(ReflectorCacheSerializer.class).build();
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "Something...", Section.NEWS);
+    cache.putObject(1, author);
+    Author copy = (Author) cache.getObject(1);
+    assertEquals(author, copy);
+    copy.setUsername("changed");
+    assertEquals("jim", ((Author) cache.getObject(1)).getUsername());
+  }
+
+  @Test
+  public void shouldUseReflectorFactoryOfCacheBuilder() {
+    final List<Class<?>> reflected = new ArrayList<Class<?>>();
+    ReflectorFactory reflectorFactory = new DefaultReflectorFactory() {
+      @Override
+      public Reflector findForClass(Class<?> type) {
+        reflected.add(type);
+        return super.findForClass(type);
+      }
+    };
+    Cache cache = new CacheBuilder("default").readWrite(true).serializer(ReflectorCacheSerializer.class)
+        .reflectorFactory(reflectorFactory).build();
+    cache.putObject(1, new Author(101, "jim", "********", "jim@ibatis.apache.org", "Something...", Section.NEWS));
+    assertTrue(reflected.contains(Author.class));
+  }
+
+  @Test
+  public void shouldCopyNullValues() {
+    Cache cache = new SerializedCache(new PerpetualCache("default"), new ReflectorCacheSerializer());
+    cache.putObject(1, null);
+    assertNull(cache.getObject(1));
+  }
+
+  public static class Node implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Node parent;
+    private List<Node> children = new ArrayList<Node>();
+
+    public Node getParent() {
+      return parent;
+    }
+
+    public void setParent(Node parent) {
+      this.parent = parent;
+    }
+
+    public List<Node> getChildren() {
+      return children;
+    }
+
+    public void setChildren(List<Node> children) {
+      this.children = children;
+    }
+  }
+
+  public static class Immutable implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String value;
+
+    public Immutable(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SqlTableParserTest {
+
+  @Test
+  public void shouldFindTablesOfJoinsAndLists() {
+    assertEquals(tables("blog", "author", "post"), SqlTableParser.parse(
+        "select * from Blog b, AUTHOR as a left outer join app.post p on p.blog_id = b.id where b.author_id = a.id"));
+  }
+
+  @Test
+  public void shouldFindTablesOfSubqueries() {
+    assertEquals(tables("author", "blog"), SqlTableParser.parse(
+        "select * from (select id from author) a where a.id in (select author_id from \"Blog\")"));
+  }
+
+  @Test
+  public void shouldKeepReadingTableListAfterDerivedTables() {
+    assertEquals(tables("author", "orders"), SqlTableParser.parse(
+        "select * from (select id from author) x, orders o where o.author_id = x.id"));
+    assertEquals(tables("blog", "author", "post", "comment"), SqlTableParser.parse(
+        "select * from blog b, (select id from author where id in (select author_id from post)) as x, comment c"));
+    assertEquals(tables("blog", "author", "post"), SqlTableParser.parse(
+        "select * from blog b join (select id from author) x on x.id = b.author_id join post p on p.blog_id = b.id"));
+  }
+
+  @Test
+  public void shouldFindWrittenTables() {
+    assertEquals(tables("author"), SqlTableParser.parse("insert into author (id, username) values (?, ?)"));
+    assertEquals(tables("author"), SqlTableParser.parse("update author set username = ? where id = ?"));
+    assertEquals(tables("author"), SqlTableParser.parse("delete from `author` where id = ?"));
+  }
+
+  @Test
+  public void shouldIgnoreLiteralsAndComments() {
+    assertEquals(tables("author"), SqlTableParser.parse(
+        "select 'from blog' from author -- join post\n /* join comment */ where bio <> 'it''s from x'"));
+  }
+
+  @Test
+  public void shouldReturnNullWhenNoTableIsFound() {
+    assertNull(SqlTableParser.parse("{call getBlogsAndAuthors(?)}"));
+  }
+
+  private static Set<String> tables(String... names) {
+    return new HashSet<String>(Arrays.asList(names));
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TableDependenciesTest {
+
+  @Test
+  public void shouldOnlyRemoveEntriesThatReadWrittenTables() {
+    TableDependencies dependencies = new TableDependencies();
+    Cache authors = new PerpetualCache("authors");
+    Cache blogs = new PerpetualCache("blogs");
+    commit(dependencies, authors, key(1), "author", tables("author"));
+    commit(dependencies, blogs, key(2), "blog", tables("blog"));
+    commit(dependencies, blogs, key(3), "blog with author", tables("blog", "author"));
+
+    TransactionalCacheManager tcm = new TransactionalCacheManager(dependencies);
+    tcm.invalidate(tables("author"));
+    tcm.commit();
+
+    assertNull(authors.getObject(key(1)));
+    assertEquals("blog", blogs.getObject(key(2)));
+    assertNull(blogs.getObject(key(3)));
+  }
+
+  @Test
+  public void shouldRemoveEntriesWithUnknownTablesOnAnyWrite() {
+    TableDependencies dependencies = new TableDependencies();
+    Cache cache = new PerpetualCache("default");
+    commit(dependencies, cache, key(1), "procedure", null);
+
+    TransactionalCacheManager tcm = new TransactionalCacheManager(dependencies);
+    tcm.invalidate(tables("post"));
+    tcm.commit();
+
+    assertNull(cache.getObject(key(1)));
+  }
+
+  @Test
+  public void shouldNotServeEntriesOfTablesWrittenInTransaction() {
+    TableDependencies dependencies = new TableDependencies();
+    Cache cache = new PerpetualCache("default");
+    commit(dependencies, cache, key(1), "author", tables("author"));
+    commit(dependencies, cache, key(2), "blog", tables("blog"));
+
+    TransactionalCacheManager tcm = new TransactionalCacheManager(dependencies);
+    tcm.putObject(cache, key(3), "author read before write", tables("author"));
+    tcm.invalidate(tables("author"));
+    assertNull(tcm.getObject(cache, key(1), tables("author")));
+    assertEquals("blog", tcm.getObject(cache, key(2), tables("blog")));
+    tcm.putObject(cache, key(4), "author read after write", tables("author"));
+    tcm.commit();
+
+    assertNull(cache.getObject(key(1)));
+    assertNull(cache.getObject(key(3)));
+    assertEquals("author read after write", cache.getObject(key(4)));
+  }
+
+  @Test
+  public void shouldKeepEntriesOnRollback() {
+    TableDependencies dependencies = new TableDependencies();
+    Cache cache = new PerpetualCache("default");
+    commit(dependencies, cache, key(1), "author", tables("author"));
+
+    TransactionalCacheManager tcm = new TransactionalCacheManager(dependencies);
+    tcm.invalidate(tables("author"));
+    tcm.rollback();
+    tcm.commit();
+
+    assertEquals("author", cache.getObject(key(1)));
+  }
+
+  private static void commit(TableDependencies dependencies, Cache cache, CacheKey key, Object value, Set<String> tables) {
+    TransactionalCacheManager tcm = new TransactionalCacheManager(dependencies);
+    tcm.putObject(cache, key, value, tables);
+    tcm.commit();
+  }
+
+  private static CacheKey key(int id) {
+    return new CacheKey(new Object[] { id });
+  }
+
+  private static Set<String> tables(String... names) {
+    return new HashSet<String>(Arrays.asList(names));
+  }
+
+}
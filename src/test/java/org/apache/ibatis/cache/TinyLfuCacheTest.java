@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+
+  @Test
+  public void shouldNeverHoldMoreThanMaximumSize() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(5);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepFrequentlyUsedItemsWhenScanned() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, i);
+    }
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(i, cache.getObject(i));
+      }
+    }
+    for (int i = 1000; i < 2000; i++) {
+      cache.putObject(i, i);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, cache.getObject(i));
+    }
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldNotBeWrappedInSynchronizedCache() {
+    Cache cache = new CacheBuilder("default").addDecorator(TinyLfuCache.class).size(10).build();
+    assertTrue(cache instanceof LoggingCache);
+    for (int i = 0; i < 20; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(10, cache.getSize());
+  }
+
+}
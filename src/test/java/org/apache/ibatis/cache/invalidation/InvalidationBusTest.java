@@ -0,0 +1,253 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class InvalidationBusTest {
+
+  @Test
+  public void shouldClearCacheOfOtherNodeOnCommit() {
+    Node first = new Node("clear", false);
+    Node second = new Node("clear", false);
+    try {
+      CacheKey key = new CacheKey(new Object[] { "select", 1 });
+      second.cache.putObject(key, "value");
+      first.cache.putObject(key, "value");
+
+      TransactionalCacheManager tcm = new TransactionalCacheManager(null, first.bus());
+      tcm.clear(first.cache);
+      tcm.commit();
+
+      assertNull(first.cache.getObject(key));
+      assertNull(second.cache.getObject(key));
+      assertEquals(1, second.bus().getReceivedCount());
+      assertEquals(0, first.bus().getReceivedCount());
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void shouldInvalidateTablesOfOtherNode() {
+    Node first = new Node("tables", true);
+    Node second = new Node("tables", true);
+    try {
+      CacheKey authorKey = new CacheKey(new Object[] { "author" });
+      CacheKey blogKey = new CacheKey(new Object[] { "blog" });
+      second.cache.putObject(authorKey, "author");
+      second.cache.putObject(blogKey, "blog");
+      second.configuration.getTableDependencies().register(second.cache, authorKey, Collections.singleton("author"));
+      second.configuration.getTableDependencies().register(second.cache, blogKey, Collections.singleton("blog"));
+
+      TransactionalCacheManager tcm = new TransactionalCacheManager(first.configuration.getTableDependencies(), first.bus());
+      tcm.invalidate(Collections.singleton("author"));
+      tcm.commit();
+
+      assertNull(second.cache.getObject(authorKey));
+      assertEquals("blog", second.cache.getObject(blogKey));
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void shouldClearAllCachesWhenTablesAreNotTracked() {
+    Node first = new Node("untracked", true);
+    Node second = new Node("untracked", false);
+    try {
+      second.cache.putObject("key", "value");
+      first.bus().publishTables(Collections.singleton("author"));
+      assertNull(second.cache.getObject("key"));
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void shouldMergeInvalidationsWithinBatchDelay() throws Exception {
+    RecordingTransport transport = new RecordingTransport();
+    InvalidationBus bus = new InvalidationBus(new Configuration(), transport);
+    bus.setBatchDelay(60000);
+    bus.start();
+    bus.publishClear("first");
+    bus.publishClear("second");
+    bus.publishClear("first");
+    bus.publishTables(new HashSet<String>(Arrays.asList("author", "blog")));
+    bus.publishTables(Collections.singleton("author"));
+    assertTrue(transport.messages.isEmpty());
+    bus.flush();
+    assertEquals(1, transport.messages.size());
+    InvalidationMessage message = transport.messages.get(0);
+    assertEquals(new HashSet<String>(Arrays.asList("first", "second")), message.getNamespaces());
+    assertEquals(new HashSet<String>(Arrays.asList("author", "blog")), message.getTables());
+    assertEquals(5, bus.getPublishedCount());
+    assertEquals(1, bus.getSentCount());
+    bus.flush();
+    assertEquals(1, transport.messages.size());
+    bus.close();
+  }
+
+  @Test
+  public void shouldFlushAfterBatchDelay() throws Exception {
+    RecordingTransport transport = new RecordingTransport();
+    InvalidationBus bus = new InvalidationBus(new Configuration(), transport);
+    bus.setBatchDelay(20);
+    bus.start();
+    bus.publishClear("namespace");
+    for (int i = 0; i < 100 && bus.getSentCount() == 0; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(1, transport.messages.size());
+    bus.close();
+  }
+
+  @Test
+  public void shouldReadWrittenMessage() {
+    InvalidationMessage message = new InvalidationMessage("node", Collections.singleton("namespace"),
+        new HashSet<String>(Arrays.asList("author", "blog")));
+    InvalidationMessage read = InvalidationMessage.fromBytes(message.toBytes());
+    assertEquals("node", read.getOrigin());
+    assertEquals(message.getNamespaces(), read.getNamespaces());
+    assertEquals(message.getTables(), read.getTables());
+  }
+
+  @Test
+  public void shouldSendOverSockets() throws Exception {
+    Configuration firstConfiguration = new Configuration();
+    Configuration secondConfiguration = new Configuration();
+    Cache cache = new PerpetualCache("namespace");
+    secondConfiguration.addCache(cache);
+    cache.putObject("key", "value");
+
+    SocketTransport firstTransport = new SocketTransport();
+    SocketTransport secondTransport = new SocketTransport();
+    InvalidationBus first = new InvalidationBus(firstConfiguration, firstTransport);
+    InvalidationBus second = new InvalidationBus(secondConfiguration, secondTransport);
+    first.setBatchDelay(0);
+    first.start();
+    second.start();
+    Properties properties = new Properties();
+    properties.setProperty("cacheInvalidation.peers", "127.0.0.1:" + secondTransport.getPort());
+    firstTransport.setProperties(properties);
+    try {
+      first.publishClear("namespace");
+      for (int i = 0; i < 250 && second.getReceivedCount() == 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(1, second.getReceivedCount());
+      assertNull(cache.getObject("key"));
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void shouldSkipUnreachablePeerForAWhile() throws Exception {
+    //先占一个端口再放掉，第一次发的时候没人监听
+    ServerSocket probe = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    int port = probe.getLocalPort();
+    probe.close();
+
+    SocketTransport firstTransport = new SocketTransport();
+    firstTransport.setTimeout(500);
+    firstTransport.addPeer("127.0.0.1", port);
+    InvalidationBus first = new InvalidationBus(new Configuration(), firstTransport);
+    first.setBatchDelay(0);
+    first.start();
+    SocketTransport secondTransport = new SocketTransport();
+    Properties properties = new Properties();
+    properties.setProperty("cacheInvalidation.port", String.valueOf(port));
+    secondTransport.setProperties(properties);
+    InvalidationBus second = new InvalidationBus(new Configuration(), secondTransport);
+    try {
+      first.publishClear("namespace");
+      second.start();
+      //连不上之后一秒内不再试
+      first.publishClear("namespace");
+      Thread.sleep(200);
+      assertEquals(0, second.getReceivedCount());
+      assertEquals(2, first.getSentCount());
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  private static class Node {
+    private final Configuration configuration = new Configuration();
+    private final Cache cache = new PerpetualCache("namespace");
+
+    Node(String channel, boolean tableCacheInvalidation) {
+      configuration.setTableCacheInvalidation(tableCacheInvalidation);
+      configuration.addCache(cache);
+      LoopbackTransport transport = new LoopbackTransport();
+      transport.setChannel(channel);
+      configuration.setCacheInvalidationTransport(transport);
+      bus().setBatchDelay(0);
+    }
+
+    InvalidationBus bus() {
+      return configuration.getInvalidationBus();
+    }
+
+    void close() {
+      configuration.setCacheInvalidationTransport(null);
+    }
+  }
+
+  private static class RecordingTransport implements InvalidationTransport {
+    private final List<InvalidationMessage> messages = new ArrayList<InvalidationMessage>();
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+    @Override
+    public void start(InvalidationBus bus) {
+    }
+
+    @Override
+    public synchronized void send(InvalidationMessage message) {
+      messages.add(message);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+}
@@ -0,0 +1,265 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.junit.Test;
+
+public class PreparedStatementCacheTest {
+
+  private final List<String> log = new ArrayList<String>();
+  private final PooledDataSource dataSource = new PooledDataSource();
+
+  {
+    dataSource.setPoolPreparedStatementCacheSize(2);
+  }
+
+  @Test
+  public void shouldReuseClosedStatement() throws Exception {
+    Connection connection = newPooledConnection().getProxyConnection();
+    PreparedStatement first = connection.prepareStatement("select 1");
+    first.setInt(1, 5);
+    first.close();
+    assertTrue(first.isClosed());
+    PreparedStatement second = connection.prepareStatement("select 1");
+    second.close();
+
+    assertEquals("[prepare select 1, setInt, clearParameters, clearBatch, clearWarnings, clearParameters, clearBatch, clearWarnings]", log.toString());
+    assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+    assertEquals(1, dataSource.getPoolState().getStatementCacheMissCount());
+    assertEquals(0.5, dataSource.getPoolState().getStatementCacheHitRatio(), 0);
+  }
+
+  @Test
+  public void shouldNotShareStatementInUse() throws Exception {
+    Connection connection = newPooledConnection().getProxyConnection();
+    PreparedStatement first = connection.prepareStatement("select 1");
+    PreparedStatement second = connection.prepareStatement("select 1");
+    second.close();
+    first.close();
+
+    assertEquals("[prepare select 1, prepare select 1, close, clearParameters, clearBatch, clearWarnings]", log.toString());
+    assertEquals(0, dataSource.getPoolState().getStatementCacheHitCount());
+    assertEquals(2, dataSource.getPoolState().getStatementCacheMissCount());
+  }
+
+  @Test
+  public void shouldTellResultSetSettingsApart() throws Exception {
+    Connection connection = newPooledConnection().getProxyConnection();
+    connection.prepareStatement("select 1").close();
+    connection.prepareStatement("select 1", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+    connection.prepareStatement("select 1", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+
+    assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+    assertEquals(2, dataSource.getPoolState().getStatementCacheMissCount());
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedStatement() throws Exception {
+    Connection connection = newPooledConnection().getProxyConnection();
+    connection.prepareStatement("select 1").close();
+    connection.prepareStatement("select 2").close();
+    connection.prepareStatement("select 1").close();
+    connection.prepareStatement("select 3").close();
+    log.clear();
+    connection.prepareStatement("select 2").close();
+
+    assertEquals("prepare select 2", log.get(0));
+    assertEquals(2, dataSource.getPoolState().getStatementCacheEvictionCount());
+  }
+
+  @Test
+  public void shouldResetChangedLimits() throws Exception {
+    Connection connection = newPooledConnection().getProxyConnection();
+    PreparedStatement statement = connection.prepareStatement("select 1");
+    statement.setQueryTimeout(10);
+    statement.close();
+
+    assertTrue(log.contains("setQueryTimeout 0"));
+    try {
+      statement.executeQuery();
+      fail("Closed statement should not be usable.");
+    } catch (SQLException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldKeepStatementsWhenConnectionIsWrappedAgain() throws Exception {
+    PooledConnection pooled = newPooledConnection();
+    pooled.getProxyConnection().prepareStatement("select 1").close();
+    PooledConnection wrapped = new PooledConnection(pooled.getRealConnection(), dataSource, pooled.getStatementCache());
+    wrapped.getProxyConnection().prepareStatement("select 1").close();
+
+    assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+  }
+
+  @Test
+  public void shouldCloseCachedStatementsWhenPoolClosesConnection() throws Exception {
+    PooledConnection pooled = newPooledConnection();
+    pooled.getProxyConnection().prepareStatement("select 1").close();
+    pooled.getProxyConnection().prepareStatement("select 2").close();
+    dataSource.getPoolState().idleConnections.add(pooled);
+    log.clear();
+    dataSource.forceCloseAll();
+
+    assertEquals("[close, close, connection close]", log.toString());
+    assertEquals(0, pooled.getStatementCache().getSize());
+  }
+
+  @Test
+  public void shouldReturnStatementWhenCursorIsClosed() throws Exception {
+    PooledConnection pooled = newPooledConnection();
+    Configuration configuration = new Configuration();
+    ResultMap ids = new ResultMap.Builder(configuration, "ids", Integer.class, new ArrayList<ResultMapping>()).build();
+    MappedStatement select = new MappedStatement.Builder(configuration, "selectIds", new StaticSqlSource(configuration, "select id from t"),
+        SqlCommandType.SELECT).resultMaps(Collections.singletonList(ids)).build();
+    Executor executor = new SimpleExecutor(configuration, new JdbcTransaction(pooled.getProxyConnection()));
+
+    Cursor<Integer> cursor = executor.queryCursor(select, null, RowBounds.DEFAULT);
+    List<Integer> values = new ArrayList<Integer>();
+    for (Integer value : cursor) {
+      values.add(value);
+    }
+    cursor.close();
+    assertEquals(Arrays.asList(1, 2), values);
+    //游标关掉的是包装过的语句，语句回到缓存，没有真的关掉
+    assertFalse(log.contains("close"));
+    pooled.getProxyConnection().prepareStatement("select id from t").close();
+    assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+  }
+
+  private PooledConnection newPooledConnection() {
+    return new PooledConnection(fakeConnection(), dataSource);
+  }
+
+  private Connection fakeConnection() {
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("prepareStatement".equals(method.getName())) {
+          log.add("prepare " + args[0]);
+          return fakeStatement();
+        } else if ("hashCode".equals(method.getName())) {
+          return System.identityHashCode(proxy);
+        } else if ("getAutoCommit".equals(method.getName())) {
+          return true;
+        } else if ("close".equals(method.getName())) {
+          log.add("connection close");
+        }
+        return null;
+      }
+    });
+  }
+
+  private PreparedStatement fakeStatement() {
+    return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        log.add(name.startsWith("setQueryTimeout") ? name + " " + args[0] : name);
+        if ("execute".equals(name)) {
+          return true;
+        } else if ("getResultSet".equals(name)) {
+          return fakeResultSet((Statement) proxy, 1, 2);
+        } else if ("getUpdateCount".equals(name)) {
+          return -1;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  //只有一个INTEGER列id的结果集，getStatement返回驱动自己的语句
+  private ResultSet fakeResultSet(final Statement statement, final int... ids) {
+    final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { ResultSetMetaData.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("getColumnCount".equals(name)) {
+              return 1;
+            } else if ("getColumnLabel".equals(name) || "getColumnName".equals(name)) {
+              return "id";
+            } else if ("getColumnType".equals(name)) {
+              return Types.INTEGER;
+            } else if ("getColumnClassName".equals(name)) {
+              return Integer.class.getName();
+            }
+            return defaultValue(method.getReturnType());
+          }
+        });
+    return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+      private int row = -1;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("next".equals(name)) {
+          return ++row < ids.length;
+        } else if ("getMetaData".equals(name)) {
+          return metaData;
+        } else if ("getStatement".equals(name)) {
+          return statement;
+        } else if ("getType".equals(name)) {
+          return ResultSet.TYPE_FORWARD_ONLY;
+        } else if ("getInt".equals(name) || "getObject".equals(name)) {
+          return ids[row];
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
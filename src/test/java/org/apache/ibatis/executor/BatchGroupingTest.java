@@ -0,0 +1,255 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.BatchGrouping;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class BatchGroupingTest {
+
+  private final List<String> executed = new ArrayList<String>();
+  private final List<String> prepared = new ArrayList<String>();
+  private final List<String> closed = new ArrayList<String>();
+
+  @Test
+  public void shouldOpenNewBatchOnEachSwitchByDefault() throws Exception {
+    Configuration configuration = new Configuration();
+    List<BatchResult> results = runOrders(configuration, "insert into order_lines (id) values (?)");
+    assertEquals(4, results.size());
+    assertEquals(Arrays.asList("orders:1", "order_lines:1", "orders:1", "order_lines:1"), executed);
+  }
+
+  @Test
+  public void shouldGroupInterleavedStatementsOnDifferentTables() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setBatchGrouping(BatchGrouping.TABLES);
+    List<BatchResult> results = runOrders(configuration, "insert into order_lines (id) values (?)");
+    assertEquals(2, results.size());
+    assertEquals(Arrays.asList("orders:2", "order_lines:2"), executed);
+    assertEquals("insertOrder", results.get(0).getMappedStatement().getId());
+    assertEquals(Arrays.<Object>asList(1, 3), results.get(0).getParameterObjects());
+    assertEquals(Arrays.<Object>asList(2, 4), results.get(1).getParameterObjects());
+    assertEquals(2, results.get(1).getUpdateCounts().length);
+  }
+
+  @Test
+  public void shouldNotMoveStatementAheadOfBatchOnSameTable() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setBatchGrouping(BatchGrouping.TABLES);
+    List<BatchResult> results = runOrders(configuration, "update orders set total = 0 where id = ?");
+    assertEquals(4, results.size());
+    assertEquals(Arrays.asList("orders:1", "orders:1", "orders:1", "orders:1"), executed);
+  }
+
+  @Test
+  public void shouldGroupRegardlessOfTables() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setBatchGrouping(BatchGrouping.ANY);
+    List<BatchResult> results = runOrders(configuration, "update orders set total = 0 where id = ?");
+    assertEquals(2, results.size());
+    assertEquals(Arrays.asList("orders:2", "orders:2"), executed);
+  }
+
+  @Test
+  public void shouldRunBatchWhenItReachesBatchSize() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setDefaultBatchSize(2);
+    final List<BatchResult> handled = new ArrayList<BatchResult>();
+    configuration.setBatchResultHandler(new BatchResultHandler() {
+      @Override
+      public void handleBatchResult(BatchResult batchResult) {
+        handled.add(batchResult);
+      }
+    });
+    MappedStatement insertOrder = statement(configuration, "insertOrder", "insert into orders (id) values (?)");
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    for (int i = 1; i <= 5; i++) {
+      executor.update(insertOrder, i);
+    }
+    assertEquals(Arrays.asList("orders:2", "orders:2"), executed);
+    assertEquals(2, handled.size());
+    assertEquals(Arrays.<Object>asList(3, 4), handled.get(1).getParameterObjects());
+
+    List<BatchResult> results = executor.flushStatements();
+    assertEquals(Arrays.asList("orders:2", "orders:2", "orders:1"), executed);
+    assertEquals(1, results.size());
+    assertEquals(Arrays.<Object>asList(5), results.get(0).getParameterObjects());
+    assertEquals(4, results.get(0).getExecutedCount());
+    assertEquals(4, results.get(0).getExecutedUpdateCount());
+  }
+
+  @Test
+  public void shouldRunOpenBatchesInOrderWhenOneReachesItsBatchSize() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setBatchGrouping(BatchGrouping.TABLES);
+    MappedStatement insertOrder = statement(configuration, "insertOrder", "insert into orders (id) values (?)", 2);
+    MappedStatement insertLine = statement(configuration, "insertLine", "insert into order_lines (id) values (?)");
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    executor.update(insertOrder, 1);
+    executor.update(insertLine, 2);
+    executor.update(insertOrder, 3);
+    assertEquals(Arrays.asList("orders:2", "order_lines:1"), executed);
+    executor.update(insertLine, 4);
+    List<BatchResult> results = executor.flushStatements();
+    assertEquals(Arrays.asList("orders:2", "order_lines:1", "order_lines:1"), executed);
+    assertEquals(0, results.get(0).getUpdateCounts().length);
+    assertEquals(2, results.get(0).getExecutedCount());
+    assertEquals(Arrays.<Object>asList(4), results.get(1).getParameterObjects());
+  }
+
+  @Test
+  public void shouldRunInterleavedBatchesWhenPendingRowsReachBatchSize() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setDefaultBatchSize(3);
+    MappedStatement insertOrder = statement(configuration, "insertOrder", "insert into orders (id) values (?)");
+    MappedStatement insertLine = statement(configuration, "insertLine", "insert into order_lines (id) values (?)");
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    executor.update(insertOrder, 1);
+    executor.update(insertLine, 2);
+    assertTrue(executed.isEmpty());
+    executor.update(insertOrder, 3);
+    assertEquals(Arrays.asList("orders:1", "order_lines:1", "orders:1"), executed);
+    //执行完只有最后一个批还能并，前面的都关掉了
+    assertEquals(Arrays.asList("orders", "order_lines"), closed);
+    executor.update(insertOrder, 4);
+    executor.update(insertLine, 5);
+    List<BatchResult> results = executor.flushStatements();
+    assertEquals(Arrays.asList("orders:1", "order_lines:1", "orders:1", "orders:1", "order_lines:1"), executed);
+    assertEquals(Arrays.asList("orders", "order_lines", "orders", "order_lines"), closed);
+    assertEquals(4, results.size());
+    assertEquals(1, results.get(0).getExecutedCount());
+    assertEquals(1, results.get(2).getExecutedCount());
+    assertEquals(Arrays.<Object>asList(4), results.get(2).getParameterObjects());
+  }
+
+  @Test
+  public void shouldRewriteBatchedInsertsIntoMultiRowStatements() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setMultiRowInsertSize(2);
+    MappedStatement insertOrder = statement(configuration, "insertOrder", "insert into orders (id) values (?)");
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    for (int i = 1; i <= 5; i++) {
+      executor.update(insertOrder, i);
+    }
+    List<BatchResult> results = executor.flushStatements();
+    assertEquals(Arrays.asList("insert into orders (id) values (?),(?)", "insert into orders (id) values (?)"), prepared);
+    assertEquals(Arrays.asList("orders:2", "orders:1 rows"), executed);
+    assertEquals(1, results.size());
+    assertEquals(5, results.get(0).getParameterObjects().size());
+    assertEquals("[1, 1, 1, 1, 1]", Arrays.toString(results.get(0).getUpdateCounts()));
+  }
+
+  @Test
+  public void shouldNotRewriteUpdates() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setMultiRowInsertSize(2);
+    runOrders(configuration, "update orders set total = 0 where id = ?");
+    assertEquals(Arrays.asList("orders:1 rows", "orders:1", "orders:1 rows", "orders:1"), executed);
+  }
+
+  //insert order, other, insert order, other
+  private List<BatchResult> runOrders(Configuration configuration, String otherSql) throws Exception {
+    MappedStatement insertOrder = statement(configuration, "insertOrder", "insert into orders (id) values (?)");
+    MappedStatement other = statement(configuration, "other", otherSql);
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    executor.update(insertOrder, 1);
+    executor.update(other, 2);
+    executor.update(insertOrder, 3);
+    executor.update(other, 4);
+    return executor.flushStatements();
+  }
+
+  private static MappedStatement statement(Configuration configuration, String id, String sql) {
+    return statement(configuration, id, sql, null);
+  }
+
+  private static MappedStatement statement(Configuration configuration, String id, String sql, Integer batchSize) {
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    parameterMappings.add(new ParameterMapping.Builder(configuration, "id", Integer.class).build());
+    return new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, sql, parameterMappings),
+        sql.startsWith("insert") ? SqlCommandType.INSERT : SqlCommandType.UPDATE).batchSize(batchSize).build();
+  }
+
+  private Connection connection() {
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("prepareStatement".equals(method.getName())) {
+              prepared.add((String) args[0]);
+              return statement((String) args[0]);
+            }
+            return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  private PreparedStatement statement(String sql) {
+    final String table = sql.startsWith("insert into ") ? sql.substring(12, sql.indexOf(' ', 12)) : sql.substring(7, sql.indexOf(' ', 7));
+    return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class },
+        new InvocationHandler() {
+          private final int rows = sql.length() - sql.replace("?", "").length();
+          private int batched;
+
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("addBatch".equals(method.getName())) {
+              batched++;
+            } else if ("executeBatch".equals(method.getName())) {
+              executed.add(table + ":" + batched);
+              int[] counts = new int[batched];
+              Arrays.fill(counts, rows);
+              batched = 0;
+              return counts;
+            } else if ("executeUpdate".equals(method.getName())) {
+              executed.add(table + ":" + rows + " rows");
+              return rows;
+            } else if ("close".equals(method.getName())) {
+              closed.add(table);
+            }
+            return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CacheMissCoalescerTest {
+
+  @Test
+  public void shouldShareResultOfReadOnlyCache() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.addCacheBuilder("readOnly", new CacheBuilder("readOnly").readWrite(false));
+    CacheMissCoalescer coalescer = configuration.getCacheMissCoalescer();
+    List<String> result = new ArrayList<String>();
+    result.add("value");
+
+    List<?> waited = loadConcurrently(coalescer, new PerpetualCache("readOnly"), result, false);
+    assertSame(result, waited);
+    assertEquals(1, coalescer.getLoadCount());
+    assertEquals(1, coalescer.getCoalescedCount());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void shouldCopyResultOfReadWriteCache() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.addCacheBuilder("readWrite", new CacheBuilder("readWrite").readWrite(true));
+    CacheMissCoalescer coalescer = configuration.getCacheMissCoalescer();
+    List<String> result = new ArrayList<String>();
+    result.add("value");
+
+    List<?> waited = loadConcurrently(coalescer, new PerpetualCache("readWrite"), result, false);
+    assertEquals(result, waited);
+    assertNotSame(result, waited);
+  }
+
+  @Test
+  public void shouldLetWaitersQueryWhenLeaderFails() throws Exception {
+    Configuration configuration = new Configuration();
+    CacheMissCoalescer coalescer = configuration.getCacheMissCoalescer();
+
+    assertNull(loadConcurrently(coalescer, new PerpetualCache("default"), null, true));
+    assertEquals(0, coalescer.getCoalescedCount());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void shouldStartNewLoadAfterCompletion() {
+    CacheMissCoalescer coalescer = new Configuration().getCacheMissCoalescer();
+    Cache cache = new PerpetualCache("default");
+    CacheKey key = new CacheKey(new Object[] { 1 });
+    coalescer.join(cache, key).complete(new ArrayList<Object>());
+    assertTrue(coalescer.join(cache, key).isLeader());
+    assertEquals(2, coalescer.getLoadCount());
+  }
+
+  private static List<?> loadConcurrently(CacheMissCoalescer coalescer, Cache cache, List<?> result, boolean fail) throws Exception {
+    CacheKey key = new CacheKey(new Object[] { "select", 1 });
+    CacheMissCoalescer.Load leader = coalescer.join(cache, key);
+    assertTrue(leader.isLeader());
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final CacheMissCoalescer.Load waiter = joinFrom(executor, coalescer, cache, key);
+      assertSame(leader, waiter);
+      Future<List<?>> waited = executor.submit(new Callable<List<?>>() {
+        @Override
+        public List<?> call() throws Exception {
+          return waiter.await();
+        }
+      });
+      if (fail) {
+        leader.fail();
+      } else {
+        leader.complete(result);
+      }
+      return waited.get();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static CacheMissCoalescer.Load joinFrom(ExecutorService executor, final CacheMissCoalescer coalescer, final Cache cache, final CacheKey key) throws Exception {
+    return executor.submit(new Callable<CacheMissCoalescer.Load>() {
+      @Override
+      public CacheMissCoalescer.Load call() {
+        CacheMissCoalescer.Load load = coalescer.join(cache, key);
+        assertFalse(load.isLeader());
+        return load;
+      }
+    }).get();
+  }
+
+}
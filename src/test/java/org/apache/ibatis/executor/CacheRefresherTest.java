@@ -0,0 +1,277 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CacheRefresherTest {
+
+  //每次查询结果不一样："value1"、"value2"...
+  private final AtomicInteger queries = new AtomicInteger();
+
+  @Test
+  public void shouldReloadEntryInBackground() throws Exception {
+    Configuration configuration = newConfiguration();
+    MappedStatement ms = statement(configuration);
+    CacheRefresher refresher = new CacheRefresher(configuration);
+    ExpiringCache cache = (ExpiringCache) ms.getCache();
+    CacheKey key = key(configuration, ms);
+    cache.putObject(key, Collections.singletonList("stale"));
+
+    assertTrue(refresher.refresh(ms, null, RowBounds.DEFAULT, key, claim(cache, key)));
+    waitFor(refresher, 1);
+    assertEquals(Collections.singletonList("value1"), cache.getObject(key));
+    assertEquals(0, refresher.getFailureCount());
+  }
+
+  @Test
+  public void shouldReleaseClaimWhenParameterChanged() throws Exception {
+    Configuration configuration = newConfiguration();
+    MappedStatement ms = statement(configuration);
+    CacheRefresher refresher = new CacheRefresher(configuration);
+    ExpiringCache cache = (ExpiringCache) ms.getCache();
+    CacheKey key = new CacheKey(new Object[] { "another key" });
+    cache.putObject(key, Collections.singletonList("stale"));
+
+    assertTrue(refresher.refresh(ms, null, RowBounds.DEFAULT, key, claim(cache, key)));
+    //放掉认领后下一次读又能认领
+    long deadline = System.currentTimeMillis() + 10000;
+    ExpiringCache.Refresh claim = null;
+    while (claim == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      cache.getObject(key);
+      claim = ExpiringCache.takeRefresh(key);
+    }
+    assertNotNull(claim);
+    assertEquals(0, queries.get());
+    assertEquals(Collections.singletonList("stale"), cache.getObject(key));
+  }
+
+  @Test
+  public void shouldNotRefreshWithExecutorPlugins() {
+    Configuration configuration = newConfiguration();
+    configuration.addInterceptor(new ExecutorPlugin());
+    MappedStatement ms = statement(configuration);
+    CacheRefresher refresher = new CacheRefresher(configuration);
+    ExpiringCache cache = (ExpiringCache) ms.getCache();
+    CacheKey key = key(configuration, ms);
+    cache.putObject(key, Collections.singletonList("stale"));
+
+    assertFalse(refresher.refresh(ms, null, RowBounds.DEFAULT, key, claim(cache, key)));
+    assertEquals(0, queries.get());
+  }
+
+  @Intercepts({ @Signature(type = Executor.class, method = "query",
+      args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }) })
+  public static class ExecutorPlugin implements Interceptor {
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      return invocation.proceed();
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
+  private static ExpiringCache.Refresh claim(ExpiringCache cache, CacheKey key) {
+    cache.getObject(key);
+    ExpiringCache.Refresh claim = ExpiringCache.takeRefresh(key);
+    assertNotNull(claim);
+    return claim;
+  }
+
+  private static void waitFor(CacheRefresher refresher, long refreshes) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (refresher.getRefreshCount() < refreshes && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(refreshes, refresher.getRefreshCount());
+  }
+
+  private Configuration newConfiguration() {
+    Configuration configuration = new Configuration();
+    configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource()));
+    return configuration;
+  }
+
+  private static MappedStatement statement(Configuration configuration) {
+    //快过期才刷新，这里一放进去就可以认领刷新
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("values"));
+    cache.setTimeToLive(60000);
+    cache.setRefreshAhead(60000);
+    ResultMap resultMap = new ResultMap.Builder(configuration, "selectValue-Inline", String.class, new ArrayList<ResultMapping>()).build();
+    MappedStatement ms = new MappedStatement.Builder(configuration, "selectValue",
+        new StaticSqlSource(configuration, "select value from t"), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).cache(cache).build();
+    configuration.addMappedStatement(ms);
+    return ms;
+  }
+
+  private static CacheKey key(Configuration configuration, MappedStatement ms) {
+    return new SimpleExecutor(configuration, null).createCacheKey(ms, null, RowBounds.DEFAULT, ms.getBoundSql(null));
+  }
+
+  private DataSource dataSource() {
+    return (DataSource) fake(DataSource.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return "getConnection".equals(method.getName()) ? connection() : defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private Connection connection() {
+    return (Connection) fake(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("prepareStatement".equals(name)) {
+          return statement((Connection) proxy);
+        } else if ("getMetaData".equals(name)) {
+          return fake(DatabaseMetaData.class, null);
+        } else if ("getAutoCommit".equals(name)) {
+          return false;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private PreparedStatement statement(final Connection connection) {
+    return (PreparedStatement) fake(PreparedStatement.class, new InvocationHandler() {
+      private ResultSet resultSet;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("execute".equals(name)) {
+          resultSet = resultSet("value" + queries.incrementAndGet());
+          return true;
+        } else if ("getResultSet".equals(name)) {
+          ResultSet rs = resultSet;
+          resultSet = null;
+          return rs;
+        } else if ("getUpdateCount".equals(name)) {
+          return -1;
+        } else if ("getConnection".equals(name)) {
+          return connection;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static ResultSet resultSet(final String value) {
+    final ResultSetMetaData metaData = (ResultSetMetaData) fake(ResultSetMetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("getColumnCount".equals(name)) {
+          return 1;
+        } else if ("getColumnLabel".equals(name) || "getColumnName".equals(name)) {
+          return "value";
+        } else if ("getColumnType".equals(name)) {
+          return Types.VARCHAR;
+        } else if ("getColumnClassName".equals(name)) {
+          return String.class.getName();
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+    return (ResultSet) fake(ResultSet.class, new InvocationHandler() {
+      private int row;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("next".equals(name)) {
+          return ++row == 1;
+        } else if ("getMetaData".equals(name)) {
+          return metaData;
+        } else if ("getString".equals(name) || "getObject".equals(name)) {
+          return value;
+        } else if ("getType".equals(name)) {
+          return ResultSet.TYPE_FORWARD_ONLY;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static Object fake(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(CacheRefresherTest.class.getClassLoader(), new Class<?>[] { type },
+        handler != null ? handler : new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
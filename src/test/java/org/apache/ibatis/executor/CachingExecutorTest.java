@@ -0,0 +1,253 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CachingExecutorTest {
+
+  private final List<String> queried = new ArrayList<String>();
+  //不为null时，查selectBlogTitle的过程中再通过它查一次selectAuthorName，模拟嵌套查询
+  private Executor nestedExecutor;
+
+  @CacheNamespace
+  public interface BlogMapper {
+    @Select("select name from author_view where id = #{id}")
+    @Options(tables = "author")
+    List<String> selectAuthorName(int id);
+
+    @Select("select b.title from (select id, title from blog) b, post p where p.blog_id = b.id and b.id = #{id}")
+    List<String> selectBlogTitle(int id);
+
+    @Update("update author set name = #{name} where id = #{id}")
+    int updateAuthorName(@Param("id") int id, @Param("name") String name);
+  }
+
+  @Test
+  public void shouldOnlyInvalidateEntriesOfWrittenTables() {
+    Configuration configuration = new Configuration();
+    configuration.setTableCacheInvalidation(true);
+    configuration.addMapper(BlogMapper.class);
+
+    SqlSession session = newSession(configuration);
+    BlogMapper mapper = session.getMapper(BlogMapper.class);
+    mapper.selectAuthorName(1);
+    mapper.selectBlogTitle(1);
+    session.commit();
+    mapper.selectAuthorName(1);
+    mapper.selectBlogTitle(1);
+    assertEquals(2, queried.size());
+
+    mapper.updateAuthorName(1, "new name");
+    session.commit();
+    mapper.selectAuthorName(1);
+    mapper.selectBlogTitle(1);
+    assertEquals(3, queried.size());
+    assertEquals("selectAuthorName", queried.get(2));
+    session.close();
+  }
+
+  @Test
+  public void shouldNotWaitForOtherSessionsAfterUncommittedWrite() throws Exception {
+    Configuration configuration = coalescingConfiguration();
+    final CachingExecutor executor = new CachingExecutor(newDelegate(), configuration);
+    final MappedStatement update = statement(configuration, "updateAuthorName");
+    final MappedStatement select = statement(configuration, "selectAuthorName");
+
+    //另一个session正在查同一个key
+    CacheMissCoalescer.Load leader = configuration.getCacheMissCoalescer().join(select.getCache(), key(select, 1));
+    try {
+      runWithTimeout(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          executor.update(update, 1);
+          return executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        }
+      });
+    } finally {
+      leader.fail();
+    }
+    assertEquals(Collections.singletonList("selectAuthorName"), queried);
+    assertEquals(0, configuration.getCacheMissCoalescer().getCoalescedCount());
+  }
+
+  @Test
+  public void shouldNotLetNestedQueriesWaitForOtherSessions() throws Exception {
+    Configuration configuration = coalescingConfiguration();
+    final CachingExecutor executor = new CachingExecutor(newDelegate(), configuration);
+    final MappedStatement selectBlog = statement(configuration, "selectBlogTitle");
+    MappedStatement selectAuthor = statement(configuration, "selectAuthorName");
+    nestedExecutor = executor;
+
+    CacheMissCoalescer.Load leader = configuration.getCacheMissCoalescer().join(selectAuthor.getCache(), key(selectAuthor, 1));
+    try {
+      runWithTimeout(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          return executor.query(selectBlog, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        }
+      });
+    } finally {
+      leader.fail();
+    }
+    assertEquals(Arrays.asList("selectBlogTitle", "selectAuthorName"), queried);
+    assertEquals(0, configuration.getCacheMissCoalescer().getCoalescedCount());
+  }
+
+  @Test
+  public void shouldRefreshEntryWhenHitClaimsIt() throws Exception {
+    List<Object> refreshed = new ArrayList<Object>();
+    Configuration configuration = refreshingConfiguration(refreshed);
+    CachingExecutor executor = new CachingExecutor(newDelegate(), configuration);
+    MappedStatement select = expiringStatement(configuration, "selectValue");
+
+    executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.commit(true);
+    executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(Collections.<Object>singletonList(1), refreshed);
+    assertEquals(1, queried.size());
+  }
+
+  @Test
+  public void shouldReleaseRefreshClaimOfHitHiddenByTransaction() throws Exception {
+    List<Object> refreshed = new ArrayList<Object>();
+    Configuration configuration = refreshingConfiguration(refreshed);
+    CachingExecutor executor = new CachingExecutor(newDelegate(), configuration);
+    MappedStatement select = expiringStatement(configuration, "selectValue");
+    MappedStatement update = new MappedStatement.Builder(configuration, "updateValue", new StaticSqlSource(configuration, "update t"),
+        SqlCommandType.UPDATE).cache(select.getCache()).flushCacheRequired(true).build();
+
+    executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.commit(true);
+    //事务里清空过缓存，命中被屏蔽，认领要放掉
+    executor.update(update, 1);
+    executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertTrue(refreshed.isEmpty());
+    executor.rollback(true);
+
+    executor.query(select, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(Collections.<Object>singletonList(1), refreshed);
+  }
+
+  private static MappedStatement expiringStatement(Configuration configuration, String id) {
+    //一放进去就到了提前刷新的时间
+    Cache cache = new CacheBuilder("values").timeToLive(60000L).refreshAhead(60000L).build();
+    return new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, "select value from t"), SqlCommandType.SELECT)
+        .cache(cache).useCache(true).build();
+  }
+
+  //用记录刷新请求的CacheRefresher代替真的后台刷新
+  private static Configuration refreshingConfiguration(final List<Object> refreshed) {
+    return new Configuration() {
+      private final CacheRefresher refresher = new CacheRefresher(this) {
+        @Override
+        public boolean refresh(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, ExpiringCache.Refresh claim) {
+          refreshed.add(parameterObject);
+          return true;
+        }
+      };
+
+      @Override
+      public CacheRefresher getCacheRefresher() {
+        return refresher;
+      }
+    };
+  }
+
+  private static Configuration coalescingConfiguration() {
+    Configuration configuration = new Configuration();
+    configuration.setCacheMissCoalescing(true);
+    configuration.addMapper(BlogMapper.class);
+    return configuration;
+  }
+
+  private static MappedStatement statement(Configuration configuration, String name) {
+    return configuration.getMappedStatement(BlogMapper.class.getName() + "." + name);
+  }
+
+  private static CacheKey key(MappedStatement ms, Object parameter) {
+    return new CacheKey(new Object[] { ms.getId(), parameter });
+  }
+
+  //在另一个线程里跑，等别的session的话会超时
+  private static void runWithTimeout(Callable<Object> task) throws Exception {
+    ExecutorService thread = Executors.newSingleThreadExecutor();
+    try {
+      thread.submit(task).get(10, TimeUnit.SECONDS);
+    } finally {
+      thread.shutdownNow();
+    }
+  }
+
+  private SqlSession newSession(Configuration configuration) {
+    return new DefaultSqlSession(configuration, new CachingExecutor(newDelegate(), configuration));
+  }
+
+  private Executor newDelegate() {
+    return (Executor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Executor.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("createCacheKey".equals(name)) {
+              return key((MappedStatement) args[0], args[1]);
+            } else if ("query".equals(name)) {
+              MappedStatement ms = (MappedStatement) args[0];
+              String id = ms.getId().substring(ms.getId().lastIndexOf('.') + 1);
+              queried.add(id);
+              if (nestedExecutor != null && "selectBlogTitle".equals(id)) {
+                nestedExecutor.query(statement(ms.getConfiguration(), "selectAuthorName"), args[1], RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+              }
+              return Collections.singletonList("row");
+            } else if ("update".equals(name)) {
+              return 1;
+            }
+            return null;
+          }
+        });
+  }
+
+}
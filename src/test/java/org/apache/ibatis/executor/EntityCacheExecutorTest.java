@@ -0,0 +1,266 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class EntityCacheExecutorTest {
+
+  private final Configuration configuration = newConfiguration();
+  private final ResultMap authorMap = authorMap();
+  private final MappedStatement selectAuthor = select("selectAuthor", "select id, username from author");
+  private final MappedStatement selectAuthorId = select("selectAuthorId", "select id from author");
+  private final MappedStatement selectAuthorWithEmail = select("selectAuthorWithEmail", "select id, username, email from author");
+  private final MappedStatement updateBlog = new MappedStatement.Builder(configuration, "updateBlog",
+      new StaticSqlSource(configuration, "update blog set title = 'x'"), SqlCommandType.UPDATE).build();
+
+  @Test
+  public void shouldShareEntitiesOnlyWhenSessionCommits() throws Exception {
+    Executor reader = newExecutor();
+    Author author = selectAuthor(reader, selectAuthor);
+    assertSame(author, selectAuthor(reader, selectAuthor));
+    assertNotSame(author, selectAuthor(newExecutor(), selectAuthor));
+
+    reader.commit(true);
+    assertSame(author, selectAuthor(newExecutor(), selectAuthor));
+  }
+
+  @Test
+  public void shouldNotShareEntitiesOfRolledBackSession() throws Exception {
+    Executor reader = newExecutor();
+    Author author = selectAuthor(reader, selectAuthor);
+    reader.rollback(true);
+    assertNotSame(author, selectAuthor(newExecutor(), selectAuthor));
+  }
+
+  @Test
+  public void shouldShareEntitiesOfSessionClosedWithoutChanges() throws Exception {
+    Executor reader = newExecutor();
+    Author author = selectAuthor(reader, selectAuthor);
+    reader.close(false);
+    assertSame(author, selectAuthor(newExecutor(), selectAuthor));
+  }
+
+  @Test
+  public void shouldNotShareEntitiesOfSessionThatUpdated() throws Exception {
+    //更新的语句没有声明entity，也可能改了实体
+    Executor writer = newExecutor();
+    Author before = selectAuthor(writer, selectAuthor);
+    writer.update(updateBlog, null);
+    Author after = selectAuthor(writer, selectAuthor);
+    assertNotSame(before, after);
+    writer.commit(true);
+    Author shared = selectAuthor(newExecutor(), selectAuthor);
+    assertNotSame(before, shared);
+    assertNotSame(after, shared);
+  }
+
+  @Test
+  public void shouldOnlyShareRowsWithAllMappedColumns() throws Exception {
+    Executor reader = newExecutor();
+    Author partial = selectAuthor(reader, selectAuthorId);
+    assertNull(partial.getUsername());
+    Author withEmail = selectAuthor(reader, selectAuthorWithEmail);
+    assertEquals("jim@ibatis.apache.org", withEmail.getEmail());
+    reader.commit(true);
+
+    Executor other = newExecutor();
+    Author author = selectAuthor(other, selectAuthor);
+    assertNotSame(partial, author);
+    assertNotSame(withEmail, author);
+    assertEquals("jim", author.getUsername());
+    other.commit(true);
+    //完整的实体可以给只查了部分列的查询用
+    assertSame(author, selectAuthor(newExecutor(), selectAuthorId));
+  }
+
+  private static Author selectAuthor(Executor executor, MappedStatement ms) throws Exception {
+    List<Object> authors = executor.query(ms, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(1, authors.size());
+    return (Author) authors.get(0);
+  }
+
+  private static Configuration newConfiguration() {
+    Configuration configuration = new Configuration();
+    configuration.setEntityCacheEnabled(true);
+    return configuration;
+  }
+
+  private ResultMap authorMap() {
+    List<ResultMapping> mappings = new ArrayList<ResultMapping>();
+    mappings.add(new ResultMapping.Builder(configuration, "id", "id", int.class)
+        .flags(Collections.singletonList(ResultFlag.ID)).build());
+    mappings.add(new ResultMapping.Builder(configuration, "username", "username", String.class).build());
+    return new ResultMap.Builder(configuration, "author", Author.class, mappings).build();
+  }
+
+  private MappedStatement select(String id, String sql) {
+    return new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, sql), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(authorMap)).build();
+  }
+
+  private Executor newExecutor() {
+    return new SimpleExecutor(configuration, new JdbcTransaction(dataSource(), null, false));
+  }
+
+  private static DataSource dataSource() {
+    return (DataSource) fake(DataSource.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return "getConnection".equals(method.getName()) ? connection() : defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static Connection connection() {
+    return (Connection) fake(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("prepareStatement".equals(name)) {
+          return statement((Connection) proxy, (String) args[0]);
+        } else if ("getMetaData".equals(name)) {
+          return fake(DatabaseMetaData.class, null);
+        } else if ("getAutoCommit".equals(name)) {
+          return false;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  //查询返回一行author，列就是sql里select的那些
+  private static PreparedStatement statement(final Connection connection, final String sql) {
+    return (PreparedStatement) fake(PreparedStatement.class, new InvocationHandler() {
+      private ResultSet resultSet;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("execute".equals(name)) {
+          if (!sql.startsWith("select ")) {
+            return false;
+          }
+          resultSet = resultSet(sql.substring("select ".length(), sql.indexOf(" from")).split(", "));
+          return true;
+        } else if ("getResultSet".equals(name)) {
+          ResultSet rs = resultSet;
+          resultSet = null;
+          return rs;
+        } else if ("getUpdateCount".equals(name)) {
+          return sql.startsWith("select ") ? -1 : 1;
+        } else if ("getConnection".equals(name)) {
+          return connection;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static ResultSet resultSet(final String[] columns) {
+    final ResultSetMetaData metaData = (ResultSetMetaData) fake(ResultSetMetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("getColumnCount".equals(name)) {
+          return columns.length;
+        } else if ("getColumnLabel".equals(name) || "getColumnName".equals(name)) {
+          return columns[(Integer) args[0] - 1];
+        } else if ("getColumnType".equals(name)) {
+          return "id".equals(columns[(Integer) args[0] - 1]) ? Types.INTEGER : Types.VARCHAR;
+        } else if ("getColumnClassName".equals(name)) {
+          return ("id".equals(columns[(Integer) args[0] - 1]) ? Integer.class : String.class).getName();
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+    return (ResultSet) fake(ResultSet.class, new InvocationHandler() {
+      private int row;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("next".equals(name)) {
+          return ++row == 1;
+        } else if ("getMetaData".equals(name)) {
+          return metaData;
+        } else if ("getType".equals(name)) {
+          return ResultSet.TYPE_FORWARD_ONLY;
+        } else if (name.startsWith("get") && args != null && args.length == 1) {
+          String column = args[0] instanceof Integer ? columns[(Integer) args[0] - 1] : (String) args[0];
+          column = column.toLowerCase(Locale.ENGLISH);
+          if (!Arrays.asList(columns).contains(column)) {
+            return defaultValue(method.getReturnType());
+          } else if ("id".equals(column)) {
+            return 101;
+          }
+          return "email".equals(column) ? "jim@ibatis.apache.org" : "jim";
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static Object fake(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(EntityCacheExecutorTest.class.getClassLoader(), new Class<?>[] { type },
+        handler != null ? handler : new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
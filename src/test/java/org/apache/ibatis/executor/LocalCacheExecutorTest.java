@@ -0,0 +1,291 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.impl.BoundedLocalCache;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.domain.blog.Post;
+import org.apache.ibatis.executor.loader.ProxyFactory;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LocalCacheExecutorTest {
+
+  private static final String SELECT_BLOG = "select id, title from blog where id = ?";
+  private static final String SELECT_POSTS = "select id, subject, blog_id from post where blog_id = ?";
+
+  private final Configuration configuration = new Configuration();
+  //执行过的sql
+  private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void shouldNotKeepResultsOfStatementsWithoutLocalCache() throws Exception {
+    MappedStatement selectBlog = addStatements(false);
+    BaseExecutor executor = newExecutor();
+    Blog blog = selectBlog(executor, selectBlog);
+    //帖子的blog是延迟加载的（循环引用），语句结束前要能从本地缓存里读到
+    assertSame(blog, blog.getPosts().get(0).getBlog());
+    assertSame(blog, blog.getPosts().get(1).getBlog());
+    assertEquals(0, executor.localCache.getSize());
+
+    assertNotSame(blog, selectBlog(executor, selectBlog));
+    assertEquals(Arrays.asList(SELECT_BLOG, SELECT_POSTS, SELECT_BLOG, SELECT_POSTS), executed);
+  }
+
+  @Test
+  public void shouldTrimOnlyAfterNestedAndDeferredLoads() throws Exception {
+    configuration.setLocalCacheSize(1);
+    MappedStatement selectBlog = addStatements(true);
+    BaseExecutor executor = newExecutor();
+    Blog blog = selectBlog(executor, selectBlog);
+    assertEquals(2, blog.getPosts().size());
+    assertSame(blog, blog.getPosts().get(0).getBlog());
+    assertSame(blog, blog.getPosts().get(1).getBlog());
+    assertEquals(1, executor.localCache.getSize());
+    assertEquals(1, ((BoundedLocalCache) executor.localCache).getEvictionCount());
+
+    //最近用的是博客本身，留下来的就是它
+    assertSame(blog, selectBlog(executor, selectBlog));
+    assertEquals(Arrays.asList(SELECT_BLOG, SELECT_POSTS), executed);
+  }
+
+  @Test
+  public void shouldTrackLazyLoadsUntilTheyAreLoaded() throws Exception {
+    configuration.setLazyLoadingEnabled(true);
+    final List<ResultLoaderMap> lazyLoaders = new ArrayList<ResultLoaderMap>();
+    //不生成代理，只记下延迟加载器，由测试来触发加载
+    configuration.setProxyFactory(new ProxyFactory() {
+      @Override
+      public void setProperties(Properties properties) {
+      }
+
+      @Override
+      public Object createProxy(Object target, ResultLoaderMap lazyLoader, Configuration configuration, ObjectFactory objectFactory,
+          List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
+        lazyLoaders.add(lazyLoader);
+        return target;
+      }
+    });
+    MappedStatement selectBlog = addStatements(true);
+    final BaseExecutor executor = newExecutor();
+    Blog blog = selectBlog(executor, selectBlog);
+    assertNull(blog.getPosts());
+    assertTrue(executor.hasPendingLazyLoads());
+
+    //别的线程加载时会另建执行器，不算
+    final boolean[] pendingOnOtherThread = new boolean[1];
+    Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        pendingOnOtherThread[0] = executor.hasPendingLazyLoads();
+      }
+    });
+    other.start();
+    other.join();
+    assertFalse(pendingOnOtherThread[0]);
+
+    lazyLoaders.get(0).loadAll();
+    assertEquals(2, blog.getPosts().size());
+    //帖子的博客在本地缓存里，直接取，没有要延迟加载的
+    assertSame(blog, blog.getPosts().get(0).getBlog());
+    assertFalse(executor.hasPendingLazyLoads());
+  }
+
+  private static Blog selectBlog(Executor executor, MappedStatement ms) throws Exception {
+    List<Object> blogs = executor.query(ms, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(1, blogs.size());
+    return (Blog) blogs.get(0);
+  }
+
+  //博客的帖子是嵌套查询，帖子的博客又查回同一个博客
+  private MappedStatement addStatements(boolean useLocalCache) {
+    List<ResultMapping> blogMappings = new ArrayList<ResultMapping>();
+    blogMappings.add(new ResultMapping.Builder(configuration, "id", "id", int.class)
+        .flags(Collections.singletonList(ResultFlag.ID)).build());
+    blogMappings.add(new ResultMapping.Builder(configuration, "title", "title", String.class).build());
+    blogMappings.add(new ResultMapping.Builder(configuration, "posts", "id", List.class).nestedQueryId("selectPosts").build());
+    ResultMap blogMap = new ResultMap.Builder(configuration, "blog", Blog.class, blogMappings).build();
+    List<ResultMapping> postMappings = new ArrayList<ResultMapping>();
+    postMappings.add(new ResultMapping.Builder(configuration, "id", "id", int.class)
+        .flags(Collections.singletonList(ResultFlag.ID)).build());
+    postMappings.add(new ResultMapping.Builder(configuration, "subject", "subject", String.class).build());
+    postMappings.add(new ResultMapping.Builder(configuration, "blog", "blog_id", Blog.class).nestedQueryId("selectBlog").build());
+    ResultMap postMap = new ResultMap.Builder(configuration, "post", Post.class, postMappings).build();
+
+    MappedStatement selectBlog = select("selectBlog", SELECT_BLOG, blogMap, useLocalCache);
+    configuration.addMappedStatement(selectBlog);
+    configuration.addMappedStatement(select("selectPosts", SELECT_POSTS, postMap, useLocalCache));
+    return selectBlog;
+  }
+
+  private MappedStatement select(String id, String sql, ResultMap resultMap, boolean useLocalCache) {
+    List<ParameterMapping> parameterMappings = Collections.singletonList(
+        new ParameterMapping.Builder(configuration, "id", Object.class).build());
+    return new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, sql, parameterMappings),
+        SqlCommandType.SELECT).resultMaps(Collections.singletonList(resultMap)).useLocalCache(useLocalCache).build();
+  }
+
+  private BaseExecutor newExecutor() {
+    return new SimpleExecutor(configuration, new JdbcTransaction(dataSource(), null, false));
+  }
+
+  private DataSource dataSource() {
+    return (DataSource) fake(DataSource.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return "getConnection".equals(method.getName()) ? connection() : defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private Connection connection() {
+    return (Connection) fake(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("prepareStatement".equals(name)) {
+          return statement((Connection) proxy, (String) args[0]);
+        } else if ("getMetaData".equals(name)) {
+          return fake(DatabaseMetaData.class, null);
+        } else if ("getAutoCommit".equals(name)) {
+          return false;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  //博客1有两个帖子
+  private PreparedStatement statement(final Connection connection, final String sql) {
+    return (PreparedStatement) fake(PreparedStatement.class, new InvocationHandler() {
+      private ResultSet resultSet;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("execute".equals(name)) {
+          executed.add(sql);
+          if (SELECT_BLOG.equals(sql)) {
+            resultSet = resultSet(new String[] { "id", "title" }, new Object[][] { { 1, "Blog" } });
+          } else {
+            resultSet = resultSet(new String[] { "id", "subject", "blog_id" }, new Object[][] { { 1, "first", 1 }, { 2, "second", 1 } });
+          }
+          return true;
+        } else if ("getResultSet".equals(name)) {
+          ResultSet rs = resultSet;
+          resultSet = null;
+          return rs;
+        } else if ("getUpdateCount".equals(name)) {
+          return -1;
+        } else if ("getConnection".equals(name)) {
+          return connection;
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static ResultSet resultSet(final String[] columns, final Object[][] rows) {
+    final ResultSetMetaData metaData = (ResultSetMetaData) fake(ResultSetMetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("getColumnCount".equals(name)) {
+          return columns.length;
+        } else if ("getColumnLabel".equals(name) || "getColumnName".equals(name)) {
+          return columns[(Integer) args[0] - 1];
+        } else if ("getColumnType".equals(name)) {
+          return rows[0][(Integer) args[0] - 1] instanceof Integer ? Types.INTEGER : Types.VARCHAR;
+        } else if ("getColumnClassName".equals(name)) {
+          return rows[0][(Integer) args[0] - 1].getClass().getName();
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+    return (ResultSet) fake(ResultSet.class, new InvocationHandler() {
+      private int row = -1;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("next".equals(name)) {
+          return ++row < rows.length;
+        } else if ("getMetaData".equals(name)) {
+          return metaData;
+        } else if ("getType".equals(name)) {
+          return ResultSet.TYPE_FORWARD_ONLY;
+        } else if (name.startsWith("get") && args != null && args.length == 1) {
+          int index = args[0] instanceof Integer ? (Integer) args[0] - 1
+              : Arrays.asList(columns).indexOf(((String) args[0]).toLowerCase(Locale.ENGLISH));
+          return index < 0 ? defaultValue(method.getReturnType()) : rows[row][index];
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static Object fake(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(LocalCacheExecutorTest.class.getClassLoader(), new Class<?>[] { type },
+        handler != null ? handler : new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,228 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MultiRowInsertTest {
+
+  //数据库生成的下一个主键
+  private int nextKey = 1;
+  //剩下几行的语句执行失败
+  private boolean failRemainder;
+
+  @Test
+  public void shouldSplitSingleRowOfValues() {
+    String[] parts = MultiRowInsert.splitValues("INSERT INTO author (id, username) VALUES (?, lower(?))");
+    assertEquals("INSERT INTO author (id, username) VALUES ", parts[0]);
+    assertEquals("(?, lower(?))", parts[1]);
+  }
+
+  @Test
+  public void shouldIgnoreValuesInLiterals() {
+    String[] parts = MultiRowInsert.splitValues("insert into note (id, text) values (?, 'values (x)')");
+    assertEquals("(?, 'values (x)')", parts[1]);
+  }
+
+  @Test
+  public void shouldNotSplitWhenSomethingFollowsTheRow() {
+    assertNull(MultiRowInsert.splitValues("insert into author (id) values (?) on duplicate key update id = id"));
+    assertNull(MultiRowInsert.splitValues("insert into author (id) values (?), (?)"));
+    assertNull(MultiRowInsert.splitValues("insert into author (id) values (?) returning id"));
+  }
+
+  @Test
+  public void shouldNotSplitWithoutValues() {
+    assertNull(MultiRowInsert.splitValues("insert into author (id) select id from writer where id = ?"));
+    assertNull(MultiRowInsert.splitValues("update author set values_count = ? where id = ?"));
+  }
+
+  @Test
+  public void shouldNotSplitWithPlaceholdersBeforeTheRow() {
+    assertNull(MultiRowInsert.splitValues("insert into author (id) with x as (select ? as y) values (?)"));
+  }
+
+  @Test
+  public void shouldAssignGeneratedKeysAcrossFullAndRemainingStatements() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setMultiRowInsertSize(2);
+    MappedStatement insertAuthor = insertAuthor(configuration);
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < 5; i++) {
+      Author author = new Author();
+      author.setUsername("author" + i);
+      authors.add(author);
+      executor.update(insertAuthor, author);
+    }
+    List<BatchResult> results = executor.flushStatements();
+    assertEquals("[1, 1, 1, 1, 1]", Arrays.toString(results.get(0).getUpdateCounts()));
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i + 1, authors.get(i).getId());
+    }
+  }
+
+  @Test
+  public void shouldReportFailureOfRemainingRowsAsBatchFailure() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setMultiRowInsertSize(2);
+    MappedStatement insertAuthor = insertAuthor(configuration);
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    parameterMappings.add(new ParameterMapping.Builder(configuration, "id", Integer.class).build());
+    MappedStatement updateOrder = new MappedStatement.Builder(configuration, "updateOrder",
+        new StaticSqlSource(configuration, "update orders set total = 0 where id = ?", parameterMappings), SqlCommandType.UPDATE).build();
+    BatchExecutor executor = new BatchExecutor(configuration, new JdbcTransaction(connection()));
+    executor.update(updateOrder, 1);
+    for (int i = 0; i < 3; i++) {
+      executor.update(insertAuthor, new Author());
+    }
+    failRemainder = true;
+    try {
+      executor.flushStatements();
+      fail("Should have failed");
+    } catch (BatchExecutorException e) {
+      assertTrue(e.getMessage().contains("batch index #2"));
+      assertEquals("insertAuthor", e.getFailingStatementId());
+      assertEquals(1, e.getSuccessfulBatchResults().size());
+      assertEquals("updateOrder", e.getSuccessfulBatchResults().get(0).getMappedStatement().getId());
+      //满行的语句已经插进去了
+      assertEquals("[1, 1]", Arrays.toString(e.getBatchUpdateException().getUpdateCounts()));
+      assertEquals("duplicate key", e.getBatchUpdateException().getCause().getMessage());
+    }
+  }
+
+  private static MappedStatement insertAuthor(Configuration configuration) {
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    parameterMappings.add(new ParameterMapping.Builder(configuration, "username", String.class).build());
+    return new MappedStatement.Builder(configuration, "insertAuthor",
+        new StaticSqlSource(configuration, "insert into author (username) values (?)", parameterMappings), SqlCommandType.INSERT)
+        .keyGenerator(new Jdbc3KeyGenerator()).keyProperty("id").build();
+  }
+
+  private Connection connection() {
+    return (Connection) fake(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("prepareStatement".equals(method.getName())) {
+          return statement((String) args[0]);
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  //每个?是一行，执行时按行生成主键
+  private PreparedStatement statement(final String sql) {
+    final int rows = sql.length() - sql.replace("?", "").length();
+    return (PreparedStatement) fake(PreparedStatement.class, new InvocationHandler() {
+      private int batched;
+      private final List<Integer> keys = new ArrayList<Integer>();
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+        String name = method.getName();
+        if ("addBatch".equals(name)) {
+          batched++;
+        } else if ("executeBatch".equals(name)) {
+          int[] counts = new int[batched];
+          Arrays.fill(counts, rows);
+          generateKeys(batched * rows);
+          batched = 0;
+          return counts;
+        } else if ("executeUpdate".equals(name)) {
+          if (failRemainder) {
+            throw new SQLException("duplicate key", "23000", 1062);
+          }
+          generateKeys(rows);
+          return rows;
+        } else if ("getGeneratedKeys".equals(name)) {
+          ResultSet rs = keys(new ArrayList<Integer>(keys));
+          keys.clear();
+          return rs;
+        }
+        return defaultValue(method.getReturnType());
+      }
+
+      private void generateKeys(int count) {
+        for (int i = 0; i < count; i++) {
+          keys.add(nextKey++);
+        }
+      }
+    });
+  }
+
+  private static ResultSet keys(final List<Integer> keys) {
+    final ResultSetMetaData metaData = (ResultSetMetaData) fake(ResultSetMetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return "getColumnCount".equals(method.getName()) ? 1 : defaultValue(method.getReturnType());
+      }
+    });
+    return (ResultSet) fake(ResultSet.class, new InvocationHandler() {
+      private int row = -1;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("next".equals(name)) {
+          return ++row < keys.size();
+        } else if ("getMetaData".equals(name)) {
+          return metaData;
+        } else if ("getInt".equals(name) || "getObject".equals(name)) {
+          return keys.get(row);
+        }
+        return defaultValue(method.getReturnType());
+      }
+    });
+  }
+
+  private static Object fake(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(MultiRowInsertTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
@@ -19,6 +19,7 @@ import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Test;
@@ -27,6 +28,9 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PooledDataSourceTest extends BaseDataTest {
 
@@ -85,4 +89,81 @@ public class PooledDataSourceTest extends BaseDataTest {
     Connection c = ds.getConnection();
     JDBCConnection realConnection = (JDBCConnection) PooledDataSource.unwrapConnection(c);
   }
+
+  @Test
+  public void shouldProperlyMaintainLockFreePoolOf3ActiveAnd2IdleConnections() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLockFree(true);
+      runScript(ds, JPETSTORE_DDL);
+      ds.setDefaultAutoCommit(false);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      ds.setPoolMaximumCheckoutTime(10000);
+      ds.setPoolPingConnectionsNotUsedFor(1);
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingQuery("SELECT * FROM PRODUCT");
+      ds.setPoolTimeToWait(10000);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(4, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+      assertEquals(0, ds.getPoolState().getClaimedOverdueConnectionCount());
+      assertNotNull(ds.getPoolState().toString());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandOffLockFreeConnectionsBetweenManyThreads() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ExecutorService executor = Executors.newFixedThreadPool(20);
+    try {
+      ds.setPoolLockFree(true);
+      ds.setPoolMaximumActiveConnections(5);
+      ds.setPoolMaximumIdleConnections(5);
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int i = 0; i < 20; i++) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < 50; j++) {
+                Connection c = ds.getConnection();
+                try {
+                  assertTrue(ds.getPoolState().getActiveConnectionCount() <= 5);
+                  c.getAutoCommit();
+                } finally {
+                  c.close();
+                }
+              }
+            } catch (Exception e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      assertEquals(1000, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 5);
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getWaitingThreadCount());
+    } finally {
+      executor.shutdown();
+      ds.forceCloseAll();
+    }
+  }
 }
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class DefaultReflectorFactoryTest {
+
+  @Test
+  public void shouldCacheReflectorsAndCountHitsAndMisses() {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    Reflector first = factory.findForClass(Bean.class);
+    Reflector second = factory.findForClass(Bean.class);
+    assertSame(first, second);
+    assertEquals(1, factory.getMissCount());
+    assertEquals(1, factory.getHitCount());
+    assertEquals(1, factory.getCachedClassCount());
+  }
+
+  @Test
+  public void shouldNotCacheWhenClassCacheIsDisabled() {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    factory.setClassCacheEnabled(false);
+    assertNotSame(factory.findForClass(Bean.class), factory.findForClass(Bean.class));
+    assertEquals(0, factory.getCachedClassCount());
+  }
+
+  @Test
+  public void shouldRespectMaximumSize() {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    factory.setMaximumSize(1);
+    factory.findForClass(Bean.class);
+    factory.findForClass(String.class);
+    assertEquals(1, factory.getCachedClassCount());
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedClass() {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    factory.setMaximumSize(2);
+    Reflector bean = factory.findForClass(Bean.class);
+    factory.findForClass(String.class);
+    factory.findForClass(Bean.class);
+    factory.findForClass(Integer.class);
+    assertEquals(2, factory.getCachedClassCount());
+    assertSame(bean, factory.findForClass(Bean.class));
+    assertEquals(3, factory.getMissCount());
+    factory.findForClass(String.class);
+    assertEquals(4, factory.getMissCount());
+  }
+
+  @Test
+  public void shouldKeepReflectionMetadataPerConfiguration() {
+    Configuration first = new Configuration();
+    Configuration second = new Configuration();
+    Bean bean = new Bean();
+    first.newMetaObject(bean).setValue("name", "a");
+    assertEquals("a", bean.getName());
+    assertEquals(1, ((DefaultReflectorFactory) first.getReflectorFactory()).getCachedClassCount());
+    assertEquals(0, ((DefaultReflectorFactory) second.getReflectorFactory()).getCachedClassCount());
+    assertSame(first.getReflectorFactory(), first.newMetaObject(bean).getReflectorFactory());
+  }
+
+  @Test
+  public void shouldNotKeepClassesOfOtherClassLoadersAlive() throws Exception {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    WeakReference<Class<?>> type = loadInOwnClassLoader(factory);
+    for (int i = 0; i < 100 && type.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(type.get());
+    assertEquals(0, factory.getCachedClassCount());
+  }
+
+  @Test
+  public void shouldHoldReflectorsOfOwnClassesStrongly() {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    Reflector reflector = factory.findForClass(Bean.class);
+    System.gc();
+    assertSame(reflector, factory.findForClass(Bean.class));
+  }
+
+  @Test
+  public void shouldKeepReflectorsOfOtherClassLoadersWhileTheirClassIsAlive() throws Exception {
+    DefaultReflectorFactory factory = new DefaultReflectorFactory();
+    URL location = Bean.class.getProtectionDomain().getCodeSource().getLocation();
+    Class<?> type = new URLClassLoader(new URL[] { location }, null).loadClass(Bean.class.getName());
+    Reflector reflector = factory.findForClass(type);
+    WeakReference<Reflector> weakReflector = new WeakReference<Reflector>(reflector);
+    reflector = null;
+    System.gc();
+    assertSame(weakReflector.get(), factory.findForClass(type));
+    assertEquals(1, factory.getMissCount());
+    assertEquals(1, factory.getHitCount());
+  }
+
+  //用单独的ClassLoader加载Bean，返回后ClassLoader就没有强引用了
+  private static WeakReference<Class<?>> loadInOwnClassLoader(DefaultReflectorFactory factory) throws Exception {
+    URL location = Bean.class.getProtectionDomain().getCodeSource().getLocation();
+    ClassLoader classLoader = new URLClassLoader(new URL[] { location }, null);
+    Class<?> type = classLoader.loadClass(Bean.class.getName());
+    assertNotSame(Bean.class, type);
+    factory.findForClass(type);
+    assertEquals(1, factory.getCachedClassCount());
+    return new WeakReference<Class<?>>(type);
+  }
+
+  public static class Bean {
+    private String name;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+
+}
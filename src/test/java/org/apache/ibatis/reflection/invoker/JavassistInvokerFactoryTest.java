@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.invoker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.apache.ibatis.reflection.invoker.javassist.GeneratedInvoker;
+import org.apache.ibatis.reflection.invoker.javassist.JavassistInvokerFactory;
+import org.junit.Test;
+
+public class JavassistInvokerFactoryTest {
+
+  private final InvokerFactory factory = new JavassistInvokerFactory();
+
+  @Test
+  public void shouldGenerateMethodInvokers() throws Exception {
+    Invoker setter = factory.createMethodInvoker(Bean.class.getMethod("setCount", int.class));
+    Invoker getter = factory.createMethodInvoker(Bean.class.getMethod("getCount"));
+    assertTrue(setter instanceof GeneratedInvoker);
+    assertTrue(getter instanceof GeneratedInvoker);
+    assertEquals(int.class, setter.getType());
+    assertEquals(int.class, getter.getType());
+    Bean bean = new Bean();
+    setter.invoke(bean, new Object[] { 5 });
+    assertEquals(5, bean.getCount());
+    assertEquals(5, getter.invoke(bean, null));
+  }
+
+  @Test
+  public void shouldGenerateInvokersForArraysAndObjects() throws Exception {
+    Bean bean = new Bean();
+    String[] tags = { "a", "b" };
+    factory.createMethodInvoker(Bean.class.getMethod("setTags", String[].class)).invoke(bean, new Object[] { tags });
+    factory.createMethodInvoker(Bean.class.getMethod("setName", String.class)).invoke(bean, new Object[] { "n" });
+    assertSame(tags, factory.createMethodInvoker(Bean.class.getMethod("getTags")).invoke(bean, null));
+    assertEquals("n", factory.createMethodInvoker(Bean.class.getMethod("getName")).invoke(bean, null));
+  }
+
+  @Test
+  public void shouldGenerateFieldInvokers() throws Exception {
+    Bean bean = new Bean();
+    Invoker setter = factory.createSetFieldInvoker(Bean.class.getField("flag"));
+    Invoker getter = factory.createGetFieldInvoker(Bean.class.getField("flag"));
+    assertTrue(setter instanceof GeneratedInvoker);
+    setter.invoke(bean, new Object[] { Boolean.TRUE });
+    assertEquals(Boolean.TRUE, getter.invoke(bean, null));
+  }
+
+  @Test
+  public void shouldWrapExceptionsLikeReflection() throws Exception {
+    Invoker setter = factory.createMethodInvoker(Bean.class.getMethod("setName", String.class));
+    try {
+      setter.invoke(new Bean(), new Object[] { null });
+      fail();
+    } catch (InvocationTargetException e) {
+      assertTrue(e.getTargetException() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test
+  public void shouldFallBackToReflectionForNonPublicMembers() throws Exception {
+    assertTrue(factory.createMethodInvoker(Bean.class.getDeclaredMethod("setSecret", String.class)) instanceof MethodInvoker);
+    assertTrue(factory.createMethodInvoker(Hidden.class.getMethod("getValue")) instanceof MethodInvoker);
+    assertTrue(factory.createGetFieldInvoker(Bean.class.getDeclaredField("secret")) instanceof GetFieldInvoker);
+  }
+
+  public static class Bean {
+    private int count;
+    private String name;
+    private String[] tags;
+    private String secret;
+    public boolean flag;
+
+    public int getCount() {
+      return count;
+    }
+
+    public void setCount(int count) {
+      this.count = count;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      if (name == null) {
+        throw new IllegalArgumentException("name");
+      }
+      this.name = name;
+    }
+
+    public String[] getTags() {
+      return tags;
+    }
+
+    public void setTags(String[] tags) {
+      this.tags = tags;
+    }
+
+    void setSecret(String secret) {
+      this.secret = secret;
+    }
+  }
+
+  static class Hidden {
+    public String getValue() {
+      return "hidden";
+    }
+  }
+
+}
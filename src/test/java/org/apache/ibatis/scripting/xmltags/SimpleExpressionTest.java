@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class SimpleExpressionTest {
+
+  private final Author author = new Author(1, "cbegin", null, "cbegin@apache.org", "N/A", Section.NEWS);
+
+  @Test
+  public void shouldCompileCommonTests() {
+    assertNotNull(SimpleExpression.compile("username != null and username != ''"));
+    assertNotNull(SimpleExpression.compile("(id gt 0 || bio == \"x\") && !favouriteSection.name.isEmpty()"));
+    assertNotNull(SimpleExpression.compile("list.size() > 0"));
+    assertNotNull(SimpleExpression.compile("not ordered"));
+  }
+
+  @Test
+  public void shouldLeaveOtherExpressionsToOgnl() {
+    assertNull(SimpleExpression.compile("'%' + name + '%'"));
+    assertNull(SimpleExpression.compile("type == 'A'"));
+    assertNull(SimpleExpression.compile("list[0] != null"));
+    assertNull(SimpleExpression.compile("@java.lang.Math@max(a, b)"));
+    assertNull(SimpleExpression.compile("name.trim() != ''"));
+    assertNull(SimpleExpression.compile("id = 1"));
+    assertNull(SimpleExpression.compile("010 == id"));
+    assertNull(SimpleExpression.compile("id in ids"));
+  }
+
+  @Test
+  public void shouldEvaluateAgainstBean() {
+    assertEquals(Boolean.TRUE, value("username != null and username != ''", author));
+    assertEquals(Boolean.TRUE, value("password == null", author));
+    assertEquals(Boolean.TRUE, value("id >= 1 && id lt 2.5", author));
+    assertEquals(Boolean.FALSE, value("not (username == 'cbegin')", author));
+    assertEquals(Integer.valueOf(6), value("username.length()", author));
+    assertEquals("cbegin@apache.org", value("password or email", author));
+  }
+
+  @Test
+  public void shouldEvaluateAgainstBindings() {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("ids", Arrays.asList(1, 2));
+    parameter.put("author", author);
+    DynamicContext context = new DynamicContext(new Configuration(), parameter);
+    context.bind("limit", 10L);
+    assertEquals(Boolean.TRUE, value("ids != null and ids.size() == 2", context.getBindings()));
+    assertEquals(Boolean.TRUE, value("author.favouriteSection == author.favouriteSection", context.getBindings()));
+    assertEquals(Boolean.TRUE, value("limit > 9", context.getBindings()));
+    assertEquals("cbegin", value("author.username", context.getBindings()));
+    assertEquals(Boolean.TRUE, value("_databaseId == null", context.getBindings()));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotCompareValuesThatNeedConversion() {
+    value("id == 'cbegin'", author);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotReadPropertyOfNull() {
+    value("password.length() > 0", author);
+  }
+
+  private static Object value(String expression, Object root) {
+    return SimpleExpression.compile(expression).getValue(root);
+  }
+
+}
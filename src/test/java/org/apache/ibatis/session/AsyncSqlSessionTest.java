@@ -0,0 +1,231 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.junit.Test;
+
+public class AsyncSqlSessionTest {
+
+  private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+  private boolean cursorClosed;
+  //查出还没加载的延迟加载对象的线程
+  private volatile Thread lazyLoadingThread;
+  private SqlSession session;
+
+  @Test
+  public void shouldRunAsyncOperationsInOrderOnAnotherThread() throws Exception {
+    SqlSession session = newSession();
+    CompletableFuture<Integer> updated = session.updateAsync("updateValue", "a");
+    CompletableFuture<List<String>> selected = session.selectListAsync("selectValue", "b");
+    CompletableFuture<String> selectedOne = session.selectOneAsync("selectValue", "c");
+
+    assertEquals(Integer.valueOf(1), updated.get());
+    assertEquals(Collections.singletonList("b"), selected.get());
+    assertEquals("c", selectedOne.get());
+    assertEquals("[update a, query b, query c]", log.toString());
+    session.close();
+  }
+
+  @Test
+  public void shouldWaitForAsyncOperationsBeforeBlockingCalls() throws Exception {
+    SqlSession session = newSession();
+    session.selectListAsync("selectValue", "slow");
+    session.selectList("selectValue", "sync");
+    session.commit();
+
+    assertEquals("[query slow, query sync, commit]", log.toString());
+    session.close();
+  }
+
+  @Test
+  public void shouldReportFailureInFuture() throws Exception {
+    SqlSession session = newSession();
+    Future<List<String>> failed = session.selectListAsync("selectValue", "fail");
+    Future<List<String>> next = session.selectListAsync("selectValue", "next");
+    try {
+      failed.get();
+      fail("Failure should be reported by the future.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof PersistenceException);
+    }
+    assertEquals(Collections.singletonList("next"), next.get());
+    session.close();
+  }
+
+  @Test
+  public void shouldRunMapperMethodsReturningFuture() throws Exception {
+    SqlSession session = newSession();
+    AsyncMapper mapper = session.getMapper(AsyncMapper.class);
+    Future<Boolean> updated = mapper.update("a");
+    Future<String[]> selected = mapper.select("b");
+
+    CompletableFuture<List<String>> selectedList = mapper.selectList("c");
+
+    assertEquals(Boolean.TRUE, updated.get());
+    assertEquals("[b]", java.util.Arrays.toString(selected.get()));
+    assertEquals(Collections.singletonList("c"), selectedList.join());
+    assertEquals("[update a, query b, query c]", log.toString());
+    session.close();
+  }
+
+  @Test
+  public void shouldFailWhenOperationWaitsForOperationOfSameSession() throws Exception {
+    SqlSession session = newSession();
+    //执行器在查询outer时等同一会话的异步查询
+    Future<List<Object>> outer = session.selectListAsync("selectValue", "outer");
+    try {
+      outer.get();
+      fail("Waiting for the own queue should fail instead of blocking forever.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getCause() instanceof SqlSessionException);
+    }
+    session.close();
+    assertEquals("[query inner]", log.toString());
+  }
+
+  @Test
+  public void shouldRefuseAsyncOperationsWhileCursorIsOpen() throws Exception {
+    SqlSession session = newSession();
+    Cursor<Object> cursor = session.selectCursor("selectValue", "sync");
+    try {
+      session.selectListAsync("selectValue", "b");
+      fail("Cursors read on the calling thread and must not share the connection with asynchronous operations.");
+    } catch (SqlSessionException e) {
+      // expected
+    }
+    cursor.close();
+    assertEquals(Collections.singletonList("b"), session.selectListAsync("selectValue", "b").get());
+    session.close();
+  }
+
+  @Test
+  public void shouldRefuseAsyncOperationsWhileLazyLoadedObjectsAreNotLoaded() throws Exception {
+    SqlSession session = newSession();
+    //异步操作查出来的对象在别的线程加载，不影响
+    assertEquals(Collections.singletonList("b"), session.selectListAsync("selectLazy", "b").get());
+    assertEquals(Collections.singletonList("c"), session.selectListAsync("selectValue", "c").get());
+    session.selectList("selectLazy", "sync");
+    try {
+      session.selectListAsync("selectValue", "d");
+      fail("Lazy loaded objects load on the calling thread and must not share the connection with asynchronous operations.");
+    } catch (SqlSessionException e) {
+      // expected
+    }
+    //都加载完了就可以了
+    lazyLoadingThread = null;
+    assertEquals(Collections.singletonList("d"), session.selectListAsync("selectValue", "d").get());
+    session.close();
+  }
+
+  public interface AsyncMapper {
+    Future<Boolean> update(String value);
+
+    Future<String[]> select(String value);
+
+    CompletableFuture<List<String>> selectList(String value);
+  }
+
+  private SqlSession newSession() {
+    Configuration configuration = new Configuration();
+    addStatement(configuration, "updateValue", SqlCommandType.UPDATE);
+    addStatement(configuration, "selectValue", SqlCommandType.SELECT);
+    addStatement(configuration, AsyncMapper.class.getName() + ".update", SqlCommandType.UPDATE);
+    addStatement(configuration, AsyncMapper.class.getName() + ".select", SqlCommandType.SELECT);
+    addStatement(configuration, AsyncMapper.class.getName() + ".selectList", SqlCommandType.SELECT);
+    configuration.addMapper(AsyncMapper.class);
+    //执行器把它的结果当作还没加载的延迟加载对象
+    addStatement(configuration, "selectLazy", SqlCommandType.SELECT);
+    session = new DefaultSqlSession(configuration, fakeExecutor());
+    return session;
+  }
+
+  private static void addStatement(Configuration configuration, String id, SqlCommandType type) {
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, "sql"), type).build());
+  }
+
+  private Executor fakeExecutor() {
+    final Thread caller = Thread.currentThread();
+    return (Executor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Executor.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("query".equals(name)) {
+          if ("fail".equals(args[1])) {
+            throw new IllegalStateException("fail");
+          } else if ("outer".equals(args[1])) {
+            return session.selectListAsync("selectValue", "inner").get();
+          } else if ("slow".equals(args[1])) {
+            Thread.sleep(100);
+          } else if ("selectLazy".equals(((MappedStatement) args[0]).getId())) {
+            lazyLoadingThread = Thread.currentThread();
+          }
+          log.add("query " + args[1]);
+          //同步调用在调用线程上执行，异步的不在
+          assertEquals("sync".equals(args[1]), Thread.currentThread() == caller);
+          return Collections.singletonList(args[1]);
+        } else if ("update".equals(name)) {
+          log.add("update " + args[1]);
+          assertNotSame(caller, Thread.currentThread());
+          return 1;
+        } else if ("commit".equals(name)) {
+          log.add("commit");
+        } else if ("queryCursor".equals(name)) {
+          return fakeCursor();
+        } else if ("hasPendingLazyLoads".equals(name)) {
+          return lazyLoadingThread == Thread.currentThread();
+        }
+        return null;
+      }
+    });
+  }
+
+  private Cursor<?> fakeCursor() {
+    return (Cursor<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Cursor.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("close".equals(name)) {
+          cursorClosed = true;
+        } else if ("isConsumed".equals(name)) {
+          return cursorClosed;
+        } else if ("isOpen".equals(name)) {
+          return !cursorClosed;
+        }
+        return null;
+      }
+    });
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.junit.Test;
+
+public class ConfigurationSnapshotTest {
+
+  private static final String CONFIG = "org/apache/ibatis/builder/MapperConfig.xml";
+
+  @Test
+  public void shouldRestoreMappersFromSnapshot() throws Exception {
+    Configuration parsed = new XMLConfigBuilder(Resources.getResourceAsStream(CONFIG)).parse();
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    ConfigurationSnapshot.write(parsed, 1L, snapshot);
+
+    Configuration restored = new XMLConfigBuilder(Resources.getResourceAsStream(CONFIG)).parseWithoutMappers();
+    assertTrue(restored.getMappedStatementNames().isEmpty());
+    assertTrue(ConfigurationSnapshot.read(restored, 1L, new ByteArrayInputStream(snapshot.toByteArray())));
+
+    assertEquals(new HashSet<String>(parsed.getMappedStatementNames()), new HashSet<String>(restored.getMappedStatementNames()));
+    assertEquals(new HashSet<String>(parsed.getResultMapNames()), new HashSet<String>(restored.getResultMapNames()));
+    assertEquals(new HashSet<String>(parsed.getParameterMapNames()), new HashSet<String>(restored.getParameterMapNames()));
+    assertEquals(new HashSet<String>(parsed.getCacheNames()), new HashSet<String>(restored.getCacheNames()));
+
+    MappedStatement cached = restored.getMappedStatement("com.domain.CachedAuthorMapper.selectAllAuthors");
+    assertSame(restored, cached.getConfiguration());
+    assertSame(restored.getCache("com.domain.CachedAuthorMapper"), cached.getCache());
+
+    Author author = new Author(101, "jim", null, "jim@ibatis.apache.org", null, null);
+    BoundSql expected = parsed.getMappedStatement("org.apache.ibatis.domain.blog.mappers.AuthorMapper.updateAuthorIfNecessary").getBoundSql(author);
+    BoundSql actual = restored.getMappedStatement("org.apache.ibatis.domain.blog.mappers.AuthorMapper.updateAuthorIfNecessary").getBoundSql(author);
+    assertEquals(expected.getSql(), actual.getSql());
+    assertEquals(expected.getParameterMappings().size(), actual.getParameterMappings().size());
+    assertSame(restored.getTypeHandlerRegistry().getTypeHandler(String.class), actual.getParameterMappings().get(0).getTypeHandler());
+  }
+
+  @Test
+  public void shouldNotRestoreSnapshotOfDifferentSource() throws Exception {
+    Configuration parsed = new XMLConfigBuilder(Resources.getResourceAsStream(CONFIG)).parse();
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    ConfigurationSnapshot.write(parsed, 1L, snapshot);
+
+    Configuration restored = new XMLConfigBuilder(Resources.getResourceAsStream(CONFIG)).parseWithoutMappers();
+    assertFalse(ConfigurationSnapshot.read(restored, 2L, new ByteArrayInputStream(snapshot.toByteArray())));
+    assertTrue(restored.getMappedStatementNames().isEmpty());
+  }
+
+  @Test
+  public void shouldNotRestoreSnapshotHoldingUnexpectedObjects() throws Exception {
+    Configuration parsed = new XMLConfigBuilder(Resources.getResourceAsStream(CONFIG)).parse();
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    ConfigurationSnapshot.write(parsed, 1L, snapshot);
+    ObjectInputStream header = new ObjectInputStream(new ByteArrayInputStream(snapshot.toByteArray()));
+
+    //头部都对，但本该是校验和Map的地方放了个字符串
+    ByteArrayOutputStream broken = new ByteArrayOutputStream();
+    ObjectOutputStream output = new ObjectOutputStream(broken);
+    output.writeInt(header.readInt());
+    output.writeInt(header.readInt());
+    output.writeLong(header.readLong());
+    output.writeLong(header.readLong());
+    output.writeObject(header.readObject());
+    output.writeObject(header.readObject());
+    output.writeObject("not a map");
+    output.close();
+
+    Configuration restored = new XMLConfigBuilder(Resources.getResourceAsStream(CONFIG)).parseWithoutMappers();
+    assertFalse(ConfigurationSnapshot.read(restored, 1L, new ByteArrayInputStream(broken.toByteArray())));
+    assertTrue(restored.getMappedStatementNames().isEmpty());
+  }
+
+  @Test
+  public void shouldNotRestoreSnapshotWhenScannedPackageGainsMapper() throws Exception {
+    File classes = File.createTempFile("mybatis", "classes");
+    classes.delete();
+    File source = new File(classes, "org/apache/ibatis/session/scanned");
+    source.mkdirs();
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    try {
+      compile(classes, new File(source, "FirstMapper.java"), "package org.apache.ibatis.session.scanned; public interface FirstMapper {}");
+      Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader()));
+      Configuration parsed = new Configuration();
+      parsed.addMappers("org.apache.ibatis.session.scanned");
+      ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+      ConfigurationSnapshot.write(parsed, 1L, snapshot);
+      assertTrue(ConfigurationSnapshot.read(new Configuration(), 1L, new ByteArrayInputStream(snapshot.toByteArray())));
+
+      compile(classes, new File(source, "SecondMapper.java"), "package org.apache.ibatis.session.scanned; public interface SecondMapper {}");
+      assertFalse(ConfigurationSnapshot.read(new Configuration(), 1L, new ByteArrayInputStream(snapshot.toByteArray())));
+    } finally {
+      Thread.currentThread().setContextClassLoader(contextClassLoader);
+      delete(classes);
+    }
+  }
+
+  private static void compile(File classes, File source, String code) throws Exception {
+    Writer writer = new FileWriter(source);
+    try {
+      writer.write(code);
+    } finally {
+      writer.close();
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, compiler.run(null, null, null, "-d", classes.getPath(), source.getPath()));
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  @Test
+  public void shouldWriteSnapshotOnFirstBuildAndReadItOnTheNext() throws Exception {
+    File snapshotFile = File.createTempFile("mybatis", ".snapshot");
+    snapshotFile.delete();
+    try {
+      SqlSessionFactory first = new SqlSessionFactoryBuilder().build(Resources.getResourceAsStream(CONFIG), snapshotFile);
+      assertTrue(snapshotFile.isFile());
+      SqlSessionFactory second = new SqlSessionFactoryBuilder().build(Resources.getResourceAsStream(CONFIG), snapshotFile);
+      assertEquals(new HashSet<String>(first.getConfiguration().getMappedStatementNames()),
+          new HashSet<String>(second.getConfiguration().getMappedStatementNames()));
+    } finally {
+      snapshotFile.delete();
+    }
+  }
+
+}